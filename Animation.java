@@ -0,0 +1,252 @@
+/*
+ * Animation.java
+ * 26/10/19
+ *
+ * University of Applied Sciences
+ * Bingen, Germany
+ *
+ * FPro Project "Jaytracer"
+ *
+ * Author:
+ * M S
+ *
+ */
+package de.fhbingen.fpro.jaytracer;
+
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.vecmath.Matrix4d;
+import javax.vecmath.Point3d;
+import javax.vecmath.Vector3d;
+
+/**
+ * The keyframes of an animation. A keyframe sets the camera or the
+ * transformation of a named instance at a frame, the frames between two
+ * keyframes are interpolated linearly. Before the first and after the last
+ * keyframe the values of the nearest keyframe are used.
+ *
+ * @author M S
+ */
+public final class Animation {
+
+    /** The number of frames */
+    private final int frameCount;
+
+    /** The camera keyframes by frame */
+    private final TreeMap<Integer, CameraKey> cameraKeys = new TreeMap<Integer, CameraKey>();
+
+    /** The transformation keyframes of the animated instances by frame */
+    private final Map<Instance, TreeMap<Integer, Transform>> instanceKeys = new IdentityHashMap<Instance, TreeMap<Integer, Transform>>();
+
+    /**
+     * Creates an animation without keyframes.
+     * @param frameCount The number of frames.
+     */
+    public Animation(int frameCount) {
+        this.frameCount = frameCount;
+    }
+
+    /**
+     * @return the number of frames.
+     */
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * @return <code>true</code>, if the instances are animated.
+     */
+    public boolean hasInstanceKeys() {
+        return !instanceKeys.isEmpty();
+    }
+
+    /**
+     * Adds a camera keyframe. An attribute, which is <code>null</code>, is
+     * taken from the scene's camera.
+     * @param frame The frame.
+     * @param position The camera's position or <code>null</code>.
+     * @param direction The camera's direction or <code>null</code>.
+     * @param up The camera's up vector or <code>null</code>.
+     * @param vFov The vertical field of view (in degrees) or <code>NaN</code>.
+     */
+    void addCameraKey(int frame, Point3d position, Vector3d direction, Vector3d up, double vFov) {
+        cameraKeys.put(frame, new CameraKey(position, direction, up, vFov));
+    }
+
+    /**
+     * Adds a transformation keyframe of an instance.
+     * @param instance The instance of the scene.
+     * @param frame The frame.
+     * @param transform The transformation of the instance's prototype.
+     */
+    void addInstanceKey(Instance instance, int frame, Transform transform) {
+        TreeMap<Integer, Transform> keys = instanceKeys.get(instance);
+        if(keys == null) {
+            keys = new TreeMap<Integer, Transform>();
+            instanceKeys.put(instance, keys);
+        }
+        keys.put(frame, transform);
+    }
+
+    /**
+     * Creates the camera of a frame.
+     * @param frame The frame.
+     * @param camera The scene's camera, which supplies the attributes, that are not keyed.
+     * @return the camera or the scene's camera, if there are no camera keyframes.
+     */
+    public Camera getCamera(int frame, Camera camera) {
+        if(cameraKeys.isEmpty()) {
+            return camera;
+        }
+        Map.Entry<Integer, CameraKey> before = cameraKeys.floorEntry(frame);
+        Map.Entry<Integer, CameraKey> after = cameraKeys.ceilingEntry(frame);
+        if(before == null) {
+            before = after;
+        } else if(after == null) {
+            after = before;
+        }
+        double t = weight(frame, before.getKey(), after.getKey());
+        CameraKey a = before.getValue();
+        CameraKey b = after.getValue();
+
+        Point3d position = new Point3d();
+        position.interpolate(choose(a.position, camera.getPosition()), choose(b.position, camera.getPosition()), t);
+        Vector3d direction = new Vector3d();
+        direction.interpolate(choose(a.direction, camera.getDirection()), choose(b.direction, camera.getDirection()), t);
+        Vector3d up = new Vector3d();
+        up.interpolate(choose(a.up, camera.getUp()), choose(b.up, camera.getUp()), t);
+        double fov = Math.toDegrees(camera.getVFov());
+        double vFov = lerp(Double.isNaN(a.vFov) ? fov : a.vFov, Double.isNaN(b.vFov) ? fov : b.vFov, t);
+        return new Camera(position, direction, up, vFov, camera.getAspect(), camera.getViewingPlaneDistance());
+    }
+
+    /**
+     * Computes the transformations of the animated instances at a frame.
+     * @param frame The frame.
+     * @return the transformations by instance in no particular order.
+     */
+    public Map<Instance, Matrix4d> getInstanceTransforms(int frame) {
+        Map<Instance, Matrix4d> transforms = new LinkedHashMap<Instance, Matrix4d>();
+        for(Map.Entry<Instance, TreeMap<Integer, Transform>> entry : instanceKeys.entrySet()) {
+            TreeMap<Integer, Transform> keys = entry.getValue();
+            Map.Entry<Integer, Transform> before = keys.floorEntry(frame);
+            Map.Entry<Integer, Transform> after = keys.ceilingEntry(frame);
+            if(before == null) {
+                before = after;
+            } else if(after == null) {
+                after = before;
+            }
+            double t = weight(frame, before.getKey(), after.getKey());
+            transforms.put(entry.getKey(), Transform.interpolate(before.getValue(), after.getValue(), t).getMatrix());
+        }
+        return transforms;
+    }
+
+    /**
+     * @return the position of the frame between two keyframes as a value from 0 to 1.
+     */
+    private static double weight(int frame, int first, int last) {
+        return first == last ? 0 : (double) (frame - first) / (last - first);
+    }
+
+    /**
+     * @return the keyed value or, if it is <code>null</code>, the default.
+     */
+    private static <T> T choose(T value, T defaultValue) {
+        return value != null ? value : defaultValue;
+    }
+
+    /**
+     * @return the linear interpolation between a and b.
+     */
+    private static double lerp(double a, double b, double t) {
+        return a + (b - a) * t;
+    }
+
+    /**
+     * A camera keyframe.
+     */
+    private static class CameraKey {
+
+        final Point3d position;
+
+        final Vector3d direction;
+
+        final Vector3d up;
+
+        final double vFov;
+
+        CameraKey(Point3d position, Vector3d direction, Vector3d up, double vFov) {
+            this.position = position;
+            this.direction = direction;
+            this.up = up;
+            this.vFov = vFov;
+        }
+    }
+
+    /**
+     * The transformation of an instance like in the scene file: scale, then
+     * rotate around the x, y and z axis (in degrees), then translate to the position.
+     */
+    static final class Transform {
+
+        final Vector3d position;
+
+        final Vector3d rotation;
+
+        final Vector3d scale;
+
+        /**
+         * Creates a transformation.
+         * @param position The translation.
+         * @param rotation The rotation around the x, y and z axis in degrees.
+         * @param scale The scale factors.
+         */
+        Transform(Vector3d position, Vector3d rotation, Vector3d scale) {
+            this.position = position;
+            this.rotation = rotation;
+            this.scale = scale;
+        }
+
+        /**
+         * @return the transformation matrix.
+         */
+        Matrix4d getMatrix() {
+            Matrix4d transform = new Matrix4d();
+            transform.setIdentity();
+            transform.m00 = scale.x;
+            transform.m11 = scale.y;
+            transform.m22 = scale.z;
+            Matrix4d rotate = new Matrix4d();
+            rotate.rotX(Math.toRadians(rotation.x));
+            transform.mul(rotate, transform);
+            rotate.rotY(Math.toRadians(rotation.y));
+            transform.mul(rotate, transform);
+            rotate.rotZ(Math.toRadians(rotation.z));
+            transform.mul(rotate, transform);
+            transform.m03 = position.x;
+            transform.m13 = position.y;
+            transform.m23 = position.z;
+            return transform;
+        }
+
+        /**
+         * @return the component-wise linear interpolation between two transformations.
+         */
+        static Transform interpolate(Transform a, Transform b, double t) {
+            if(t == 0) {
+                return a;
+            }
+            Vector3d position = new Vector3d();
+            position.interpolate(a.position, b.position, t);
+            Vector3d rotation = new Vector3d();
+            rotation.interpolate(a.rotation, b.rotation, t);
+            Vector3d scale = new Vector3d();
+            scale.interpolate(a.scale, b.scale, t);
+            return new Transform(position, rotation, scale);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * AnimationRenderer.java
+ * 26/10/19
+ *
+ * University of Applied Sciences
+ * Bingen, Germany
+ *
+ * FPro Project "Jaytracer"
+ *
+ * Author:
+ * M S
+ *
+ */
+package de.fhbingen.fpro.jaytracer;
+
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.vecmath.Matrix4d;
+
+/**
+ * Renders the frames of a scene's {@link Animation} into a numbered sequence of
+ * images, e.g. <code>out_0000.png</code>, <code>out_0001.png</code>, ...<br/>
+ * <br/>
+ * The scene is loaded and its hierarchy is built once for all frames. For every
+ * frame the camera is replaced and only the animated instances are moved in
+ * the hierarchy (see {@link Scene#moveSceneObject(SceneObject, SceneObject)}),
+ * the static objects stay where they are. The frames are pipelined: while a
+ * frame is traced, the image of the previous frame is encoded by a second
+ * thread. The threads are connected by a queue with room for
+ * {@link #QUEUE_SIZE} frames.
+ *
+ * @author M S
+ */
+final class AnimationRenderer {
+
+    /** The maximum number of traced frames, which wait for the encoder */
+    static final int QUEUE_SIZE = 2;
+
+    /** The scene */
+    private final Scene scene;
+
+    /** The scene's animation */
+    private final Animation animation;
+
+    /** The scene's camera, which supplies the attributes, that are not keyed */
+    private final Camera camera;
+
+    /** The animated instances of the scene file and their current replacements in the scene */
+    private final Map<Instance, Instance> instances = new IdentityHashMap<Instance, Instance>();
+
+    /** Path to the image files without frame number and extension */
+    private final String imageFile;
+
+    /** The ray generator's parameters */
+    private final int width;
+    private final int height;
+    private final int ttl;
+    private final int ss;
+    private int packetSize = 1;
+    private int tileSize = 0;
+
+    /** Marks the end of the frames in the queue */
+    private static final Frame END = new Frame(-1);
+
+    /**
+     * Creates a renderer for the animation of a loaded scene.
+     * @param scene The loaded scene with an animation.
+     * @param imageFile Path to the image files without frame number and extension.
+     * @param width X resolution.
+     * @param height Y resolution.
+     * @param ttl Recursion depth.
+     * @param ss Super sampling mode.
+     * @throws IllegalArgumentException If the scene has no animation or no camera.
+     */
+    AnimationRenderer(Scene scene, String imageFile, int width, int height, int ttl, int ss) {
+        if(scene.getAnimation() == null || scene.getCamera() == null) {
+            throw new IllegalArgumentException(scene.getCamera() == null ? "scene has no camera" : "scene has no animation");
+        }
+        this.scene = scene;
+        this.animation = scene.getAnimation();
+        this.camera = scene.getCamera();
+        this.imageFile = imageFile;
+        this.width = width;
+        this.height = height;
+        this.ttl = ttl;
+        this.ss = ss;
+    }
+
+    /**
+     * Sets the width and height of the pixel packets (see {@link RayGenerator#setPacketSize(int)}).
+     * @param packetSize
+     */
+    void setPacketSize(int packetSize) {
+        this.packetSize = packetSize;
+    }
+
+    /**
+     * Sets the size of the wavefront tiles (see {@link RayGenerator#setWavefrontTileSize(int)}).
+     * @param tileSize
+     */
+    void setWavefrontTileSize(int tileSize) {
+        this.tileSize = tileSize;
+    }
+
+    /**
+     * Renders a range of frames and prints the frame rate.
+     * @param first The first frame.
+     * @param last The last frame.
+     * @throws IOException If an image can not be written.
+     * @throws InterruptedException If the thread is interrupted.
+     * @throws IllegalArgumentException If the range is not in the animation.
+     */
+    void run(int first, int last) throws IOException, InterruptedException {
+        if(first < 0 || last < first || last >= animation.getFrameCount()) {
+            throw new IllegalArgumentException("frames "+first+"-"+last+" are not in the animation of "
+                    +animation.getFrameCount()+" frames");
+        }
+        final BlockingQueue<Frame> traced = new ArrayBlockingQueue<Frame>(QUEUE_SIZE);
+        // the first error of the encoder, it keeps taking frames, so the queue never blocks the tracing
+        final AtomicReference<Exception> error = new AtomicReference<Exception>();
+        long start = System.nanoTime();
+
+        Thread encoder = new Thread("animation encoder") {
+            public void run() {
+                try {
+                    ImageOutput output = new ImageOutput();
+                    Frame frame;
+                    while((frame = traced.take()) != END) {
+                        if(error.get() != null) {
+                            continue;
+                        }
+                        long begin = System.nanoTime();
+                        String file = getFrameFile(imageFile, frame.number);
+                        try {
+                            output.writePNG(frame.pixelMap, file);
+                        } catch (IOException e) {
+                            error.set(e);
+                            continue;
+                        } catch (RuntimeException e) {
+                            error.set(e);
+                            continue;
+                        }
+                        System.out.println("frame "+frame.number+": "+file+".png (setup "+frame.setupTime/1000000
+                                +" ms, render "+frame.renderTime/1000000+" ms, encode "+(System.nanoTime() - begin)/1000000+" ms)");
+                    }
+                } catch (InterruptedException e) {
+                    // the animation is cancelled
+                }
+            }
+        };
+        encoder.start();
+        try {
+            for(int number = first; number <= last && error.get() == null; number++) {
+                Frame frame = new Frame(number);
+                long begin = System.nanoTime();
+                setFrame(number);
+                frame.setupTime = System.nanoTime() - begin;
+                RayGenerator generator = new RayGenerator(scene, width, height, ttl, ss);
+                generator.setPacketSize(packetSize);
+                generator.setWavefrontTileSize(tileSize);
+                generator.setVerbose(false);
+                generator.run();
+                frame.pixelMap = generator.getPixelMap();
+                frame.renderTime = System.nanoTime() - begin - frame.setupTime;
+                traced.put(frame);
+            }
+            traced.put(END);
+            encoder.join();
+        } finally {
+            encoder.interrupt();
+            scene.setCamera(camera);
+        }
+        if(error.get() instanceof IOException) {
+            throw (IOException) error.get();
+        } else if(error.get() != null) {
+            throw (RuntimeException) error.get();
+        }
+
+        int frames = last - first + 1;
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println("Animation: "+frames+" frames in "+Math.round(seconds)+" s, "
+                +Math.round(frames / seconds * 100) / 100.0+" frames/s");
+        if(scene instanceof RegularGridScene) {
+            System.out.println("grid rebuilds: "+((RegularGridScene) scene).getRebuildCount());
+        }
+    }
+
+    /**
+     * Sets the camera of a frame and moves the animated instances.
+     * @param frame The frame.
+     */
+    private void setFrame(int frame) {
+        scene.setCamera(animation.getCamera(frame, camera));
+        for(Map.Entry<Instance, Matrix4d> entry : animation.getInstanceTransforms(frame).entrySet()) {
+            Instance original = entry.getKey();
+            Instance current = instances.get(original);
+            if(current == null) {
+                current = original;
+            }
+            if(current.getTransform().equals(entry.getValue())) {
+                continue;
+            }
+            Instance moved = new Instance(original.getPrototype(), entry.getValue());
+            scene.moveSceneObject(current, moved);
+            instances.put(original, moved);
+        }
+    }
+
+    /**
+     * @return the path to the image file of a frame without extension.
+     */
+    static String getFrameFile(String imageFile, int frame) {
+        return imageFile + String.format("_%04d", frame);
+    }
+
+    /**
+     * A frame and its state in the pipeline.
+     */
+    private static class Frame {
+
+        /** The frame number */
+        final int number;
+
+        /** The traced image, until it is encoded */
+        int[][] pixelMap;
+
+        /** The time of the stages in nanoseconds */
+        long setupTime;
+        long renderTime;
+
+        Frame(int number) {
+            this.number = number;
+        }
+    }
+}
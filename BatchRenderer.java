@@ -0,0 +1,351 @@
+/*
+ * BatchRenderer.java
+ * 26/10/19
+ *
+ * University of Applied Sciences
+ * Bingen, Germany
+ *
+ * FPro Project "Jaytracer"
+ *
+ * Author:
+ * M S
+ *
+ */
+package de.fhbingen.fpro.jaytracer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.vecmath.Point3d;
+import javax.vecmath.Vector3d;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Renders the jobs of a manifest in one JVM. Every line of the manifest is a
+ * job with a scene file, an image file and the options of {@link Jaytracer}
+ * (-R, -TTL, -S, -G, -P and -W), e.g.<br/>
+ * <code>shots/chair.xml out/chair_front -R 640x480 -G -50,-50,-50x100,100,100x20</code><br/>
+ * Empty lines and lines, which start with <code>#</code>, are skipped. Relative
+ * paths are resolved against the directory of the manifest.<br/>
+ * <br/>
+ * The jobs are pipelined in three stages with their own threads: the scene of
+ * the next job is parsed and its hierarchy is built, while the current job is
+ * traced and the image of the previous job is encoded. The stages are connected
+ * by queues with room for one job, so at most three scenes are in memory.
+ * Consecutive jobs with the same scene file and grid share the built scene, and
+ * the meshes of mesh files are shared by all scenes (see {@link MeshCache}).
+ *
+ * @author M S
+ */
+final class BatchRenderer {
+
+    /** The maximum number of cached mesh files */
+    static final int MESH_CACHE_SIZE = 32;
+
+    /** The jobs of the manifest */
+    private final List<Job> jobs;
+
+    /** The mesh files of the scenes */
+    private final MeshCache meshCache = new MeshCache(MESH_CACHE_SIZE);
+
+    /** Marks the end of the jobs in the queues */
+    private static final Job END = new Job();
+
+    /**
+     * Reads a manifest.
+     * @param manifest Path to the manifest.
+     * @throws IOException If the manifest is not readable.
+     * @throws IllegalArgumentException If a line of the manifest is malformed.
+     */
+    BatchRenderer(String manifest) throws IOException {
+        jobs = readManifest(manifest);
+    }
+
+    /**
+     * Renders all jobs and prints the throughput. A job, whose scene file can not
+     * be loaded, which fails while it is traced or whose image can not be
+     * written, is reported and skipped.
+     * @return the number of failed jobs.
+     * @throws InterruptedException If the thread is interrupted.
+     */
+    int run() throws InterruptedException {
+        final BlockingQueue<Job> parsed = new ArrayBlockingQueue<Job>(1);
+        final BlockingQueue<Job> traced = new ArrayBlockingQueue<Job>(1);
+        final int[] failed = new int[1];
+        long start = System.nanoTime();
+
+        Thread parser = new Thread("batch parser") {
+            public void run() {
+                try {
+                    Job previous = null;
+                    Scene previousScene = null;
+                    for(Job job : jobs) {
+                        long begin = System.nanoTime();
+                        if(previousScene != null && job.isSameScene(previous)) {
+                            job.scene = previousScene;
+                        } else {
+                            try {
+                                job.scene = load(job);
+                            } catch (SAXException e) {
+                                job.error = "Malformed Scenefile: "+e.getMessage();
+                            } catch (IOException e) {
+                                job.error = "I/O error: "+e.getMessage();
+                            } catch (RuntimeException e) {
+                                job.error = "Raytracer error: "+e;
+                            }
+                        }
+                        job.parseTime = System.nanoTime() - begin;
+                        previous = job;
+                        previousScene = job.scene;
+                        parsed.put(job);
+                    }
+                    parsed.put(END);
+                } catch (InterruptedException e) {
+                    // the batch is cancelled
+                }
+            }
+        };
+        Thread encoder = new Thread("batch encoder") {
+            public void run() {
+                try {
+                    ImageOutput output = new ImageOutput();
+                    int done = 0;
+                    Job job;
+                    while((job = traced.take()) != END) {
+                        long begin = System.nanoTime();
+                        if(job.error == null) {
+                            try {
+                                output.writePNG(job.pixelMap, job.image);
+                            } catch (IOException e) {
+                                job.error = "I/O error: "+e.getMessage();
+                            } catch (RuntimeException e) {
+                                job.error = "Raytracer error: "+e;
+                            }
+                        }
+                        job.pixelMap = null;
+                        done++;
+                        if(job.error != null) {
+                            failed[0]++;
+                            System.out.println("job "+done+"/"+jobs.size()+" failed: "+job.scenePath+": "+job.error);
+                        } else {
+                            System.out.println("job "+done+"/"+jobs.size()+": "+job.image+" (parse "+job.parseTime/1000000
+                                    +" ms, render "+job.renderTime/1000000+" ms, encode "+(System.nanoTime() - begin)/1000000+" ms)");
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    // the batch is cancelled
+                }
+            }
+        };
+        parser.start();
+        encoder.start();
+        try {
+            Job job;
+            while((job = parsed.take()) != END) {
+                long begin = System.nanoTime();
+                if(job.error == null) {
+                    try {
+                        RayGenerator generator = new RayGenerator(job.scene, job.width, job.height, job.ttl, job.ss);
+                        generator.setPacketSize(job.packetSize);
+                        generator.setWavefrontTileSize(job.tileSize);
+                        generator.setVerbose(false);
+                        generator.run();
+                        job.pixelMap = generator.getPixelMap();
+                    } catch (RuntimeException e) {
+                        job.error = "Raytracer error: "+e;
+                    }
+                }
+                job.scene = null;
+                job.renderTime = System.nanoTime() - begin;
+                traced.put(job);
+            }
+            traced.put(END);
+            encoder.join();
+        } finally {
+            parser.interrupt();
+            encoder.interrupt();
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println("Batch: "+jobs.size()+" jobs ("+failed[0]+" failed) in "+Math.round(seconds)+" s, "
+                +Math.round(jobs.size() * 3600 / seconds)+" jobs/hour, mesh files read: "+meshCache.getMisses()
+                +", reused: "+meshCache.getHits());
+        return failed[0];
+    }
+
+    /**
+     * Loads the scene of a job.
+     * @return the scene.
+     * @throws SAXException If the scene file is not valid.
+     * @throws IOException If the scene file is not readable.
+     */
+    private Scene load(Job job) throws SAXException, IOException {
+        Scene scene = job.grid == null ? new Scene() : new RegularGridScene(job.lower, job.size, job.cells);
+        new SceneFileLoader(scene, job.scenePath, 1, meshCache);
+        return scene;
+    }
+
+    /**
+     * Reads the jobs of a manifest.
+     * @param manifest Path to the manifest.
+     * @return the jobs.
+     * @throws IOException If the manifest is not readable.
+     * @throws IllegalArgumentException If a line of the manifest is malformed.
+     */
+    private static List<Job> readManifest(String manifest) throws IOException {
+        File directory = new File(manifest).getAbsoluteFile().getParentFile();
+        List<Job> jobs = new ArrayList<Job>();
+        BufferedReader in = new BufferedReader(new FileReader(manifest));
+        try {
+            String line;
+            int number = 0;
+            while((line = in.readLine()) != null) {
+                number++;
+                line = line.trim();
+                if(line.length() == 0 || line.startsWith("#")) {
+                    continue;
+                }
+                try {
+                    jobs.add(parseJob(line.split("\\s+"), directory));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("line "+number+": "+e.getMessage());
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return jobs;
+    }
+
+    /**
+     * Parses a job of the manifest.
+     * @param args The scene file, the image file and the options.
+     * @param directory The directory of the manifest.
+     * @return the job.
+     * @throws IllegalArgumentException If the job is malformed.
+     */
+    private static Job parseJob(String[] args, File directory) {
+        if(args.length < 2 || args.length % 2 != 0) {
+            throw new IllegalArgumentException("expected a scene file, an image file and pairs of options");
+        }
+        Job job = new Job();
+        job.scenePath = resolve(args[0], directory);
+        job.image = resolve(args[1], directory);
+        for(int i = 2; i < args.length; i += 2) {
+            String value = args[i+1];
+            if(args[i].equals("-R")) {
+                String[] tmp = value.split("x");
+                if(tmp.length != 2) {
+                    throw new IllegalArgumentException("malformed -R parameter");
+                }
+                job.width = parseInt(tmp[0], 1, "-R");
+                job.height = parseInt(tmp[1], 1, "-R");
+            } else if(args[i].equals("-TTL")) {
+                job.ttl = parseInt(value, 0, "-TTL");
+            } else if(args[i].equals("-S")) {
+                if(value.equals("OFF")) {
+                    job.ss = RayGenerator.NO_SUPERSAMPLING;
+                } else if(value.equals("ROTATED")) {
+                    job.ss = RayGenerator.ROTATED_GRID;
+                } else if(value.equals("ORDERED")) {
+                    job.ss = RayGenerator.ORDERD_GRID;
+                } else {
+                    throw new IllegalArgumentException("malformed -S parameter");
+                }
+            } else if(args[i].equals("-G")) {
+                String[] tmp = value.split("x");
+                if(tmp.length != 3) {
+                    throw new IllegalArgumentException("malformed -G parameter");
+                }
+                try {
+                    job.lower = Jaytracer.getPoint3dString(tmp[0]);
+                    job.size = new Vector3d(Jaytracer.getPoint3dString(tmp[1]));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("malformed -G parameter");
+                }
+                job.cells = parseInt(tmp[2], 1, "-G");
+                job.grid = value;
+            } else if(args[i].equals("-P")) {
+                job.packetSize = parseInt(value, 1, "-P");
+            } else if(args[i].equals("-W")) {
+                job.tileSize = parseInt(value, 1, "-W");
+            } else {
+                throw new IllegalArgumentException("unknown parameter "+args[i]);
+            }
+        }
+        return job;
+    }
+
+    /**
+     * @return the path resolved against the directory, if it is relative.
+     */
+    private static String resolve(String path, File directory) {
+        File file = new File(path);
+        return file.isAbsolute() ? path : new File(directory, path).getPath();
+    }
+
+    /**
+     * @return the value of an option, which must be at least the minimum.
+     * @throws IllegalArgumentException If the value is malformed.
+     */
+    private static int parseInt(String value, int minimum, String option) {
+        try {
+            int i = Integer.parseInt(value);
+            if(i >= minimum) {
+                return i;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("malformed "+option+" parameter");
+    }
+
+    /**
+     * A job of the manifest and its state in the pipeline.
+     */
+    private static class Job {
+
+        /** The scene file and the image file */
+        String scenePath;
+        String image;
+
+        /** The options */
+        int width = 800;
+        int height = 800;
+        int ttl = 5;
+        int ss = RayGenerator.NO_SUPERSAMPLING;
+        String grid;
+        Point3d lower;
+        Vector3d size;
+        int cells;
+        int packetSize = 1;
+        int tileSize = 0;
+
+        /** The built scene, until the job is traced */
+        Scene scene;
+
+        /** The traced image, until it is encoded */
+        int[][] pixelMap;
+
+        /** The reason, why the job failed, or <code>null</code> */
+        String error;
+
+        /** The time of the stages in nanoseconds */
+        long parseTime;
+        long renderTime;
+
+        /**
+         * @return <code>true</code>, if the job has the same scene file and grid as the other job.
+         */
+        boolean isSameScene(Job job) {
+            return scenePath.equals(job.scenePath) && (grid == null ? job.grid == null : grid.equals(job.grid));
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * BatchShader.java
+ * 26/10/19
+ *
+ * University of Applied Sciences
+ * Bingen, Germany
+ *
+ * FPro Project "Jaytracer"
+ *
+ * Author:
+ * M S
+ *
+ */
+package de.fhbingen.fpro.jaytracer;
+
+import java.util.List;
+
+import javax.vecmath.Color3f;
+import javax.vecmath.Point3d;
+import javax.vecmath.Vector3d;
+
+/**
+ * Shades hit records one after another for the shading pass of a
+ * {@link WavefrontRenderer}. It computes the same colors as {@link Shader}, but
+ * works on reused vectors and colors, so shading a hit allocates nothing, and it
+ * computes the attenuation of the lights without storing it in the lights.
+ *
+ * @author M S
+ */
+final class BatchShader {
+
+    /** The scene, which provides the ambient light */
+    private final Scene scene;
+
+    /** Work vectors */
+    private final Vector3d lightNormal = new Vector3d();
+    private final Vector3d reflected = new Vector3d();
+    private final Vector3d viewpoint = new Vector3d();
+
+    /** Work colors */
+    private final Color3f diffuseColor = new Color3f();
+    private final Color3f specularColor = new Color3f();
+    private final Color3f lightColor = new Color3f();
+
+    /**
+     * Creates a batch shader.
+     * @param scene The scene.
+     */
+    BatchShader(Scene scene) {
+        this.scene = scene;
+    }
+
+    /**
+     * Computes the color of a hit like {@link Shader#getColor()}.
+     * @param material The material of the intersected object.
+     * @param point The point of intersection.
+     * @param normal The surface normal.
+     * @param direction The direction of the ray.
+     * @param lights All lights of the scene.
+     * @param hitting The flags of the lights, that throw light on the point.
+     * @param offset The index of the flag of the first light.
+     * @param color Gets the color.
+     */
+    void shade(Material material, Point3d point, Vector3d normal, Vector3d direction,
+            List<Light> lights, boolean[] hitting, int offset, Color3f color) {
+        Color3f diffuse = material.getDiffuse();
+        Color3f specular = material.getSpecular();
+        Color3f ambient = material.getAmbient();
+        diffuseColor.set(0.0f, 0.0f, 0.0f);
+        specularColor.set(0.0f, 0.0f, 0.0f);
+        viewpoint.set(direction);
+        viewpoint.negate();
+
+        for(int l = 0; l < lights.size(); ++l) {
+            if(!hitting[offset + l]) {
+                continue;
+            }
+            Light light = lights.get(l);
+            float attenuation = light.getAttenuation(point);
+            lightNormal.set(light.getPosition());
+            lightNormal.sub(point);
+            lightNormal.normalize();
+
+            // the conditions are negated like in Shader, so NaN is treated the same
+            float lambda = (float) normal.dot(lightNormal);
+            if(!(lambda <= 0.0f)) {
+                multiply(light.getDiffuse(), diffuse, lightColor);
+                lightColor.scale(lambda);
+                lightColor.scale(attenuation);
+                diffuseColor.add(lightColor);
+            }
+
+            reflected.set(normal);
+            reflected.scale(2 * lightNormal.dot(normal));
+            reflected.sub(lightNormal);
+            double specFactor = reflected.dot(viewpoint);
+            if(!(specFactor <= 0)) {
+                multiply(light.getSpecular(), specular, lightColor);
+                lightColor.scale((float) Math.pow(specFactor, material.getShininess()));
+                lightColor.scale(attenuation);
+                specularColor.add(lightColor);
+            }
+        }
+
+        multiply(scene.getAmbientLight(), ambient, color);
+        diffuseColor.scale(1 - material.getReflectionCoefficient());
+        diffuseColor.scale(1 - material.getTransparency());
+        color.add(diffuseColor);
+        color.add(specularColor);
+    }
+
+    /**
+     * Multiplies two colors component by component like {@link VecmathAddon#mulColor3f(Color3f, Color3f)}.
+     * @param result Gets the product.
+     */
+    private static void multiply(Color3f c1, Color3f c2, Color3f result) {
+        result.set(c1.x*c2.x, c1.y*c2.y, c1.z*c2.z);
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * BinarySceneFile.java
+ * 26/10/19
+ *
+ * University of Applied Sciences
+ * Bingen, Germany
+ *
+ * FPro Project "Jaytracer"
+ *
+ * Author:
+ * M S
+ *
+ */
+package de.fhbingen.fpro.jaytracer;
+
+/**
+ * Constants of the binary scene file format, a compact alternative to the xml scene file.<br/>
+ * <br/>
+ * All values are little-endian. A file starts with the int magic "JTSB" and the int
+ * format version, followed by a sequence of records. Every record starts with a
+ * one byte tag and the long length of its payload, so readers can skip records
+ * they don't know. The last record is an END record.
+ * <pre>
+ * SCENE     float3 background color
+ * CAMERA    double3 position, double3 direction, double3 up,
+ *           double vfov (degrees), double aspect, double viewing plane distance
+ * LIGHT     double3 position, float3 ambient, float3 diffuse, float3 specular,
+ *           float intensity
+ * MATERIAL  float3 ambient, float3 diffuse, float3 specular, float3 emission,
+ *           float shininess, float transparency, float refraction index,
+ *           float reflection coefficient
+ * SPHERE    int material, double3 center, double radius
+ * PLANE     int material, double3 point, double3 normal
+ * BOX       int material, double3 lower, double3 size
+ * MESH      int material, int vertex count, int triangle count,
+ *           double3[vertex count] vertices, int3[triangle count] vertex indices
+ * END       (empty)
+ * </pre>
+ * Materials are numbered in the order of their MATERIAL records, starting with 0.
+ * Objects refer to a previously defined material by its number, -1 means no material.
+ * A MESH record contains indexed triangles, which share their vertices. The vertex
+ * order of a triangle defines its normal, like the vertex order of the xml triangle.
+ * Meshes are loaded as {@link TriangleMesh}.
+ * Boxes are loaded like xml boxes (as bounding boxes).
+ *
+ * @author M S
+ */
+public final class BinarySceneFile {
+
+    /** File magic "JTSB" */
+    public static final int MAGIC = 0x4253544A;
+
+    /** Format version */
+    public static final int VERSION = 1;
+
+    /** Record tags */
+    public static final byte END = 0;
+    public static final byte SCENE = 1;
+    public static final byte CAMERA = 2;
+    public static final byte LIGHT = 3;
+    public static final byte MATERIAL = 4;
+    public static final byte SPHERE = 5;
+    public static final byte PLANE = 6;
+    public static final byte BOX = 7;
+    public static final byte MESH = 8;
+
+    /** Size of a record header: tag and payload length */
+    static final int RECORD_HEADER_SIZE = 9;
+
+    /** No instances */
+    private BinarySceneFile() {
+    }
+
+    /**
+     * Checks if the given file header starts with the binary scene file magic.
+     * @param header The first bytes of a file.
+     * @param length The number of valid bytes.
+     * @return <code>true</code> if the header belongs to a binary scene file.
+     */
+    public static boolean isBinarySceneFile(byte[] header, int length) {
+        return length >= 4 && (header[0] & 0xFF | (header[1] & 0xFF) << 8
+                | (header[2] & 0xFF) << 16 | (header[3] & 0xFF) << 24) == MAGIC;
+    }
+}
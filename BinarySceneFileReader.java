@@ -0,0 +1,276 @@
+/*
+ * BinarySceneFileReader.java
+ * 26/10/19
+ *
+ * University of Applied Sciences
+ * Bingen, Germany
+ *
+ * FPro Project "Jaytracer"
+ *
+ * Author:
+ * M S
+ *
+ */
+package de.fhbingen.fpro.jaytracer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.vecmath.Color3f;
+import javax.vecmath.Point3d;
+import javax.vecmath.Vector3d;
+
+/**
+ * Streaming reader for binary scene files (see {@link BinarySceneFile}). The file is
+ * read through a fixed size buffer and the objects are added to the scene while
+ * reading, so even huge meshes don't have to fit into memory twice.
+ *
+ * @author M S
+ */
+public class BinarySceneFileReader {
+
+    /** Size of the read buffer */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** The scene that is build up from the file */
+    private Scene scene;
+
+    /** The source channel */
+    private ReadableByteChannel channel;
+
+    /** The read buffer */
+    private ByteBuffer buffer;
+
+    /** All materials read so far */
+    private List<Material> materials;
+
+    /**
+     * Creates a reader, that adds the content of binary scene files to the given scene.
+     * @param scene
+     */
+    public BinarySceneFileReader(Scene scene) {
+        this.scene = scene;
+    }
+
+    /**
+     * Reads a binary scene file.
+     * @param file Path to the scene file.
+     * @throws IOException If file is not readable.
+     * @throws SceneFileException If file is not a valid binary scene file.
+     */
+    public void read(String file) throws SceneFileException, IOException {
+        FileChannel fileChannel = FileChannel.open(new File(file).toPath(), StandardOpenOption.READ);
+        try {
+            read(fileChannel);
+        } finally {
+            fileChannel.close();
+        }
+    }
+
+    /**
+     * Reads a binary scene file from a channel.
+     * @param channel The source channel, it's not closed by this method.
+     * @throws IOException If channel is not readable.
+     * @throws SceneFileException If the content is not a valid binary scene file.
+     */
+    public void read(ReadableByteChannel channel) throws SceneFileException, IOException {
+        this.channel = channel;
+        buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.flip();
+        materials = new ArrayList<Material>();
+
+        require(8);
+        if(buffer.getInt() != BinarySceneFile.MAGIC) {
+            throw new SceneFileException("not a binary scene file");
+        }
+        int version = buffer.getInt();
+        if(version != BinarySceneFile.VERSION) {
+            throw new SceneFileException("unsupported binary scene file version: "+version);
+        }
+
+        while(true) {
+            require(BinarySceneFile.RECORD_HEADER_SIZE);
+            byte tag = buffer.get();
+            long length = buffer.getLong();
+            if(length < 0) {
+                throw new SceneFileException("malformed record length");
+            }
+            switch(tag) {
+                case BinarySceneFile.END:
+                    return;
+                case BinarySceneFile.SCENE:
+                    checkLength(tag, length, 12);
+                    scene.setBackgroundColor(getColor());
+                    break;
+                case BinarySceneFile.CAMERA:
+                    checkLength(tag, length, 96);
+                    if(scene.getCamera() != null) {
+                        throw new SceneFileException("multiple cameras - only one is allowed");
+                    }
+                    scene.setCamera(new Camera(getPoint(), getVector(), getVector(),
+                            buffer.getDouble(), buffer.getDouble(), buffer.getDouble()));
+                    break;
+                case BinarySceneFile.LIGHT:
+                    checkLength(tag, length, 64);
+                    Light light = new Light();
+                    light.setPosition(getPoint());
+                    light.setAmbient(getColor());
+                    light.setDiffuse(getColor());
+                    light.setSpecular(getColor());
+                    light.setIntensity(buffer.getFloat());
+                    scene.addLight(light);
+                    break;
+                case BinarySceneFile.MATERIAL:
+                    checkLength(tag, length, 64);
+                    Material material = new Material();
+                    material.setAmbient(getColor());
+                    material.setDiffuse(getColor());
+                    material.setSpecular(getColor());
+                    material.setEmission(getColor());
+                    material.setShininess(buffer.getFloat());
+                    material.setTransparency(buffer.getFloat());
+                    material.setRefractionIndex(buffer.getFloat());
+                    material.setReflectionCoefficient(buffer.getFloat());
+                    materials.add(material);
+                    break;
+                case BinarySceneFile.SPHERE:
+                    checkLength(tag, length, 36);
+                    Material sphereMaterial = getMaterial();
+                    addSceneObject(new Sphere(getPoint(), buffer.getDouble()), sphereMaterial);
+                    break;
+                case BinarySceneFile.PLANE:
+                    checkLength(tag, length, 52);
+                    Material planeMaterial = getMaterial();
+                    addSceneObject(new Plane(getPoint(), getVector()), planeMaterial);
+                    break;
+                case BinarySceneFile.BOX:
+                    checkLength(tag, length, 52);
+                    Material boxMaterial = getMaterial();
+                    addSceneObject(new BoundingBox(getPoint(), getVector()), boxMaterial);
+                    break;
+                case BinarySceneFile.MESH:
+                    readMesh(length);
+                    break;
+                default:
+                    skip(length);
+            }
+        }
+    }
+
+    /**
+     * Reads a mesh record and adds it as {@link TriangleMesh} to the scene.
+     * @param length The record length.
+     */
+    private void readMesh(long length) throws SceneFileException, IOException {
+        require(12);
+        Material material = getMaterial();
+        int vertexCount = buffer.getInt();
+        int triangleCount = buffer.getInt();
+        if(vertexCount < 0 || triangleCount < 0) {
+            throw new SceneFileException("malformed mesh record");
+        }
+        checkLength(BinarySceneFile.MESH, length, 12 + 24L * vertexCount + 12L * triangleCount);
+
+        double[] vertices = new double[3 * vertexCount];
+        for(int i = 0; i < vertices.length; ++i) {
+            require(8);
+            vertices[i] = buffer.getDouble();
+        }
+        int[] indices = new int[3 * triangleCount];
+        for(int i = 0; i < indices.length; ++i) {
+            require(4);
+            indices[i] = buffer.getInt();
+            if(indices[i] < 0 || indices[i] >= vertexCount) {
+                throw new SceneFileException("mesh vertex index out of range");
+            }
+        }
+        addSceneObject(new TriangleMesh(vertices, vertexCount, indices, triangleCount), material);
+    }
+
+    /**
+     * Assigns the material and adds the object to the scene.
+     */
+    private void addSceneObject(SceneObject s, Material material) {
+        if(material != null) {
+            s.setMaterial(material);
+        }
+        scene.addSceneObject(s);
+    }
+
+    /**
+     * Checks the length of a record and makes sure that the fixed size part of it
+     * is in the buffer.
+     */
+    private void checkLength(byte tag, long length, long expected) throws SceneFileException, IOException {
+        if(length != expected) {
+            throw new SceneFileException("malformed record "+tag+": length "+length+", expected "+expected);
+        }
+        if(tag != BinarySceneFile.MESH) {
+            require((int) length);
+        }
+    }
+
+    /**
+     * Makes sure that at least the given number of bytes is in the buffer.
+     * @throws SceneFileException If the end of the file is reached before.
+     */
+    private void require(int bytes) throws SceneFileException, IOException {
+        if(buffer.remaining() >= bytes) {
+            return;
+        }
+        buffer.compact();
+        while(buffer.position() < bytes) {
+            if(channel.read(buffer) == -1) {
+                throw new SceneFileException("unexpected end of binary scene file");
+            }
+        }
+        buffer.flip();
+    }
+
+    /**
+     * Skips the given number of bytes.
+     */
+    private void skip(long bytes) throws SceneFileException, IOException {
+        while(bytes > 0) {
+            if(!buffer.hasRemaining()) {
+                require(1);
+            }
+            int n = (int) Math.min(bytes, buffer.remaining());
+            buffer.position(buffer.position() + n);
+            bytes -= n;
+        }
+    }
+
+    /**
+     * Reads a material number and returns the material.
+     */
+    private Material getMaterial() throws SceneFileException {
+        int index = buffer.getInt();
+        if(index == -1) {
+            return null;
+        }
+        if(index < 0 || index >= materials.size()) {
+            throw new SceneFileException("undefined material: "+index);
+        }
+        return materials.get(index);
+    }
+
+    private Point3d getPoint() {
+        return new Point3d(buffer.getDouble(), buffer.getDouble(), buffer.getDouble());
+    }
+
+    private Vector3d getVector() {
+        return new Vector3d(buffer.getDouble(), buffer.getDouble(), buffer.getDouble());
+    }
+
+    private Color3f getColor() {
+        return new Color3f(buffer.getFloat(), buffer.getFloat(), buffer.getFloat());
+    }
+}
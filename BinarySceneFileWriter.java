@@ -0,0 +1,398 @@
+/*
+ * BinarySceneFileWriter.java
+ * 26/10/19
+ *
+ * University of Applied Sciences
+ * Bingen, Germany
+ *
+ * FPro Project "Jaytracer"
+ *
+ * Author:
+ * M S
+ *
+ */
+package de.fhbingen.fpro.jaytracer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.vecmath.Color3f;
+import javax.vecmath.Point3d;
+import javax.vecmath.Tuple3d;
+import javax.vecmath.Vector3d;
+
+/**
+ * Streaming writer for binary scene files (see {@link BinarySceneFile}). Records
+ * are written in the order of the method calls, through a fixed size buffer.
+ *
+ * @author M S
+ */
+public class BinarySceneFileWriter {
+
+    /** Size of the write buffer */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Maximum number of triangles in one mesh record written by {@link #write(Scene)} */
+    private static final int MAX_MESH_TRIANGLES = 1 << 20;
+
+    /** The target channel */
+    private WritableByteChannel channel;
+
+    /** The write buffer */
+    private ByteBuffer buffer;
+
+    /** Number of written materials */
+    private int materialCount = 0;
+
+    /**
+     * Creates a writer for the given file and writes the file header.
+     * @param file The target path.
+     * @throws IOException If the file can't be written.
+     */
+    public BinarySceneFileWriter(String file) throws IOException {
+        this(FileChannel.open(new File(file).toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+    }
+
+    /**
+     * Creates a writer for the given channel and writes the file header.
+     * @param channel The target channel, it is closed by {@link #close()}.
+     * @throws IOException If the channel can't be written.
+     */
+    public BinarySceneFileWriter(WritableByteChannel channel) throws IOException {
+        this.channel = channel;
+        buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        ensure(8);
+        buffer.putInt(BinarySceneFile.MAGIC);
+        buffer.putInt(BinarySceneFile.VERSION);
+    }
+
+    /**
+     * Writes a complete scene. All objects of the scene's object list are written
+     * in their order, consecutive triangles with equal materials are combined to
+     * indexed meshes and the triangles of a {@link TriangleMesh} are written as
+     * their mesh. Materials with equal properties are written only once.
+     * @param scene The scene to write.
+     * @throws IOException If the scene can't be written, e.g. it has an animation,
+     * which the format does not contain.
+     */
+    public void write(Scene scene) throws IOException {
+        if(scene.getAnimation() != null) {
+            throw new IOException("scenes with animations can not be written as binary scene file");
+        }
+        writeBackground(scene.getBackgroundColor());
+        if(scene.getCamera() != null) {
+            writeCamera(scene.getCamera());
+        }
+        for(Light l : scene.getLights()) {
+            writeLight(l);
+        }
+
+        Map<MaterialKey, Integer> materials = new HashMap<MaterialKey, Integer>();
+        MeshBuilder mesh = new MeshBuilder();
+        for(SceneObject s : scene.getSceneObjects()) {
+            if(s instanceof MeshTriangle && ((MeshTriangle) s).getIndex() != 0) {
+                // the mesh is written with its first triangle
+                continue;
+            }
+            int material = -1;
+            if(s.getMaterial() != null) {
+                MaterialKey key = new MaterialKey(s.getMaterial());
+                Integer index = materials.get(key);
+                if(index == null) {
+                    index = writeMaterial(s.getMaterial());
+                    materials.put(key, index);
+                }
+                material = index;
+            }
+
+            if(s instanceof Triangle) {
+                if(mesh.triangleCount > 0 && (mesh.material != material || mesh.triangleCount == MAX_MESH_TRIANGLES)) {
+                    mesh.write(this);
+                }
+                mesh.material = material;
+                mesh.add((Triangle) s);
+                continue;
+            }
+            if(mesh.triangleCount > 0) {
+                mesh.write(this);
+            }
+
+            if(s instanceof MeshTriangle) {
+                TriangleMesh m = ((MeshTriangle) s).getMesh();
+                writeMesh(m.getVertices(), m.getVertexCount(), m.getIndices(), m.getTriangleCount(), material);
+            } else if(s instanceof Sphere) {
+                Sphere sphere = (Sphere) s;
+                writeSphere(sphere.getCenter(), sphere.getRadius(), material);
+            } else if(s instanceof Plane) {
+                Plane plane = (Plane) s;
+                writePlane(plane.getPoint(), plane.getSurfaceNormal(null), material);
+            } else if(s instanceof Box) {
+                Box box = (Box) s;
+                writeBox(box.getLower(), box.getSize(), material);
+            } else {
+                throw new IOException("unsupported scene object type "+s.getClass().getSimpleName());
+            }
+        }
+        if(mesh.triangleCount > 0) {
+            mesh.write(this);
+        }
+    }
+
+    /**
+     * Writes the scene's background color.
+     * @param color
+     * @throws IOException
+     */
+    public void writeBackground(Color3f color) throws IOException {
+        beginRecord(BinarySceneFile.SCENE, 12);
+        putColor(color);
+    }
+
+    /**
+     * Writes the camera.
+     * @param camera
+     * @throws IOException
+     */
+    public void writeCamera(Camera camera) throws IOException {
+        beginRecord(BinarySceneFile.CAMERA, 96);
+        putTuple(camera.getPosition());
+        putTuple(camera.getDirection());
+        putTuple(camera.getUp());
+        buffer.putDouble(Math.toDegrees(camera.getVFov()));
+        buffer.putDouble(camera.getAspect());
+        buffer.putDouble(camera.getViewingPlaneDistance());
+    }
+
+    /**
+     * Writes a light.
+     * @param light
+     * @throws IOException
+     */
+    public void writeLight(Light light) throws IOException {
+        beginRecord(BinarySceneFile.LIGHT, 64);
+        putTuple(light.getPosition());
+        putColor(light.getAmbient());
+        putColor(light.getDiffuse());
+        putColor(light.getSpecular());
+        buffer.putFloat(light.getIntensity());
+    }
+
+    /**
+     * Writes a material.
+     * @param material
+     * @return the number of the material, that is used by objects to refer to it.
+     * @throws IOException
+     */
+    public int writeMaterial(Material material) throws IOException {
+        beginRecord(BinarySceneFile.MATERIAL, 64);
+        putColor(material.getAmbient());
+        putColor(material.getDiffuse());
+        putColor(material.getSpecular());
+        putColor(material.getEmission());
+        buffer.putFloat(material.getShininess());
+        buffer.putFloat(material.getTransparency());
+        buffer.putFloat(material.getRefractionIndex());
+        buffer.putFloat(material.getReflectionCoefficient());
+        return materialCount++;
+    }
+
+    /**
+     * Writes a sphere.
+     * @param center
+     * @param radius
+     * @param material The material number or -1.
+     * @throws IOException
+     */
+    public void writeSphere(Point3d center, double radius, int material) throws IOException {
+        beginRecord(BinarySceneFile.SPHERE, 36);
+        buffer.putInt(material);
+        putTuple(center);
+        buffer.putDouble(radius);
+    }
+
+    /**
+     * Writes a plane.
+     * @param point
+     * @param normal
+     * @param material The material number or -1.
+     * @throws IOException
+     */
+    public void writePlane(Point3d point, Vector3d normal, int material) throws IOException {
+        beginRecord(BinarySceneFile.PLANE, 52);
+        buffer.putInt(material);
+        putTuple(point);
+        putTuple(normal);
+    }
+
+    /**
+     * Writes a box.
+     * @param lower
+     * @param size
+     * @param material The material number or -1.
+     * @throws IOException
+     */
+    public void writeBox(Point3d lower, Vector3d size, int material) throws IOException {
+        beginRecord(BinarySceneFile.BOX, 52);
+        buffer.putInt(material);
+        putTuple(lower);
+        putTuple(size);
+    }
+
+    /**
+     * Writes an indexed triangle mesh.
+     * @param vertices The vertex coordinates (x, y, z for every vertex).
+     * @param vertexCount The number of vertices.
+     * @param indices The vertex indices (three for every triangle).
+     * @param triangleCount The number of triangles.
+     * @param material The material number or -1.
+     * @throws IOException
+     */
+    public void writeMesh(double[] vertices, int vertexCount, int[] indices, int triangleCount, int material) throws IOException {
+        beginRecord(BinarySceneFile.MESH, 12 + 24L * vertexCount + 12L * triangleCount);
+        buffer.putInt(material);
+        buffer.putInt(vertexCount);
+        buffer.putInt(triangleCount);
+        for(int i = 0; i < vertexCount * 3; ++i) {
+            ensure(8);
+            buffer.putDouble(vertices[i]);
+        }
+        for(int i = 0; i < triangleCount * 3; ++i) {
+            ensure(4);
+            buffer.putInt(indices[i]);
+        }
+    }
+
+    /**
+     * Writes the END record, flushes the buffer and closes the channel.
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        beginRecord(BinarySceneFile.END, 0);
+        flush();
+        channel.close();
+    }
+
+    /**
+     * Writes a record header and makes sure, that there is room for the payload
+     * (or at least for the fixed size part of it).
+     */
+    private void beginRecord(byte tag, long length) throws IOException {
+        ensure(BinarySceneFile.RECORD_HEADER_SIZE + (int) Math.min(length, 96));
+        buffer.put(tag);
+        buffer.putLong(length);
+    }
+
+    /**
+     * Flushes the buffer if there are less than the given number of bytes left.
+     */
+    private void ensure(int bytes) throws IOException {
+        if(buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes the buffer content to the channel.
+     */
+    private void flush() throws IOException {
+        buffer.flip();
+        while(buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void putTuple(Tuple3d t) {
+        buffer.putDouble(t.x);
+        buffer.putDouble(t.y);
+        buffer.putDouble(t.z);
+    }
+
+    private void putColor(Color3f c) {
+        buffer.putFloat(c.x);
+        buffer.putFloat(c.y);
+        buffer.putFloat(c.z);
+    }
+
+    /**
+     * Collects consecutive triangles and their shared vertices.
+     */
+    private static class MeshBuilder {
+
+        int material;
+        int triangleCount = 0;
+        List<Point3d> vertices = new ArrayList<Point3d>();
+        Map<Point3d, Integer> vertexIndices = new HashMap<Point3d, Integer>();
+        int[] indices = new int[3 * 1024];
+
+        void add(Triangle t) {
+            if(indices.length < 3 * (triangleCount + 1)) {
+                indices = Arrays.copyOf(indices, indices.length * 2);
+            }
+            indices[3 * triangleCount] = vertexIndex(t.getVertex1());
+            indices[3 * triangleCount + 1] = vertexIndex(t.getVertex2());
+            indices[3 * triangleCount + 2] = vertexIndex(t.getVertex3());
+            triangleCount++;
+        }
+
+        int vertexIndex(Point3d p) {
+            Integer index = vertexIndices.get(p);
+            if(index == null) {
+                index = vertices.size();
+                vertexIndices.put(p, index);
+                vertices.add(p);
+            }
+            return index;
+        }
+
+        void write(BinarySceneFileWriter writer) throws IOException {
+            double[] coordinates = new double[vertices.size() * 3];
+            for(int i = 0; i < vertices.size(); ++i) {
+                coordinates[3 * i] = vertices.get(i).x;
+                coordinates[3 * i + 1] = vertices.get(i).y;
+                coordinates[3 * i + 2] = vertices.get(i).z;
+            }
+            writer.writeMesh(coordinates, vertices.size(), indices, triangleCount, material);
+            triangleCount = 0;
+            vertices.clear();
+            vertexIndices.clear();
+        }
+    }
+
+    /**
+     * Value based key for materials.
+     */
+    private static class MaterialKey {
+
+        private float[] values;
+
+        MaterialKey(Material m) {
+            values = new float[] {
+                m.getAmbient().x, m.getAmbient().y, m.getAmbient().z,
+                m.getDiffuse().x, m.getDiffuse().y, m.getDiffuse().z,
+                m.getSpecular().x, m.getSpecular().y, m.getSpecular().z,
+                m.getEmission().x, m.getEmission().y, m.getEmission().z,
+                m.getShininess(), m.getTransparency(), m.getRefractionIndex(), m.getReflectionCoefficient()
+            };
+        }
+
+        public boolean equals(Object o) {
+            return o instanceof MaterialKey && Arrays.equals(values, ((MaterialKey) o).values);
+        }
+
+        public int hashCode() {
+            return Arrays.hashCode(values);
+        }
+    }
+}
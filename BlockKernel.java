@@ -0,0 +1,123 @@
+/*
+ * BlockKernel.java
+ * 26/10/19
+ *
+ * University of Applied Sciences
+ * Bingen, Germany
+ *
+ * FPro Project "Jaytracer"
+ *
+ * Author:
+ * M S
+ *
+ */
+package de.fhbingen.fpro.jaytracer;
+
+/**
+ * Intersects a ray with the primitives of a {@link PrimitiveBlock}. The
+ * kernels compute exactly the same t-parameters as {@link Sphere#intersect(XRay)},
+ * {@link Triangle#intersect(XRay)} and {@link MeshTriangle#intersect(XRay)}, but
+ * for a whole block of primitives.<br/>
+ * <br/>
+ * There are two kernels: a scalar kernel, that loops over the primitives, and
+ * a SIMD kernel, that uses the vector API of the JDK (the incubator module
+ * <code>jdk.incubator.vector</code>). The vector kernel is used, if the module
+ * is available at runtime (<code>--add-modules jdk.incubator.vector</code>) and
+ * the CPU has vectors of at least four doubles. The system property
+ * <code>jaytracer.kernel</code> (<code>scalar</code> or <code>vector</code>)
+ * selects a kernel explicitly.
+ *
+ * @author M S
+ */
+abstract class BlockKernel {
+
+    /** The name of the system property, that selects the kernel */
+    static final String PROPERTY = "jaytracer.kernel";
+
+    /** The scalar kernel */
+    private static final BlockKernel SCALAR = new ScalarBlockKernel();
+
+    /** The vector kernel or <code>null</code>, if it is not available */
+    private static final BlockKernel VECTOR = loadVectorKernel();
+
+    /** The kernel, that is used by the scene hierarchies */
+    private static final BlockKernel DEFAULT = selectKernel();
+
+    /**
+     * @return the kernel, that is used by the scene hierarchies.
+     */
+    static BlockKernel getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @return the scalar kernel.
+     */
+    static BlockKernel getScalar() {
+        return SCALAR;
+    }
+
+    /**
+     * @return the vector kernel or <code>null</code>, if the vector API is not available.
+     */
+    static BlockKernel getVector() {
+        return VECTOR;
+    }
+
+    /**
+     * @return the kernel's name.
+     */
+    abstract String getName();
+
+    /**
+     * Intersects a ray with a block of spheres.
+     * @see PrimitiveBlock#intersect(BlockKernel, double, double, double, double, double, double, double[])
+     */
+    abstract void intersect(SphereBlock block, double ox, double oy, double oz,
+            double dx, double dy, double dz, double[] t);
+
+    /**
+     * Intersects a ray with a block of triangles.
+     * @see PrimitiveBlock#intersect(BlockKernel, double, double, double, double, double, double, double[])
+     */
+    abstract void intersect(TriangleBlock block, double ox, double oy, double oz,
+            double dx, double dy, double dz, double[] t);
+
+    /**
+     * Loads the vector kernel by reflection, so this class does not depend on
+     * the incubator module.
+     * @return the vector kernel or <code>null</code>, if the vector API is not
+     * available or the vectors of the CPU are too short.
+     */
+    private static BlockKernel loadVectorKernel() {
+        try {
+            BlockKernel kernel = (BlockKernel) Class.forName("de.fhbingen.fpro.jaytracer.VectorBlockKernel")
+                    .getDeclaredConstructor().newInstance();
+            return kernel.isSupported() ? kernel : null;
+        } catch (LinkageError e) {
+            return null;
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the kernel, that is selected by the system property, or the vector
+     * kernel, if it is available.
+     */
+    private static BlockKernel selectKernel() {
+        String name = System.getProperty(PROPERTY);
+        if(SCALAR.getName().equals(name) || VECTOR == null) {
+            return SCALAR;
+        }
+        return VECTOR;
+    }
+
+    /**
+     * @return <code>true</code>, if the kernel is faster than the scalar kernel
+     * on this machine.
+     */
+    boolean isSupported() {
+        return true;
+    }
+}
@@ -29,6 +29,9 @@ public class Cell extends BoundingBox {
     /** The list of all sceneobjects that lie in this cell. */
     private List<SceneObject> sceneObjects;
     
+    /** The scene objects packed into blocks, created on first use */
+    private volatile PrimitiveBlockList blocks;
+    
     /**
      * Creates a grid cell.
      * @param lower The cell's lower point.
@@ -45,6 +48,23 @@ public class Cell extends BoundingBox {
      */
     public void add(SceneObject sceneObject) {
         sceneObjects.add(sceneObject);
+        blocks = null;
+    }
+
+    /**
+     * Removes a scene object from this cell.
+     * @param sceneObject
+     * @return <code>true</code>, if the cell contained the object.
+     */
+    public boolean remove(SceneObject sceneObject) {
+        for(int i = 0; i < sceneObjects.size(); ++i) {
+            if(sceneObjects.get(i) == sceneObject) {
+                sceneObjects.remove(i);
+                blocks = null;
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -53,4 +73,19 @@ public class Cell extends BoundingBox {
     public List<SceneObject> getSceneObjects() {
         return sceneObjects;
     }
+    
+    /**
+     * Returns the scene objects packed into blocks for the intersection kernels.
+     * The blocks are created on first use. Threads, which trace at the same time,
+     * may both create them, which does no harm.
+     * @return the packed scene objects.
+     */
+    PrimitiveBlockList getBlocks() {
+        PrimitiveBlockList b = blocks;
+        if(b == null) {
+            b = new PrimitiveBlockList(sceneObjects);
+            blocks = b;
+        }
+        return b;
+    }
 }
@@ -0,0 +1,173 @@
+/*
+ * CostMap.java
+ * 26/10/19
+ *
+ * University of Applied Sciences
+ * Bingen, Germany
+ *
+ * FPro Project "Jaytracer"
+ *
+ * Author:
+ * M S
+ *
+ */
+package de.fhbingen.fpro.jaytracer;
+
+import java.util.Arrays;
+
+/**
+ * The time, that the tracing of every pixel took, in nanoseconds (see
+ * {@link RayGenerator#setCostMap(CostMap)}). The time of a pixel includes all
+ * its rays: the supersampling rays, the reflected and refracted rays and the
+ * shadow rays. Pixels, which are traced together in a packet or a wavefront
+ * tile, get an equal share of the packet's or tile's time.<br/>
+ * <br/>
+ * The map is shown as a heatmap (see {@link #toPixelMap()}) and summed over
+ * tiles (see {@link #getTileCosts(int)}) for estimating the cost of tiles.
+ *
+ * @author M S
+ */
+final class CostMap {
+
+    /** The colors of the heatmap's ramp from cheap to expensive */
+    private static final float[][] RAMP = {
+        { 0, 0, 0 }, { 0, 0, 0.8f }, { 0.8f, 0, 0.8f }, { 1, 0.2f, 0 }, { 1, 0.9f, 0 }, { 1, 1, 1 } };
+
+    /** The percentile of the pixel costs, that gets the last color of the ramp */
+    static final double SATURATION_PERCENTILE = 0.99;
+
+    /** The costs by row and column */
+    private final long[][] cost;
+
+    /**
+     * Creates an empty cost map.
+     * @param width X resolution.
+     * @param height Y resolution.
+     */
+    CostMap(int width, int height) {
+        cost = new long[height][width];
+    }
+
+    /**
+     * @return the X resolution.
+     */
+    int getWidth() {
+        return cost[0].length;
+    }
+
+    /**
+     * @return the Y resolution.
+     */
+    int getHeight() {
+        return cost.length;
+    }
+
+    /**
+     * Adds to the cost of a pixel.
+     * @param x The column.
+     * @param y The row.
+     * @param nanos The time in nanoseconds.
+     */
+    void add(int x, int y, long nanos) {
+        cost[y][x] += nanos;
+    }
+
+    /**
+     * Spreads the cost of a rectangle of pixels, that were traced together, over its pixels.
+     * @param firstRow The first row.
+     * @param firstColumn The first column.
+     * @param rows The number of rows.
+     * @param columns The number of columns.
+     * @param nanos The time in nanoseconds.
+     */
+    void add(int firstRow, int firstColumn, int rows, int columns, long nanos) {
+        long share = nanos / (rows * columns);
+        for(int j = firstRow; j < firstRow + rows; ++j) {
+            for(int i = firstColumn; i < firstColumn + columns; ++i) {
+                cost[j][i] += share;
+            }
+        }
+    }
+
+    /**
+     * @param x The column.
+     * @param y The row.
+     * @return the cost of a pixel in nanoseconds.
+     */
+    long get(int x, int y) {
+        return cost[y][x];
+    }
+
+    /**
+     * @return the cost of all pixels in nanoseconds.
+     */
+    long getTotal() {
+        long total = 0;
+        for(long[] row : cost) {
+            for(long c : row) {
+                total += c;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Sums the costs of square tiles, e.g. the wavefront tiles.
+     * @param tileSize The width and height of the tiles, the tiles at the right and
+     * bottom border may be smaller.
+     * @return the costs in nanoseconds by tile row and tile column.
+     */
+    long[][] getTileCosts(int tileSize) {
+        int width = getWidth();
+        int height = getHeight();
+        long[][] tiles = new long[(height + tileSize - 1) / tileSize][(width + tileSize - 1) / tileSize];
+        for(int y = 0; y < height; ++y) {
+            for(int x = 0; x < width; ++x) {
+                tiles[y / tileSize][x / tileSize] += cost[y][x];
+            }
+        }
+        return tiles;
+    }
+
+    /**
+     * Maps the costs to the colors of a ramp from black over blue, magenta, red
+     * and yellow to white. The ramp is scaled to the
+     * {@link #SATURATION_PERCENTILE} of the costs, so a few outliers don't
+     * darken the whole map.
+     * @return the heatmap as pixel map like {@link RayGenerator#getPixelMap()}.
+     */
+    int[][] toPixelMap() {
+        int width = getWidth();
+        int height = getHeight();
+        long[] sorted = new long[width * height];
+        for(int y = 0; y < height; ++y) {
+            System.arraycopy(cost[y], 0, sorted, y * width, width);
+        }
+        Arrays.sort(sorted);
+        double saturation = Math.max(1, sorted[(int) ((sorted.length - 1) * SATURATION_PERCENTILE)]);
+
+        int[][] pixelMap = new int[height][width];
+        for(int y = 0; y < height; ++y) {
+            for(int x = 0; x < width; ++x) {
+                pixelMap[y][x] = toColor(Math.min(1, cost[y][x] / saturation));
+            }
+        }
+        return pixelMap;
+    }
+
+    /**
+     * @param value The cost from 0 to 1.
+     * @return the color of the ramp as ARGB.
+     */
+    private static int toColor(double value) {
+        double position = value * (RAMP.length - 1);
+        int index = Math.min(RAMP.length - 2, (int) position);
+        double t = position - index;
+        int argb = 0xff;
+        for(int c = 0; c < 3; ++c) {
+            double channel = RAMP[index][c] + (RAMP[index + 1][c] - RAMP[index][c]) * t;
+            argb = (argb << 8) | (int) Math.round(channel * 255);
+        }
+        return argb;
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * DeadlineRenderer.java
+ * 26/10/19
+ *
+ * University of Applied Sciences
+ * Bingen, Germany
+ *
+ * FPro Project "Jaytracer"
+ *
+ * Author:
+ * M S
+ *
+ */
+package de.fhbingen.fpro.jaytracer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Renders an image within a time budget. The quality is chosen from the cost
+ * of the scene's rays: two passes with 1/{@link #PROBE_SCALE} of the resolution
+ * measure the time of a ray with recursion depth 0 and with the requested
+ * recursion depth. Then the levels of a quality ladder are estimated, from
+ * twice the resolution of the probe with recursion depth 0 up to the full
+ * resolution with 4 samples per pixel (the supersampling of {@link RayGenerator}
+ * ignores the recursion depth), and the best level, whose estimate fits into
+ * the remaining time, is rendered.<br/>
+ * <br/>
+ * The image is refined progressively: every complete pass replaces the image
+ * of the previous pass and the next level is chosen with the estimates
+ * corrected by the measured time. After a level of the ladder, only levels
+ * with at least its recursion depth are chosen. If no better level fits, the
+ * next of them is rendered anyway. At the deadline the current pass stops
+ * after its current row and is discarded, unless no pass is complete yet and it
+ * covers more of the image than the previous pass, and the image is finished. The time, that is reserved for writing the image, is
+ * measured by encoding the image of the probe, which also warms up the encoder.
+ *
+ * @author M S
+ */
+final class DeadlineRenderer {
+
+    /** The resolution of the probe passes is divided by this scale */
+    static final int PROBE_SCALE = 16;
+
+    /** Part of the budget, that the probe passes may take */
+    static final double PROBE_SHARE = 0.25;
+
+    /** Part of the remaining time, that the estimate of a pass may take */
+    static final double SAFETY = 0.8;
+
+    /** Part of the budget, that is reserved for writing the image, until the encoding time is measured */
+    static final double ENCODE_RESERVE = 0.1;
+
+    /** The scene */
+    private final Scene scene;
+
+    /** The resolution of the image */
+    private final int width;
+    private final int height;
+
+    /** The maximum recursion depth */
+    private final int ttl;
+
+    /** The supersampling mode of the best level */
+    private final int supersampling;
+
+    /** The ray generator's parameters */
+    private int packetSize = 1;
+    private int tileSize = 0;
+
+    /** The time (see <code>System.nanoTime()</code>), at which rendering stops */
+    private long deadline;
+
+    /** The time of the start and the budget in nanoseconds */
+    private final long start;
+    private final long budget;
+
+    /** The best image so far */
+    private final int[][] image;
+
+    /** The level of the image or <code>null</code>, if nothing is rendered yet */
+    private Level shown;
+
+    /** The time of a sample with recursion depth 0 and with the maximum recursion depth in nanoseconds */
+    private double sampleTime0;
+    private double sampleTime;
+
+    /** Ratio of the measured and the estimated time of the last pass */
+    private double correction = 1;
+
+    /**
+     * Creates a renderer with a time budget.
+     * @param scene The loaded scene.
+     * @param width X resolution.
+     * @param height Y resolution.
+     * @param ttl The maximum recursion depth.
+     * @param supersampling The supersampling mode of the best level, {@link RayGenerator#ROTATED_GRID}
+     * if it is {@link RayGenerator#NO_SUPERSAMPLING}.
+     * @param start The time (see <code>System.nanoTime()</code>), at which the budget started, e.g.
+     * before the scene was loaded.
+     * @param budget The budget in milliseconds.
+     */
+    DeadlineRenderer(Scene scene, int width, int height, int ttl, int supersampling, long start, long budget) {
+        this.scene = scene;
+        this.width = width;
+        this.height = height;
+        this.ttl = ttl;
+        this.supersampling = supersampling == RayGenerator.NO_SUPERSAMPLING ? RayGenerator.ROTATED_GRID : supersampling;
+        this.start = start;
+        this.budget = budget * 1000000;
+        this.deadline = start + (long) (this.budget * (1 - ENCODE_RESERVE));
+        image = new int[height][width];
+    }
+
+    /**
+     * Sets the width and height of the pixel packets (see {@link RayGenerator#setPacketSize(int)}).
+     * @param packetSize
+     */
+    void setPacketSize(int packetSize) {
+        this.packetSize = packetSize;
+    }
+
+    /**
+     * Sets the size of the wavefront tiles (see {@link RayGenerator#setWavefrontTileSize(int)}).
+     * @param tileSize
+     */
+    void setWavefrontTileSize(int tileSize) {
+        this.tileSize = tileSize;
+    }
+
+    /**
+     * Renders the image until the best level is done or the deadline is reached
+     * and prints the chosen levels.
+     * @return the best image.
+     */
+    int[][] run() {
+        // the first probe warms up the tracer and is measured again, the probes
+        // stop early on a cold JVM, in which the first rays are much slower
+        long probeDeadline = Math.min(deadline, start + (long) (budget * PROBE_SHARE));
+        Level probe = new Level(PROBE_SCALE, 0, RayGenerator.NO_SUPERSAMPLING);
+        render(probe, probeDeadline);
+        probe = new Level(PROBE_SCALE, 0, RayGenerator.NO_SUPERSAMPLING);
+        sampleTime0 = render(probe, probeDeadline) / (double) probe.getRenderedSamples();
+        sampleTime = sampleTime0;
+        if(ttl > 0) {
+            probe = new Level(PROBE_SCALE, ttl, RayGenerator.NO_SUPERSAMPLING);
+            sampleTime = Math.max(sampleTime0, render(probe, probeDeadline) / (double) probe.getRenderedSamples());
+        }
+        long encodeTime = measureEncoding();
+        deadline = start + budget - encodeTime;
+        System.out.println("deadline_probe: "+Math.round(sampleTime0)+" ns/sample (TTL 0), "+Math.round(sampleTime)
+                +" ns/sample (TTL "+ttl+"), encoding "+encodeTime/1000000+" ms");
+
+        List<Level> levels = getLevels();
+        int index = -1;
+        for(;;) {
+            long remaining = deadline - System.nanoTime();
+            // the recursion depth must not decrease between the levels of the ladder
+            int minimumTtl = index == -1 ? 0 : levels.get(index).ttl;
+            int first = -1;
+            int next = -1;
+            for(int i = index + 1; i < levels.size(); i++) {
+                if(levels.get(i).ttl < minimumTtl) {
+                    continue;
+                }
+                if(first == -1) {
+                    first = i;
+                }
+                if(estimate(levels.get(i)) * correction <= SAFETY * remaining) {
+                    next = i;
+                }
+            }
+            if(next == -1 && (remaining <= 0 || first == -1)) {
+                break;
+            }
+            if(next == -1) {
+                // the estimates may be too high, the pass is kept, if it completes
+                next = first;
+            }
+            Level level = levels.get(next);
+            double estimate = estimate(level) * correction;
+            long time = render(level, deadline);
+            System.out.println("deadline_pass: "+level+", estimated "+Math.round(estimate / 1000000)+" ms, took "
+                    +time/1000000+" ms"+(level.completedRows < level.getHeight() ? ", stopped after "
+                    +level.completedRows+"/"+level.getHeight()+" rows" : ""));
+            if(level.completedRows < level.getHeight()) {
+                break;
+            }
+            correction = time / estimate(level);
+            index = next;
+        }
+
+        System.out.println("deadline_settings: "+shown+(shown.completedRows < shown.getHeight()
+                ? ", "+shown.completedRows+"/"+shown.getHeight()+" rows" : ""));
+        System.out.println("deadline_time: "+(System.nanoTime() - start)/1000000+" ms of "+budget/1000000
+                +" ms (before writing the image)");
+        return image;
+    }
+
+    /**
+     * Encodes the image once without writing it. The first image of a JVM takes
+     * much longer than the following ones, so the result is an upper bound.
+     * @return the time in nanoseconds.
+     */
+    private long measureEncoding() {
+        long begin = System.nanoTime();
+        try {
+            new ImageOutput().writePNG(image, new OutputStream() {
+                public void write(int b) {
+                }
+
+                public void write(byte[] b, int off, int len) {
+                }
+            });
+        } catch (IOException e) {
+            // can't happen, the stream discards the bytes
+        }
+        return System.nanoTime() - begin;
+    }
+
+    /**
+     * @return the quality ladder in ascending order.
+     */
+    private List<Level> getLevels() {
+        TreeSet<Integer> ttls = new TreeSet<Integer>();
+        ttls.add(0);
+        ttls.add(Math.min(2, ttl));
+        ttls.add(ttl);
+        List<Level> levels = new ArrayList<Level>();
+        for(int scale = PROBE_SCALE / 2; scale >= 1; scale /= 2) {
+            for(int t : ttls) {
+                levels.add(new Level(scale, t, RayGenerator.NO_SUPERSAMPLING));
+            }
+        }
+        levels.add(new Level(1, ttl, supersampling));
+        return levels;
+    }
+
+    /**
+     * @return the estimated time of a level in nanoseconds.
+     */
+    private double estimate(Level level) {
+        double time = ttl == 0 ? sampleTime : sampleTime0 + (sampleTime - sampleTime0) * level.ttl / ttl;
+        return time * level.getSamples();
+    }
+
+    /**
+     * Renders a level until it is done or the deadline is reached. The pass
+     * replaces the image, if its complete rows cover more of the image than the
+     * pass of the image, or if it is complete. So a stopped pass never replaces
+     * a complete one and the image never mixes two levels.
+     * @param level The level.
+     * @param stop The deadline of the pass (see <code>System.nanoTime()</code>).
+     * @return the time in nanoseconds.
+     */
+    private long render(Level level, long stop) {
+        long begin = System.nanoTime();
+        RayGenerator generator = new RayGenerator(scene, level.getWidth(), level.getHeight(), level.ttl, level.supersampling);
+        generator.setPacketSize(packetSize);
+        generator.setWavefrontTileSize(tileSize);
+        generator.setVerbose(false);
+        generator.setDeadline(stop);
+        generator.run();
+        level.completedRows = generator.getCompletedRows();
+        if(shown == null || level.completedRows == level.getHeight()
+                || level.getCompletedShare() > shown.getCompletedShare()) {
+            copy(generator.getPixelMap(), level.getWidth(), level.getHeight(), level.completedRows);
+            shown = level;
+        }
+        return System.nanoTime() - begin;
+    }
+
+    /**
+     * Copies the complete rows of a pass into the image, a pixel of the pass
+     * covers scale x scale pixels of the image.
+     */
+    private void copy(int[][] pixels, int passWidth, int passHeight, int rows) {
+        for(int y = 0; y < height; y++) {
+            int row = (int) ((long) y * passHeight / height);
+            if(row >= rows) {
+                break;
+            }
+            for(int x = 0; x < width; x++) {
+                image[y][x] = pixels[row][(int) ((long) x * passWidth / width)];
+            }
+        }
+    }
+
+    /**
+     * A level of the quality ladder.
+     */
+    private class Level {
+
+        /** The resolution is divided by the scale */
+        final int scale;
+
+        /** The recursion depth */
+        final int ttl;
+
+        /** The supersampling mode */
+        final int supersampling;
+
+        /** The number of rows, which have been rendered */
+        int completedRows;
+
+        Level(int scale, int ttl, int supersampling) {
+            this.scale = scale;
+            this.ttl = ttl;
+            this.supersampling = supersampling;
+        }
+
+        int getWidth() {
+            return Math.max(1, width / scale);
+        }
+
+        int getHeight() {
+            return Math.max(1, height / scale);
+        }
+
+        int getSamplesPerPixel() {
+            return supersampling == RayGenerator.NO_SUPERSAMPLING ? 1 : 4;
+        }
+
+        long getSamples() {
+            return (long) getWidth() * getHeight() * getSamplesPerPixel();
+        }
+
+        double getCompletedShare() {
+            return completedRows / (double) getHeight();
+        }
+
+        long getRenderedSamples() {
+            return Math.max(1L, (long) getWidth() * completedRows * getSamplesPerPixel());
+        }
+
+        public String toString() {
+            return "resolution "+getWidth()+"x"+getHeight()+" (1/"+scale+"), TTL "
+                    +(supersampling == RayGenerator.NO_SUPERSAMPLING ? String.valueOf(ttl) : "unlimited")
+                    +", "+getSamplesPerPixel()+" samples/pixel";
+        }
+    }
+}
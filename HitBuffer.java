@@ -0,0 +1,253 @@
+/*
+ * HitBuffer.java
+ * 26/10/19
+ *
+ * University of Applied Sciences
+ * Bingen, Germany
+ *
+ * FPro Project "Jaytracer"
+ *
+ * Author:
+ * M S
+ *
+ */
+package de.fhbingen.fpro.jaytracer;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import javax.vecmath.Point3d;
+import javax.vecmath.Vector3d;
+
+/**
+ * The compact hit records of the rays of an image tile, written by the visibility
+ * pass of a {@link WavefrontRenderer}. Every traced ray gets a record with the
+ * index of the intersected object, the t-parameter, the point of intersection,
+ * the surface normal and the ray's direction in arrays of primitives instead of
+ * an {@link Intersection}. The records of the primary rays come first, and every
+ * record links to the records of its reflected and refracted ray.<br/>
+ * <br/>
+ * The records depend only on the camera and the geometry, so the shading pass
+ * can be repeated with changed lights and materials (see {@link RayGenerator#relight()}).
+ * The objects are indexed by the order of their first hit.
+ *
+ * @author M S
+ */
+final class HitBuffer {
+
+    /** The number of records of the primary rays */
+    private final int primaryCount;
+
+    /** The number of records */
+    private int count;
+
+    /** The intersected objects, indexed by the records' object indices */
+    private SceneObject[] objectTable = new SceneObject[16];
+
+    /** The number of indexed objects */
+    private int objectCount;
+
+    /** The object indices of the indexed objects */
+    private final Map<SceneObject, Integer> objectIndices = new IdentityHashMap<SceneObject, Integer>();
+
+    /** The object index of every record or -1, if the ray hits nothing */
+    private int[] objects = new int[0];
+
+    /** The t-parameter of every record */
+    private double[] t = new double[0];
+
+    /** The point of intersection of every record */
+    private double[] pointX = new double[0];
+    private double[] pointY = new double[0];
+    private double[] pointZ = new double[0];
+
+    /** The surface normal of every record */
+    private double[] normalX = new double[0];
+    private double[] normalY = new double[0];
+    private double[] normalZ = new double[0];
+
+    /** The ray direction of every record */
+    private double[] directionX = new double[0];
+    private double[] directionY = new double[0];
+    private double[] directionZ = new double[0];
+
+    /** The records of the reflected and the refracted ray or -1 */
+    private int[] reflected = new int[0];
+    private int[] refracted = new int[0];
+
+    /**
+     * Creates an empty hit buffer.
+     * @param primaryCount The number of primary rays.
+     */
+    HitBuffer(int primaryCount) {
+        this.primaryCount = primaryCount;
+    }
+
+    /**
+     * Adds a record for a ray without a hit and without reflected and refracted ray.
+     * @return the index of the record.
+     */
+    int add() {
+        if(count == objects.length) {
+            int capacity = Math.max(64, 2 * count);
+            objects = Arrays.copyOf(objects, capacity);
+            t = Arrays.copyOf(t, capacity);
+            pointX = Arrays.copyOf(pointX, capacity);
+            pointY = Arrays.copyOf(pointY, capacity);
+            pointZ = Arrays.copyOf(pointZ, capacity);
+            normalX = Arrays.copyOf(normalX, capacity);
+            normalY = Arrays.copyOf(normalY, capacity);
+            normalZ = Arrays.copyOf(normalZ, capacity);
+            directionX = Arrays.copyOf(directionX, capacity);
+            directionY = Arrays.copyOf(directionY, capacity);
+            directionZ = Arrays.copyOf(directionZ, capacity);
+            reflected = Arrays.copyOf(reflected, capacity);
+            refracted = Arrays.copyOf(refracted, capacity);
+        }
+        objects[count] = -1;
+        reflected[count] = -1;
+        refracted[count] = -1;
+        return count++;
+    }
+
+    /**
+     * Stores the hit of a record.
+     * @param record The index of the record.
+     * @param intersection The nearest intersection of the record's ray.
+     */
+    void setHit(int record, Intersection intersection) {
+        objects[record] = indexOf(intersection.getIntersectedSceneObject());
+        t[record] = intersection.getT();
+        Point3d point = intersection.getPointOfIntersection();
+        pointX[record] = point.x;
+        pointY[record] = point.y;
+        pointZ[record] = point.z;
+        Vector3d normal = intersection.getSurfaceNormal();
+        normalX[record] = normal.x;
+        normalY[record] = normal.y;
+        normalZ[record] = normal.z;
+        Vector3d direction = intersection.getXRay().getDirection();
+        directionX[record] = direction.x;
+        directionY[record] = direction.y;
+        directionZ[record] = direction.z;
+    }
+
+    /**
+     * @param record The index of a hit record.
+     * @param child The index of the record of the reflected ray.
+     */
+    void setReflected(int record, int child) {
+        reflected[record] = child;
+    }
+
+    /**
+     * @param record The index of a hit record.
+     * @param child The index of the record of the refracted ray.
+     */
+    void setRefracted(int record, int child) {
+        refracted[record] = child;
+    }
+
+    /**
+     * @return the number of records of the primary rays, they are the first records.
+     */
+    int getPrimaryCount() {
+        return primaryCount;
+    }
+
+    /**
+     * @return the number of records.
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * @param record The index of the record.
+     * @return <code>true</code>, if the record's ray hits an object.
+     */
+    boolean isHit(int record) {
+        return objects[record] >= 0;
+    }
+
+    /**
+     * @param record The index of a hit record.
+     * @return the intersected object.
+     */
+    SceneObject getObject(int record) {
+        return objectTable[objects[record]];
+    }
+
+    /**
+     * @return the objects, which are hit by any ray of the records, in the order
+     * of their first hit.
+     */
+    SceneObject[] getObjects() {
+        return Arrays.copyOf(objectTable, objectCount);
+    }
+
+    /**
+     * @param record The index of a hit record.
+     * @return the t-parameter.
+     */
+    double getT(int record) {
+        return t[record];
+    }
+
+    /**
+     * @param record The index of a hit record.
+     * @param point Gets the point of intersection.
+     */
+    void getPointOfIntersection(int record, Point3d point) {
+        point.set(pointX[record], pointY[record], pointZ[record]);
+    }
+
+    /**
+     * @param record The index of a hit record.
+     * @param normal Gets the surface normal.
+     */
+    void getSurfaceNormal(int record, Vector3d normal) {
+        normal.set(normalX[record], normalY[record], normalZ[record]);
+    }
+
+    /**
+     * @param record The index of a hit record.
+     * @param direction Gets the direction of the record's ray.
+     */
+    void getDirection(int record, Vector3d direction) {
+        direction.set(directionX[record], directionY[record], directionZ[record]);
+    }
+
+    /**
+     * @param record The index of the record.
+     * @return the index of the record of the reflected ray or -1.
+     */
+    int getReflected(int record) {
+        return reflected[record];
+    }
+
+    /**
+     * @param record The index of the record.
+     * @return the index of the record of the refracted ray or -1.
+     */
+    int getRefracted(int record) {
+        return refracted[record];
+    }
+
+    /**
+     * @return the index of an object, which is added to the table on its first hit.
+     */
+    private int indexOf(SceneObject sceneObject) {
+        Integer index = objectIndices.get(sceneObject);
+        if(index == null) {
+            if(objectCount == objectTable.length) {
+                objectTable = Arrays.copyOf(objectTable, 2 * objectCount);
+            }
+            index = objectCount;
+            objectTable[objectCount++] = sceneObject;
+            objectIndices.put(sceneObject, index);
+        }
+        return index;
+    }
+}
@@ -34,6 +34,53 @@ public class ImageOutput {
 	 * @throws IOException if an io error occurs.
 	 */
 	public void writePNG (int[][] pixelMap , String name) throws IOException {
+		RenderEvents.ImageEncode event = new RenderEvents.ImageEncode();
+		event.begin();
+		long start = RenderStatistics.startPhase();
+		File file = new File(name + ".png");
+		ImageIO.write(toImage(pixelMap),"png", file);
+		RenderStatistics.endPhase(RenderStatistics.ENCODE_TIME, start);
+		commit(event, pixelMap, file.getPath());
+	}
+	
+	/**
+	 * Writes an integer-array as a PNG image to a stream, e.g. the response of
+	 * a {@link RenderServer}.
+	 * 
+	 * @param pixelMap The pixelmap to write.
+	 * @param out The stream, it is not closed.
+	 * @throws IOException if an io error occurs.
+	 */
+	public void writePNG (int[][] pixelMap , OutputStream out) throws IOException {
+		RenderEvents.ImageEncode event = new RenderEvents.ImageEncode();
+		event.begin();
+		long start = RenderStatistics.startPhase();
+		ImageIO.write(toImage(pixelMap),"png", out);
+		RenderStatistics.endPhase(RenderStatistics.ENCODE_TIME, start);
+		commit(event, pixelMap, null);
+	}
+	
+	/**
+	 * Ends and commits the flight recorder event of an encoded image.
+	 * @param event The event.
+	 * @param pixelMap The image.
+	 * @param file The image file or <code>null</code>.
+	 */
+	private static void commit(RenderEvents.ImageEncode event, int[][] pixelMap, String file) {
+		event.end();
+		if(event.shouldCommit()) {
+			event.width = pixelMap[0].length;
+			event.height = pixelMap.length;
+			event.file = file;
+			event.commit();
+		}
+	}
+	
+	/**
+	 * @param pixelMap The pixelmap.
+	 * @return the image of the pixelmap.
+	 */
+	private BufferedImage toImage (int[][] pixelMap) {
 		int width = pixelMap[0].length;
 		int height = pixelMap.length;
 		
@@ -44,9 +91,7 @@ public class ImageOutput {
         		bImage.setRGB(x,y, pixelMap[y][x]);
         	}
         }
-        
-		File file = new File(name + ".png");
-		ImageIO.write(bImage,"png", file);
+        return bImage;
 	}
 	
 	/*
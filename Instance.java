@@ -0,0 +1,359 @@
+/*
+ * Instance.java
+ * 26/10/19
+ *
+ * University of Applied Sciences
+ * Bingen, Germany
+ *
+ * FPro Project "Jaytracer"
+ *
+ * Author:
+ * M S
+ *
+ */
+package de.fhbingen.fpro.jaytracer;
+
+import javax.vecmath.Matrix4d;
+import javax.vecmath.Point3d;
+import javax.vecmath.Vector3d;
+
+/**
+ * SceneObject: Instance
+ *
+ * A placed copy of a {@link Prototype}. The instance stores only an affine
+ * transformation from the prototype's coordinate system into the scene. Rays
+ * are transformed into the prototype's coordinate system, where they traverse
+ * the prototype's own hierarchy, so the memory of a scene grows with its
+ * different geometry instead of the number of copies.<br/>
+ * <br/>
+ * The objects of the prototype keep their materials. The intersection with an
+ * instance refers to the intersected object of the prototype, with the point
+ * and the normal transformed into the scene. The ray keeps the nearest hit of
+ * an instance (see {@link Hit}), so the intersection is created from the hit,
+ * which {@link #intersect(XRay)} has found, without tracing the prototype again.
+ *
+ * @author M S
+ */
+public class Instance extends SceneObject {
+
+    /** The prototype */
+    private Prototype prototype;
+
+    /** The transformation from the prototype into the scene */
+    private Matrix4d transform;
+
+    /** The transformation from the scene into the prototype */
+    private Matrix4d inverse;
+
+    /** Distance from a point, from which {@link #getSurfaceNormal(Point3d)} probes the surface */
+    static final double PROBE_DISTANCE = 10 * Scene.EPSILON;
+
+    /**
+     * The nearest intersection of a ray with the objects of a prototype in the
+     * prototype's coordinate system.
+     */
+    static final class Hit {
+
+        /** The ray in the prototype's coordinate system */
+        final XRay ray;
+
+        /** The intersected object of the prototype */
+        final SceneObject sceneObject;
+
+        /** The t-parameter of the prototype's ray */
+        final double localT;
+
+        /** The intersection in the prototype's coordinate system, created on first use */
+        private Intersection intersection;
+
+        /** The instance, whose hit this is, or <code>null</code>, if it's not kept by the ray */
+        Instance instance;
+
+        /** The t-parameter of the ray in the scene */
+        double t;
+
+        /**
+         * Creates a hit of an object.
+         * @param ray The ray in the prototype's coordinate system.
+         * @param sceneObject The intersected object.
+         * @param localT The t-parameter of the ray.
+         */
+        Hit(XRay ray, SceneObject sceneObject, double localT) {
+            this.ray = ray;
+            this.sceneObject = sceneObject;
+            this.localT = localT;
+        }
+
+        /**
+         * Creates a hit of an already created intersection.
+         * @param ray The ray in the prototype's coordinate system.
+         * @param intersection The intersection.
+         */
+        Hit(XRay ray, Intersection intersection) {
+            this(ray, intersection.getIntersectedSceneObject(), intersection.getT());
+            this.intersection = intersection;
+        }
+
+        /**
+         * @return the intersection in the prototype's coordinate system.
+         */
+        Intersection getIntersection() {
+            if(intersection == null) {
+                intersection = sceneObject.getIntersection(ray, localT);
+            }
+            return intersection;
+        }
+    }
+
+    /**
+     * Creates an instance of a prototype. The prototype's hierarchy is built, if
+     * this has not been done before.
+     * @param prototype
+     * @param transform The affine transformation from the prototype into the scene.
+     * @throws IllegalArgumentException If the transformation is not invertible.
+     */
+    public Instance(Prototype prototype, Matrix4d transform) {
+        this.prototype = prototype;
+        this.transform = new Matrix4d(transform);
+        inverse = new Matrix4d(transform);
+        try {
+            inverse.invert();
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("instance transformation is not invertible");
+        }
+        prototype.build();
+        bounds = computeBounds();
+    }
+
+    /**
+     * @return the prototype.
+     */
+    public Prototype getPrototype() {
+        return prototype;
+    }
+
+    /**
+     * @return a copy of the transformation from the prototype into the scene.
+     */
+    public Matrix4d getTransform() {
+        return new Matrix4d(transform);
+    }
+
+    /**
+     * Intersects the ray with the prototype's objects. If the hit is the nearest
+     * hit of an instance, that has been found for the ray so far, the ray keeps
+     * it for {@link #getIntersection(XRay, double)}.
+     * @param ray
+     * @return the t-parameter of the nearest intersection with the prototype's
+     * objects or 0, if the instance is not intersected.
+     */
+    public double intersect(XRay ray) {
+        double[] scale = new double[1];
+        XRay local = toPrototype(ray, scale);
+        Hit hit = prototype.intersect(local);
+        if(hit == null) {
+            return 0.0;
+        }
+        double t = hit.localT / scale[0];
+        Hit nearest = ray.getInstanceHit();
+        if(t > Scene.EPSILON && (nearest == null || t < nearest.t)) {
+            hit.instance = this;
+            hit.t = t;
+            ray.setInstanceHit(hit);
+        }
+        return t;
+    }
+
+    /**
+     * Creates the intersection with the prototype's object, that is hit by the ray,
+     * from the hit, that the ray keeps. If the ray keeps the hit of another
+     * instance, e.g. because the ray has been intersected with another scene
+     * since, only this instance is intersected again.
+     * @param ray
+     * @param t The t-parameter, that has been computed by {@link #intersect(XRay)}.
+     * @return the intersection.
+     * @throws IllegalArgumentException If the ray does not intersect the instance.
+     */
+    Intersection getIntersection(XRay ray, double t) {
+        Hit hit = ray.getInstanceHit();
+        if(hit == null || hit.instance != this || hit.t != t) {
+            ray.setInstanceHit(null);
+            intersect(ray);
+            hit = ray.getInstanceHit();
+            if(hit == null) {
+                throw new IllegalArgumentException("the ray does not intersect the instance");
+            }
+        }
+        Intersection intersection = hit.getIntersection();
+        return new Intersection(intersection.getIntersectedSceneObject(), t, ray, toScene(intersection.getSurfaceNormal()));
+    }
+
+    /**
+     * Finds the object of the prototype, on whose surface the point lies, and
+     * returns its normal. Every object is probed with a ray, that starts a little
+     * above the point along the object's normal and goes back, it hits the
+     * surface after that distance, if the point lies on it. The intersections of
+     * the renderer already have their normal (see {@link #getIntersection(XRay, double)}),
+     * so this is only needed for points, which have been computed otherwise.
+     * @param pointOfIntersection A point on the surface of the instance.
+     * @return the normalized surface normal at the point.
+     * @throws IllegalArgumentException If the point does not lie on the surface.
+     */
+    public Vector3d getSurfaceNormal(Point3d pointOfIntersection) {
+        Point3d point = new Point3d(pointOfIntersection);
+        inverse.transform(point);
+        Vector3d nearestNormal = null;
+        double nearestError = PROBE_DISTANCE / 2;
+        for(SceneObject s : prototype.getSceneObjects()) {
+            Vector3d normal = new Vector3d(s.getSurfaceNormal(point));
+            normal.normalize();
+            Point3d start = new Point3d(point);
+            start.scaleAdd(PROBE_DISTANCE, normal, start);
+            Vector3d back = new Vector3d(normal);
+            back.negate();
+            double error = Math.abs(s.intersect(new XRay(start, back, null, null)) - PROBE_DISTANCE);
+            if(error < nearestError) {
+                nearestError = error;
+                nearestNormal = normal;
+            }
+        }
+        if(nearestNormal == null) {
+            throw new IllegalArgumentException("the point does not lie on the instance");
+        }
+        return toScene(nearestNormal);
+    }
+
+    /**
+     * Tests the prototype's bounding box, transformed into the scene, against the
+     * cell. The transformed box is a parallelepiped, it's separated from the cell,
+     * if their projections onto one of the face normals or onto one of the cross
+     * products of their edges don't overlap.
+     * @param cell The cell which will be checked on intersection with this scene object.
+     * @return <code>true</code> if the transformed bounding box of the prototype
+     * intersects the cell or the prototype is unbounded.
+     */
+    public boolean intersectsCell(Cell cell) {
+        BoundingBox box = prototype.getBounds();
+        if(box == null) {
+            return true;
+        }
+        // half edges and center of the parallelepiped
+        Vector3d[] half = {
+                new Vector3d(transform.m00, transform.m10, transform.m20),
+                new Vector3d(transform.m01, transform.m11, transform.m21),
+                new Vector3d(transform.m02, transform.m12, transform.m22) };
+        half[0].scale(box.getSize().x / 2);
+        half[1].scale(box.getSize().y / 2);
+        half[2].scale(box.getSize().z / 2);
+        Point3d center = new Point3d(box.getLower());
+        center.scaleAdd(0.5, box.getSize(), center);
+        transform.transform(center);
+
+        Vector3d cellHalf = new Vector3d(cell.getSize());
+        cellHalf.scale(0.5);
+        Vector3d distance = new Vector3d(cell.getLower());
+        distance.add(cellHalf);
+        distance.sub(center);
+
+        Vector3d[] cellAxes = { new Vector3d(1, 0, 0), new Vector3d(0, 1, 0), new Vector3d(0, 0, 1) };
+        Vector3d axis = new Vector3d();
+        for(int i = 0; i < 3; ++i) {
+            if(separates(cellAxes[i], distance, half, cellHalf)) {
+                return false;
+            }
+            axis.cross(half[i], half[(i + 1) % 3]);
+            if(separates(axis, distance, half, cellHalf)) {
+                return false;
+            }
+            for(int j = 0; j < 3; ++j) {
+                axis.cross(half[i], cellAxes[j]);
+                if(separates(axis, distance, half, cellHalf)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param axis The axis, it does not need to be normalized.
+     * @param distance The vector between the centers.
+     * @param half The half edges of the parallelepiped.
+     * @param cellHalf The half size of the cell.
+     * @return <code>true</code>, if the projections of the parallelepiped and the
+     * cell onto the axis don't overlap.
+     */
+    private static boolean separates(Vector3d axis, Vector3d distance, Vector3d[] half, Vector3d cellHalf) {
+        double radius = Math.abs(half[0].dot(axis)) + Math.abs(half[1].dot(axis)) + Math.abs(half[2].dot(axis))
+                + Math.abs(cellHalf.x * axis.x) + Math.abs(cellHalf.y * axis.y) + Math.abs(cellHalf.z * axis.z);
+        // a degenerate axis (parallel edges) separates nothing
+        return Math.abs(distance.dot(axis)) > radius * (1 + 1e-9) + Scene.EPSILON * axis.length();
+    }
+
+    /**
+     * Transforms a normal from the prototype into the scene. Normals are
+     * transformed with the transposed inverse.
+     * @param n The normal in the prototype's coordinate system.
+     * @return the normalized normal in the scene.
+     */
+    private Vector3d toScene(Vector3d n) {
+        Vector3d normal = new Vector3d(
+                inverse.m00 * n.x + inverse.m10 * n.y + inverse.m20 * n.z,
+                inverse.m01 * n.x + inverse.m11 * n.y + inverse.m21 * n.z,
+                inverse.m02 * n.x + inverse.m12 * n.y + inverse.m22 * n.z);
+        normal.normalize();
+        return normal;
+    }
+
+    /**
+     * @return the bounding box of the transformed bounds of the prototype or
+     * <code>null</code>, if the prototype is unbounded.
+     */
+    BoundingVolume computeBounds() {
+        BoundingBox box = prototype.getBounds();
+        if(box == null) {
+            return null;
+        }
+        Point3d lower = new Point3d(Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
+        Point3d upper = new Point3d(Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY);
+        for(int i = 0; i < 8; ++i) {
+            Point3d corner = new Point3d(
+                    (i & 1) == 0 ? box.getLower().x : box.getUpper().x,
+                    (i & 2) == 0 ? box.getLower().y : box.getUpper().y,
+                    (i & 4) == 0 ? box.getLower().z : box.getUpper().z);
+            transform.transform(corner);
+            lower.x = Math.min(lower.x, corner.x);
+            lower.y = Math.min(lower.y, corner.y);
+            lower.z = Math.min(lower.z, corner.z);
+            upper.x = Math.max(upper.x, corner.x);
+            upper.y = Math.max(upper.y, corner.y);
+            upper.z = Math.max(upper.z, corner.z);
+        }
+        Vector3d size = new Vector3d(upper);
+        size.sub(lower);
+        return new BoundingBox(lower, size);
+    }
+
+    /**
+     * Transforms a ray into the prototype's coordinate system.
+     * @param ray
+     * @param scale Gets the length of the transformed direction, which divides
+     * the t-parameters of the prototype's ray.
+     * @return the transformed ray with normalized direction. It's only intersected,
+     * so it has no refraction indices.
+     */
+    private XRay toPrototype(XRay ray, double[] scale) {
+        Point3d o = ray.getOrigin();
+        Vector3d d = ray.getDirection();
+        Point3d origin = new Point3d(
+                inverse.m00 * o.x + inverse.m01 * o.y + inverse.m02 * o.z + inverse.m03,
+                inverse.m10 * o.x + inverse.m11 * o.y + inverse.m12 * o.z + inverse.m13,
+                inverse.m20 * o.x + inverse.m21 * o.y + inverse.m22 * o.z + inverse.m23);
+        Vector3d direction = new Vector3d(
+                inverse.m00 * d.x + inverse.m01 * d.y + inverse.m02 * d.z,
+                inverse.m10 * d.x + inverse.m11 * d.y + inverse.m12 * d.z,
+                inverse.m20 * d.x + inverse.m21 * d.y + inverse.m22 * d.z);
+        scale[0] = direction.length();
+        return new XRay(origin, direction, null, null);
+    }
+}
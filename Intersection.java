@@ -49,19 +49,35 @@ public class Intersection {
 	public Intersection(SceneObject sceneObject, double t, XRay ray) {
 		this.xRay = ray;
         this.t = t;
-		this.pointOfIntersection = this.calculatePointOfIntersection(ray, t);
+		this.pointOfIntersection = calculatePointOfIntersection(ray, t);
 		this.surfaceNormal = sceneObject.getSurfaceNormal(this.pointOfIntersection);
 		this.intersectedSceneObject = sceneObject;
        
 	}
 	
 	/**
-     * Calculates and sets the point of intersection with the given ray and the former
+	 * Creates an intersection with a known surface normal.
+	 * @param sceneObject
+	 * @param t
+	 * @param ray
+	 * @param surfaceNormal The normalized surface normal at the intersection point.
+	 */
+	Intersection(SceneObject sceneObject, double t, XRay ray, Vector3d surfaceNormal) {
+		this.xRay = ray;
+		this.t = t;
+		this.pointOfIntersection = calculatePointOfIntersection(ray, t);
+		this.surfaceNormal = surfaceNormal;
+		this.intersectedSceneObject = sceneObject;
+	}
+	
+	/**
+     * Calculates the point of intersection with the given ray and the former
      * calculated parameter t, that tells where on the ray the intersection lies.
      * @param ray
      * @param t
+     * @return the point of intersection.
      */
-    private Point3d calculatePointOfIntersection(XRay ray, double t) {
+    static Point3d calculatePointOfIntersection(XRay ray, double t) {
      	Vector3d dir = new Vector3d(ray.getDirection());
     	Point3d poi = new Point3d(ray.getOrigin());
     	dir.scale(t);
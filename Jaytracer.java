@@ -14,7 +14,13 @@
  */
 package de.fhbingen.fpro.jaytracer;
 
+import java.io.BufferedReader;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Paths;
 
 import javax.vecmath.Point3d;
 import javax.vecmath.Vector3d;
@@ -38,12 +44,21 @@ public class Jaytracer {
             return;
         }
         
+        if(args[0].equals("--server")) {
+            serve(args);
+            return;
+        }
+        if(args[0].equals("--batch") && args.length == 2) {
+            batch(args[1]);
+            return;
+        }
+        
         if(args.length < 2) {
             System.out.println("Error: not enough parameters");
             return;
         }   
         else if(args.length == 2) {
-            jaytrace(args[0], args[1], 800, 800, 5, 0); 
+            jaytrace(new Options(args[0], args[1])); 
         }
         else {
             
@@ -53,13 +68,8 @@ public class Jaytracer {
             }
             
             String supSamp;
-            int ss = 0;
-            int x = 800;
-            int y = 800;
-            int ttl = 5;
-            Point3d lower = null;
-            Vector3d size = null;
-            int cells = 0;
+            Options options = new Options(args[0], args[1]);
+            String statsFile = null;
             
             try {
             
@@ -72,12 +82,12 @@ public class Jaytracer {
                             System.out.println("Error: malformed -R parameter");
                             return;
                         }
-                        x = Integer.parseInt(tmp[0]);
-                        y = Integer.parseInt(tmp[1]);
+                        options.x = Integer.parseInt(tmp[0]);
+                        options.y = Integer.parseInt(tmp[1]);
                     }
                     else if(args[i].equals("-TTL")) {
-                        ttl = Integer.parseInt(args[i+1]);
-                        if(ttl < 0) {
+                        options.rec = Integer.parseInt(args[i+1]);
+                        if(options.rec < 0) {
                             System.out.println("Error: malformed -TTL parameter");
                             return;
                         }
@@ -85,11 +95,11 @@ public class Jaytracer {
                     else if(args[i].equals("-S")) {
                         supSamp = args[i+1];
                         if(supSamp.equals("OFF")) {
-                            ss = RayGenerator.NO_SUPERSAMPLING;
+                            options.ss = RayGenerator.NO_SUPERSAMPLING;
                         } else if(supSamp.equals("ROTATED")) {
-                            ss = RayGenerator.ROTATED_GRID;
+                            options.ss = RayGenerator.ROTATED_GRID;
                         } else if(supSamp.equals("ORDERED")) {
-                            ss = RayGenerator.ORDERD_GRID;
+                            options.ss = RayGenerator.ORDERD_GRID;
                         }
                         else {
                             System.out.println("Error: malformed -S parameter");
@@ -103,14 +113,78 @@ public class Jaytracer {
                             System.out.println("Error: malformed -G parameter");  
                             return;
                         }
-                        lower = getPoint3dString(tmp[0]);
-                        size = new Vector3d(getPoint3dString(tmp[1]));
-                        cells = Integer.parseInt(tmp[2]);
-                        if(cells < 1) {
+                        options.lower = getPoint3dString(tmp[0]);
+                        options.size = new Vector3d(getPoint3dString(tmp[1]));
+                        options.cells = Integer.parseInt(tmp[2]);
+                        if(options.cells < 1) {
                             System.out.println("Error: malformed -G parameter cells");
                             return;
                         }
                     }
+                    else if(args[i].equals("-C")) {
+                        options.cacheDir = args[i+1];
+                    }
+                    else if(args[i].equals("-L")) {
+                        options.loadThreads = Integer.parseInt(args[i+1]);
+                        if(options.loadThreads < 1) {
+                            System.out.println("Error: malformed -L parameter");
+                            return;
+                        }
+                    }
+                    else if(args[i].equals("-P")) {
+                        options.packetSize = Integer.parseInt(args[i+1]);
+                        if(options.packetSize < 1) {
+                            System.out.println("Error: malformed -P parameter");
+                            return;
+                        }
+                    }
+                    else if(args[i].equals("-W")) {
+                        options.tileSize = Integer.parseInt(args[i+1]);
+                        if(options.tileSize < 1) {
+                            System.out.println("Error: malformed -W parameter");
+                            return;
+                        }
+                    }
+                    else if(args[i].equals("-RL")) {
+                        options.lightFile = args[i+1];
+                    }
+                    else if(args[i].equals("--watch")) {
+                        options.watchScale = Integer.parseInt(args[i+1]);
+                        if(options.watchScale < 1) {
+                            System.out.println("Error: malformed --watch parameter");
+                            return;
+                        }
+                    }
+                    else if(args[i].equals("--deadline")) {
+                        options.deadline = Integer.parseInt(args[i+1]);
+                        if(options.deadline < 1) {
+                            System.out.println("Error: malformed --deadline parameter");
+                            return;
+                        }
+                    }
+                    else if(args[i].equals("--heatmap")) {
+                        options.heatmapFile = args[i+1];
+                    }
+                    else if(args[i].equals("--profile")) {
+                        int interval = Integer.parseInt(args[i+1]);
+                        if(interval < 1) {
+                            System.out.println("Error: malformed --profile parameter");
+                            return;
+                        }
+                        ObjectProfiler.enable(interval);
+                    }
+                    else if(args[i].equals("--stats")) {
+                        statsFile = args[i+1];
+                        RenderStatistics.setEnabled(true);
+                        RenderStatistics.registerMBean();
+                    }
+                    else if(args[i].equals("-A")) {
+                        options.frames = args[i+1];
+                        if(!options.frames.equals("all") && !options.frames.matches("\\d+(-\\d+)?")) {
+                            System.out.println("Error: malformed -A parameter");
+                            return;
+                        }
+                    }
                     else {
                         System.out.println("Error: unknown parameter");
                         return;
@@ -122,11 +196,37 @@ public class Jaytracer {
                 return;
             }
             
-            if(lower != null && size != null) {
-                jaytrace(args[0], args[1], x, y, ttl, ss, lower, size, cells); 
+            if(options.deadline > 0 && (options.heatmapFile != null || options.lightFile != null
+                    || options.frames != null || options.watchScale > 0)) {
+                //the deadline renderer picks the quality of a single image by itself
+                System.out.println("Error: --deadline can not be combined with --heatmap, -RL, -A or --watch");
+                return;
+            }
+            if(options.watchScale > 0 && (options.heatmapFile != null || options.lightFile != null
+                    || options.frames != null || options.cacheDir != null)) {
+                //the watcher parses every version of the scene file and writes only images
+                System.out.println("Error: --watch can not be combined with --heatmap, -RL, -A or -C");
+                return;
             }
-            else {
-                jaytrace(args[0], args[1], x, y, ttl, ss);
+            if(options.frames != null && (options.heatmapFile != null || options.lightFile != null)) {
+                //the frames are rendered by the animation renderer
+                System.out.println("Error: -A can not be combined with --heatmap or -RL");
+                return;
+            }
+            
+            if(options.lightFile != null && options.ss != RayGenerator.NO_SUPERSAMPLING) {
+                //wavefront tiles, which keep the hit records, are only traced without supersampling
+                System.out.println("Error: -RL can not be combined with -S ROTATED or ORDERED");
+                return;
+            }
+            if(options.lightFile != null && options.tileSize == 0) {
+                //relighting keeps the hit records of wavefront tiles
+                options.tileSize = 16;
+            }
+            
+            jaytrace(options);
+            if(statsFile != null) {
+                writeStatistics(statsFile);
             }
         }
         
@@ -135,34 +235,95 @@ public class Jaytracer {
 
     /**
      * Starts raytracing.
-     * @param src Scenefile path.
-     * @param tgt Target image path.
-     * @param x X resolution.
-     * @param y Y resolution.
-     * @param ss Super sampling mode.
-     * @param rec Recursion depth.
+     * @param options The options of the render.
      */
-    private static void jaytrace(String src, String tgt, int x, int y, int rec, int ss) {
-        System.out.println("scene_file: "+src);
-        System.out.println("image_File: "+tgt);
-        System.out.println("resolution: "+x+"x"+y);
-        System.out.println("recursion_depth: "+rec);
-        if(ss == RayGenerator.NO_SUPERSAMPLING) {
+    private static void jaytrace(Options options) {
+        long start = System.nanoTime();
+        System.out.println("scene_file: "+options.src);
+        System.out.println("image_File: "+options.tgt);
+        System.out.println("resolution: "+options.x+"x"+options.y);
+        System.out.println("recursion_depth: "+options.rec);
+        if(options.ss == RayGenerator.NO_SUPERSAMPLING) {
             System.out.println("super_sampling: off");
-        } else if(ss == RayGenerator.ROTATED_GRID) {
+        } else if(options.ss == RayGenerator.ROTATED_GRID) {
             System.out.println("super_sampling: rotated grid");
         } else {
             System.out.println("super_sampling: ordered grid");
         }
+        if(options.lower != null) {
+            System.out.println("regular_grid_lower: "+options.lower);
+            System.out.println("regular_grid_upper: "+options.size);
+            System.out.println("cell_count: "+options.cells);
+        }
+        if(options.cacheDir != null) {
+            System.out.println("scene_cache: "+options.cacheDir);
+        }
+        if(options.loadThreads > 1) {
+            System.out.println("load_threads: "+options.loadThreads);
+        }
+        if(options.packetSize > 1) {
+            System.out.println("ray_packets: "+options.packetSize+"x"+options.packetSize);
+        }
+        if(options.tileSize > 0) {
+            System.out.println("wavefront_tiles: "+options.tileSize+"x"+options.tileSize);
+        }
+        if(options.lightFile != null) {
+            System.out.println("relight_lights: "+options.lightFile);
+        }
+        if(options.watchScale > 0) {
+            System.out.println("watch_preview: 1/"+options.watchScale);
+        }
+        if(options.frames != null) {
+            System.out.println("animation_frames: "+options.frames);
+        }
+        if(options.deadline > 0) {
+            System.out.println("deadline: "+options.deadline+" ms");
+        }
+        if(options.heatmapFile != null) {
+            System.out.println("cost_heatmap: "+options.heatmapFile);
+        }
         
-        Scene rtScene = new Scene();
+        Scene rtScene = options.lower != null ? new RegularGridScene(options.lower, options.size, options.cells) : new Scene();
         ImageOutput rtImageOutput = new ImageOutput();
         try {
-            rtScene.load(src);
-            RayGenerator rtRayGenerator = new RayGenerator(rtScene, x ,y , rec, ss);
+            if(options.watchScale > 0) {
+                watch(rtScene, options);
+                return;
+            }
+            loadScene(rtScene, options.src, options.cacheDir, options.loadThreads);
+            if(rtScene instanceof RegularGridScene) {
+                ((RegularGridScene) rtScene).printInformation();
+            }
+            if(options.frames != null) {
+                animate(rtScene, options);
+                return;
+            }
+            if(options.deadline > 0) {
+                DeadlineRenderer renderer = new DeadlineRenderer(rtScene, options.x, options.y, options.rec, options.ss, start, options.deadline);
+                renderer.setPacketSize(options.packetSize);
+                renderer.setWavefrontTileSize(options.tileSize);
+                rtImageOutput.writePNG(renderer.run(), options.tgt);
+                System.out.println("deadline_total: "+(System.nanoTime() - start)/1000000+" ms");
+                return;
+            }
+            RayGenerator rtRayGenerator = new RayGenerator(rtScene, options.x, options.y, options.rec, options.ss);
+            rtRayGenerator.setPacketSize(options.packetSize);
+            rtRayGenerator.setWavefrontTileSize(options.tileSize);
+            rtRayGenerator.setRelightable(options.lightFile != null);
+            CostMap costMap = options.heatmapFile != null ? new CostMap(options.x, options.y) : null;
+            rtRayGenerator.setCostMap(costMap);
             rtRayGenerator.start();
             rtRayGenerator.join();
-            rtImageOutput.writePNG(rtRayGenerator.getPixelMap(), tgt);
+            rtImageOutput.writePNG(rtRayGenerator.getPixelMap(), options.tgt);
+            if(costMap != null) {
+                writeHeatmap(costMap, options.heatmapFile);
+            }
+            if(ObjectProfiler.isEnabled()) {
+                System.out.print(ObjectProfiler.report(rtScene));
+            }
+            if(options.lightFile != null) {
+                new RelightSession(rtScene, rtRayGenerator, options.lightFile, options.tgt).run(new BufferedReader(new InputStreamReader(System.in)));
+            }
         } catch (SAXException e) {
             System.out.println("Malformed Scenefile: "+e.getMessage());
         } catch (IOException e) {
@@ -173,43 +334,64 @@ public class Jaytracer {
     }
     
     /**
-     * Starts raytracing with a regular grid.
+     * Loads the scene file, either directly or through the scene cache.
+     * @param scene The scene to fill.
      * @param src Scenefile path.
-     * @param tgt Target image path.
-     * @param x X resolution.
-     * @param y Y resolution.
-     * @param ss Super sampling mode.
-     * @param rec Recursion depth.
-     * @param lower The grid's lower point.
-     * @param size The grid's size.
-     * @param cells The number of cells in each direction.
+     * @param cacheDir The scene cache directory or <code>null</code>.
+     * @param loadThreads The number of threads for loading the scene file.
+     * @throws IOException If file is not readable.
+     * @throws SAXException If file is not a valid scene file.
      */
-    private static void jaytrace(String src, String tgt, int x, int y, int rec, int ss, Point3d lower, Vector3d size, int cells) {
-        System.out.println("scene_file: "+src);
-        System.out.println("image_File: "+tgt);
-        System.out.println("resolution: "+x+"x"+y);
-        System.out.println("recursion_depth: "+rec);
-        if(ss == RayGenerator.NO_SUPERSAMPLING) {
-            System.out.println("super_sampling: off");
-        } else if(ss == RayGenerator.ROTATED_GRID) {
-            System.out.println("super_sampling: rotated grid");
+    private static void loadScene(Scene scene, String src, String cacheDir, int loadThreads) throws SAXException, IOException {
+        if(cacheDir == null) {
+            scene.load(src, loadThreads);
         } else {
-            System.out.println("super_sampling: ordered grid");
+            new SceneCache(cacheDir).load(scene, src, loadThreads);
+        }
+    }
+    
+    /**
+     * Renders the frames of the scene's animation (see {@link AnimationRenderer}).
+     * @param rtScene The loaded scene.
+     * @param options The options of the render, the frame number is appended to the target image path.
+     */
+    private static void animate(Scene rtScene, Options options) throws IOException, InterruptedException {
+        String frames = options.frames;
+        if(rtScene.getAnimation() == null) {
+            System.out.println("Error: the scene file has no animation");
+            return;
+        }
+        int first = 0;
+        int last = rtScene.getAnimation().getFrameCount() - 1;
+        if(!frames.equals("all")) {
+            String[] tmp = frames.split("-");
+            try {
+                first = Integer.parseInt(tmp[0]);
+                last = tmp.length > 1 ? Integer.parseInt(tmp[1]) : first;
+            } catch (NumberFormatException e) {
+                System.out.println("Error: malformed -A parameter");
+                return;
+            }
         }
-        System.out.println("regular_grid_lower: "+lower);
-        System.out.println("regular_grid_upper: "+size);
-        System.out.println("cell_count: "+cells);
-        RegularGridScene rtScene = new RegularGridScene(lower, size, cells);
-        ImageOutput rtImageOutput = new ImageOutput();
         try {
-            rtScene.load(src);
-            rtScene.printInformation();
-            RayGenerator rtRayGenerator = new RayGenerator(rtScene ,x ,y , rec, ss);
-            rtRayGenerator.start();
-            rtRayGenerator.join();
-            rtImageOutput.writePNG(rtRayGenerator.getPixelMap(), tgt);
-        } catch (SAXException e) {
-            System.out.println("Malformed Scenefile: "+e.getMessage());
+            AnimationRenderer renderer = new AnimationRenderer(rtScene, options.tgt, options.x, options.y, options.rec, options.ss);
+            renderer.setPacketSize(options.packetSize);
+            renderer.setWavefrontTileSize(options.tileSize);
+            renderer.run(first, last);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Error: "+e.getMessage());
+        }
+    }
+    
+    /**
+     * Renders the jobs of a manifest (see {@link BatchRenderer}).
+     * @param manifest Path to the manifest.
+     */
+    private static void batch(String manifest) {
+        try {
+            new BatchRenderer(manifest).run();
+        } catch (IllegalArgumentException e) {
+            System.out.println("Error: malformed manifest "+e.getMessage());
         } catch (IOException e) {
             System.out.println("I/O error: "+e.getMessage());
         } catch (InterruptedException e) {
@@ -217,17 +399,116 @@ public class Jaytracer {
         }
     }
     
+    /**
+     * Starts a render server (see {@link RenderServer}).
+     * @param args <code>--server PORT [THREADS] [SCENE_ROOT]</code>
+     */
+    private static void serve(String[] args) {
+        int port;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String sceneRoot = args.length > 3 ? args[3] : ".";
+        try {
+            port = Integer.parseInt(args[1]);
+            if(args.length > 2) {
+                threads = Integer.parseInt(args[2]);
+            }
+        } catch (RuntimeException e) {
+            System.out.println("Error: malformed --server parameter");
+            return;
+        }
+        if(threads < 1) {
+            System.out.println("Error: malformed --server parameter");
+            return;
+        }
+        try {
+            new RenderServer(port, threads, RenderServer.DEFAULT_CACHE_SIZE, Paths.get(sceneRoot)).start();
+        } catch (IOException e) {
+            System.out.println("I/O error: "+e.getMessage());
+        }
+    }
+    
+    /**
+     * Renders the scene file again on every change (see {@link SceneWatcher}).
+     * @param rtScene The empty scene.
+     * @param options The options of the render.
+     */
+    private static void watch(Scene rtScene, Options options) throws SAXException, IOException, InterruptedException {
+        SceneWatcher watcher = new SceneWatcher(rtScene, options.src, options.tgt, options.x, options.y, options.rec, options.ss);
+        watcher.setLoadThreads(options.loadThreads);
+        watcher.setPacketSize(options.packetSize);
+        watcher.setWavefrontTileSize(options.tileSize);
+        watcher.setPreviewScale(options.watchScale);
+        watcher.watch();
+    }
+    
+    /**
+     * Writes the heatmap of a cost map and prints how unevenly the cost is
+     * distributed over tiles of 16x16 pixels.
+     * @param costMap The cost map.
+     * @param file Path to the image file without extension.
+     * @throws IOException If the image can not be written.
+     */
+    private static void writeHeatmap(CostMap costMap, String file) throws IOException {
+        new ImageOutput().writePNG(costMap.toPixelMap(), file);
+        long[][] tiles = costMap.getTileCosts(16);
+        long max = 0;
+        for(long[] row : tiles) {
+            for(long cost : row) {
+                max = Math.max(max, cost);
+            }
+        }
+        double mean = (double) costMap.getTotal() / (tiles.length * tiles[0].length);
+        System.out.println("cost_heatmap: "+file+".png, traced "+costMap.getTotal()/1000000+" ms, most expensive tile "
+                +Math.round(max / Math.max(1, mean) * 10) / 10.0+"x the mean");
+    }
+    
+    /**
+     * Writes the render statistics as JSON.
+     * @param file Path to the file or <code>-</code> for the standard output.
+     */
+    private static void writeStatistics(String file) {
+        String json = RenderStatistics.toJson();
+        if(file.equals("-")) {
+            System.out.println("stats: "+json);
+            return;
+        }
+        try {
+            Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+            try {
+                out.write(json);
+                out.write(System.getProperty("line.separator"));
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            System.out.println("Error: can't write the statistics: "+e.getMessage());
+        }
+    }
+    
     /**
      * Prints the usage information.
      */
     private static void printUsage() {
         System.out.println("Usage:");
         System.out.println("Jaytracer <scenefilepath> <outputpath>");         
+        System.out.println("Jaytracer --batch MANIFEST (render the jobs of the manifest, a line per job: <scenefilepath> <outputpath> [options])");
+        System.out.println("Jaytracer --server PORT [THREADS] [SCENE_ROOT] (render server on localhost, e.g. POST a scene file to /render?width=200&height=200)");
         System.out.println("options:");
         System.out.println("\t-R WIDTHxHEIGHT (resolution, e.g. 500x500)");
         System.out.println("\t-TTL x (recursion depth, 0,...)");
         System.out.println("\t-S [OFF, ORDERED, ROTATED] (supersampling mode)");
         System.out.println("\t-G LOWERxSIZExCELLS (regular grid, e.g \"-50,-50,-50x100,100,100x10\")");
+        System.out.println("\t-C DIRECTORY (compiled scene cache)");
+        System.out.println("\t-L THREADS (threads for loading large xml scene files)");
+        System.out.println("\t-P SIZE (trace the primary rays of SIZExSIZE pixels together, e.g. 4)");
+        System.out.println("\t-W SIZE (trace the rays of SIZExSIZE pixels bounce by bounce, e.g. 16)");
+        System.out.println("\t-RL LIGHTFILE (relight: reload the lights from the file and shade again on every enter, not with -S ROTATED or ORDERED)");
+        System.out.println("\t-A [all, FRAME, FIRST-LAST] (render the frames of the scene's animation to <outputpath>_0000.png, ..., not with --heatmap or -RL)");
+        System.out.println("\t--deadline MS (choose resolution, TTL and samples to finish within MS milliseconds, -TTL and -S are the maximum, not with --heatmap, -RL, -A or --watch)");
+        System.out.println("\t--heatmap FILE (write the time of every pixel as heatmap image to FILE.png)");
+        System.out.println("\t--profile N (attribute the intersection tests and time of every N-th pixel to the scene objects, print the top offenders)");
+        System.out.println("\t--stats FILE (write ray counts, intersection tests and phase times as JSON, - for the console)");
+        System.out.println("\t--watch SCALE (render again on every change of the scene file, first with 1/SCALE resolution, e.g. 4; with -W only the tiles of changed materials; not with --heatmap, -RL, -A or -C)");
     }
     
     /**
@@ -235,7 +516,7 @@ public class Jaytracer {
      * @param string The string to convert.
      * @return the point3d object.
      */
-    private static Point3d getPoint3dString(String string) {
+    static Point3d getPoint3dString(String string) {
         String[] point3dString = string.split(",");
 
         if (point3dString.length != 3)
@@ -249,4 +530,74 @@ public class Jaytracer {
 
         return new Point3d(x, y, z);
     }
+    
+    /**
+     * The options of a render, the defaults are those of <code>Jaytracer SRC TGT</code>.
+     */
+    private static final class Options {
+        
+        /** Scenefile path */
+        final String src;
+        
+        /** Target image path */
+        final String tgt;
+        
+        /** X resolution */
+        int x = 800;
+        
+        /** Y resolution */
+        int y = 800;
+        
+        /** Recursion depth */
+        int rec = 5;
+        
+        /** Super sampling mode */
+        int ss = RayGenerator.NO_SUPERSAMPLING;
+        
+        /** The scene cache directory or <code>null</code> */
+        String cacheDir;
+        
+        /** The number of threads for loading the scene file */
+        int loadThreads = 1;
+        
+        /** The width and height of the pixel packets */
+        int packetSize = 1;
+        
+        /** The width and height of the wavefront tiles or 0 */
+        int tileSize = 0;
+        
+        /** The light file of a relighting session or <code>null</code> */
+        String lightFile;
+        
+        /** The preview scale of the watch mode or 0 */
+        int watchScale = 0;
+        
+        /** The frames of the animation (<code>all</code>, <code>FRAME</code> or <code>FIRST-LAST</code>) or <code>null</code> */
+        String frames;
+        
+        /** The time budget in milliseconds or 0 */
+        int deadline = 0;
+        
+        /** Path to the cost heatmap image without extension or <code>null</code> */
+        String heatmapFile;
+        
+        /** The grid's lower point or <code>null</code> for a scene without grid */
+        Point3d lower;
+        
+        /** The grid's size */
+        Vector3d size;
+        
+        /** The number of cells in each direction of the grid */
+        int cells;
+        
+        /**
+         * Creates the default options.
+         * @param src Scenefile path.
+         * @param tgt Target image path.
+         */
+        Options(String src, String tgt) {
+            this.src = src;
+            this.tgt = tgt;
+        }
+    }
 }
@@ -154,11 +154,22 @@ public class Light {
     
     /**
      * Computes the light's attenuation according to the distance to the given point. The light
-     * attenuation is linear.
+     * attenuation is linear. The stored attenuation is not thread-safe, threads which
+     * trace the same scene use {@link #getAttenuation(Point3d)}.
      * @param pointOfIntersection The point.
      */
     public void setAttenuation(Point3d pointOfIntersection) {
-        attenuation = intensity / (float) position.distance(pointOfIntersection);
+        attenuation = getAttenuation(pointOfIntersection);
+    }
+
+    /**
+     * Computes the light's attenuation at the given point like
+     * {@link #setAttenuation(Point3d)}, but without storing it.
+     * @param pointOfIntersection The point.
+     * @return the light attenuation at the point.
+     */
+    float getAttenuation(Point3d pointOfIntersection) {
+        return intensity / (float) position.distance(pointOfIntersection);
     }
 
     /**
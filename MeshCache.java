@@ -0,0 +1,108 @@
+/*
+ * MeshCache.java
+ * 26/10/19
+ *
+ * University of Applied Sciences
+ * Bingen, Germany
+ *
+ * FPro Project "Jaytracer"
+ *
+ * Author:
+ * M S
+ *
+ */
+package de.fhbingen.fpro.jaytracer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the meshes of recently read mesh files, so scene files, which use the
+ * same mesh files, read them only once. Every scene gets its own
+ * {@link TriangleMesh} with its own material, but the vertex, index and edge
+ * arrays are shared. A mesh file is read again, if its modification time or
+ * length have changed. The least recently used mesh is evicted.
+ *
+ * @author M S
+ */
+final class MeshCache {
+
+    /** The maximum number of cached meshes */
+    private final int capacity;
+
+    /** The cached meshes by the canonical paths of their files in the order of their last use */
+    private final LinkedHashMap<String, Entry> meshes;
+
+    /** Counters */
+    private int hits;
+    private int misses;
+
+    /**
+     * Creates an empty mesh cache.
+     * @param capacity The maximum number of cached meshes.
+     */
+    MeshCache(final int capacity) {
+        this.capacity = capacity;
+        meshes = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > MeshCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the mesh of a mesh file like {@link MeshFileReader#load(String)}.
+     * @param file Path to the mesh file.
+     * @return a new mesh without material.
+     * @throws IOException If file is not readable.
+     * @throws SceneFileException If the format is unknown or file is not a valid mesh file.
+     */
+    synchronized TriangleMesh load(String file) throws SceneFileException, IOException {
+        File f = new File(file).getCanonicalFile();
+        Entry entry = meshes.get(f.getPath());
+        if(entry != null && entry.lastModified == f.lastModified() && entry.length == f.length()) {
+            hits++;
+            return new TriangleMesh(entry.mesh);
+        }
+        misses++;
+        TriangleMesh mesh = MeshFileReader.load(file);
+        meshes.put(f.getPath(), new Entry(new TriangleMesh(mesh), f.lastModified(), f.length()));
+        return mesh;
+    }
+
+    /**
+     * @return the number of mesh files, which were taken from the cache.
+     */
+    synchronized int getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of mesh files, which were read.
+     */
+    synchronized int getMisses() {
+        return misses;
+    }
+
+    /**
+     * A cached mesh and the state of its file.
+     */
+    private static class Entry {
+
+        final TriangleMesh mesh;
+
+        final long lastModified;
+
+        final long length;
+
+        Entry(TriangleMesh mesh, long lastModified, long length) {
+            this.mesh = mesh;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+    }
+}
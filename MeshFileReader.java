@@ -0,0 +1,163 @@
+/*
+ * MeshFileReader.java
+ * 26/10/19
+ *
+ * University of Applied Sciences
+ * Bingen, Germany
+ *
+ * FPro Project "Jaytracer"
+ *
+ * Author:
+ * M S
+ *
+ */
+package de.fhbingen.fpro.jaytracer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Base class of the streaming mesh file readers. The vertices and the triangles
+ * are collected in growable primitive arrays, which are passed to a
+ * {@link TriangleMesh} at the end, so no objects are created per vertex or triangle.
+ * Polygons are split into triangle fans.
+ *
+ * @author M S
+ */
+public abstract class MeshFileReader {
+
+    /** Initial capacity of the arrays (in vertices or triangles) */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /** The vertex positions (x, y, z for every vertex) */
+    private double[] vertices;
+
+    /** The number of vertices */
+    private int vertexCount;
+
+    /** The vertex indices (three for every triangle) */
+    private int[] indices;
+
+    /** The number of triangles */
+    private int triangleCount;
+
+    /**
+     * Reads a mesh file. The format is chosen by the file extension:
+     * <code>.obj</code> (Wavefront OBJ) or <code>.ply</code> (binary PLY).
+     * @param file Path to the mesh file.
+     * @return the mesh.
+     * @throws IOException If file is not readable.
+     * @throws SceneFileException If the format is unknown or file is not a valid mesh file.
+     */
+    public static TriangleMesh load(String file) throws SceneFileException, IOException {
+        String name = file.toLowerCase();
+        MeshFileReader reader;
+        if(name.endsWith(".obj")) {
+            reader = new ObjMeshReader();
+        } else if(name.endsWith(".ply")) {
+            reader = new PlyMeshReader();
+        } else {
+            throw new SceneFileException("unknown mesh file format: "+file);
+        }
+        return reader.read(file);
+    }
+
+    /**
+     * Reads a mesh file.
+     * @param file Path to the mesh file.
+     * @return the mesh.
+     * @throws IOException If file is not readable.
+     * @throws SceneFileException If file is not a valid mesh file.
+     */
+    public TriangleMesh read(String file) throws SceneFileException, IOException {
+        // the arrays are passed to the mesh, so every mesh gets new ones
+        vertices = new double[3 * INITIAL_CAPACITY];
+        indices = new int[3 * INITIAL_CAPACITY];
+        vertexCount = 0;
+        triangleCount = 0;
+        TriangleMesh mesh;
+        try {
+            readContent(new File(file));
+            if(triangleCount == 0) {
+                throw new SceneFileException("mesh file contains no triangles");
+            }
+            mesh = new TriangleMesh(
+                    vertices.length == 3 * vertexCount ? vertices : Arrays.copyOf(vertices, 3 * vertexCount), vertexCount,
+                    indices.length == 3 * triangleCount ? indices : Arrays.copyOf(indices, 3 * triangleCount), triangleCount);
+        } catch (SceneFileException e) {
+            throw new SceneFileException(file+": "+e.getMessage());
+        } catch (IllegalArgumentException e) {
+            throw new SceneFileException(file+": "+e.getMessage());
+        }
+        mesh.setFile(file);
+        return mesh;
+    }
+
+    /**
+     * Reads the vertices and triangles of a mesh file.
+     * @param file The mesh file.
+     * @throws IOException If file is not readable.
+     * @throws SceneFileException If file is not a valid mesh file.
+     */
+    protected abstract void readContent(File file) throws SceneFileException, IOException;
+
+    /**
+     * @return the number of vertices read so far.
+     */
+    protected int getVertexCount() {
+        return vertexCount;
+    }
+
+    /**
+     * Makes room for the given number of vertices and triangles, if they are
+     * known in advance.
+     * @param vertexCount
+     * @param triangleCount
+     */
+    protected void ensureCapacity(int vertexCount, int triangleCount) {
+        if(vertices.length < 3 * vertexCount) {
+            vertices = Arrays.copyOf(vertices, 3 * vertexCount);
+        }
+        if(indices.length < 3 * triangleCount) {
+            indices = Arrays.copyOf(indices, 3 * triangleCount);
+        }
+    }
+
+    /**
+     * Adds a vertex.
+     * @param x
+     * @param y
+     * @param z
+     */
+    protected void addVertex(double x, double y, double z) {
+        if(3 * vertexCount == vertices.length) {
+            vertices = Arrays.copyOf(vertices, 2 * vertices.length);
+        }
+        int v = 3 * vertexCount++;
+        vertices[v] = x;
+        vertices[v + 1] = y;
+        vertices[v + 2] = z;
+    }
+
+    /**
+     * Adds a polygon as triangle fan around its first vertex.
+     * @param polygon The vertex indices.
+     * @param count The number of vertices of the polygon.
+     * @throws SceneFileException If the polygon has less than three vertices.
+     */
+    protected void addPolygon(int[] polygon, int count) throws SceneFileException {
+        if(count < 3) {
+            throw new SceneFileException("face with less than three vertices");
+        }
+        for(int i = 2; i < count; ++i) {
+            if(3 * triangleCount == indices.length) {
+                indices = Arrays.copyOf(indices, 2 * indices.length);
+            }
+            int t = 3 * triangleCount++;
+            indices[t] = polygon[0];
+            indices[t + 1] = polygon[i - 1];
+            indices[t + 2] = polygon[i];
+        }
+    }
+}
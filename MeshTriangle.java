@@ -0,0 +1,120 @@
+/*
+ * MeshTriangle.java
+ * 26/10/19
+ *
+ * University of Applied Sciences
+ * Bingen, Germany
+ *
+ * FPro Project "Jaytracer"
+ *
+ * Author:
+ * M S
+ *
+ */
+package de.fhbingen.fpro.jaytracer;
+
+import javax.vecmath.Point3d;
+import javax.vecmath.Vector3d;
+
+/**
+ * SceneObject: MeshTriangle
+ *
+ * A triangle of a {@link TriangleMesh}. It stores only the mesh and its index,
+ * the geometry and the material are taken from the mesh. The bounds are not
+ * stored, but computed on demand.
+ *
+ * @author M S
+ */
+public final class MeshTriangle extends SceneObject {
+
+    /** The mesh */
+    private TriangleMesh mesh;
+
+    /** The index of the triangle in the mesh */
+    private int index;
+
+    /**
+     * Creates a view on a triangle of the given mesh.
+     * @param mesh
+     * @param index
+     */
+    MeshTriangle(TriangleMesh mesh, int index) {
+        this.mesh = mesh;
+        this.index = index;
+    }
+
+    /**
+     * @return the mesh.
+     */
+    public TriangleMesh getMesh() {
+        return mesh;
+    }
+
+    /**
+     * @return the index of the triangle in the mesh.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the mesh's material.
+     */
+    public Material getMaterial() {
+        return mesh.getMaterial();
+    }
+
+    /**
+     * Sets the material of the whole mesh.
+     * @param m
+     */
+    void setMaterial(Material m) {
+        mesh.setMaterial(m);
+    }
+
+    /**
+     * @param ray
+     * @return the t-parameter of the intersection or 0, if the triangle is not intersected.
+     * @see Triangle#intersect(XRay)
+     */
+    public double intersect(XRay ray) {
+        return mesh.intersectTriangle(index, ray);
+    }
+
+    /**
+     * @param pointOfIntersection The point for that the normal will be computed.
+     * @return the surface normal. (depends on the vertex order)
+     */
+    public Vector3d getSurfaceNormal(Point3d pointOfIntersection) {
+        return mesh.getTriangleNormal(index);
+    }
+
+    /**
+     * @return a new bounding box that contains the triangle.
+     */
+    public BoundingVolume getBounds() {
+        return computeBounds();
+    }
+
+    /**
+     * @return the bounding box that contains the triangle.
+     */
+    BoundingVolume computeBounds() {
+        return mesh.computeBounds(3 * index, 3, mesh.getIndices());
+    }
+
+    /**
+     * The cell test is the same as {@link Triangle#intersectsCell(Cell)}, so
+     * a mesh is put into the same cells as the equivalent triangles.
+     * @param cell The cell which will be checked on intersection with this scene object.
+     * @return <code>true</code> if this scene object intersects the given cell
+     * of the regular grid or <code>false</code> if not.
+     */
+    public boolean intersectsCell(Cell cell) {
+        Point3d origin = mesh.getTriangleVertex(index, 0);
+        Vector3d direction = new Vector3d();
+        direction.sub(mesh.getTriangleVertex(index, 1), origin);
+        XRay ray = new XRay(origin, direction, null);
+        return cell.intersect(ray) > Scene.EPSILON;
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * NumberParser.java
+ * 26/10/19
+ *
+ * University of Applied Sciences
+ * Bingen, Germany
+ *
+ * FPro Project "Jaytracer"
+ *
+ * Author:
+ * M S
+ *
+ */
+package de.fhbingen.fpro.jaytracer;
+
+/**
+ * Parses decimal numbers directly from a part of a character sequence, without
+ * creating substrings or boxed values.<br/>
+ * <br/>
+ * Plain decimal numbers with up to 15 (double) or 7 (float) significant digits and a
+ * small exponent are computed with one exactly rounded multiplication or division, which
+ * gives the same result as <code>Double.parseDouble</code> and <code>Float.parseFloat</code>.
+ * All other numbers are passed to these methods.
+ *
+ * @author M S
+ */
+public final class NumberParser {
+
+    /** Exactly representable powers of ten (double) */
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /** Exactly representable powers of ten (float) */
+    private static final float[] FLOAT_POWERS_OF_TEN = {
+        1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f
+    };
+
+    /** Value of {@link #scan} if the number has to be parsed by the JDK */
+    private static final int SLOW_PATH = Integer.MIN_VALUE;
+
+    /** Significant digits of the last scanned number */
+    private long mantissa;
+
+    /** Number of significant digits of the last scanned number */
+    private int digits;
+
+    /** Sign of the last scanned number */
+    private boolean negative;
+
+    /**
+     * Parses a double.
+     * @param s The characters.
+     * @param start The index of the first character.
+     * @param end The index after the last character.
+     * @return the double value.
+     * @throws NumberFormatException If the characters don't represent a double.
+     */
+    public double parseDouble(CharSequence s, int start, int end) {
+        int exponent = scan(s, start, end);
+        if(exponent != SLOW_PATH && digits <= 15) {
+            if(mantissa == 0) {
+                return negative ? -0.0 : 0.0;
+            }
+            double value;
+            if(exponent >= 0 && exponent < POWERS_OF_TEN.length) {
+                value = mantissa * POWERS_OF_TEN[exponent];
+                return negative ? -value : value;
+            }
+            if(exponent < 0 && -exponent < POWERS_OF_TEN.length) {
+                value = mantissa / POWERS_OF_TEN[-exponent];
+                return negative ? -value : value;
+            }
+        }
+        return Double.parseDouble(s.subSequence(start, end).toString());
+    }
+
+    /**
+     * Parses a float.
+     * @param s The characters.
+     * @param start The index of the first character.
+     * @param end The index after the last character.
+     * @return the float value.
+     * @throws NumberFormatException If the characters don't represent a float.
+     */
+    public float parseFloat(CharSequence s, int start, int end) {
+        int exponent = scan(s, start, end);
+        if(exponent != SLOW_PATH && digits <= 7) {
+            if(mantissa == 0) {
+                return negative ? -0.0f : 0.0f;
+            }
+            float value;
+            if(exponent >= 0 && exponent < FLOAT_POWERS_OF_TEN.length) {
+                value = mantissa * FLOAT_POWERS_OF_TEN[exponent];
+                return negative ? -value : value;
+            }
+            if(exponent < 0 && -exponent < FLOAT_POWERS_OF_TEN.length) {
+                value = mantissa / FLOAT_POWERS_OF_TEN[-exponent];
+                return negative ? -value : value;
+            }
+        }
+        return Float.parseFloat(s.subSequence(start, end).toString());
+    }
+
+    /**
+     * Scans a plain decimal number (optional sign, digits, optional fraction and
+     * optional exponent). The significant digits are stored in {@link #mantissa}
+     * and {@link #digits}, the sign in {@link #negative}.
+     * @return the decimal exponent or {@link #SLOW_PATH} if the number can't be
+     * handled here.
+     */
+    private int scan(CharSequence s, int start, int end) {
+        while(start < end && s.charAt(start) <= ' ') {
+            start++;
+        }
+        while(end > start && s.charAt(end - 1) <= ' ') {
+            end--;
+        }
+
+        int i = start;
+        mantissa = 0;
+        digits = 0;
+        negative = false;
+        if(i < end && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+            negative = s.charAt(i) == '-';
+            i++;
+        }
+
+        int exponent = 0;
+        boolean anyDigit = false;
+        boolean fraction = false;
+        for(; i < end; ++i) {
+            char c = s.charAt(i);
+            if(c >= '0' && c <= '9') {
+                anyDigit = true;
+                if(mantissa != 0 || c != '0') {
+                    if(++digits > 18) {
+                        return SLOW_PATH;
+                    }
+                    mantissa = mantissa * 10 + (c - '0');
+                }
+                if(fraction) {
+                    exponent--;
+                }
+            } else if(c == '.' && !fraction) {
+                fraction = true;
+            } else {
+                break;
+            }
+        }
+        if(!anyDigit) {
+            return SLOW_PATH;
+        }
+
+        if(i < end && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if(i < end && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+                negativeExponent = s.charAt(i) == '-';
+                i++;
+            }
+            int value = 0;
+            int exponentDigits = 0;
+            for(; i < end; ++i) {
+                char c = s.charAt(i);
+                if(c < '0' || c > '9' || ++exponentDigits > 4) {
+                    return SLOW_PATH;
+                }
+                value = value * 10 + (c - '0');
+            }
+            if(exponentDigits == 0) {
+                return SLOW_PATH;
+            }
+            exponent += negativeExponent ? -value : value;
+        }
+
+        return i == end ? exponent : SLOW_PATH;
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * ObjMeshReader.java
+ * 26/10/19
+ *
+ * University of Applied Sciences
+ * Bingen, Germany
+ *
+ * FPro Project "Jaytracer"
+ *
+ * Author:
+ * M S
+ *
+ */
+package de.fhbingen.fpro.jaytracer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Streaming reader for Wavefront OBJ files. The file is read line by line through
+ * a byte buffer and the numbers are parsed directly from the bytes, so no strings
+ * are created per line.<br/>
+ * <br/>
+ * Only the vertex positions (<code>v</code>) and the faces (<code>f</code>) are
+ * read. Face vertices may refer to texture coordinates and normals
+ * (<code>v/vt/vn</code>), which are ignored, and may be negative (relative to the
+ * last vertex). All other statements are ignored too.
+ *
+ * @author M S
+ */
+public class ObjMeshReader extends MeshFileReader {
+
+    /** Initial size of the read buffer, it grows for longer lines */
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /** The source channel */
+    private FileChannel channel;
+
+    /** The read buffer */
+    private byte[] bytes;
+
+    /** The read buffer as character sequence for the number parser */
+    private Bytes chars;
+
+    /** Position of the next byte in the buffer */
+    private int position;
+
+    /** Number of valid bytes in the buffer */
+    private int limit;
+
+    /** <code>true</code> if the end of the file is reached */
+    private boolean endOfFile;
+
+    /** The current line number, for error messages */
+    private int line;
+
+    /** Parser for the vertex coordinates */
+    private NumberParser numberParser = new NumberParser();
+
+    /** Reused container for the coordinates of a vertex */
+    private double[] coordinates = new double[3];
+
+    /** Reused container for the vertex indices of a face */
+    private int[] polygon = new int[16];
+
+    /**
+     * Reads the vertices and faces of an OBJ file.
+     */
+    protected void readContent(File file) throws SceneFileException, IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        bytes = new byte[BUFFER_SIZE];
+        chars = new Bytes(bytes);
+        position = 0;
+        limit = 0;
+        endOfFile = false;
+        line = 0;
+        try {
+            int end;
+            while((end = nextLine()) != -1) {
+                line++;
+                try {
+                    readLine(end);
+                } catch (NumberFormatException e) {
+                    throw error("invalid number");
+                }
+                position = end + 1;
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Handles a line, which starts at {@link #position}.
+     * @param end The index of the line end.
+     */
+    private void readLine(int end) throws SceneFileException {
+        int i = skipBlanks(position, end);
+        if(i + 1 >= end || !isBlank(bytes[i + 1])) {
+            return;
+        }
+        if(bytes[i] == 'v') {
+            i++;
+            for(int j = 0; j < 3; ++j) {
+                i = skipBlanks(i, end);
+                int start = i;
+                i = skipToken(i, end);
+                if(start == i) {
+                    throw error("vertex with less than three coordinates");
+                }
+                coordinates[j] = numberParser.parseDouble(chars, start, i);
+            }
+            addVertex(coordinates[0], coordinates[1], coordinates[2]);
+        } else if(bytes[i] == 'f') {
+            int count = 0;
+            i = skipBlanks(i + 1, end);
+            while(i < end) {
+                int start = i;
+                i = skipToken(i, end);
+                if(count == polygon.length) {
+                    polygon = Arrays.copyOf(polygon, 2 * count);
+                }
+                polygon[count++] = parseIndex(start, i);
+                i = skipBlanks(i, end);
+            }
+            addPolygon(polygon, count);
+        }
+    }
+
+    /**
+     * Parses the vertex index of a face vertex (<code>v</code>, <code>v/vt</code>,
+     * <code>v//vn</code> or <code>v/vt/vn</code>).
+     * @return the zero based vertex index.
+     */
+    private int parseIndex(int start, int end) throws SceneFileException {
+        int i = start;
+        boolean negative = i < end && bytes[i] == '-';
+        if(negative) {
+            i++;
+        }
+        long value = 0;
+        int digits = 0;
+        for(; i < end && bytes[i] != '/'; ++i) {
+            int digit = bytes[i] - '0';
+            if(digit < 0 || digit > 9 || ++digits > 10) {
+                throw error("invalid face vertex");
+            }
+            value = value * 10 + digit;
+        }
+        if(digits == 0 || value == 0 || value > Integer.MAX_VALUE) {
+            throw error("invalid face vertex");
+        }
+        int index = negative ? getVertexCount() - (int) value : (int) value - 1;
+        if(index < 0) {
+            throw error("face vertex before the first vertex");
+        }
+        return index;
+    }
+
+    /**
+     * Finds the next line in the buffer and reads more bytes, if the line is
+     * not complete.
+     * @return the index of the line end (the line feed or the end of the file)
+     * or -1 at the end of the file.
+     */
+    private int nextLine() throws IOException {
+        int searched = position;
+        for(;;) {
+            for(int i = searched; i < limit; ++i) {
+                if(bytes[i] == '\n') {
+                    return i;
+                }
+            }
+            if(endOfFile) {
+                return position < limit ? limit : -1;
+            }
+            searched = limit - position;
+            if(position > 0) {
+                System.arraycopy(bytes, position, bytes, 0, limit - position);
+                limit -= position;
+                position = 0;
+            } else if(limit == bytes.length) {
+                bytes = Arrays.copyOf(bytes, 2 * bytes.length);
+                chars = new Bytes(bytes);
+            }
+            int n = channel.read(ByteBuffer.wrap(bytes, limit, bytes.length - limit));
+            if(n == -1) {
+                endOfFile = true;
+            } else {
+                limit += n;
+            }
+        }
+    }
+
+    /**
+     * @return the index of the first non blank byte.
+     */
+    private int skipBlanks(int i, int end) {
+        while(i < end && isBlank(bytes[i])) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * @return the index of the first blank byte.
+     */
+    private int skipToken(int i, int end) {
+        while(i < end && !isBlank(bytes[i])) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * @return <code>true</code> for spaces, tabs and carriage returns.
+     */
+    private static boolean isBlank(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    /**
+     * @return an exception with the given message and the current line.
+     */
+    private SceneFileException error(String message) {
+        return new SceneFileException(message+" (at line "+line+")");
+    }
+
+    /**
+     * A byte array as ASCII character sequence.
+     */
+    private static class Bytes implements CharSequence {
+
+        private byte[] bytes;
+
+        Bytes(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        public int length() {
+            return bytes.length;
+        }
+
+        public char charAt(int index) {
+            return (char) (bytes[index] & 0xff);
+        }
+
+        public CharSequence subSequence(int start, int end) {
+            return new String(bytes, start, end - start, StandardCharsets.ISO_8859_1);
+        }
+
+        public String toString() {
+            return subSequence(0, bytes.length).toString();
+        }
+    }
+}
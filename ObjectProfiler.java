@@ -0,0 +1,290 @@
+/*
+ * ObjectProfiler.java
+ * 26/10/19
+ *
+ * University of Applied Sciences
+ * Bingen, Germany
+ *
+ * FPro Project "Jaytracer"
+ *
+ * Author:
+ * M S
+ *
+ */
+package de.fhbingen.fpro.jaytracer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.vecmath.Point3d;
+
+/**
+ * Attributes the intersection tests and their time to the scene objects, e.g.
+ * to find a large sphere, which lies in thousands of grid cells and is tested
+ * again in every cell, or a plane in the linear list, which is tested by every
+ * ray.<br/>
+ * <br/>
+ * The profiler samples: only every n-th pixel (or packet or wavefront tile, if
+ * the rays are traced together) of a thread is profiled (see
+ * {@link #startSample()}). While a sample is active, the intersection code
+ * measures the time of every object test (see {@link #getSampler()}), the
+ * time of a block of primitives is shared by its objects. The time of an
+ * {@link Instance} includes the tests of its prototype's objects, which are
+ * listed too. The measurement adds about two <code>System.nanoTime()</code>
+ * calls per test to the sampled pixels.
+ *
+ * @author M S
+ */
+final class ObjectProfiler {
+
+    /** The number of objects in the report */
+    static final int TOP_OBJECTS = 10;
+
+    /** Every n-th pixel is profiled, 0 if the profiler is disabled */
+    private static volatile int interval;
+
+    /** The samplers of the threads, which have traced */
+    private static final List<Sampler> samplers = new CopyOnWriteArrayList<Sampler>();
+
+    /** The sampler of the current thread */
+    private static final ThreadLocal<Sampler> local = new ThreadLocal<Sampler>() {
+        protected Sampler initialValue() {
+            Sampler sampler = new Sampler();
+            samplers.add(sampler);
+            return sampler;
+        }
+    };
+
+    /**
+     * Only static methods.
+     */
+    private ObjectProfiler() {
+    }
+
+    /**
+     * Enables the profiler.
+     * @param interval Every n-th pixel is profiled, 1 profiles all pixels.
+     */
+    static void enable(int interval) {
+        ObjectProfiler.interval = interval;
+    }
+
+    /**
+     * Disables the profiler. The collected costs are kept.
+     */
+    static void disable() {
+        interval = 0;
+    }
+
+    /**
+     * @return <code>true</code>, if the profiler is enabled.
+     */
+    static boolean isEnabled() {
+        return interval > 0;
+    }
+
+    /**
+     * Starts the sample of the current thread, if the profiler is enabled and
+     * the current pixel is the n-th pixel of the thread.
+     * @return <code>true</code>, if the pixel is profiled, then {@link #endSample()}
+     * must be called after tracing it.
+     */
+    static boolean startSample() {
+        int n = interval;
+        if(n == 0) {
+            return false;
+        }
+        Sampler sampler = local.get();
+        if(++sampler.pixels % n != 0) {
+            return false;
+        }
+        sampler.active = true;
+        sampler.samples++;
+        return true;
+    }
+
+    /**
+     * Ends the sample of the current thread.
+     */
+    static void endSample() {
+        local.get().active = false;
+    }
+
+    /**
+     * @return the sampler of the current thread or <code>null</code>, if the
+     * current pixel is not profiled.
+     */
+    static Sampler getSampler() {
+        if(interval == 0) {
+            return null;
+        }
+        Sampler sampler = local.get();
+        return sampler.active ? sampler : null;
+    }
+
+    /**
+     * Drops the collected costs. The threads must not trace at the same time.
+     */
+    static void reset() {
+        for(Sampler sampler : samplers) {
+            sampler.costs.clear();
+            sampler.pixels = 0;
+            sampler.samples = 0;
+        }
+    }
+
+    /**
+     * Creates the report of the collected costs: the tests and the time by
+     * object type and the {@link #TOP_OBJECTS} most expensive objects with their
+     * bounds and grid cells. The threads must not trace at the same time.
+     * @param scene The traced scene.
+     * @return the report.
+     */
+    static String report(Scene scene) {
+        Map<SceneObject, long[]> costs = new IdentityHashMap<SceneObject, long[]>();
+        long samples = 0;
+        for(Sampler sampler : samplers) {
+            samples += sampler.samples;
+            for(Map.Entry<SceneObject, long[]> entry : sampler.costs.entrySet()) {
+                long[] sum = costs.get(entry.getKey());
+                if(sum == null) {
+                    sum = new long[2];
+                    costs.put(entry.getKey(), sum);
+                }
+                sum[0] += entry.getValue()[0];
+                sum[1] += entry.getValue()[1];
+            }
+        }
+
+        // instances include the costs of their prototypes' objects, so the total doesn't count them
+        long tests = 0;
+        long nanos = 0;
+        Map<String, long[]> types = new TreeMap<String, long[]>();
+        for(Map.Entry<SceneObject, long[]> entry : costs.entrySet()) {
+            String type = entry.getKey().getClass().getSimpleName();
+            long[] sum = types.get(type);
+            if(sum == null) {
+                sum = new long[3];
+                types.put(type, sum);
+            }
+            sum[0] += entry.getValue()[0];
+            sum[1] += entry.getValue()[1];
+            sum[2]++;
+            if(!(entry.getKey() instanceof Instance)) {
+                tests += entry.getValue()[0];
+                nanos += entry.getValue()[1];
+            }
+        }
+
+        StringBuilder report = new StringBuilder();
+        report.append(String.format(Locale.ROOT, "profile: %d sampled pixels (1 of %d), %d tests, %.1f ms%n",
+                samples, Math.max(1, interval), tests, nanos / 1e6));
+        report.append(String.format(Locale.ROOT, "%-14s %8s %12s %7s %10s %7s%n", "type", "objects", "tests", "tests%", "ms", "time%"));
+        for(Map.Entry<String, long[]> entry : types.entrySet()) {
+            long[] sum = entry.getValue();
+            report.append(String.format(Locale.ROOT, "%-14s %8d %12d %6.1f%% %10.1f %6.1f%%%n", entry.getKey(), sum[2], sum[0],
+                    percent(sum[0], tests), sum[1] / 1e6, percent(sum[1], nanos)));
+        }
+        if(types.containsKey("Instance")) {
+            report.append("(the tests and the time of instances include their prototypes' objects)").append(String.format("%n"));
+        }
+
+        List<Map.Entry<SceneObject, long[]>> objects = new ArrayList<Map.Entry<SceneObject, long[]>>(costs.entrySet());
+        Collections.sort(objects, new Comparator<Map.Entry<SceneObject, long[]>>() {
+            public int compare(Map.Entry<SceneObject, long[]> a, Map.Entry<SceneObject, long[]> b) {
+                return Long.compare(b.getValue()[1], a.getValue()[1]);
+            }
+        });
+        report.append("top objects by time:").append(String.format("%n"));
+        for(int i = 0; i < Math.min(TOP_OBJECTS, objects.size()); ++i) {
+            SceneObject object = objects.get(i).getKey();
+            long[] cost = objects.get(i).getValue();
+            report.append(String.format(Locale.ROOT, "%2d. %s@%x: %.1f ms (%.1f%%), %d tests, bounds %s, %s%n", i + 1,
+                    object.getClass().getSimpleName(), System.identityHashCode(object), cost[1] / 1e6,
+                    percent(cost[1], nanos), cost[0], toString(object.getBounds()), getPlacement(scene, object)));
+        }
+        return report.toString();
+    }
+
+    /**
+     * @return where the scene keeps the object.
+     */
+    private static String getPlacement(Scene scene, SceneObject object) {
+        if(scene instanceof RegularGridScene) {
+            int cells = ((RegularGridScene) scene).getCellCount(object);
+            if(cells > 0) {
+                return cells+" grid cells";
+            }
+        }
+        for(SceneObject s : scene.getSceneObjects()) {
+            if(s == object) {
+                return "linear list (tested by every ray)";
+            }
+        }
+        return "prototype of an instance";
+    }
+
+    /**
+     * @return the corners of a bounding box or <code>unbounded</code>.
+     */
+    private static String toString(BoundingVolume bounds) {
+        if(!(bounds instanceof BoundingBox) || bounds.isInfinite() || bounds.isInfinitesimal()) {
+            return "unbounded";
+        }
+        BoundingBox box = (BoundingBox) bounds;
+        return toString(box.getLower())+"-"+toString(box.getUpper());
+    }
+
+    /**
+     * @return the point with 2 decimals.
+     */
+    private static String toString(Point3d p) {
+        return String.format(Locale.ROOT, "(%.2f,%.2f,%.2f)", p.x, p.y, p.z);
+    }
+
+    /**
+     * @return a as percentage of b.
+     */
+    private static double percent(long a, long b) {
+        return b == 0 ? 0 : 100.0 * a / b;
+    }
+
+    /**
+     * The costs, which a thread has collected.
+     */
+    static final class Sampler {
+
+        /** <code>true</code>, while the current pixel is profiled */
+        private boolean active;
+
+        /** The number of pixels and of profiled pixels */
+        private long pixels;
+        private long samples;
+
+        /** The tests and the time in nanoseconds by object */
+        private final Map<SceneObject, long[]> costs = new IdentityHashMap<SceneObject, long[]>();
+
+        /**
+         * Adds the cost of intersection tests with an object.
+         * @param object The object.
+         * @param tests The number of tests.
+         * @param nanos The time in nanoseconds.
+         */
+        void record(SceneObject object, long tests, long nanos) {
+            long[] cost = costs.get(object);
+            if(cost == null) {
+                cost = new long[2];
+                costs.put(object, cost);
+            }
+            cost[0] += tests;
+            cost[1] += nanos;
+        }
+    }
+}
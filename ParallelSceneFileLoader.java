@@ -0,0 +1,364 @@
+/*
+ * ParallelSceneFileLoader.java
+ * 26/10/19
+ *
+ * University of Applied Sciences
+ * Bingen, Germany
+ *
+ * FPro Project "Jaytracer"
+ *
+ * Author:
+ * M S
+ *
+ */
+package de.fhbingen.fpro.jaytracer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Loads xml scene files with several threads.<br/>
+ * <br/>
+ * The content of the root element is split into chunks at the start tags of
+ * the root element's children. The boundaries are found by a fast sequential
+ * scan, which only follows the tags, comments, CDATA sections and quoted
+ * attribute values. Every chunk is parsed by its own {@link SceneFileScanner}
+ * into a private scene, while the boundary scan continues. Then the chunk
+ * scenes are merged in file order, so the scene is the same as if it had
+ * been loaded by one thread. A material between two chunks' objects (a
+ * material after a box) is passed to the last object of the preceding chunk.<br/>
+ * <br/>
+ * Files with prototypes or animations are not loaded in parallel, because
+ * their instances and keyframes may refer to a prototype or an instance in a
+ * preceding chunk.
+ *
+ * @author M S
+ */
+class ParallelSceneFileLoader {
+
+    /** Minimum size of a chunk */
+    private static final long CHUNK_SIZE = 8 << 20;
+
+    /** Elements, that prevent parallel loading */
+    private static final String PROTOTYPE = "prototype";
+    private static final String ANIMATION = "animation";
+
+    /** Size of the read buffer of the boundary scan */
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /** The scene, to which the objects are added */
+    private Scene scene;
+
+    /** The number of threads */
+    private int threads;
+
+    /** Path to the scene file */
+    private String file;
+
+    /** The file channel */
+    private FileChannel channel;
+
+    /** The read buffer of the boundary scan */
+    private byte[] buffer = new byte[BUFFER_SIZE];
+
+    /** Reused container for the element names of the boundary scan */
+    private StringBuilder name = new StringBuilder();
+
+    /** Position of the next byte in the buffer */
+    private int position = 0;
+
+    /** Number of valid bytes in the buffer */
+    private int limit = 0;
+
+    /** File offset of the first byte in the buffer */
+    private long bufferOffset;
+
+    /**
+     * Creates a loader for the given scene.
+     * @param scene Scene, to which the information from the file shell be added.
+     * @param threads The number of threads.
+     */
+    ParallelSceneFileLoader(Scene scene, int threads) {
+        this.scene = scene;
+        this.threads = threads;
+    }
+
+    /**
+     * Loads a scene file.
+     * @param file Path to the scene file.
+     * @return <code>false</code> if the file can't be handled by the
+     * {@link SceneFileScanner} or contains prototypes or animations. In this case, the
+     * scene's objects are unchanged.
+     * @throws IOException If file is not readable.
+     * @throws SAXException If file format is not valid.
+     */
+    boolean load(String file) throws SAXException, IOException {
+        this.file = file;
+        channel = FileChannel.open(new File(file).toPath(), StandardOpenOption.READ);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Chunk>> chunks = new ArrayList<Future<Chunk>>();
+        try {
+            SceneFileContentHandler handler = new SceneFileContentHandler(scene);
+            handler.setSceneFile(file);
+            SceneFileScanner scanner = new SceneFileScanner(handler);
+            if(!scanner.scanRootStart(channel)) {
+                return false;
+            }
+            if(!scanner.isRootOpen()) {
+                scanner.scanRootEnd(scanner.getOffset());
+                return true;
+            }
+
+            long end = split(scanner.getOffset(), scanner.getRootElement(), executor, chunks);
+            if(end == -1) {
+                return false;
+            }
+            merge(chunks);
+            scanner.scanRootEnd(end);
+            return true;
+        } finally {
+            for(Future<Chunk> chunk : chunks) {
+                chunk.cancel(true);
+            }
+            executor.shutdownNow();
+            channel.close();
+        }
+    }
+
+    /**
+     * Scans the content of the root element for chunk boundaries and submits
+     * the chunks to the executor.
+     * @param start The file offset after the root start tag.
+     * @param root The name of the root element.
+     * @return the file offset of the root end tag (or of the end of the file, if
+     * there is no end tag) or -1, if a prototype or an animation is found.
+     */
+    private long split(long start, String root, ExecutorService executor, List<Future<Chunk>> chunks) throws IOException {
+        seek(start);
+        long chunkStart = start;
+        int depth = 1;
+        for(;;) {
+            int c = next();
+            if(c == -1) {
+                break;
+            }
+            if(c != '<') {
+                continue;
+            }
+            long tagStart = getOffset() - 1;
+            c = next();
+            if(c == '/') {
+                skipPast(">");
+                if(--depth == 0) {
+                    submit(chunkStart, tagStart, root, executor, chunks);
+                    return tagStart;
+                }
+            } else if(c == '!') {
+                if(next() == '-') {
+                    skipPast("-->");
+                } else {
+                    skipPast("]]>");
+                }
+            } else if(c == '?') {
+                skipPast("?>");
+            } else {
+                if(depth == 1 && tagStart - chunkStart >= CHUNK_SIZE) {
+                    submit(chunkStart, tagStart, root, executor, chunks);
+                    chunkStart = tagStart;
+                }
+                name.setLength(0);
+                int last = c;
+                while(c > ' ' && c != '/' && c != '>') {
+                    name.append((char) c);
+                    last = c;
+                    c = next();
+                }
+                if(PROTOTYPE.contentEquals(name) || ANIMATION.contentEquals(name)) {
+                    return -1;
+                }
+                while(c != '>' && c != -1) {
+                    if(c == '"' || c == '\'') {
+                        skipPast(c == '"' ? "\"" : "'");
+                    }
+                    last = c;
+                    c = next();
+                }
+                if(last != '/') {
+                    depth++;
+                }
+            }
+        }
+        long end = getOffset();
+        submit(chunkStart, end, root, executor, chunks);
+        return end;
+    }
+
+    /**
+     * Merges the chunk scenes in file order into the scene.
+     */
+    private void merge(List<Future<Chunk>> chunks) throws SAXException, IOException {
+        SceneObject current = null;
+        for(Future<Chunk> future : chunks) {
+            Chunk chunk = get(future);
+            if(chunk.handler.getLeadingMaterial() != null) {
+                if(current == null) {
+                    throw new SceneFileException(
+                            "Material outside of a SceneObject is not allowed.");
+                }
+                current.setMaterial(chunk.handler.getLeadingMaterial());
+            }
+            if(chunk.scene.getCamera() != null) {
+                if(scene.getCamera() != null) {
+                    throw new SceneFileException(
+                            "multiple cameras - only one is allowed");
+                }
+                scene.setCamera(chunk.scene.getCamera());
+            }
+            for(Light light : chunk.scene.getLights()) {
+                scene.addLight(light);
+            }
+            long start = RenderStatistics.startPhase();
+            for(SceneObject sceneObject : chunk.scene.getSceneObjects()) {
+                scene.addSceneObject(sceneObject);
+            }
+            RenderStatistics.endPhase(RenderStatistics.BUILD_TIME, start);
+            if(chunk.scene.getObjectCount() > 0) {
+                current = chunk.handler.getCurrentSceneObject();
+            }
+        }
+    }
+
+    /**
+     * Waits for a chunk and passes its exception.
+     */
+    private static Chunk get(Future<Chunk> future) throws SAXException, IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("scene loading interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof SAXException) {
+                throw (SAXException) cause;
+            }
+            if(cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if(cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw (Error) cause;
+        }
+    }
+
+    /**
+     * Submits a chunk to the executor.
+     */
+    private void submit(long start, long end, String root, ExecutorService executor, List<Future<Chunk>> chunks) {
+        if(start < end) {
+            chunks.add(executor.submit(new Chunk(start, end, root)));
+        }
+    }
+
+    /**
+     * Skips the bytes up to and including the given ASCII terminator.
+     */
+    private void skipPast(String terminator) throws IOException {
+        int pattern = 0;
+        int mask = 0;
+        for(int i = 0; i < terminator.length(); ++i) {
+            pattern = (pattern << 8) | terminator.charAt(i);
+            mask = (mask << 8) | 0xff;
+        }
+        int window = 0;
+        int c;
+        while((c = next()) != -1) {
+            window = (window << 8) | c;
+            if((window & mask) == pattern) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the next byte or -1 at the end of the file.
+     */
+    private int next() throws IOException {
+        if(position == limit) {
+            bufferOffset += limit;
+            position = 0;
+            limit = 0;
+            ByteBuffer target = ByteBuffer.wrap(buffer);
+            while(limit == 0) {
+                int n = channel.read(target, bufferOffset);
+                if(n == -1) {
+                    return -1;
+                }
+                limit = n;
+            }
+        }
+        return buffer[position++] & 0xff;
+    }
+
+    /**
+     * Discards the buffer content and continues reading at the given file offset.
+     */
+    private void seek(long offset) {
+        bufferOffset = offset;
+        position = 0;
+        limit = 0;
+    }
+
+    /**
+     * @return the file offset of the next byte.
+     */
+    private long getOffset() {
+        return bufferOffset + position;
+    }
+
+    /**
+     * A part of the root element's content, that is loaded into its own scene.
+     */
+    private class Chunk implements Callable<Chunk> {
+
+        /** The file offset of the chunk */
+        private long start;
+
+        /** The file offset after the chunk */
+        private long end;
+
+        /** The name of the root element */
+        private String root;
+
+        /** The scene, that gets the chunk's objects */
+        private Scene scene = new Scene();
+
+        /** The handler of the chunk */
+        private SceneFileContentHandler handler = new SceneFileContentHandler(scene, true);
+
+        Chunk(long start, long end, String root) {
+            this.start = start;
+            this.end = end;
+            this.root = root;
+        }
+
+        public Chunk call() throws SAXException, IOException {
+            handler.setSceneFile(file);
+            new SceneFileScanner(handler).scanFragment(channel, start, end, root);
+            return this;
+        }
+    }
+}
@@ -0,0 +1,472 @@
+/*
+ * PlyMeshReader.java
+ * 26/10/19
+ *
+ * University of Applied Sciences
+ * Bingen, Germany
+ *
+ * FPro Project "Jaytracer"
+ *
+ * Author:
+ * M S
+ *
+ */
+package de.fhbingen.fpro.jaytracer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming reader for binary PLY files (little or big endian). The file is
+ * read through a direct byte buffer from a file channel. The element counts of
+ * the header are used to allocate the mesh arrays in advance.<br/>
+ * <br/>
+ * The positions (<code>x</code>, <code>y</code>, <code>z</code>) of the
+ * <code>vertex</code> element and the <code>vertex_indices</code> (or
+ * <code>vertex_index</code>) list of the <code>face</code> element are read,
+ * all other properties and elements are skipped. ASCII PLY files are not supported.
+ *
+ * @author M S
+ */
+public class PlyMeshReader extends MeshFileReader {
+
+    /** Size of the read buffer */
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /** Property types, in the order of their type codes (the second half are the alternative names) */
+    private static final String[] TYPE_NAMES = {
+        "char", "uchar", "short", "ushort", "int", "uint", "float", "double",
+        "int8", "uint8", "int16", "uint16", "int32", "uint32", "float32", "float64"
+    };
+
+    /** Type codes */
+    private static final int CHAR = 0;
+    private static final int UCHAR = 1;
+    private static final int SHORT = 2;
+    private static final int USHORT = 3;
+    private static final int INT = 4;
+    private static final int UINT = 5;
+    private static final int FLOAT = 6;
+    private static final int DOUBLE = 7;
+
+    /** Sizes of the types in bytes */
+    private static final int[] TYPE_SIZES = { 1, 1, 2, 2, 4, 4, 4, 8 };
+
+    /** The source channel */
+    private FileChannel channel;
+
+    /** The read buffer */
+    private ByteBuffer buffer;
+
+    /** Reused container for the vertex indices of a face */
+    private int[] polygon = new int[16];
+
+    /**
+     * Reads the vertices and faces of a binary PLY file.
+     */
+    protected void readContent(File file) throws SceneFileException, IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        buffer.flip();
+        try {
+            List<Element> elements = readHeader();
+            int vertexCount = 0, faceCount = 0;
+            Element last = null;
+            for(Element element : elements) {
+                if(element.name.equals("vertex")) {
+                    vertexCount = element.count;
+                    last = element;
+                } else if(element.name.equals("face")) {
+                    faceCount = element.count;
+                    last = element;
+                }
+            }
+            ensureCapacity(vertexCount, faceCount);
+
+            for(Element element : elements) {
+                if(element.name.equals("vertex")) {
+                    readVertices(element);
+                } else if(element.name.equals("face")) {
+                    readFaces(element);
+                } else {
+                    skip(element);
+                }
+                if(element == last) {
+                    break;
+                }
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Reads the header and sets the byte order of the buffer.
+     * @return the elements.
+     */
+    private List<Element> readHeader() throws SceneFileException, IOException {
+        if(!readHeaderLine().equals("ply")) {
+            throw new SceneFileException("not a ply file");
+        }
+        List<Element> elements = new ArrayList<Element>();
+        boolean format = false;
+        for(;;) {
+            String[] tokens = readHeaderLine().trim().split("\\s+");
+            switch(tokens[0]) {
+                case "format":
+                    if(tokens.length < 2) {
+                        throw new SceneFileException("malformed ply format");
+                    }
+                    if(tokens[1].equals("binary_little_endian")) {
+                        buffer.order(ByteOrder.LITTLE_ENDIAN);
+                    } else if(tokens[1].equals("binary_big_endian")) {
+                        buffer.order(ByteOrder.BIG_ENDIAN);
+                    } else {
+                        throw new SceneFileException("unsupported ply format: "+tokens[1]);
+                    }
+                    format = true;
+                    break;
+                case "element":
+                    if(tokens.length != 3) {
+                        throw new SceneFileException("malformed ply element");
+                    }
+                    int count;
+                    try {
+                        count = Integer.parseInt(tokens[2]);
+                    } catch (NumberFormatException e) {
+                        throw new SceneFileException("invalid ply element count: "+tokens[2]);
+                    }
+                    if(count < 0 || count > Integer.MAX_VALUE / 3) {
+                        throw new SceneFileException("invalid ply element count: "+tokens[2]);
+                    }
+                    elements.add(new Element(tokens[1], count));
+                    break;
+                case "property":
+                    if(elements.isEmpty()) {
+                        throw new SceneFileException("ply property outside of an element");
+                    }
+                    Property property;
+                    if(tokens.length == 5 && tokens[1].equals("list")) {
+                        property = new Property(tokens[4], getType(tokens[3]), getType(tokens[2]));
+                    } else if(tokens.length == 3) {
+                        property = new Property(tokens[2], getType(tokens[1]), -1);
+                    } else {
+                        throw new SceneFileException("malformed ply property");
+                    }
+                    elements.get(elements.size() - 1).properties.add(property);
+                    break;
+                case "end_header":
+                    if(!format) {
+                        throw new SceneFileException("missing ply format");
+                    }
+                    return elements;
+                case "comment":
+                case "obj_info":
+                case "":
+                    break;
+                default:
+                    throw new SceneFileException("unknown ply header line: "+tokens[0]);
+            }
+        }
+    }
+
+    /**
+     * Reads the vertex positions.
+     */
+    private void readVertices(Element element) throws SceneFileException, IOException {
+        int x = element.indexOf("x");
+        int y = element.indexOf("y");
+        int z = element.indexOf("z");
+        if(x == -1 || y == -1 || z == -1) {
+            throw new SceneFileException("missing vertex position property");
+        }
+        List<Property> properties = element.properties;
+        int rowSize = element.getRowSize();
+        if(rowSize != -1) {
+            // fixed size rows: the coordinates are read at their offsets
+            int xOffset = element.getOffset(x), xType = properties.get(x).type;
+            int yOffset = element.getOffset(y), yType = properties.get(y).type;
+            int zOffset = element.getOffset(z), zType = properties.get(z).type;
+            for(int i = 0; i < element.count; ++i) {
+                require(rowSize);
+                int p = buffer.position();
+                addVertex(getNumber(xType, p + xOffset), getNumber(yType, p + yOffset), getNumber(zType, p + zOffset));
+                buffer.position(p + rowSize);
+            }
+            return;
+        }
+        double[] coordinates = new double[3];
+        for(int i = 0; i < element.count; ++i) {
+            for(int j = 0; j < properties.size(); ++j) {
+                Property property = properties.get(j);
+                if(property.countType != -1) {
+                    skipList(property);
+                } else {
+                    require(TYPE_SIZES[property.type]);
+                    double value = getNumber(property.type);
+                    if(j == x) {
+                        coordinates[0] = value;
+                    } else if(j == y) {
+                        coordinates[1] = value;
+                    } else if(j == z) {
+                        coordinates[2] = value;
+                    }
+                }
+            }
+            addVertex(coordinates[0], coordinates[1], coordinates[2]);
+        }
+    }
+
+    /**
+     * Reads the faces.
+     */
+    private void readFaces(Element element) throws SceneFileException, IOException {
+        int indices = element.indexOf("vertex_indices");
+        if(indices == -1) {
+            indices = element.indexOf("vertex_index");
+        }
+        if(indices == -1 || element.properties.get(indices).countType == -1) {
+            throw new SceneFileException("missing face vertex index list");
+        }
+        List<Property> properties = element.properties;
+        for(int i = 0; i < element.count; ++i) {
+            for(int j = 0; j < properties.size(); ++j) {
+                Property property = properties.get(j);
+                if(j != indices) {
+                    if(property.countType != -1) {
+                        skipList(property);
+                    } else {
+                        skipBytes(TYPE_SIZES[property.type]);
+                    }
+                    continue;
+                }
+                int count = getCount(property);
+                if(count > polygon.length) {
+                    polygon = new int[Math.max(count, 2 * polygon.length)];
+                }
+                int size = TYPE_SIZES[property.type];
+                for(int k = 0; k < count; ++k) {
+                    require(size);
+                    polygon[k] = (int) getNumber(property.type);
+                }
+                addPolygon(polygon, count);
+            }
+        }
+    }
+
+    /**
+     * Skips all rows of an element.
+     */
+    private void skip(Element element) throws SceneFileException, IOException {
+        int rowSize = element.getRowSize();
+        for(int i = 0; i < element.count; ++i) {
+            if(rowSize != -1) {
+                skipBytes(rowSize);
+                continue;
+            }
+            for(Property property : element.properties) {
+                if(property.countType != -1) {
+                    skipList(property);
+                } else {
+                    skipBytes(TYPE_SIZES[property.type]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Skips a list property.
+     */
+    private void skipList(Property property) throws SceneFileException, IOException {
+        long size = (long) getCount(property) * TYPE_SIZES[property.type];
+        while(size > 0) {
+            int n = (int) Math.min(size, BUFFER_SIZE);
+            skipBytes(n);
+            size -= n;
+        }
+    }
+
+    /**
+     * Reads the length of a list property.
+     */
+    private int getCount(Property property) throws SceneFileException, IOException {
+        require(TYPE_SIZES[property.countType]);
+        double count = getNumber(property.countType);
+        if(count < 0 || count > Integer.MAX_VALUE) {
+            throw new SceneFileException("invalid ply list length");
+        }
+        return (int) count;
+    }
+
+    /**
+     * Skips bytes of the file.
+     */
+    private void skipBytes(int n) throws SceneFileException, IOException {
+        require(n);
+        buffer.position(buffer.position() + n);
+    }
+
+    /**
+     * Reads a number at the buffer position.
+     */
+    private double getNumber(int type) {
+        switch(type) {
+            case CHAR: return buffer.get();
+            case UCHAR: return buffer.get() & 0xff;
+            case SHORT: return buffer.getShort();
+            case USHORT: return buffer.getShort() & 0xffff;
+            case INT: return buffer.getInt();
+            case UINT: return buffer.getInt() & 0xffffffffL;
+            case FLOAT: return buffer.getFloat();
+            default: return buffer.getDouble();
+        }
+    }
+
+    /**
+     * Reads a number at the given buffer index.
+     */
+    private double getNumber(int type, int index) {
+        switch(type) {
+            case CHAR: return buffer.get(index);
+            case UCHAR: return buffer.get(index) & 0xff;
+            case SHORT: return buffer.getShort(index);
+            case USHORT: return buffer.getShort(index) & 0xffff;
+            case INT: return buffer.getInt(index);
+            case UINT: return buffer.getInt(index) & 0xffffffffL;
+            case FLOAT: return buffer.getFloat(index);
+            default: return buffer.getDouble(index);
+        }
+    }
+
+    /**
+     * @return the code of a type name.
+     */
+    private static int getType(String name) throws SceneFileException {
+        for(int i = 0; i < TYPE_NAMES.length; ++i) {
+            if(TYPE_NAMES[i].equals(name)) {
+                return i % TYPE_SIZES.length;
+            }
+        }
+        throw new SceneFileException("unknown ply type: "+name);
+    }
+
+    /**
+     * Reads a line of the header.
+     * @return the line without the line end.
+     */
+    private String readHeaderLine() throws SceneFileException, IOException {
+        StringBuilder line = new StringBuilder();
+        for(;;) {
+            require(1);
+            char c = (char) (buffer.get() & 0xff);
+            if(c == '\n') {
+                break;
+            }
+            if(c != '\r') {
+                line.append(c);
+            }
+        }
+        return line.toString();
+    }
+
+    /**
+     * Makes sure, that the buffer contains at least the given number of bytes.
+     * @throws SceneFileException If the file ends before.
+     */
+    private void require(int bytes) throws SceneFileException, IOException {
+        if(buffer.remaining() >= bytes) {
+            return;
+        }
+        buffer.compact();
+        while(buffer.position() < bytes) {
+            if(channel.read(buffer) == -1) {
+                throw new SceneFileException("unexpected end of ply file");
+            }
+        }
+        buffer.flip();
+    }
+
+    /**
+     * An element of the header.
+     */
+    private static class Element {
+
+        /** The element name */
+        String name;
+
+        /** The number of rows */
+        int count;
+
+        /** The properties */
+        List<Property> properties = new ArrayList<Property>();
+
+        Element(String name, int count) {
+            this.name = name;
+            this.count = count;
+        }
+
+        /**
+         * @return the index of the named property or -1.
+         */
+        int indexOf(String property) {
+            for(int i = 0; i < properties.size(); ++i) {
+                if(properties.get(i).name.equals(property)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * @return the size of a row or -1, if the rows contain lists.
+         */
+        int getRowSize() {
+            int size = 0;
+            for(Property property : properties) {
+                if(property.countType != -1) {
+                    return -1;
+                }
+                size += TYPE_SIZES[property.type];
+            }
+            return size;
+        }
+
+        /**
+         * @return the offset of a property in a row without lists.
+         */
+        int getOffset(int property) {
+            int offset = 0;
+            for(int i = 0; i < property; ++i) {
+                offset += TYPE_SIZES[properties.get(i).type];
+            }
+            return offset;
+        }
+    }
+
+    /**
+     * A property of an element.
+     */
+    private static class Property {
+
+        /** The property name */
+        String name;
+
+        /** The type code (of the list items for a list) */
+        int type;
+
+        /** The type code of the list length or -1, if the property is no list */
+        int countType;
+
+        Property(String name, int type, int countType) {
+            this.name = name;
+            this.type = type;
+            this.countType = countType;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * PrimitiveBlock.java
+ * 26/10/19
+ *
+ * University of Applied Sciences
+ * Bingen, Germany
+ *
+ * FPro Project "Jaytracer"
+ *
+ * Author:
+ * M S
+ *
+ */
+package de.fhbingen.fpro.jaytracer;
+
+import java.util.Arrays;
+
+/**
+ * A block of up to {@link #SIZE} primitives of the same type. The geometry is
+ * stored as structure of arrays (one array per coordinate with one element per
+ * primitive), so a {@link BlockKernel} can intersect a ray with all primitives
+ * of the block at once.<br/>
+ * <br/>
+ * The elements of unused primitives are NaN. Every comparison with NaN fails,
+ * so they are never intersected and the kernels need not know the count.
+ *
+ * @author M S
+ */
+abstract class PrimitiveBlock {
+
+    /** The number of primitives in a block */
+    static final int SIZE = 8;
+
+    /** The scene objects of the primitives */
+    final SceneObject[] objects = new SceneObject[SIZE];
+
+    /** The positions of the primitives in the object list, from which the block was built */
+    final int[] order = new int[SIZE];
+
+    /** The number of primitives */
+    int count;
+
+    /** The lower corner of the bounding box of all primitives (x, y, z) */
+    final double[] lower = { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY };
+
+    /** The upper corner of the bounding box of all primitives (x, y, z) */
+    final double[] upper = { Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+
+    /**
+     * @return <code>true</code> if the block contains {@link #SIZE} primitives.
+     */
+    boolean isFull() {
+        return count == SIZE;
+    }
+
+    /**
+     * Intersects a ray with all primitives of the block.
+     * @param kernel The kernel, that computes the intersections.
+     * @param ox The ray's origin.
+     * @param oy
+     * @param oz
+     * @param dx The ray's normalized direction.
+     * @param dy
+     * @param dz
+     * @param t Gets the t-parameter of every primitive or
+     * <code>Double.POSITIVE_INFINITY</code>, if it is not intersected.
+     */
+    abstract void intersect(BlockKernel kernel, double ox, double oy, double oz,
+            double dx, double dy, double dz, double[] t);
+
+    /**
+     * Adds a scene object to the block.
+     * @param sceneObject
+     * @param position The position in the object list.
+     * @return the index of the primitive in the block.
+     */
+    int add(SceneObject sceneObject, int position) {
+        objects[count] = sceneObject;
+        order[count] = position;
+        return count++;
+    }
+
+    /**
+     * Extends the bounding box of the block by a box.
+     */
+    void extend(double lowerX, double lowerY, double lowerZ, double upperX, double upperY, double upperZ) {
+        lower[0] = Math.min(lower[0], lowerX);
+        lower[1] = Math.min(lower[1], lowerY);
+        lower[2] = Math.min(lower[2], lowerZ);
+        upper[0] = Math.max(upper[0], upperX);
+        upper[1] = Math.max(upper[1], upperY);
+        upper[2] = Math.max(upper[2], upperZ);
+    }
+
+    /**
+     * @return a new array of {@link #SIZE} NaN elements.
+     */
+    static double[] newArray() {
+        double[] array = new double[SIZE];
+        Arrays.fill(array, Double.NaN);
+        return array;
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * PrimitiveBlockList.java
+ * 26/10/19
+ *
+ * University of Applied Sciences
+ * Bingen, Germany
+ *
+ * FPro Project "Jaytracer"
+ *
+ * Author:
+ * M S
+ *
+ */
+package de.fhbingen.fpro.jaytracer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.vecmath.Point3d;
+import javax.vecmath.Vector3d;
+
+/**
+ * The objects of a leaf of a scene hierarchy (a grid cell or a small prototype),
+ * prepared for the {@link BlockKernel}s. Spheres and triangles are packed into
+ * {@link PrimitiveBlock}s, all other objects are intersected one by one. The
+ * primitives are sorted along a Morton curve through their centers, so that the
+ * primitives of a block lie close together and the block's bounding box is small
+ * enough to cull it for a {@link RayPacket}.<br/>
+ * <br/>
+ * The nearest object is the same as with a loop over the original list: if
+ * several objects have the same t-parameter, the first of them in the list is
+ * returned.
+ *
+ * @author M S
+ */
+final class PrimitiveBlockList {
+
+    /** The blocks */
+    private PrimitiveBlock[] blocks;
+
+    /** The objects, which are not in a block */
+    private SceneObject[] others;
+
+    /** The positions of the other objects in the list */
+    private int[] otherOrder;
+
+    /** The kernel */
+    private BlockKernel kernel;
+
+    /** The number of objects */
+    private int objectCount;
+
+    /**
+     * Packs the objects into blocks. The list is not changed.
+     * @param sceneObjects
+     */
+    PrimitiveBlockList(List<SceneObject> sceneObjects) {
+        this(sceneObjects, BlockKernel.getDefault());
+    }
+
+    /**
+     * Packs the objects into blocks for the given kernel. The list is not changed.
+     * @param sceneObjects
+     * @param kernel
+     */
+    PrimitiveBlockList(List<SceneObject> sceneObjects, BlockKernel kernel) {
+        this.kernel = kernel;
+        objectCount = sceneObjects.size();
+        List<SceneObject> spheres = new ArrayList<SceneObject>();
+        List<SceneObject> triangles = new ArrayList<SceneObject>();
+        List<SceneObject> otherList = new ArrayList<SceneObject>();
+        List<Integer> sphereOrder = new ArrayList<Integer>();
+        List<Integer> triangleOrder = new ArrayList<Integer>();
+        List<Integer> orderList = new ArrayList<Integer>();
+
+        int position = 0;
+        for(SceneObject s : sceneObjects) {
+            if(s instanceof Sphere) {
+                spheres.add(s);
+                sphereOrder.add(position);
+            } else if(s instanceof Triangle || s instanceof MeshTriangle) {
+                triangles.add(s);
+                triangleOrder.add(position);
+            } else {
+                otherList.add(s);
+                orderList.add(position);
+            }
+            position++;
+        }
+
+        List<PrimitiveBlock> blockList = new ArrayList<PrimitiveBlock>();
+        addBlocks(blockList, spheres, sphereOrder);
+        addBlocks(blockList, triangles, triangleOrder);
+        blocks = blockList.toArray(new PrimitiveBlock[blockList.size()]);
+        others = otherList.toArray(new SceneObject[otherList.size()]);
+        otherOrder = new int[others.length];
+        for(int i = 0; i < otherOrder.length; ++i) {
+            otherOrder[i] = orderList.get(i);
+        }
+    }
+
+    /**
+     * Packs primitives of the same type into blocks, in the order of the Morton curve.
+     * @param blockList Gets the blocks.
+     * @param primitives The spheres or the triangles.
+     * @param positions The positions of the primitives in the object list.
+     */
+    private static void addBlocks(List<PrimitiveBlock> blockList, List<SceneObject> primitives, List<Integer> positions) {
+        PrimitiveBlock block = null;
+        for(int i : sortByMortonCode(primitives)) {
+            SceneObject s = primitives.get(i);
+            if(block == null || block.isFull()) {
+                block = s instanceof Sphere ? new SphereBlock() : new TriangleBlock();
+                blockList.add(block);
+            }
+            if(s instanceof Sphere) {
+                ((SphereBlock) block).add((Sphere) s, positions.get(i));
+            } else if(s instanceof Triangle) {
+                ((TriangleBlock) block).add((Triangle) s, positions.get(i));
+            } else {
+                ((TriangleBlock) block).add((MeshTriangle) s, positions.get(i));
+            }
+        }
+    }
+
+    /**
+     * Sorts primitives along a Morton curve through the centers of their bounding
+     * boxes. The curve's resolution is 1024 steps on every axis of the bounds of
+     * all centers.
+     * @param primitives
+     * @return the indices of the primitives in the sorted order.
+     */
+    private static int[] sortByMortonCode(List<SceneObject> primitives) {
+        int n = primitives.size();
+        double[] centers = new double[3 * n];
+        double[] lower = { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY };
+        double[] upper = { Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+        for(int i = 0; i < n; ++i) {
+            BoundingBox box = (BoundingBox) primitives.get(i).getBounds();
+            centers[3 * i] = box.getLower().x + 0.5 * box.getSize().x;
+            centers[3 * i + 1] = box.getLower().y + 0.5 * box.getSize().y;
+            centers[3 * i + 2] = box.getLower().z + 0.5 * box.getSize().z;
+            for(int axis = 0; axis < 3; ++axis) {
+                lower[axis] = Math.min(lower[axis], centers[3 * i + axis]);
+                upper[axis] = Math.max(upper[axis], centers[3 * i + axis]);
+            }
+        }
+
+        // the code in the upper and the index in the lower half of the keys
+        long[] keys = new long[n];
+        for(int i = 0; i < n; ++i) {
+            long code = 0;
+            for(int axis = 0; axis < 3; ++axis) {
+                double extent = upper[axis] - lower[axis];
+                int step = extent > 0 ? (int) ((centers[3 * i + axis] - lower[axis]) / extent * 1023) : 0;
+                code |= spreadBits(step) << axis;
+            }
+            keys[i] = code << 32 | i;
+        }
+        Arrays.sort(keys);
+        int[] indices = new int[n];
+        for(int i = 0; i < n; ++i) {
+            indices[i] = (int) keys[i];
+        }
+        return indices;
+    }
+
+    /**
+     * @param x A 10 bit number.
+     * @return the number with two zero bits after each of its bits.
+     */
+    private static long spreadBits(int x) {
+        long b = x & 0x3ff;
+        b = (b | b << 16) & 0x030000ffL;
+        b = (b | b << 8) & 0x0300f00fL;
+        b = (b | b << 4) & 0x030c30c3L;
+        b = (b | b << 2) & 0x09249249L;
+        return b;
+    }
+
+    /**
+     * @return <code>true</code> if there are no objects.
+     */
+    boolean isEmpty() {
+        return blocks.length == 0 && others.length == 0;
+    }
+
+    /**
+     * Finds the nearest object, that is intersected by a ray.
+     * @param ray
+     * @param t A work array of at least {@link PrimitiveBlock#SIZE} elements. Gets
+     * the t-parameter of the intersection in its first element.
+     * @return the nearest intersected object or <code>null</code>, if no object is
+     * intersected.
+     */
+    SceneObject getNearestObject(XRay ray, double[] t) {
+        SceneObject nearest = null;
+        double nearestT = Double.POSITIVE_INFINITY;
+        int nearestOrder = Integer.MAX_VALUE;
+        ObjectProfiler.Sampler sampler = ObjectProfiler.getSampler();
+
+        if(blocks.length > 0) {
+            Point3d o = ray.getOrigin();
+            Vector3d d = ray.getDirection();
+            for(PrimitiveBlock block : blocks) {
+                long begin = sampler != null ? System.nanoTime() : 0;
+                block.intersect(kernel, o.x, o.y, o.z, d.x, d.y, d.z, t);
+                if(sampler != null) {
+                    record(sampler, block, 1, System.nanoTime() - begin);
+                }
+                for(int i = 0; i < block.count; ++i) {
+                    if(t[i] < nearestT || (t[i] == nearestT && nearest != null && block.order[i] < nearestOrder)) {
+                        nearest = block.objects[i];
+                        nearestT = t[i];
+                        nearestOrder = block.order[i];
+                    }
+                }
+            }
+        }
+        for(int i = 0; i < others.length; ++i) {
+            long begin = sampler != null ? System.nanoTime() : 0;
+            double result = others[i].intersect(ray);
+            if(sampler != null) {
+                sampler.record(others[i], 1, System.nanoTime() - begin);
+            }
+            if(result > Scene.EPSILON && (result < nearestT || (result == nearestT && nearest != null && otherOrder[i] < nearestOrder))) {
+                nearest = others[i];
+                nearestT = result;
+                nearestOrder = otherOrder[i];
+            }
+        }
+
+        long[] statistics = RenderStatistics.getThreadCounters();
+        if(statistics != null) {
+            statistics[RenderStatistics.INTERSECTION_TESTS] += objectCount;
+        }
+        t[0] = nearestT;
+        return nearest;
+    }
+
+    /**
+     * Intersects the candidate rays of a packet with the objects and updates their
+     * nearest intersections. Blocks, which the packet misses as a whole, are skipped.
+     * @param packet
+     */
+    void intersect(RayPacket packet) {
+        for(int c = 0; c < packet.candidateCount; ++c) {
+            int i = packet.candidates[c];
+            packet.listNearest[i] = null;
+            packet.listT[i] = Double.POSITIVE_INFINITY;
+            packet.listOrder[i] = Integer.MAX_VALUE;
+        }
+
+        double[] t = packet.t;
+        long tests = (long) others.length * packet.candidateCount;
+        ObjectProfiler.Sampler sampler = ObjectProfiler.getSampler();
+        for(PrimitiveBlock block : blocks) {
+            if(packet.misses(block.lower, block.upper)) {
+                continue;
+            }
+            long begin = sampler != null ? System.nanoTime() : 0;
+            for(int c = 0; c < packet.candidateCount; ++c) {
+                intersect(block, packet, packet.candidates[c], t);
+            }
+            if(sampler != null) {
+                record(sampler, block, packet.candidateCount, System.nanoTime() - begin);
+            }
+            tests += block.count * packet.candidateCount;
+        }
+        RenderStatistics.count(RenderStatistics.INTERSECTION_TESTS, tests);
+        for(int c = 0; c < packet.candidateCount; ++c) {
+            int r = packet.candidates[c];
+            for(int i = 0; i < others.length; ++i) {
+                long begin = sampler != null ? System.nanoTime() : 0;
+                double result = others[i].intersect(packet.rays[r]);
+                if(sampler != null) {
+                    sampler.record(others[i], 1, System.nanoTime() - begin);
+                }
+                if(result > Scene.EPSILON && (result < packet.listT[r] || (result == packet.listT[r]
+                        && packet.listNearest[r] != null && otherOrder[i] < packet.listOrder[r]))) {
+                    packet.listNearest[r] = others[i];
+                    packet.listT[r] = result;
+                    packet.listOrder[r] = otherOrder[i];
+                }
+            }
+            if(packet.listNearest[r] != null && packet.listT[r] < packet.nearestT[r]) {
+                packet.nearest[r] = packet.listNearest[r];
+                packet.nearestT[r] = packet.listT[r];
+            }
+        }
+    }
+
+    /**
+     * Shares the cost of intersecting rays with a block among its objects.
+     * @param sampler The sampler of the current thread.
+     * @param block The block.
+     * @param rays The number of rays.
+     * @param nanos The time in nanoseconds.
+     */
+    private static void record(ObjectProfiler.Sampler sampler, PrimitiveBlock block, int rays, long nanos) {
+        for(int i = 0; i < block.count; ++i) {
+            sampler.record(block.objects[i], rays, nanos / block.count);
+        }
+    }
+
+    /**
+     * Intersects a ray of a packet with a block and updates the ray's nearest
+     * object in the list.
+     * @param block
+     * @param packet
+     * @param r The index of the ray.
+     * @param t A work array for the kernel.
+     */
+    private void intersect(PrimitiveBlock block, RayPacket packet, int r, double[] t) {
+        double[] o = packet.origin;
+        block.intersect(kernel, o[0], o[1], o[2], packet.dx[r], packet.dy[r], packet.dz[r], t);
+        for(int i = 0; i < block.count; ++i) {
+            if(t[i] < packet.listT[r] || (t[i] == packet.listT[r] && packet.listNearest[r] != null
+                    && block.order[i] < packet.listOrder[r])) {
+                packet.listNearest[r] = block.objects[i];
+                packet.listT[r] = t[i];
+                packet.listOrder[r] = block.order[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Prototype.java
+ * 26/10/19
+ *
+ * University of Applied Sciences
+ * Bingen, Germany
+ *
+ * FPro Project "Jaytracer"
+ *
+ * Author:
+ * M S
+ *
+ */
+package de.fhbingen.fpro.jaytracer;
+
+import java.util.List;
+
+import javax.vecmath.Point3d;
+import javax.vecmath.Vector3d;
+
+/**
+ * A group of scene objects, that is placed in the scene by {@link Instance}s.
+ * The objects are stored once in the prototype's own coordinate system, no
+ * matter how many instances refer to them.<br/>
+ * <br/>
+ * After all objects have been added, {@link #build()} creates the local scene
+ * hierarchy: a linear list for a few objects and a regular grid over the
+ * prototype's bounds for more objects. The objects of the list and of the
+ * grid cells are intersected with the block kernels (see {@link BlockKernel}).
+ *
+ * @author M S
+ */
+public class Prototype {
+
+    /** Minimum number of objects, for which a regular grid is built */
+    static final int GRID_THRESHOLD = 32;
+
+    /** Maximum number of grid cells in every dimension */
+    static final int MAX_CELL_COUNT = 32;
+
+    /** The name */
+    private String name;
+
+    /** The objects, until the hierarchy is built */
+    private Scene objects = new Scene();
+
+    /** The local scene hierarchy */
+    private Scene scene;
+
+    /** The packed objects of a linear hierarchy */
+    private PrimitiveBlockList blocks;
+
+    /** The bounding box of all objects or <code>null</code>, if an object is unbounded */
+    private BoundingBox bounds;
+
+    /**
+     * Creates an empty prototype.
+     * @param name
+     */
+    public Prototype(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return the name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Adds an object to the prototype. A triangle mesh is added as its triangles.
+     * @param sceneObject
+     * @throws IllegalStateException If the hierarchy is already built.
+     */
+    public void addSceneObject(SceneObject sceneObject) {
+        if(scene != null) {
+            throw new IllegalStateException("prototype is already built");
+        }
+        objects.addSceneObject(sceneObject);
+    }
+
+    /**
+     * @return the number of objects.
+     */
+    public int getObjectCount() {
+        return objects.getObjectCount();
+    }
+
+    /**
+     * @return the objects of the prototype.
+     */
+    List<SceneObject> getSceneObjects() {
+        return objects.getSceneObjects();
+    }
+
+    /**
+     * Creates the local scene hierarchy. Does nothing, if it is already built.
+     */
+    public void build() {
+        if(scene != null) {
+            return;
+        }
+        long start = RenderStatistics.startPhase();
+        bounds = computeBounds();
+        if(objects.getObjectCount() < GRID_THRESHOLD || bounds == null) {
+            blocks = new PrimitiveBlockList(objects.getSceneObjects());
+            scene = objects;
+            RenderStatistics.endPhase(RenderStatistics.BUILD_TIME, start);
+            return;
+        }
+
+        // enlarge the bounds a little, so the grid contains all objects
+        Point3d lower = new Point3d(bounds.getLower());
+        Vector3d size = new Vector3d(bounds.getSize());
+        double margin = 0.01 * Math.max(size.x, Math.max(size.y, size.z)) + Scene.EPSILON;
+        lower.sub(new Vector3d(margin, margin, margin));
+        size.add(new Vector3d(2 * margin, 2 * margin, 2 * margin));
+        int cellCount = (int) Math.min(MAX_CELL_COUNT, Math.max(1, Math.round(Math.cbrt(objects.getObjectCount()))));
+
+        RegularGridScene grid = new RegularGridScene(lower, size, cellCount);
+        for(SceneObject s : objects.getSceneObjects()) {
+            grid.addSceneObject(s);
+        }
+        scene = grid;
+        RenderStatistics.endPhase(RenderStatistics.BUILD_TIME, start);
+    }
+
+    /**
+     * @return the local scene hierarchy or <code>null</code>, if it is not built.
+     */
+    public Scene getScene() {
+        return scene;
+    }
+
+    /**
+     * @return the bounding box of all objects or <code>null</code>, if an object is
+     * unbounded or the hierarchy is not built.
+     */
+    public BoundingBox getBounds() {
+        return bounds;
+    }
+
+    /**
+     * Calculates the nearest intersection of a ray in the prototype's coordinate system.
+     * @param ray
+     * @return the intersected object and the t-parameter or <code>null</code>, if no
+     * object is intersected.
+     */
+    Instance.Hit intersect(XRay ray) {
+        if(bounds != null && !intersectsBounds(ray)) {
+            return null;
+        }
+        if(scene instanceof RegularGridScene) {
+            // the grid creates the intersection anyway, it's kept for the instance
+            Intersection intersection = scene.getNearestIntersection(ray);
+            return intersection == null ? null : new Instance.Hit(ray, intersection);
+        }
+        double[] t = new double[PrimitiveBlock.SIZE];
+        SceneObject sceneObject = blocks.getNearestObject(ray, t);
+        return sceneObject == null ? null : new Instance.Hit(ray, sceneObject, t[0]);
+    }
+
+    /**
+     * @param ray
+     * @return <code>true</code>, if the ray intersects the bounding box (slab test).
+     */
+    private boolean intersectsBounds(XRay ray) {
+        Point3d o = ray.getOrigin();
+        Vector3d d = ray.getDirection();
+        Point3d lower = bounds.getLower();
+        Point3d upper = bounds.getUpper();
+        double[] range = { 0.0, Double.POSITIVE_INFINITY };
+        return clip(o.x, d.x, lower.x, upper.x, range)
+                && clip(o.y, d.y, lower.y, upper.y, range)
+                && clip(o.z, d.z, lower.z, upper.z, range);
+    }
+
+    /**
+     * Clips the t-range of a ray to a slab.
+     * @param origin The ray's origin coordinate.
+     * @param direction The ray's direction coordinate.
+     * @param min The lower bound of the slab.
+     * @param max The upper bound of the slab.
+     * @param range The range (near, far), which is clipped.
+     * @return <code>false</code>, if the range gets empty.
+     */
+    private static boolean clip(double origin, double direction, double min, double max, double[] range) {
+        min -= Scene.EPSILON;
+        max += Scene.EPSILON;
+        if(direction == 0.0) {
+            return origin >= min && origin <= max;
+        }
+        double t1 = (min - origin) / direction;
+        double t2 = (max - origin) / direction;
+        range[0] = Math.max(range[0], Math.min(t1, t2));
+        range[1] = Math.min(range[1], Math.max(t1, t2));
+        return range[0] <= range[1];
+    }
+
+    /**
+     * @return the bounding box of all objects or <code>null</code>, if an object is unbounded.
+     */
+    private BoundingBox computeBounds() {
+        Point3d lower = new Point3d(Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
+        Point3d upper = new Point3d(Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY);
+        for(SceneObject s : objects.getSceneObjects()) {
+            if(!(s.getBounds() instanceof BoundingBox)) {
+                return null;
+            }
+            BoundingBox box = (BoundingBox) s.getBounds();
+            lower.x = Math.min(lower.x, box.getLower().x);
+            lower.y = Math.min(lower.y, box.getLower().y);
+            lower.z = Math.min(lower.z, box.getLower().z);
+            upper.x = Math.max(upper.x, box.getUpper().x);
+            upper.y = Math.max(upper.y, box.getUpper().y);
+            upper.z = Math.max(upper.z, box.getUpper().z);
+        }
+        if(lower.x > upper.x) {
+            return null;
+        }
+        Vector3d size = new Vector3d(upper);
+        size.sub(lower);
+        return new BoundingBox(lower, size);
+    }
+}
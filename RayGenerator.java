@@ -15,7 +15,12 @@
 package de.fhbingen.fpro.jaytracer;
 
 import javax.vecmath.*;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * This class is the ray generator. It creates rays according the given
@@ -53,6 +58,45 @@ public class RayGenerator extends Thread {
 	private double pointsInWidth;
 	private double pointsInHeight;
 	
+	/** <code>true</code>, if the trace status is printed */
+	private boolean verbose = true;
+	
+	/** The width and height of the pixel packets, whose primary rays are traced together */
+	private int packetSize = 1;
+	
+	/** The width and height of the wavefront tiles or 0, if the rays are traced recursively */
+	private int wavefrontTileSize = 0;
+	
+	/** The renderer of the wavefront tiles */
+	private WavefrontRenderer wavefrontRenderer;
+	
+	/** <code>true</code>, if the hit records of the wavefront tiles are kept for relighting */
+	private boolean relightable = false;
+	
+	/** The kept hit records of the wavefront tiles in the order of tracing */
+	private List<HitBuffer> hitBuffers = new ArrayList<HitBuffer>();
+	
+	/** <code>true</code>, if the objects of the wavefront tiles are recorded for incremental re-rendering */
+	private boolean editable = false;
+	
+	/** The ids of the objects, which are hit by any ray of the image, by the order of their first hit */
+	private Map<SceneObject, Integer> objectIds = new IdentityHashMap<SceneObject, Integer>();
+	
+	/** The ids of the objects, which are hit by the rays of each wavefront tile, in the order of tracing */
+	private List<BitSet> tileObjects = new ArrayList<BitSet>();
+	
+	/** The wavefront tiles, which must be traced again */
+	private BitSet dirtyTiles = new BitSet();
+
+	/** The time (see <code>System.nanoTime()</code>), at which tracing stops, or 0 */
+	private long deadline = 0;
+
+	/** The number of rows, which have been traced completely */
+	private int completedRows = 0;
+
+	/** Gets the time of every pixel or <code>null</code> */
+	private CostMap costMap;
+	
 	/**
      * Creates a RayGenerator.
      * @param rtScene The scene to ray trace.
@@ -117,59 +161,441 @@ public class RayGenerator extends Thread {
     	long startSec = actlDate.getTime();
     	long holeSec;
     	Color3f color;
+    	long traceStart = RenderStatistics.startPhase();
+    	RenderEvents.Render renderEvent = new RenderEvents.Render();
+    	renderEvent.begin();
     	
     	Point3d rayPoint = new Point3d(rtScene.getCamera().getPosition());
         for(int j = firstY; j < height; ++j) {
-            for(int i = firstX; i < width; ++i) {
-            	if (this.supersampling == 0) {
-            		rtRay = new XRay(rayPoint, getVec(j,i), rtScene);
-            		color = rtRay.recursiveTrace(recursiveDepth);
+            if(this.supersampling == 0 && wavefrontTileSize > 0) {
+                //the rays of a tile are traced bounce by bounce
+                if((j - firstY) % wavefrontTileSize == 0) {
+                    traceWavefront(rayPoint, j);
+                    completedRows = Math.min(height, j + wavefrontTileSize);
+                }
+            } else if(this.supersampling == 0 && packetSize > 1) {
+                //the primary rays of neighboring pixels are traced in packets
+                if((j - firstY) % packetSize == 0) {
+                    tracePackets(rayPoint, j);
+                    completedRows = Math.min(height, j + packetSize);
+                }
+            } else {
+                RenderEvents.TileRender tileEvent = new RenderEvents.TileRender();
+                tileEvent.begin();
+                long secondaryRays = getSecondaryRays();
+                for(int i = firstX; i < width; ++i) {
+                	long pixelStart = costMap != null ? System.nanoTime() : 0;
+                	boolean sampled = ObjectProfiler.startSample();
+                	if (this.supersampling == 0) {
+                		rtRay = new XRay(rayPoint, getVec(j,i), rtScene);
+                		color = rtRay.recursiveTrace(recursiveDepth);
             		
-            	} else {
-            	//rtRay = new XRay(rayPoint, getVec(j,i), rtScene);
-            	//generate sumpersampling rays
-            	vecSS1 = getVec(j,i);
+                	} else {
+                	//rtRay = new XRay(rayPoint, getVec(j,i), rtScene);
+                	//generate sumpersampling rays
+                	vecSS1 = getVec(j,i);
             	
-            	vecSS1.normalize();
-            	vecSS2 = new Vector3d(vecSS1);
-            	vecSS3 = new Vector3d(vecSS1);
-            	vecSS4 = new Vector3d(vecSS1);
+                	vecSS1.normalize();
+                	vecSS2 = new Vector3d(vecSS1);
+                	vecSS3 = new Vector3d(vecSS1);
+                	vecSS4 = new Vector3d(vecSS1);
             	
-            	vecSS1.add(this.ssGrid[this.supersampling-1][0]);
-            	vecSS2.add(this.ssGrid[this.supersampling-1][1]);
-            	vecSS3.add(this.ssGrid[this.supersampling-1][2]);
-            	vecSS4.add(this.ssGrid[this.supersampling-1][3]);
+                	vecSS1.add(this.ssGrid[this.supersampling-1][0]);
+                	vecSS2.add(this.ssGrid[this.supersampling-1][1]);
+                	vecSS3.add(this.ssGrid[this.supersampling-1][2]);
+                	vecSS4.add(this.ssGrid[this.supersampling-1][3]);
             	
-            	rtRaySS1 = new XRay(rayPoint, vecSS1, rtScene);
-            	rtRaySS2 = new XRay(rayPoint, vecSS2, rtScene);
-            	rtRaySS3 = new XRay(rayPoint, vecSS3, rtScene);
-            	rtRaySS4 = new XRay(rayPoint, vecSS4, rtScene);
+                	rtRaySS1 = new XRay(rayPoint, vecSS1, rtScene);
+                	rtRaySS2 = new XRay(rayPoint, vecSS2, rtScene);
+                	rtRaySS3 = new XRay(rayPoint, vecSS3, rtScene);
+                	rtRaySS4 = new XRay(rayPoint, vecSS4, rtScene);
             	
-            	color = rtRaySS1.recursiveTrace(100);
-            	color.add(rtRaySS2.recursiveTrace(100));
-            	color.add(rtRaySS3.recursiveTrace(100));
-            	color.add(rtRaySS4.recursiveTrace(100));
+                	color = rtRaySS1.recursiveTrace(100);
+                	color.add(rtRaySS2.recursiveTrace(100));
+                	color.add(rtRaySS3.recursiveTrace(100));
+                	color.add(rtRaySS4.recursiveTrace(100));
             	
-            	color.scale(0.25f);
-            	}
+                	color.scale(0.25f);
+                	}
             	
-            	//color.clampMax(1.0f);
-            	pixelMap[j][i] = toInt(color);
+                	//color.clampMax(1.0f);
+                	pixelMap[j][i] = toInt(color);
+                	if(sampled) {
+                		ObjectProfiler.endSample();
+                	}
+                	if(costMap != null) {
+                		costMap.add(i, j, System.nanoTime() - pixelStart);
+                	}
+                }
+                int primaryRays = (width - firstX) * (this.supersampling == 0 ? 1 : 4);
+                RenderStatistics.count(RenderStatistics.PRIMARY_RAYS, primaryRays);
+                commit(tileEvent, j, firstX, 1, width - firstX, primaryRays, secondaryRays);
+                completedRows = j + 1;
             }
             	
-            if(j % (height/10) == 0) {
+            if(verbose && j % Math.max(1, height/10) == 0) {
             	System.out.print("Trace Status: " + ((float) j/height) +"  (" +j +" / " +height +") ");
             	actlDate = new Date();
             	holeSec = actlDate.getTime() - startSec;
             	System.out.println("Time: " +holeSec/1000 +" s over");
             }
+            if(deadline != 0 && System.nanoTime() - deadline > 0) {
+                break;
+            }
+        }
+        RenderStatistics.endPhase(RenderStatistics.TRACE_TIME, traceStart);
+        renderEvent.end();
+        if(renderEvent.shouldCommit()) {
+            renderEvent.width = width;
+            renderEvent.height = height;
+            renderEvent.ttl = recursiveDepth;
+            renderEvent.supersampling = supersampling;
+            renderEvent.completedRows = completedRows;
+            renderEvent.commit();
+        }
+        if(!verbose) {
+            return;
         }
         System.out.print("Trace Status: " +1.0  +"  (" +height +" / " +height +") ");
     	actlDate = new Date();
     	holeSec = actlDate.getTime() - startSec;
     	System.out.println("Time: " +holeSec/1000 +" s over");
+    	if(wavefrontRenderer != null) {
+    		System.out.println("Visibility pass: " +wavefrontRenderer.getVisibilityTime()/1000000 +" ms, shading pass: "
+    				+wavefrontRenderer.getShadingTime()/1000000 +" ms");
+    	}
     }    
     
+    /**
+     * @param verbose <code>false</code> to trace without printing the trace status,
+     * e.g. for the jobs of a {@link RenderServer}.
+     */
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+    
+    /**
+     * Sets a deadline, at which tracing stops after the current row (or band of
+     * packets or wavefront tiles). The rows after {@link #getCompletedRows()}
+     * are left black.
+     * @param deadline The time (see <code>System.nanoTime()</code>) or 0 to trace all rows.
+     */
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+    
+    /**
+     * Measures the time of every pixel (of every packet or wavefront tile, if the
+     * rays are traced together) and adds it to a cost map. This takes two
+     * calls of <code>System.nanoTime()</code> per pixel, packet or tile.
+     * @param costMap The cost map with the resolution of the image or <code>null</code>.
+     */
+    public void setCostMap(CostMap costMap) {
+        this.costMap = costMap;
+    }
+    
+    /**
+     * @return the number of rows from the top, which have been traced completely.
+     */
+    public int getCompletedRows() {
+        return completedRows;
+    }
+    
+    /**
+     * Sets the size of the pixel packets. The primary rays of a packet of
+     * <code>size x size</code> neighboring pixels are traced together (see
+     * {@link Scene#getNearestIntersections(XRay[], Intersection[])}). Packets are
+     * only used without supersampling.
+     * @param size The width and height of a packet, 1 for single rays.
+     */
+    public void setPacketSize(int size) {
+        this.packetSize = size;
+    }
+    
+    /**
+     * Traces the pixel packets of a band of rows.
+     * @param rayPoint The origin of the primary rays.
+     * @param firstRow The first row of the band.
+     */
+    private void tracePackets(Point3d rayPoint, int firstRow) {
+        RenderEvents.TileRender tileEvent = new RenderEvents.TileRender();
+        tileEvent.begin();
+        long secondaryRays = getSecondaryRays();
+        int rows = Math.min(packetSize, height - firstRow);
+        for(int firstColumn = firstX; firstColumn < width; firstColumn += packetSize) {
+            int columns = Math.min(packetSize, width - firstColumn);
+            long packetStart = costMap != null ? System.nanoTime() : 0;
+            boolean sampled = ObjectProfiler.startSample();
+            XRay[] rays = new XRay[rows * columns];
+            Intersection[] intersections = new Intersection[rays.length];
+            for(int j = 0; j < rows; ++j) {
+                for(int i = 0; i < columns; ++i) {
+                    rays[i + j * columns] = new XRay(rayPoint, getVec(firstRow + j, firstColumn + i), rtScene);
+                }
+            }
+            RenderStatistics.count(RenderStatistics.PRIMARY_RAYS, rays.length);
+            rtScene.getNearestIntersections(rays, intersections);
+            for(int j = 0; j < rows; ++j) {
+                for(int i = 0; i < columns; ++i) {
+                    Color3f color = rays[i + j * columns].recursiveTrace(intersections[i + j * columns], recursiveDepth);
+                    pixelMap[firstRow + j][firstColumn + i] = toInt(color);
+                }
+            }
+            if(sampled) {
+                ObjectProfiler.endSample();
+            }
+            if(costMap != null) {
+                costMap.add(firstRow, firstColumn, rows, columns, System.nanoTime() - packetStart);
+            }
+        }
+        commit(tileEvent, firstRow, firstX, rows, width - firstX, rows * (width - firstX), secondaryRays);
+    }
+    
+    /**
+     * Sets the size of the wavefront tiles. The rays of a tile of <code>size x size</code>
+     * pixels are traced breadth-first by a {@link WavefrontRenderer}, in a visibility
+     * and a deferred shading pass. Wavefronts are only used without supersampling and
+     * take precedence over pixel packets.
+     * @param size The width and height of a tile, 0 to trace the rays recursively.
+     */
+    public void setWavefrontTileSize(int size) {
+        this.wavefrontTileSize = size;
+    }
+    
+    /**
+     * Keeps the hit records of all wavefront tiles, so the image can be shaded again
+     * with changed lights and materials by {@link #relight()}. Only wavefront tiles
+     * are kept (see {@link #setWavefrontTileSize(int)}).
+     * @param relightable <code>true</code> to keep the hit records.
+     */
+    public void setRelightable(boolean relightable) {
+        this.relightable = relightable;
+    }
+    
+    /**
+     * Shades the kept hit records of all tiles again with the scene's current lights
+     * and materials and updates the pixel map. Only the shadow rays are traced again.
+     * Materials, which change the reflected or refracted rays (the reflection
+     * coefficient, the transparency and the refraction index), need a new trace.
+     * @throws IllegalStateException if the image was not traced relightable.
+     */
+    public void relight() {
+        if(hitBuffers.isEmpty()) {
+            throw new IllegalStateException("no hit records, the image was not traced relightable");
+        }
+        int tile = 0;
+        for(int firstRow = firstY; firstRow < height; firstRow += wavefrontTileSize) {
+            int rows = Math.min(wavefrontTileSize, height - firstRow);
+            for(int firstColumn = firstX; firstColumn < width; firstColumn += wavefrontTileSize) {
+                int columns = Math.min(wavefrontTileSize, width - firstColumn);
+                Color3f[] colors = wavefrontRenderer.shade(hitBuffers.get(tile++));
+                setPixels(firstRow, firstColumn, rows, columns, colors);
+            }
+        }
+    }
+    
+    /**
+     * Records the objects, which are hit by the rays of every wavefront tile, so a
+     * changed object only needs the tiles to be traced again, whose ray trees
+     * touch it (see {@link #markDirty(SceneObject)}). Only wavefront tiles are
+     * recorded (see {@link #setWavefrontTileSize(int)}).
+     * @param editable <code>true</code> to record the objects of the tiles.
+     */
+    public void setEditable(boolean editable) {
+        this.editable = editable;
+    }
+    
+    /**
+     * Marks the wavefront tiles dirty, whose reflected, refracted or primary rays hit
+     * an object. This must be called after the object's material has been changed,
+     * also for changes of the reflected and refracted rays. Shadows do not depend on
+     * materials. Moved objects can hit rays of other tiles, they need a new trace of
+     * the whole image.
+     * @param sceneObject The changed object.
+     * @return the number of dirty tiles.
+     * @throws IllegalStateException if the image was not traced editable.
+     */
+    public int markDirty(SceneObject sceneObject) {
+        if(tileObjects.isEmpty()) {
+            throw new IllegalStateException("no tile objects, the image was not traced editable");
+        }
+        Integer id = objectIds.get(sceneObject);
+        if(id != null) {
+            for(int tile = 0; tile < tileObjects.size(); ++tile) {
+                if(tileObjects.get(tile).get(id)) {
+                    dirtyTiles.set(tile);
+                }
+            }
+        }
+        return dirtyTiles.cardinality();
+    }
+    
+    /**
+     * Changes the material of an object and marks the affected tiles dirty.
+     * @param sceneObject The object.
+     * @param material The new material.
+     * @return the number of dirty tiles.
+     * @throws IllegalStateException if the image was not traced editable.
+     */
+    public int setMaterial(SceneObject sceneObject, Material material) {
+        sceneObject.setMaterial(material);
+        return markDirty(sceneObject);
+    }
+    
+    /**
+     * Traces the dirty wavefront tiles again and updates their pixels, the objects
+     * of the tiles and the kept hit records.
+     * @return the number of traced tiles.
+     */
+    public int renderDirtyTiles() {
+        Point3d rayPoint = new Point3d(rtScene.getCamera().getPosition());
+        int traced = dirtyTiles.cardinality();
+        int tile = 0;
+        for(int firstRow = firstY; firstRow < height; firstRow += wavefrontTileSize) {
+            int rows = Math.min(wavefrontTileSize, height - firstRow);
+            for(int firstColumn = firstX; firstColumn < width; firstColumn += wavefrontTileSize, ++tile) {
+                if(!dirtyTiles.get(tile)) {
+                    continue;
+                }
+                int columns = Math.min(wavefrontTileSize, width - firstColumn);
+                HitBuffer hits = traceTile(rayPoint, firstRow, firstColumn, rows, columns);
+                if(relightable) {
+                    hitBuffers.set(tile, hits);
+                }
+                tileObjects.set(tile, getObjectIds(hits));
+                setPixels(firstRow, firstColumn, rows, columns, wavefrontRenderer.shade(hits));
+            }
+        }
+        dirtyTiles.clear();
+        return traced;
+    }
+    
+    /**
+     * @return the time of the wavefront visibility passes in nanoseconds.
+     */
+    public long getVisibilityTime() {
+        return wavefrontRenderer == null ? 0 : wavefrontRenderer.getVisibilityTime();
+    }
+    
+    /**
+     * @return the time of the wavefront shading passes (including relighting) in nanoseconds.
+     */
+    public long getShadingTime() {
+        return wavefrontRenderer == null ? 0 : wavefrontRenderer.getShadingTime();
+    }
+    
+    /**
+     * Traces the wavefront tiles of a band of rows.
+     * @param rayPoint The origin of the primary rays.
+     * @param firstRow The first row of the band.
+     */
+    private void traceWavefront(Point3d rayPoint, int firstRow) {
+        if(wavefrontRenderer == null) {
+            wavefrontRenderer = new WavefrontRenderer(rtScene, recursiveDepth);
+        }
+        int rows = Math.min(wavefrontTileSize, height - firstRow);
+        for(int firstColumn = firstX; firstColumn < width; firstColumn += wavefrontTileSize) {
+            int columns = Math.min(wavefrontTileSize, width - firstColumn);
+            long tileStart = costMap != null ? System.nanoTime() : 0;
+            boolean sampled = ObjectProfiler.startSample();
+            RenderEvents.TileRender tileEvent = new RenderEvents.TileRender();
+            tileEvent.begin();
+            long secondaryRays = getSecondaryRays();
+            HitBuffer hits = traceTile(rayPoint, firstRow, firstColumn, rows, columns);
+            if(relightable) {
+                hitBuffers.add(hits);
+            }
+            if(editable) {
+                tileObjects.add(getObjectIds(hits));
+            }
+            setPixels(firstRow, firstColumn, rows, columns, wavefrontRenderer.shade(hits));
+            commit(tileEvent, firstRow, firstColumn, rows, columns, rows * columns, secondaryRays);
+            if(sampled) {
+                ObjectProfiler.endSample();
+            }
+            if(costMap != null) {
+                costMap.add(firstRow, firstColumn, rows, columns, System.nanoTime() - tileStart);
+            }
+        }
+    }
+    
+    /**
+     * @return the shadow, reflected and refracted rays, that the current thread
+     * has counted, or 0, if the render statistics are disabled.
+     */
+    private static long getSecondaryRays() {
+        long[] statistics = RenderStatistics.getThreadCounters();
+        return statistics == null ? 0 : statistics[RenderStatistics.SHADOW_RAYS]
+                + statistics[RenderStatistics.REFLECTED_RAYS] + statistics[RenderStatistics.REFRACTED_RAYS];
+    }
+    
+    /**
+     * Ends and commits the flight recorder event of a traced tile.
+     * @param event The event.
+     * @param firstRow The first row of the tile.
+     * @param firstColumn The first column of the tile.
+     * @param rows The number of rows.
+     * @param columns The number of columns.
+     * @param primaryRays The number of primary rays.
+     * @param secondaryRays The result of {@link #getSecondaryRays()} before the tile.
+     */
+    private static void commit(RenderEvents.TileRender event, int firstRow, int firstColumn, int rows, int columns,
+            long primaryRays, long secondaryRays) {
+        event.end();
+        if(event.shouldCommit()) {
+            event.firstRow = firstRow;
+            event.firstColumn = firstColumn;
+            event.rows = rows;
+            event.columns = columns;
+            event.primaryRays = primaryRays;
+            event.secondaryRays = getSecondaryRays() - secondaryRays;
+            event.commit();
+        }
+    }
+    
+    /**
+     * The visibility pass of a wavefront tile.
+     * @return the hit records of the tile.
+     */
+    private HitBuffer traceTile(Point3d rayPoint, int firstRow, int firstColumn, int rows, int columns) {
+        XRay[] rays = new XRay[rows * columns];
+        for(int j = 0; j < rows; ++j) {
+            for(int i = 0; i < columns; ++i) {
+                rays[i + j * columns] = new XRay(rayPoint, getVec(firstRow + j, firstColumn + i), rtScene);
+            }
+        }
+        RenderStatistics.count(RenderStatistics.PRIMARY_RAYS, rays.length);
+        return wavefrontRenderer.traceVisibility(rays);
+    }
+    
+    /**
+     * @return the ids of the objects, which are hit by the rays of a tile. Objects
+     * get their ids on their first hit.
+     */
+    private BitSet getObjectIds(HitBuffer hits) {
+        BitSet ids = new BitSet();
+        for(SceneObject sceneObject : hits.getObjects()) {
+            Integer id = objectIds.get(sceneObject);
+            if(id == null) {
+                id = objectIds.size();
+                objectIds.put(sceneObject, id);
+            }
+            ids.set(id);
+        }
+        return ids;
+    }
+    
+    /**
+     * Writes the colors of a tile to the pixel map.
+     */
+    private void setPixels(int firstRow, int firstColumn, int rows, int columns, Color3f[] colors) {
+        for(int j = 0; j < rows; ++j) {
+            for(int i = 0; i < columns; ++i) {
+                pixelMap[firstRow + j][firstColumn + i] = toInt(colors[i + j * columns]);
+            }
+        }
+    }
+    
     /**
      * Prints the pixel map to the standard output stream.
      */
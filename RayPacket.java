@@ -0,0 +1,173 @@
+/*
+ * RayPacket.java
+ * 26/10/19
+ *
+ * University of Applied Sciences
+ * Bingen, Germany
+ *
+ * FPro Project "Jaytracer"
+ *
+ * Author:
+ * M S
+ *
+ */
+package de.fhbingen.fpro.jaytracer;
+
+import java.util.Arrays;
+
+import javax.vecmath.Point3d;
+import javax.vecmath.Vector3d;
+
+/**
+ * A packet of coherent rays, e.g. the primary rays of neighboring pixels, which
+ * traverse a scene hierarchy together (see {@link RegularGridScene#getNearestIntersections(XRay[], Intersection[])}).<br/>
+ * <br/>
+ * All rays of a packet have the same origin and their directions point to the
+ * same side on the packet's main axis <code>k</code>. So every ray is described
+ * by its slopes on the other axes <code>u</code> and <code>v</code> along the
+ * main axis. The intervals of these slopes bound the whole packet: with interval
+ * arithmetic a box is culled for all rays at once, if it lies outside of these
+ * intervals.
+ *
+ * @author M S
+ */
+final class RayPacket {
+
+    /** The rays */
+    final XRay[] rays;
+
+    /** The common origin (x, y, z) */
+    final double[] origin = new double[3];
+
+    /** The main axis and the other axes (0 = x, 1 = y, 2 = z) */
+    final int k, u, v;
+
+    /** 1, if the rays run to increasing coordinates on the main axis, else -1 */
+    final int step;
+
+    /** The directions of the rays */
+    final double[] dx, dy, dz;
+
+    /** The slopes of the rays on the u and v axis along the main axis */
+    final double[] slopeU, slopeV;
+
+    /** The intervals of the slopes */
+    private double minSlopeU, maxSlopeU, minSlopeV, maxSlopeV;
+
+    /** The nearest intersected object and its t-parameter of every ray */
+    final SceneObject[] nearest;
+    final double[] nearestT;
+
+    /** The indices of the rays, which are intersected with the current objects */
+    final int[] candidates;
+
+    /** The number of candidates */
+    int candidateCount;
+
+    /** The nearest object, its t-parameter and its position in the current object list */
+    final SceneObject[] listNearest;
+    final double[] listT;
+    final int[] listOrder;
+
+    /** A work array for the block kernels */
+    final double[] t = new double[PrimitiveBlock.SIZE];
+
+    /**
+     * Creates a packet.
+     */
+    private RayPacket(XRay[] rays, Point3d origin, int k, int step) {
+        this.rays = rays;
+        origin.get(this.origin);
+        this.k = k;
+        this.u = (k + 1) % 3;
+        this.v = (k + 2) % 3;
+        this.step = step;
+        int n = rays.length;
+        dx = new double[n];
+        dy = new double[n];
+        dz = new double[n];
+        slopeU = new double[n];
+        slopeV = new double[n];
+        nearest = new SceneObject[n];
+        nearestT = new double[n];
+        Arrays.fill(nearestT, Double.POSITIVE_INFINITY);
+        candidates = new int[n];
+        listNearest = new SceneObject[n];
+        listT = new double[n];
+        listOrder = new int[n];
+    }
+
+    /**
+     * Creates a packet of rays, if they are coherent.
+     * @param rays
+     * @return the packet or <code>null</code>, if there are no rays, the rays have
+     * different origins or point to different sides on every axis.
+     */
+    static RayPacket create(XRay[] rays) {
+        if(rays.length == 0) {
+            return null;
+        }
+        Point3d origin = rays[0].getOrigin();
+        Vector3d sum = new Vector3d();
+        for(XRay ray : rays) {
+            if(!origin.equals(ray.getOrigin())) {
+                return null;
+            }
+            sum.add(ray.getDirection());
+        }
+        double[] d = new double[3];
+        sum.get(d);
+        int k = Math.abs(d[0]) >= Math.abs(d[1]) && Math.abs(d[0]) >= Math.abs(d[2]) ? 0
+                : Math.abs(d[1]) >= Math.abs(d[2]) ? 1 : 2;
+        RayPacket packet = new RayPacket(rays, origin, k, d[k] > 0 ? 1 : -1);
+
+        packet.minSlopeU = packet.minSlopeV = Double.POSITIVE_INFINITY;
+        packet.maxSlopeU = packet.maxSlopeV = Double.NEGATIVE_INFINITY;
+        for(int i = 0; i < rays.length; ++i) {
+            rays[i].getDirection().get(d);
+            packet.dx[i] = d[0];
+            packet.dy[i] = d[1];
+            packet.dz[i] = d[2];
+            if(d[k] * packet.step <= 0) {
+                return null;
+            }
+            packet.slopeU[i] = d[packet.u] / d[k];
+            packet.slopeV[i] = d[packet.v] / d[k];
+            packet.minSlopeU = Math.min(packet.minSlopeU, packet.slopeU[i]);
+            packet.maxSlopeU = Math.max(packet.maxSlopeU, packet.slopeU[i]);
+            packet.minSlopeV = Math.min(packet.minSlopeV, packet.slopeV[i]);
+            packet.maxSlopeV = Math.max(packet.maxSlopeV, packet.slopeV[i]);
+        }
+        return packet;
+    }
+
+    /**
+     * Tests a box against the whole packet with interval arithmetic.
+     * @param lower The box's lower corner (x, y, z).
+     * @param upper The box's upper corner (x, y, z).
+     * @return <code>true</code>, if no ray of the packet can intersect the box.
+     */
+    boolean misses(double[] lower, double[] upper) {
+        double near = lower[k] - Scene.EPSILON - origin[k];
+        double far = upper[k] + Scene.EPSILON - origin[k];
+        if((step > 0 ? far : near) * step < 0) {
+            // the box lies behind the origin
+            return true;
+        }
+        return misses(near, far, minSlopeU, maxSlopeU, origin[u], lower[u], upper[u])
+                || misses(near, far, minSlopeV, maxSlopeV, origin[v], lower[v], upper[v]);
+    }
+
+    /**
+     * @return <code>true</code>, if the interval of the coordinates on an axis,
+     * which the rays have between the distances near and far on the main axis,
+     * does not overlap the box.
+     */
+    private static boolean misses(double near, double far, double minSlope, double maxSlope,
+            double origin, double lower, double upper) {
+        double a = minSlope * near, b = minSlope * far, c = maxSlope * near, d = maxSlope * far;
+        double min = origin + Math.min(Math.min(a, b), Math.min(c, d));
+        double max = origin + Math.max(Math.max(a, b), Math.max(c, d));
+        return max < lower - Scene.EPSILON || min > upper + Scene.EPSILON;
+    }
+}
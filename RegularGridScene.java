@@ -14,7 +14,11 @@
  */
 package de.fhbingen.fpro.jaytracer;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.vecmath.Point3d;
 import javax.vecmath.Vector3d;
@@ -28,7 +32,17 @@ import javax.vecmath.Vector3d;
  * the constructor.<br/>
  * All scene objects, that are not contained by the grid, are put in an
  * linear list, similar to the standard scene hierarchy. These objects will
- * also be relevant for the intersection tests.
+ * also be relevant for the intersection tests.<br/>
+ * The objects of a cell are packed into blocks of spheres and triangles, which
+ * are intersected with SIMD kernels (see {@link BlockKernel}).<br/>
+ * <br/>
+ * Objects, that move, are taken out of the cells, which intersect their old
+ * bounds, and put into the cells, which intersect their new bounds (see
+ * {@link #moveSceneObject(SceneObject, SceneObject)}). The rest of the grid is
+ * not touched. Moving objects can make the grid worse, e.g. they crowd into a
+ * few cells or leave the grid for the linear list. Therefore the grid estimates
+ * its traversal cost and is rebuilt with bounds, that fit the objects, as soon
+ * as the cost has grown by {@link #REBUILD_THRESHOLD} since the last build.
  * 
  * @author M S
  *
@@ -53,6 +67,27 @@ public class RegularGridScene extends Scene {
     /** Number of scene objects that are added to the grid */
     private int numberOfObjectsInGrid = 0;
     
+    /** Sum of the squared object counts of all cells */
+    private long sumOfSquaredCounts = 0;
+    
+    /** The traversal cost after the last build or 0, if no object has been moved yet */
+    private double buildCost = 0;
+    
+    /** Number of rebuilds, that have been triggered by moved objects */
+    private int rebuildCount = 0;
+    
+    /** Factor, by which the traversal cost may grow, before the grid is rebuilt */
+    static final double REBUILD_THRESHOLD = 1.5;
+    
+    /** Cost of a step from cell to cell relative to an intersection test */
+    static final double CELL_STEP_COST = 0.25;
+    
+    /**
+     * Maximum number of cells per ray, that a packet may cover in a slice of the grid.
+     * A packet, that covers more cells, diverges and its rays are traced one by one.
+     */
+    static final int MAX_PACKET_CELLS_PER_RAY = 4;
+    
     /**
      * Creates a scene width a regular grid sceneobject hierarchy.
      * @param lower The grids lower point (left-lower-back point).
@@ -61,12 +96,21 @@ public class RegularGridScene extends Scene {
      */
     public RegularGridScene(Point3d lower, Vector3d size, int cellCount) {
         
-        sceneBounds = new BoundingBox(lower, size);
         this.cellCount = cellCount;
         this.lower = new Point3d();
         cellSize = new Vector3d();
         scaleCountR = new Vector3d();
+        setBounds(lower, size);
+    }
+    
+    /**
+     * Sets the grid's bounds and creates empty cells.
+     * @param lower The grids lower point (left-lower-back point).
+     * @param size The size of the grid.
+     */
+    private void setBounds(Point3d lower, Vector3d size) {
         
+        sceneBounds = new BoundingBox(lower, size);
         this.lower.set(lower);
         grid = new Cell[cellCount*cellCount*cellCount]; 
         cellSize.x = sceneBounds.size.x / cellCount;
@@ -84,6 +128,8 @@ public class RegularGridScene extends Scene {
      */
     private void createGrid() {
         
+        RenderEvents.GridCreate event = new RenderEvents.GridCreate();
+        event.begin();
         Point3d cellPos = new Point3d(lower);
         
         for(int x = 0; x < cellCount; ++x) {  
@@ -98,32 +144,97 @@ public class RegularGridScene extends Scene {
             }
             cellPos.x += cellSize.x;
         } 
+        event.end();
+        if(event.shouldCommit()) {
+            event.cells = grid.length;
+            event.commit();
+        }
     }
     
     /**
      * Adds a scene object to the scene. If the scene object lies in the grid's bounds, it will
-     * be added to the grid, else to the standard object list.
+     * be added to the grid, else to the standard object list. A triangle mesh is added as
+     * its triangles.
      * @param sceneObject The sceneObject to add.
      */
     public void addSceneObject(SceneObject sceneObject) {
         
-        boolean addedToGrid = false;
+        if(sceneObject instanceof TriangleMesh) {
+            addTriangleMesh((TriangleMesh) sceneObject);
+            return;
+        }
         
-        if(sceneBounds.containsBoundingVolume(sceneObject.getBounds())) {
-            for(Cell c : grid) {
-                if(sceneObject.getBounds().intersectsBoundingVolume(c)) {
-                    if(sceneObject.intersectsCell(c)) {
-                        c.add(sceneObject);
-                        addedToGrid = true;
-                        numberOfObjectsInGrid++;
-                    } 
+        RenderEvents.GridInsert event = new RenderEvents.GridInsert();
+        event.begin();
+        int cells = 0;
+        BoundingVolume bounds = sceneObject.getBounds();
+        
+        if(sceneBounds.containsBoundingVolume(bounds)) {
+            int[] range = getCellRange((BoundingBox) bounds);
+            for(int z = range[2]; z <= range[5]; ++z) {
+                for(int y = range[1]; y <= range[4]; ++y) {
+                    for(int x = range[0]; x <= range[3]; ++x) {
+                        Cell c = grid[x + y * cellCount + z * cellCount * cellCount];
+                        if(bounds.intersectsBoundingVolume(c)) {
+                            if(sceneObject.intersectsCell(c)) {
+                                sumOfSquaredCounts += 2 * c.getSceneObjects().size() + 1;
+                                c.add(sceneObject);
+                                cells++;
+                                numberOfObjectsInGrid++;
+                            } 
+                        }
+                    }
                 }
             }  
         }
         
-        if(!addedToGrid) { 
+        if(cells == 0) { 
             sceneObjects.add(sceneObject);
         }
+        event.end();
+        if(event.shouldCommit()) {
+            event.objectType = sceneObject.getClass().getSimpleName();
+            event.cells = cells;
+            event.commit();
+        }
+    }
+    
+    /**
+     * Removes a scene object from the cells, which contain it, or from the standard
+     * object list. Only the cells, which intersect the object's bounds, are searched.
+     * A triangle mesh is removed as its triangles.
+     * @param sceneObject The sceneObject to remove.
+     * @return <code>true</code>, if the scene contained the object.
+     */
+    public boolean removeSceneObject(SceneObject sceneObject) {
+        
+        if(sceneObject instanceof TriangleMesh) {
+            return super.removeSceneObject(sceneObject);
+        }
+        
+        boolean removedFromGrid = false;
+        BoundingVolume bounds = sceneObject.getBounds();
+        
+        if(sceneBounds.containsBoundingVolume(bounds)) {
+            int[] range = getCellRange((BoundingBox) bounds);
+            for(int z = range[2]; z <= range[5]; ++z) {
+                for(int y = range[1]; y <= range[4]; ++y) {
+                    for(int x = range[0]; x <= range[3]; ++x) {
+                        Cell c = grid[x + y * cellCount + z * cellCount * cellCount];
+                        if(bounds.intersectsBoundingVolume(c) && c.remove(sceneObject)) {
+                            sumOfSquaredCounts -= 2 * c.getSceneObjects().size() + 1;
+                            removedFromGrid = true;
+                            numberOfObjectsInGrid--;
+                        }
+                    }
+                }
+            }
+        }
+        
+        if(!removedFromGrid) {
+            return super.removeSceneObject(sceneObject);
+        }
+        return true;
     }
     
     /**
@@ -143,11 +254,13 @@ public class RegularGridScene extends Scene {
         Vector3d tdelta = new Vector3d();
  
         //find start point for grid traversal
+        boolean entered = false;
         if(!sceneBounds.containsPoint(ray.getOrigin())) {
             double test = sceneBounds.intersect(ray);
             if(test > EPSILON) {
                 Intersection i = new Intersection(sceneBounds, test, ray);
                 curpos = new Vector3d(i.getPointOfIntersection());
+                entered = true;
             } else {
                 return null;
             }
@@ -162,6 +275,14 @@ public class RegularGridScene extends Scene {
         int stepY, outY, Y = (int)cell.y;
         int stepZ, outZ, Z = (int)cell.z;
         
+        //the entry point lies on the grid's surface, on the upper sides it
+        //belongs to the last cell
+        if(entered) {
+            X = Math.min(Math.max(X, 0), cellCount - 1);
+            Y = Math.min(Math.max(Y, 0), cellCount - 1);
+            Z = Math.min(Math.max(Z, 0), cellCount - 1);
+        }
+        
         if ((X < 0) || (X >= cellCount) || (Y < 0) || (Y >= cellCount) || (Z < 0) || (Z >= cellCount)) { 
             return null;
         }
@@ -226,28 +347,28 @@ public class RegularGridScene extends Scene {
         else tmax.z = Double.POSITIVE_INFINITY;
         
         // start stepping
-        List<SceneObject> list;
         SceneObject nearestHitObject = null;
+        double[] hit = new double[PrimitiveBlock.SIZE];
+        long[] statistics = RenderStatistics.getThreadCounters();
         
         while (true)
         {
+            if(statistics != null) {
+                statistics[RenderStatistics.CELLS_STEPPED]++;
+            }
             Cell currentCell = grid[X + (Y * cellCount) + (Z * cellCount * cellCount)];
-            list = currentCell.getSceneObjects();
             double t = Double.POSITIVE_INFINITY;
-            for(SceneObject s : list)
-            { 
-                double result = s.intersect( ray );
-                if (result > EPSILON && result < t) 
-                {
-                    t = result; 
-                    nearestHitObject = s;
-                }
+            SceneObject s = currentCell.getBlocks().getNearestObject(ray, hit);
+            if(s != null)
+            {
+                t = hit[0];
+                nearestHitObject = s;
             }
             
             //if found intersection belongs to the current cell, it is the nearest
             //else go on...
             if(nearestHitObject != null) {
-                Intersection intersection = new Intersection(nearestHitObject, t, ray);
+                Intersection intersection = nearestHitObject.getIntersection(ray, t);
                 if(currentCell.containsPoint(intersection.getPointOfIntersection())) {
                     return intersection;
                 }
@@ -296,7 +417,171 @@ public class RegularGridScene extends Scene {
         Intersection gridIntersection = this.getNearestIntersectionFromGrid(ray);
         //intersection from objects that are not in the grid
         Intersection listIntersection = super.getNearestIntersection(ray);
+        return getNearer(gridIntersection, listIntersection);
+    }
+    
+    /**
+     * Calculates the nearest intersections of a packet of rays. Rays with a common
+     * origin (e.g. the primary rays of neighboring pixels) traverse the grid together,
+     * see {@link #traversePacket(XRay[], Intersection[], boolean[])}. Rays, which
+     * diverge, are traced one by one.
+     * @param rays The rays to intersect.
+     * @param intersections Gets the nearest intersection of every ray or <code>null</code>,
+     * if the ray does not intersect an object.
+     */
+    public void getNearestIntersections(XRay[] rays, Intersection[] intersections) {
+        boolean[] traced = new boolean[rays.length];
+        traversePacket(rays, intersections, traced);
+        for(int i = 0; i < rays.length; ++i) {
+            Intersection gridIntersection = traced[i] ? intersections[i] : getNearestIntersectionFromGrid(rays[i]);
+            intersections[i] = getNearer(gridIntersection, super.getNearestIntersection(rays[i]));
+        }
+    }
+    
+    /**
+     * Traverses the grid with a packet of rays with a common origin. The grid is
+     * traversed slice by slice along the main axis of the packet's direction. In
+     * every slice the cells, which are crossed by a ray, are computed by interval
+     * arithmetic from the part of the slice in front of the origin and the ray's
+     * direction. All covered cells are visited once and their objects are intersected
+     * with the rays, which cross them.<br/>
+     * A ray is finished, if its nearest intersection lies in the slices, that are
+     * already traversed. The packet diverges, if the rays have different origins or
+     * directions on the main axis or if they cover too many cells of a slice. Then
+     * the remaining rays are left to single ray traversal.
+     * @param rays The rays.
+     * @param intersections Gets the nearest intersection from the grid of every finished ray.
+     * @param traced Gets <code>true</code> for every finished ray.
+     */
+    private void traversePacket(XRay[] rays, Intersection[] intersections, boolean[] traced) {
+        RayPacket packet = RayPacket.create(rays);
+        if(packet == null) {
+            return;
+        }
+        int n = rays.length;
+        int k = packet.k, u = packet.u, v = packet.v, step = packet.step;
+        double[] o = packet.origin;
+        double[] d = new double[3];
+        double[] gridLower = new double[3];
+        double[] size = new double[3];
+        double[] scale = new double[3];
+        lower.get(gridLower);
+        cellSize.get(size);
+        scaleCountR.get(scale);
+        int[] stride = { 1, cellCount, cellCount * cellCount };
+        
+        // the first slice in front of the origin
+        int first = (int) Math.floor((o[k] - gridLower[k]) * scale[k]);
+        if(step > 0) {
+            first = Math.max(first, 0);
+        } else {
+            first = Math.min(first, cellCount - 1);
+        }
+        
+        boolean[] active = new boolean[n];
+        Arrays.fill(active, true);
+        int activeCount = n;
+        int[] range = new int[4 * n];
+        long[] statistics = RenderStatistics.getThreadCounters();
+        
+        for(int slice = first; slice >= 0 && slice < cellCount; slice += step) {
+            double sliceLower = gridLower[k] + slice * size[k];
+            double near = (step > 0 ? Math.max(sliceLower, o[k]) : Math.min(sliceLower + size[k], o[k])) - o[k];
+            double far = (step > 0 ? sliceLower + size[k] : sliceLower) - o[k];
+            
+            // the covered cells of every ray (interval arithmetic) and of the packet
+            int lowU = cellCount, highU = -1, lowV = cellCount, highV = -1;
+            for(int i = 0; i < n; ++i) {
+                if(!active[i]) {
+                    continue;
+                }
+                int r = 4 * i;
+                double su = packet.slopeU[i], sv = packet.slopeV[i];
+                range[r] = toCell(o[u] + Math.min(su * near, su * far) - EPSILON, gridLower[u], scale[u]);
+                range[r + 1] = toCell(o[u] + Math.max(su * near, su * far) + EPSILON, gridLower[u], scale[u]);
+                range[r + 2] = toCell(o[v] + Math.min(sv * near, sv * far) - EPSILON, gridLower[v], scale[v]);
+                range[r + 3] = toCell(o[v] + Math.max(sv * near, sv * far) + EPSILON, gridLower[v], scale[v]);
+                if(range[r + 1] < 0 || range[r] >= cellCount || range[r + 3] < 0 || range[r + 2] >= cellCount) {
+                    // the ray passes the slice outside of the grid
+                    continue;
+                }
+                lowU = Math.min(lowU, Math.max(range[r], 0));
+                highU = Math.max(highU, Math.min(range[r + 1], cellCount - 1));
+                lowV = Math.min(lowV, Math.max(range[r + 2], 0));
+                highV = Math.max(highV, Math.min(range[r + 3], cellCount - 1));
+            }
+            if(lowU <= highU && lowV <= highV
+                    && (highU - lowU + 1) * (highV - lowV + 1) > MAX_PACKET_CELLS_PER_RAY * activeCount) {
+                return;
+            }
+            
+            for(int cu = lowU; cu <= highU; ++cu) {
+                for(int cv = lowV; cv <= highV; ++cv) {
+                    PrimitiveBlockList blocks = grid[slice * stride[k] + cu * stride[u] + cv * stride[v]].getBlocks();
+                    if(blocks.isEmpty()) {
+                        continue;
+                    }
+                    packet.candidateCount = 0;
+                    for(int i = 0; i < n; ++i) {
+                        int r = 4 * i;
+                        if(active[i] && cu >= range[r] && cu <= range[r + 1] && cv >= range[r + 2] && cv <= range[r + 3]) {
+                            packet.candidates[packet.candidateCount++] = i;
+                        }
+                    }
+                    if(packet.candidateCount > 0) {
+                        blocks.intersect(packet);
+                    }
+                    if(statistics != null) {
+                        statistics[RenderStatistics.CELLS_STEPPED] += packet.candidateCount;
+                    }
+                }
+            }
+            
+            // finish the rays, whose nearest intersection lies in the traversed slices
+            for(int i = 0; i < n; ++i) {
+                if(active[i] && packet.nearest[i] != null) {
+                    rays[i].getDirection().get(d);
+                    if((packet.nearestT[i] * d[k] - far) * step <= 0) {
+                        finish(packet, intersections, traced, i);
+                        active[i] = false;
+                        activeCount--;
+                    }
+                }
+            }
+            if(activeCount == 0) {
+                return;
+            }
+        }
         
+        for(int i = 0; i < n; ++i) {
+            if(active[i]) {
+                finish(packet, intersections, traced, i);
+            }
+        }
+    }
+    
+    /**
+     * Sets the grid intersection of a finished ray of a packet.
+     */
+    private static void finish(RayPacket packet, Intersection[] intersections, boolean[] traced, int i) {
+        SceneObject nearest = packet.nearest[i];
+        intersections[i] = nearest == null ? null : nearest.getIntersection(packet.rays[i], packet.nearestT[i]);
+        traced[i] = true;
+    }
+    
+    /**
+     * @return the cell index of a coordinate on an axis, which may lie outside the grid.
+     */
+    private static int toCell(double coordinate, double lower, double scale) {
+        return (int) Math.max(-1, Math.floor((coordinate - lower) * scale));
+    }
+    
+    /**
+     * @param gridIntersection The intersection with the grid's objects or <code>null</code>.
+     * @param listIntersection The intersection with the objects outside of the grid or <code>null</code>.
+     * @return the nearer intersection.
+     */
+    private static Intersection getNearer(Intersection gridIntersection, Intersection listIntersection) {
         if(gridIntersection == null) {
             return listIntersection;
         }
@@ -312,6 +597,218 @@ public class RegularGridScene extends Scene {
         }
     }
     
+    /**
+     * Replaces an object, that has moved or changed its shape, by its new version.
+     * Only the cells, which intersect the old or the new bounds, are updated. If
+     * the estimated traversal cost has grown by more than {@link #REBUILD_THRESHOLD}
+     * since the last build, the grid is rebuilt (see {@link #rebuild()}).
+     * @param sceneObject The object of the scene.
+     * @param moved The new version of the object.
+     */
+    public void moveSceneObject(SceneObject sceneObject, SceneObject moved) {
+        if(buildCost == 0) {
+            buildCost = getTraversalCost();
+        }
+        super.moveSceneObject(sceneObject, moved);
+        if(getTraversalCost() > REBUILD_THRESHOLD * buildCost) {
+            rebuild();
+            rebuildCount++;
+        }
+    }
+    
+    /**
+     * Estimates the cost of a ray, that hits an object, in intersection tests:
+     * the steps through the grid, the mean object count of the cells, weighted
+     * by the object count (a ray, that hits an object, is more likely to end in
+     * a crowded cell), and the objects of the linear list, which are tested by
+     * every ray.
+     * @return the estimated traversal cost.
+     */
+    public double getTraversalCost() {
+        double cellCost = numberOfObjectsInGrid == 0 ? 0 : (double) sumOfSquaredCounts / numberOfObjectsInGrid;
+        return CELL_STEP_COST * cellCount + cellCost + sceneObjects.size();
+    }
+    
+    /**
+     * Rebuilds the grid with the same number of cells and bounds, that are fitted
+     * to the bounded objects of the scene, so objects, which have left the old
+     * bounds, are put into the grid again. Unbounded objects remain in the linear list.
+     */
+    public void rebuild() {
+        
+        // collect every object once, the grid contains an object in each cell, that it intersects
+        Map<SceneObject, Boolean> collected = new IdentityHashMap<SceneObject, Boolean>();
+        List<SceneObject> objects = new ArrayList<SceneObject>();
+        for(Cell c : grid) {
+            for(SceneObject s : c.getSceneObjects()) {
+                if(collected.put(s, Boolean.TRUE) == null) {
+                    objects.add(s);
+                }
+            }
+        }
+        objects.addAll(sceneObjects);
+        
+        BoundingBox bounds = getFittedBounds(objects);
+        if(bounds != null) {
+            setBounds(bounds.getLower(), bounds.getSize());
+        } else {
+            createGrid();
+        }
+        sceneObjects.clear();
+        numberOfObjectsInGrid = 0;
+        sumOfSquaredCounts = 0;
+        for(SceneObject s : objects) {
+            addSceneObject(s);
+        }
+        buildCost = getTraversalCost();
+    }
+    
+    /**
+     * Computes grid bounds, that contain all bounded objects with a small margin.
+     * Unbounded objects, e.g. planes, are ignored, they belong into the linear list.
+     * @param objects The objects.
+     * @return the bounds or <code>null</code>, if no object is bounded.
+     */
+    static BoundingBox getFittedBounds(List<SceneObject> objects) {
+        
+        Point3d min = new Point3d(Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
+        Point3d max = new Point3d(Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY);
+        for(SceneObject s : objects) {
+            BoundingVolume bounds = s.getBounds();
+            if(bounds instanceof BoundingBox && !bounds.isInfinite() && !bounds.isInfinitesimal()) {
+                BoundingBox box = (BoundingBox) bounds;
+                if(Double.isInfinite(box.getSize().x + box.getSize().y + box.getSize().z)) {
+                    continue;
+                }
+                min.x = Math.min(min.x, box.getLower().x);
+                min.y = Math.min(min.y, box.getLower().y);
+                min.z = Math.min(min.z, box.getLower().z);
+                max.x = Math.max(max.x, box.getUpper().x);
+                max.y = Math.max(max.y, box.getUpper().y);
+                max.z = Math.max(max.z, box.getUpper().z);
+            }
+        }
+        if(min.x > max.x) {
+            return null;
+        }
+        // enlarge the bounds a little, so the grid contains all objects
+        Vector3d size = new Vector3d();
+        size.sub(max, min);
+        double margin = 0.01 * Math.max(size.x, Math.max(size.y, size.z)) + Scene.EPSILON;
+        min.sub(new Vector3d(margin, margin, margin));
+        size.add(new Vector3d(2 * margin, 2 * margin, 2 * margin));
+        return new BoundingBox(min, size);
+    }
+    
+    /**
+     * Counts the cells, which contain an object. Only the cells, which intersect
+     * the object's bounds, are searched.
+     * @param sceneObject The object.
+     * @return the number of cells or 0, if the object is not in the grid.
+     */
+    public int getCellCount(SceneObject sceneObject) {
+        BoundingVolume bounds = sceneObject.getBounds();
+        if(!sceneBounds.containsBoundingVolume(bounds)) {
+            return 0;
+        }
+        int count = 0;
+        int[] range = getCellRange((BoundingBox) bounds);
+        for(int z = range[2]; z <= range[5]; ++z) {
+            for(int y = range[1]; y <= range[4]; ++y) {
+                for(int x = range[0]; x <= range[3]; ++x) {
+                    for(SceneObject s : grid[x + y * cellCount + z * cellCount * cellCount].getSceneObjects()) {
+                        if(s == sceneObject) {
+                            count++;
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * @return the number of rebuilds, that have been triggered by moved objects.
+     */
+    public int getRebuildCount() {
+        return rebuildCount;
+    }
+    
+    /**
+     * Computes the cells in every dimension, which may intersect a bounding box.
+     * The range is enlarged by one cell on each side, because the bounds and
+     * the cells may touch.
+     * @param bounds A bounding box inside the grid.
+     * @return the lowest x, y, z and the highest x, y, z cell.
+     */
+    private int[] getCellRange(BoundingBox bounds) {
+        Point3d l = bounds.getLower();
+        Point3d u = bounds.getUpper();
+        return new int[] {
+            clampCell(toCell(l.x, lower.x, scaleCountR.x) - 1),
+            clampCell(toCell(l.y, lower.y, scaleCountR.y) - 1),
+            clampCell(toCell(l.z, lower.z, scaleCountR.z) - 1),
+            clampCell(toCell(u.x, lower.x, scaleCountR.x) + 1),
+            clampCell(toCell(u.y, lower.y, scaleCountR.y) + 1),
+            clampCell(toCell(u.z, lower.z, scaleCountR.z) + 1)
+        };
+    }
+    
+    /**
+     * @return the cell index on an axis clamped to the grid.
+     */
+    private int clampCell(int cell) {
+        return Math.max(0, Math.min(cellCount - 1, cell));
+    }
+    
+    /**
+     * Returns the index of the grid cell, which contains a point. Points outside of
+     * the grid get the index <code>cellCount^3</code>.
+     */
+    int getCellIndex(Point3d point) {
+        int x = toCell(point.x, lower.x, scaleCountR.x);
+        int y = toCell(point.y, lower.y, scaleCountR.y);
+        int z = toCell(point.z, lower.z, scaleCountR.z);
+        if(x < 0 || y < 0 || z < 0 || x >= cellCount || y >= cellCount || z >= cellCount) {
+            return grid.length;
+        }
+        return x + y * cellCount + z * cellCount * cellCount;
+    }
+    
+    /**
+     * @return the grid's lower point.
+     */
+    public Point3d getLower() {
+        return lower;
+    }
+    
+    /**
+     * @return the number of cells in every dimension.
+     */
+    public int getCellCount() {
+        return cellCount;
+    }
+    
+    /**
+     * @return the grid cells, indexed by <code>x + y * cellCount + z * cellCount * cellCount</code>.
+     */
+    Cell[] getCells() {
+        return grid;
+    }
+    
+    /**
+     * Puts a scene object into a cell without any intersection test. Used to restore
+     * a grid whose cell contents are already known (see {@link SceneCache}).
+     * @param cellIndex The cell's index.
+     * @param sceneObject The scene object.
+     */
+    void addSceneObjectToCell(int cellIndex, SceneObject sceneObject) {
+        sumOfSquaredCounts += 2 * grid[cellIndex].getSceneObjects().size() + 1;
+        grid[cellIndex].add(sceneObject);
+        numberOfObjectsInGrid++;
+    }
+    
     /**
      * Prints the number of objects in and out of the grid.
      */
@@ -0,0 +1,96 @@
+/*
+ * RelightSession.java
+ * 26/10/19
+ *
+ * University of Applied Sciences
+ * Bingen, Germany
+ *
+ * FPro Project "Jaytracer"
+ *
+ * Author:
+ * M S
+ *
+ */
+package de.fhbingen.fpro.jaytracer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+
+import org.xml.sax.SAXException;
+
+/**
+ * An interactive relighting session for a fixed camera and fixed geometry. The
+ * image is traced once with a relightable {@link RayGenerator}, which keeps the
+ * hit records of all rays. On every request the lights are loaded again from a
+ * light file, which is a scene file with <code>&lt;light&gt;</code> elements (e.g.
+ * the scene file itself), and only the shading and the shadow rays are computed
+ * again.
+ *
+ * @author M S
+ */
+final class RelightSession {
+
+    /** The traced scene */
+    private final Scene scene;
+
+    /** The relightable ray generator, that traced the image */
+    private final RayGenerator generator;
+
+    /** Path to the light file */
+    private final String lightFile;
+
+    /** Path to the image file */
+    private final String imageFile;
+
+    /**
+     * Creates a relighting session.
+     * @param scene The traced scene.
+     * @param generator The relightable ray generator, that traced the image.
+     * @param lightFile Path to the light file.
+     * @param imageFile Path to the image file.
+     */
+    RelightSession(Scene scene, RayGenerator generator, String lightFile, String imageFile) {
+        this.scene = scene;
+        this.generator = generator;
+        this.lightFile = lightFile;
+        this.imageFile = imageFile;
+    }
+
+    /**
+     * Relights the image on every line of the input until the input ends or a
+     * line is <code>q</code>.
+     * @param in The input.
+     * @throws IOException If the input or the image file can not be accessed.
+     */
+    void run(BufferedReader in) throws IOException {
+        System.out.println("relight: press enter to reload the lights from "+lightFile+", q to quit");
+        String line;
+        while((line = in.readLine()) != null && !line.trim().equals("q")) {
+            try {
+                relight();
+            } catch (SAXException e) {
+                System.out.println("Malformed light file: "+e.getMessage());
+            } catch (IOException e) {
+                System.out.println("I/O error: "+e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Loads the lights, shades the image again and writes it.
+     * @throws SAXException If the light file is not a valid scene file.
+     * @throws IOException If the light file or the image file can not be accessed.
+     */
+    void relight() throws SAXException, IOException {
+        long start = System.nanoTime();
+        Scene lightScene = new Scene();
+        lightScene.load(lightFile);
+        scene.removeLights();
+        for(Light light : lightScene.getLights()) {
+            scene.addLight(light);
+        }
+        generator.relight();
+        new ImageOutput().writePNG(generator.getPixelMap(), imageFile);
+        System.out.println("Relight time: "+(System.nanoTime() - start)/1000000+" ms ("+scene.getLights().size()+" lights)");
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * RenderEvents.java
+ * 26/10/19
+ *
+ * University of Applied Sciences
+ * Bingen, Germany
+ *
+ * FPro Project "Jaytracer"
+ *
+ * Author:
+ * M S
+ *
+ */
+package de.fhbingen.fpro.jaytracer;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * The Java Flight Recorder events of the renderer, so the timelines of a
+ * recording show the scene loads, the grid builds, the traced tiles and the
+ * encoded images next to the GC and CPU events. An event costs nothing but a
+ * check, if it is not enabled in the recording.<br/>
+ * <br/>
+ * The events are used like this:<br/>
+ * <code>
+ * RenderEvents.ImageEncode event = new RenderEvents.ImageEncode();<br/>
+ * event.begin();<br/>
+ * ...<br/>
+ * event.end();<br/>
+ * if(event.shouldCommit()) {<br/>
+ * &nbsp;&nbsp;&nbsp;&nbsp;event.width = width;<br/>
+ * &nbsp;&nbsp;&nbsp;&nbsp;event.commit();<br/>
+ * }
+ * </code>
+ *
+ * @author M S
+ */
+final class RenderEvents {
+
+    /** The category of all events */
+    static final String CATEGORY = "Jaytracer";
+
+    /**
+     * Only nested classes.
+     */
+    private RenderEvents() {
+    }
+
+    /**
+     * A scene file, that is loaded and built.
+     */
+    @Name("de.fhbingen.fpro.jaytracer.SceneLoad")
+    @Label("Scene Load")
+    @Category(CATEGORY)
+    @Description("Parses a scene file and builds its hierarchy")
+    static final class SceneLoad extends Event {
+
+        @Label("File")
+        String file;
+
+        @Label("Threads")
+        int threads;
+    }
+
+    /**
+     * The cells of a regular grid, that are created.
+     */
+    @Name("de.fhbingen.fpro.jaytracer.GridCreate")
+    @Label("Grid Create")
+    @Category(CATEGORY)
+    @Description("Creates the empty cells of a regular grid")
+    static final class GridCreate extends Event {
+
+        @Label("Cells")
+        int cells;
+    }
+
+    /**
+     * An object, that is added to a regular grid. Only slow insertions are
+     * recorded by default, e.g. of objects, that span many cells.
+     */
+    @Name("de.fhbingen.fpro.jaytracer.GridInsert")
+    @Label("Grid Insert")
+    @Category(CATEGORY)
+    @Description("Adds an object to the cells of a regular grid, which it intersects")
+    @Threshold("1 ms")
+    static final class GridInsert extends Event {
+
+        @Label("Object Type")
+        String objectType;
+
+        @Label("Cells")
+        @Description("The number of cells, to which the object has been added, 0 for the linear list")
+        int cells;
+    }
+
+    /**
+     * An image, that is traced.
+     */
+    @Name("de.fhbingen.fpro.jaytracer.Render")
+    @Label("Render")
+    @Category(CATEGORY)
+    @Description("Traces an image")
+    static final class Render extends Event {
+
+        @Label("Width")
+        int width;
+
+        @Label("Height")
+        int height;
+
+        @Label("Recursion Depth")
+        int ttl;
+
+        @Label("Supersampling")
+        int supersampling;
+
+        @Label("Completed Rows")
+        int completedRows;
+    }
+
+    /**
+     * A tile of an image, that is traced: a wavefront tile, a band of
+     * packets or a row of pixels.
+     */
+    @Name("de.fhbingen.fpro.jaytracer.TileRender")
+    @Label("Tile Render")
+    @Category(CATEGORY)
+    @Description("Traces a wavefront tile, a band of packets or a row of pixels")
+    @StackTrace(false)
+    static final class TileRender extends Event {
+
+        @Label("First Row")
+        int firstRow;
+
+        @Label("First Column")
+        int firstColumn;
+
+        @Label("Rows")
+        int rows;
+
+        @Label("Columns")
+        int columns;
+
+        @Label("Primary Rays")
+        long primaryRays;
+
+        @Label("Secondary Rays")
+        @Description("The shadow, reflected and refracted rays, only counted with enabled render statistics")
+        long secondaryRays;
+    }
+
+    /**
+     * An image, that is encoded.
+     */
+    @Name("de.fhbingen.fpro.jaytracer.ImageEncode")
+    @Label("Image Encode")
+    @Category(CATEGORY)
+    @Description("Encodes an image as PNG")
+    static final class ImageEncode extends Event {
+
+        @Label("Width")
+        int width;
+
+        @Label("Height")
+        int height;
+
+        @Label("File")
+        @Description("The image file or null, if the image is written to a stream")
+        String file;
+    }
+}
@@ -0,0 +1,629 @@
+/*
+ * RenderServer.java
+ * 26/10/19
+ *
+ * University of Applied Sciences
+ * Bingen, Germany
+ *
+ * FPro Project "Jaytracer"
+ *
+ * Author:
+ * M S
+ *
+ */
+package de.fhbingen.fpro.jaytracer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.vecmath.Point3d;
+import javax.vecmath.Vector3d;
+
+import org.xml.sax.SAXException;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A render server with an HTTP API, which keeps the JVM and the built scenes warm
+ * between the renders.<br/>
+ * <br/>
+ * <code>POST /render</code> renders the scene file in the request body,
+ * <code>GET /render?scene=PATH</code> a scene file below the server's scene
+ * root; paths outside of it are answered with 403.
+ * The response is a PNG image. The query parameters are the options of
+ * {@link Jaytracer}: <code>width</code>, <code>height</code>, <code>ttl</code>,
+ * <code>ss</code> (OFF, ROTATED, ORDERED), <code>grid</code> (like -G),
+ * <code>packet</code> and <code>tiles</code>. Values above the limits of the
+ * server (e.g. {@link #MAX_IMAGE_SIZE}) are answered with 400, so a single
+ * request can't exhaust the memory of the shared server. The server only
+ * accepts connections from the local host. <code>GET /status</code> returns
+ * the counters of the server as text, <code>GET /stats</code> the
+ * {@link RenderStatistics} as JSON; <code>/stats?enabled=true</code> enables
+ * them, they are also available over JMX.<br/>
+ * <br/>
+ * Built scenes are cached by the SHA-256 hash of the scene file's content, its
+ * directory and the grid parameters, the least recently used scene is evicted. A cached
+ * scene is built again, if one of its mesh files was modified. Mesh files must
+ * lie below the scene root as well, relative paths of uploaded scene files are
+ * resolved against it. Uploads above {@link #MAX_UPLOAD_SIZE} are answered
+ * with 413. The requests are handled by virtual threads (or a cached thread
+ * pool before Java 21), which wait for the jobs of two bounded pools, one for
+ * building the scenes and one for tracing them, so at most one job per
+ * processor runs in each at once. If the queue of a pool is full, the request
+ * is answered with 503.<br/>
+ * <br/>
+ * The scenes are shared by the jobs, so tracing must not change them (see
+ * {@link Light#getAttenuation(Point3d)}).
+ *
+ * @author M S
+ */
+final class RenderServer {
+
+    /** The default number of cached scenes */
+    static final int DEFAULT_CACHE_SIZE = 8;
+
+    /** The number of jobs, that may wait for the render pool */
+    static final int QUEUE_CAPACITY = 64;
+
+    /** The maximum width and height of an image */
+    static final int MAX_IMAGE_SIZE = 8192;
+
+    /** The maximum recursion depth */
+    static final int MAX_TTL = 64;
+
+    /** The maximum number of grid cells in each direction */
+    static final int MAX_GRID_CELLS = 128;
+
+    /** The maximum size of an uploaded scene file in bytes */
+    static final int MAX_UPLOAD_SIZE = 64 << 20;
+
+    /** The HTTP server */
+    private final HttpServer server;
+
+    /** The executor of the request handlers */
+    private final ExecutorService handlers;
+
+    /** The bounded pool of the render jobs */
+    private final ThreadPoolExecutor renderPool;
+
+    /** The bounded pool, which builds the scenes */
+    private final ThreadPoolExecutor buildPool;
+
+    /** The maximum number of cached scenes */
+    private final int cacheSize;
+
+    /** The directory, below which the scene files of GET requests must lie (a real path) */
+    private final Path sceneRoot;
+
+    /** The built scenes by their keys in the order of their last use */
+    private final LinkedHashMap<String, Future<CachedScene>> scenes = new LinkedHashMap<String, Future<CachedScene>>(16, 0.75f, true);
+
+    /** Counters */
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * Creates a render server on the loopback interface, it is started by {@link #start()}.
+     * @param port The port.
+     * @param renderThreads The number of threads of the render and the build pool.
+     * @param cacheSize The maximum number of cached scenes.
+     * @param sceneRoot The directory, below which the scene files of GET requests must lie.
+     * @throws IOException If the port can not be bound or the scene root does not exist.
+     */
+    RenderServer(int port, int renderThreads, int cacheSize, Path sceneRoot) throws IOException {
+        this.cacheSize = cacheSize;
+        this.sceneRoot = sceneRoot.toRealPath();
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        handlers = createHandlerExecutor();
+        renderPool = new ThreadPoolExecutor(renderThreads, renderThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY));
+        buildPool = new ThreadPoolExecutor(renderThreads, renderThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY));
+        server.setExecutor(handlers);
+        server.createContext("/render", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                handleRender(exchange);
+            }
+        });
+        server.createContext("/status", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                handleStatus(exchange);
+            }
+        });
+        server.createContext("/stats", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                handleStats(exchange);
+            }
+        });
+        RenderStatistics.registerMBean();
+    }
+
+    /**
+     * Starts the server.
+     */
+    void start() {
+        server.start();
+        System.out.println("render_server: http://localhost:"+server.getAddress().getPort()+"/render, "
+                +renderPool.getMaximumPoolSize()+" render threads, "+cacheSize+" cached scenes, scene root "+sceneRoot);
+    }
+
+    /**
+     * Stops the server, the render and the build pool.
+     */
+    void stop() {
+        server.stop(0);
+        renderPool.shutdownNow();
+        buildPool.shutdownNow();
+        handlers.shutdownNow();
+    }
+
+    /**
+     * @return an executor with a virtual thread per request, or a cached thread
+     * pool, if virtual threads are not available (before Java 21).
+     */
+    private static ExecutorService createHandlerExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Handles a render request.
+     */
+    private void handleRender(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try {
+            Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+            byte[] content;
+            String file = parameters.get("scene");
+            if(exchange.getRequestMethod().equals("POST")) {
+                content = readAll(exchange.getRequestBody(), MAX_UPLOAD_SIZE);
+                if(content == null) {
+                    send(exchange, 413, "scene file is larger than "+MAX_UPLOAD_SIZE+" bytes");
+                    return;
+                }
+                file = null;
+            } else if(exchange.getRequestMethod().equals("GET") && file != null) {
+                Path path = resolveScene(file);
+                if(path == null) {
+                    send(exchange, 403, "scene file is outside of the scene root");
+                    return;
+                }
+                file = path.toString();
+                content = Files.readAllBytes(path);
+            } else {
+                send(exchange, 405, "POST a scene file or GET with a scene parameter");
+                return;
+            }
+
+            final int width = getInt(parameters, "width", 800, 1, MAX_IMAGE_SIZE);
+            final int height = getInt(parameters, "height", 800, 1, MAX_IMAGE_SIZE);
+            final int ttl = getInt(parameters, "ttl", 5, 0, MAX_TTL);
+            final int ss = getSupersampling(parameters.get("ss"));
+            final int packetSize = getInt(parameters, "packet", 1, 1, MAX_IMAGE_SIZE);
+            final int tileSize = getInt(parameters, "tiles", 0, 0, MAX_IMAGE_SIZE);
+            String grid = parameters.get("grid");
+
+            boolean[] hit = new boolean[1];
+            final Scene scene = getScene(content, file, grid, hit);
+            long start = System.nanoTime();
+            Future<int[][]> job = renderPool.submit(new Callable<int[][]>() {
+                public int[][] call() {
+                    RayGenerator generator = new RayGenerator(scene, width, height, ttl, ss);
+                    generator.setPacketSize(packetSize);
+                    generator.setWavefrontTileSize(tileSize);
+                    generator.setVerbose(false);
+                    generator.run();
+                    return generator.getPixelMap();
+                }
+            });
+            int[][] pixelMap = job.get();
+            long time = (System.nanoTime() - start) / 1000000;
+
+            ByteArrayOutputStream png = new ByteArrayOutputStream();
+            new ImageOutput().writePNG(pixelMap, png);
+            exchange.getResponseHeaders().set("Content-Type", "image/png");
+            exchange.getResponseHeaders().set("X-Scene-Cache", hit[0] ? "hit" : "miss");
+            exchange.getResponseHeaders().set("X-Render-Time", Long.toString(time));
+            exchange.sendResponseHeaders(200, png.size());
+            OutputStream out = exchange.getResponseBody();
+            png.writeTo(out);
+            out.close();
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            send(exchange, 503, "render queue is full");
+        } catch (NoSuchFileException e) {
+            send(exchange, 404, "no scene file "+e.getMessage());
+        } catch (SAXException e) {
+            send(exchange, 400, "Malformed Scenefile: "+e.getMessage());
+        } catch (IOException e) {
+            send(exchange, 500, "I/O error: "+e.getMessage());
+        } catch (IllegalArgumentException e) {
+            send(exchange, 400, "malformed parameter "+e.getMessage());
+        } catch (InterruptedException e) {
+            send(exchange, 503, "server is stopping");
+        } catch (ExecutionException e) {
+            send(exchange, 500, "Raytracer error: "+e.getCause());
+        }
+    }
+
+    /**
+     * Handles a status request.
+     */
+    private void handleStatus(HttpExchange exchange) throws IOException {
+        int cached;
+        synchronized(scenes) {
+            cached = scenes.size();
+        }
+        send(exchange, 200, "requests: "+requests.get()
+                +"\ncached_scenes: "+cached
+                +"\ncache_hits: "+cacheHits.get()
+                +"\ncache_misses: "+cacheMisses.get()
+                +"\nactive_builds: "+buildPool.getActiveCount()
+                +"\nqueued_builds: "+buildPool.getQueue().size()
+                +"\nactive_jobs: "+renderPool.getActiveCount()
+                +"\nqueued_jobs: "+renderPool.getQueue().size()
+                +"\nrejected_jobs: "+rejected.get()
+                +"\ncompleted_jobs: "+renderPool.getCompletedTaskCount()+"\n");
+    }
+
+    /**
+     * Handles a statistics request, which may enable or disable the statistics.
+     */
+    private void handleStats(HttpExchange exchange) throws IOException {
+        String enabled = parseQuery(exchange.getRequestURI().getRawQuery()).get("enabled");
+        if(enabled != null) {
+            RenderStatistics.setEnabled(Boolean.parseBoolean(enabled));
+        }
+        send(exchange, 200, RenderStatistics.toJson()+"\n");
+    }
+
+    /**
+     * Returns the built scene of a scene file from the cache, or builds it in the
+     * build pool. A scene, which is requested again while it is built, is built
+     * only once. A cached scene, whose mesh files were modified, is built again.
+     * @param content The content of the scene file.
+     * @param file Path to the scene file or <code>null</code>, if it is uploaded.
+     * @param grid The grid parameters like -G or <code>null</code>.
+     * @param hit Gets <code>true</code>, if the scene is taken from the cache.
+     * @return the scene.
+     * @throws SAXException If the content is not a valid scene file.
+     * @throws IOException If the scene file can not be read.
+     * @throws InterruptedException If the thread is interrupted.
+     * @throws RejectedExecutionException If the queue of the build pool is full.
+     */
+    private Scene getScene(final byte[] content, final String file, final String grid, boolean[] hit)
+            throws SAXException, IOException, InterruptedException {
+        final Point3d lower;
+        final Vector3d size;
+        final int cells;
+        if(grid != null) {
+            String[] tmp = grid.split("x");
+            if(tmp.length != 3) {
+                throw new IllegalArgumentException("grid");
+            }
+            lower = Jaytracer.getPoint3dString(tmp[0]);
+            size = new Vector3d(Jaytracer.getPoint3dString(tmp[1]));
+            cells = Integer.parseInt(tmp[2]);
+            if(cells < 1 || cells > MAX_GRID_CELLS) {
+                throw new IllegalArgumentException("grid");
+            }
+        } else {
+            lower = null;
+            size = null;
+            cells = 0;
+        }
+
+        // relative mesh file paths depend on the directory of the scene file
+        String key = hash(content) + " " + (file == null ? sceneRoot : new File(file).getParent())
+                + (grid == null ? "" : " " + grid);
+        while(true) {
+            FutureTask<CachedScene> build = null;
+            Future<CachedScene> scene;
+            synchronized(scenes) {
+                scene = scenes.get(key);
+                if(scene == null) {
+                    build = new FutureTask<CachedScene>(new Callable<CachedScene>() {
+                        public CachedScene call() throws SAXException, IOException {
+                            Scene s = lower == null ? new Scene() : new RegularGridScene(lower, size, cells);
+                            load(s, content, file, sceneRoot);
+                            return new CachedScene(s);
+                        }
+                    });
+                    scene = build;
+                    scenes.put(key, build);
+                    if(scenes.size() > cacheSize) {
+                        scenes.remove(scenes.keySet().iterator().next());
+                    }
+                }
+            }
+            hit[0] = build == null;
+            if(build != null) {
+                try {
+                    buildPool.execute(build);
+                } catch (RejectedExecutionException e) {
+                    build.cancel(false);
+                    removeScene(key, build);
+                    throw e;
+                }
+            }
+            CachedScene cached;
+            try {
+                cached = scene.get();
+            } catch (CancellationException e) {
+                removeScene(key, scene);
+                throw new RejectedExecutionException("build queue is full");
+            } catch (ExecutionException e) {
+                removeScene(key, scene);
+                throw getCause(e);
+            }
+            if(hit[0] && cached.isModified()) {
+                removeScene(key, scene);
+                continue;
+            }
+            (hit[0] ? cacheHits : cacheMisses).incrementAndGet();
+            return cached.scene;
+        }
+    }
+
+    /**
+     * Removes a scene from the cache, if it is still cached by the key.
+     */
+    private void removeScene(String key, Future<CachedScene> scene) {
+        synchronized(scenes) {
+            if(scenes.get(key) == scene) {
+                scenes.remove(key);
+            }
+        }
+    }
+
+    /**
+     * @return the cause of a failed build, if it is a checked exception of
+     * {@link #getScene(byte[], String, String, boolean[])}.
+     * @throws SAXException If the cause is one.
+     * @throws IOException If the cause is one.
+     * @throws RuntimeException If the cause is one.
+     */
+    private static RuntimeException getCause(ExecutionException e) throws SAXException, IOException {
+        Throwable cause = e.getCause();
+        if(cause instanceof SAXException) {
+            throw (SAXException) cause;
+        }
+        if(cause instanceof IOException) {
+            throw (IOException) cause;
+        }
+        if(cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        return new IllegalStateException(cause);
+    }
+
+    /**
+     * Resolves the path of a scene file against the scene root. Symbolic links
+     * are followed, so they can't lead out of the scene root either.
+     * @param file The path, relative to the scene root or absolute.
+     * @return the real path or <code>null</code>, if it's outside of the scene root.
+     * @throws NoSuchFileException If the file does not exist.
+     * @throws IOException If the path can not be resolved.
+     */
+    Path resolveScene(String file) throws IOException {
+        Path path = sceneRoot.resolve(file).toRealPath();
+        return path.startsWith(sceneRoot) ? path : null;
+    }
+
+    /**
+     * Loads a scene file, whose mesh files must lie below the scene root. An
+     * uploaded scene file is written to a temporary file first, its relative
+     * mesh file paths are resolved against the scene root.
+     * @throws SAXException If the scene file is malformed or a mesh file is outside of the scene root.
+     */
+    private static void load(Scene scene, byte[] content, String file, Path sceneRoot) throws SAXException, IOException {
+        if(file != null) {
+            new SceneFileLoader(scene, file, sceneRoot, null);
+            return;
+        }
+        File tmp = File.createTempFile("jaytracer", ".xml");
+        try {
+            Files.write(tmp.toPath(), content);
+            new SceneFileLoader(scene, tmp.getPath(), sceneRoot, sceneRoot);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * @return the SHA-256 hash of the content as hex string.
+     */
+    private static String hash(byte[] content) {
+        try {
+            StringBuilder hex = new StringBuilder();
+            for(byte b : MessageDigest.getInstance("SHA-256").digest(content)) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the parameters of a raw query string.
+     */
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> parameters = new HashMap<String, String>();
+        if(query == null) {
+            return parameters;
+        }
+        for(String pair : query.split("&")) {
+            int i = pair.indexOf('=');
+            if(i > 0) {
+                parameters.put(URLDecoder.decode(pair.substring(0, i), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(i + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return parameters;
+    }
+
+    /**
+     * @return the integer parameter or the default value.
+     * @throws IllegalArgumentException If the parameter is malformed or out of the range.
+     */
+    private static int getInt(Map<String, String> parameters, String name, int defaultValue, int minimum, int maximum) {
+        String value = parameters.get(name);
+        if(value == null) {
+            return defaultValue;
+        }
+        int i;
+        try {
+            i = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name);
+        }
+        if(i < minimum || i > maximum) {
+            throw new IllegalArgumentException(name);
+        }
+        return i;
+    }
+
+    /**
+     * @return the supersampling mode of the ss parameter.
+     * @throws IllegalArgumentException If the parameter is malformed.
+     */
+    private static int getSupersampling(String value) {
+        if(value == null || value.equals("OFF")) {
+            return RayGenerator.NO_SUPERSAMPLING;
+        } else if(value.equals("ROTATED")) {
+            return RayGenerator.ROTATED_GRID;
+        } else if(value.equals("ORDERED")) {
+            return RayGenerator.ORDERD_GRID;
+        }
+        throw new IllegalArgumentException("ss");
+    }
+
+    /**
+     * @return the bytes of a stream or <code>null</code>, if there are more than limit bytes.
+     */
+    private static byte[] readAll(InputStream in, int limit) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1 << 16];
+        int n;
+        while((n = in.read(buffer)) > 0) {
+            if(bytes.size() + n > limit) {
+                return null;
+            }
+            bytes.write(buffer, 0, n);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Sends a text response.
+     */
+    private static void send(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+    }
+
+    /**
+     * A built scene with the modification times of its mesh files.
+     */
+    private static final class CachedScene {
+
+        /** The scene */
+        final Scene scene;
+
+        /** The paths of the mesh files */
+        private final List<File> meshFiles = new ArrayList<File>();
+
+        /** The modification times of the mesh files */
+        private final List<Long> modified = new ArrayList<Long>();
+
+        /** The prototypes, whose mesh files are added */
+        private final List<Prototype> prototypes = new ArrayList<Prototype>();
+
+        /**
+         * Creates a cached scene and reads the modification times of its mesh files.
+         * @param scene The built scene.
+         */
+        CachedScene(Scene scene) {
+            this.scene = scene;
+            addMeshFiles(scene.getSceneObjects());
+        }
+
+        /**
+         * Adds the mesh files of the objects, also of the prototypes of instances.
+         */
+        private void addMeshFiles(List<SceneObject> objects) {
+            TriangleMesh last = null;
+            for(SceneObject s : objects) {
+                if(s instanceof Instance) {
+                    Prototype prototype = ((Instance) s).getPrototype();
+                    if(!prototypes.contains(prototype)) {
+                        prototypes.add(prototype);
+                        addMeshFiles(prototype.getSceneObjects());
+                    }
+                } else if(s instanceof MeshTriangle && ((MeshTriangle) s).getMesh() != last) {
+                    last = ((MeshTriangle) s).getMesh();
+                    if(last.getFile() != null) {
+                        File file = new File(last.getFile());
+                        if(!meshFiles.contains(file)) {
+                            meshFiles.add(file);
+                            modified.add(file.lastModified());
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return <code>true</code>, if one of the mesh files was modified or deleted since the scene was built.
+         */
+        boolean isModified() {
+            for(int i = 0; i < meshFiles.size(); ++i) {
+                if(meshFiles.get(i).lastModified() != modified.get(i)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,342 @@
+/*
+ * RenderStatistics.java
+ * 26/10/19
+ *
+ * University of Applied Sciences
+ * Bingen, Germany
+ *
+ * FPro Project "Jaytracer"
+ *
+ * Author:
+ * M S
+ *
+ */
+package de.fhbingen.fpro.jaytracer;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counts the rays, intersection tests, grid cells and hits of all rendering
+ * threads and measures the time of the phases parse, build, trace and encode.
+ * The statistics are disabled by default.<br/>
+ * <br/>
+ * Every thread counts into its own array (see {@link #getThreadCounters()}),
+ * which is padded on both sides, so the counters of different threads never
+ * share a cache line. The tracing code gets the array once per ray or packet
+ * and skips the counting, if the array is <code>null</code>, so the disabled
+ * statistics cost a branch. The arrays are merged, when the statistics are read,
+ * the counters of running threads may be a little behind then. The phase times
+ * are summed over all calls, e.g. over the frames of an animation, and the
+ * build time over all threads, that load a scene.<br/>
+ * <br/>
+ * The statistics are available as JSON (see {@link #toJson()}) and, after
+ * {@link #registerMBean()}, over JMX as
+ * <code>de.fhbingen.fpro.jaytracer:type=RenderStatistics</code>.
+ *
+ * @author M S
+ */
+public final class RenderStatistics implements RenderStatisticsMBean {
+
+    /** Longs in front of and behind the counters of a thread (a cache line has 64 bytes) */
+    private static final int PADDING = 8;
+
+    /** Indices of the counters in the array of a thread */
+    static final int PRIMARY_RAYS = PADDING;
+    static final int SHADOW_RAYS = PADDING + 1;
+    static final int REFLECTED_RAYS = PADDING + 2;
+    static final int REFRACTED_RAYS = PADDING + 3;
+    static final int INTERSECTION_TESTS = PADDING + 4;
+    static final int CELLS_STEPPED = PADDING + 5;
+    static final int HITS = PADDING + 6;
+    static final int PARSE_TIME = PADDING + 7;
+    static final int BUILD_TIME = PADDING + 8;
+    static final int TRACE_TIME = PADDING + 9;
+    static final int ENCODE_TIME = PADDING + 10;
+
+    /** The names of the counters in the JSON report */
+    private static final String[] NAMES = { "primaryRays", "shadowRays", "reflectedRays", "refractedRays",
+        "intersectionTests", "cellsStepped", "hits", "parse", "build", "trace", "encode" };
+
+    /** The number of counters */
+    private static final int COUNT = NAMES.length;
+
+    /** The name of the MBean */
+    static final String OBJECT_NAME = "de.fhbingen.fpro.jaytracer:type=RenderStatistics";
+
+    /** <code>true</code>, if the statistics are counted */
+    private static volatile boolean enabled;
+
+    /** The counters of the threads, which have counted */
+    private static final List<ThreadCounters> threads = new CopyOnWriteArrayList<ThreadCounters>();
+
+    /** The merged counters of the threads, which have terminated */
+    private static final long[] retired = new long[PADDING + COUNT];
+
+    /** The counters of the current thread, a new thread retires the terminated ones first */
+    private static final ThreadLocal<ThreadCounters> local = new ThreadLocal<ThreadCounters>() {
+        protected ThreadCounters initialValue() {
+            ThreadCounters counters = new ThreadCounters(Thread.currentThread());
+            synchronized(retired) {
+                retireTerminated();
+                threads.add(counters);
+            }
+            return counters;
+        }
+    };
+
+    /**
+     * @return <code>true</code>, if the statistics are counted.
+     */
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Enables or disables the statistics. The counters are kept.
+     * @param enabled
+     */
+    static void setEnabled(boolean enabled) {
+        RenderStatistics.enabled = enabled;
+    }
+
+    /**
+     * Returns the counters of the current thread. Only the current thread may
+     * change them, the indices are the constants of this class, e.g.
+     * <code>counters[RenderStatistics.HITS]++</code>.
+     * @return the counters or <code>null</code>, if the statistics are disabled.
+     */
+    static long[] getThreadCounters() {
+        return enabled ? local.get().values : null;
+    }
+
+    /**
+     * Adds to a counter of the current thread, if the statistics are enabled.
+     * @param counter The index of the counter.
+     * @param n The value to add.
+     */
+    static void count(int counter, long n) {
+        if(enabled) {
+            local.get().values[counter] += n;
+        }
+    }
+
+    /**
+     * Starts measuring a phase.
+     * @return the start time (see <code>System.nanoTime()</code>) or 0, if the statistics are disabled.
+     */
+    static long startPhase() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Adds the time since the start of a phase to its counter.
+     * @param phase The index of the phase's counter, e.g. {@link #TRACE_TIME}.
+     * @param start The result of {@link #startPhase()}.
+     */
+    static void endPhase(int phase, long start) {
+        if(start != 0) {
+            count(phase, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @return the merged counters of all threads, the indices are the constants of this class.
+     */
+    static long[] getCounters() {
+        long[] sum = new long[PADDING + COUNT];
+        synchronized(retired) {
+            retireTerminated();
+            for(ThreadCounters counters : threads) {
+                for(int i = PADDING; i < PADDING + COUNT; i++) {
+                    sum[i] += counters.values[i];
+                }
+            }
+            for(int i = PADDING; i < PADDING + COUNT; i++) {
+                sum[i] += retired[i];
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Merges the counters of the terminated threads into the retired counters
+     * and drops their arrays, so the list of the threads only grows with the
+     * threads, that are alive, e.g. with a thread per request. The caller must
+     * hold the lock of the retired counters.
+     */
+    private static void retireTerminated() {
+        List<ThreadCounters> terminated = new ArrayList<ThreadCounters>();
+        for(ThreadCounters counters : threads) {
+            if(!counters.thread.isAlive()) {
+                // a terminated thread doesn't count anymore
+                terminated.add(counters);
+                for(int i = PADDING; i < PADDING + COUNT; i++) {
+                    retired[i] += counters.values[i];
+                }
+            }
+        }
+        if(!terminated.isEmpty()) {
+            threads.removeAll(terminated);
+        }
+    }
+
+    /**
+     * Sets all counters to 0. Counters, which are changed at the same time,
+     * may keep a part of their value.
+     */
+    static void resetCounters() {
+        synchronized(retired) {
+            for(ThreadCounters counters : threads) {
+                for(int i = PADDING; i < PADDING + COUNT; i++) {
+                    counters.values[i] = 0;
+                }
+            }
+            for(int i = PADDING; i < PADDING + COUNT; i++) {
+                retired[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * Creates the JSON report, e.g.<br/>
+     * <code>{"enabled":true,"primaryRays":40000,...,"hits":52000,
+     * "phases":{"parse":12.5,...},"testsPerRay":38.2,"cellsPerRay":6.1}</code><br/>
+     * The phase times are in milliseconds.
+     * @return the report.
+     */
+    static String toJson() {
+        long[] counters = getCounters();
+        StringBuilder json = new StringBuilder("{\"enabled\":").append(enabled);
+        for(int i = PRIMARY_RAYS; i <= HITS; i++) {
+            json.append(",\"").append(NAMES[i - PADDING]).append("\":").append(counters[i]);
+        }
+        json.append(",\"phases\":{");
+        for(int i = PARSE_TIME; i <= ENCODE_TIME; i++) {
+            json.append(i == PARSE_TIME ? "" : ",").append('"').append(NAMES[i - PADDING]).append("\":")
+                    .append(toMillis(counters[i]));
+        }
+        long rays = counters[PRIMARY_RAYS] + counters[SHADOW_RAYS] + counters[REFLECTED_RAYS] + counters[REFRACTED_RAYS];
+        json.append("},\"testsPerRay\":").append(ratio(counters[INTERSECTION_TESTS], rays));
+        json.append(",\"cellsPerRay\":").append(ratio(counters[CELLS_STEPPED], rays));
+        return json.append('}').toString();
+    }
+
+    /**
+     * Registers the statistics as platform MBean, if they are not registered yet.
+     * A failure is printed and ignored.
+     */
+    static synchronized void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if(!server.isRegistered(name)) {
+                server.registerMBean(new RenderStatistics(), name);
+            }
+        } catch (JMException e) {
+            System.err.println("Render statistics not available over JMX: "+e.getMessage());
+        }
+    }
+
+    /**
+     * @return nanoseconds as milliseconds with one decimal.
+     */
+    private static double toMillis(long nanos) {
+        return Math.round(nanos / 100000.0) / 10.0;
+    }
+
+    /**
+     * @return the ratio with one decimal or 0, if the divisor is 0.
+     */
+    private static double ratio(long a, long b) {
+        return b == 0 ? 0 : Math.round(10.0 * a / b) / 10.0;
+    }
+
+    /**
+     * Only for the MBean.
+     */
+    private RenderStatistics() {
+    }
+
+    public boolean isStatisticsEnabled() {
+        return enabled;
+    }
+
+    public void setStatisticsEnabled(boolean enabled) {
+        setEnabled(enabled);
+    }
+
+    public long getPrimaryRays() {
+        return getCounters()[PRIMARY_RAYS];
+    }
+
+    public long getShadowRays() {
+        return getCounters()[SHADOW_RAYS];
+    }
+
+    public long getReflectedRays() {
+        return getCounters()[REFLECTED_RAYS];
+    }
+
+    public long getRefractedRays() {
+        return getCounters()[REFRACTED_RAYS];
+    }
+
+    public long getIntersectionTests() {
+        return getCounters()[INTERSECTION_TESTS];
+    }
+
+    public long getCellsStepped() {
+        return getCounters()[CELLS_STEPPED];
+    }
+
+    public long getHits() {
+        return getCounters()[HITS];
+    }
+
+    public double getParseMillis() {
+        return toMillis(getCounters()[PARSE_TIME]);
+    }
+
+    public double getBuildMillis() {
+        return toMillis(getCounters()[BUILD_TIME]);
+    }
+
+    public double getTraceMillis() {
+        return toMillis(getCounters()[TRACE_TIME]);
+    }
+
+    public double getEncodeMillis() {
+        return toMillis(getCounters()[ENCODE_TIME]);
+    }
+
+    public String getJson() {
+        return toJson();
+    }
+
+    public void reset() {
+        resetCounters();
+    }
+
+    /**
+     * The counters of a thread.
+     */
+    private static class ThreadCounters {
+
+        /** The thread */
+        final Thread thread;
+
+        /** The counters between the padding */
+        final long[] values = new long[PADDING + COUNT + PADDING];
+
+        ThreadCounters(Thread thread) {
+            this.thread = thread;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * RenderStatisticsMBean.java
+ * 26/10/19
+ *
+ * University of Applied Sciences
+ * Bingen, Germany
+ *
+ * FPro Project "Jaytracer"
+ *
+ * Author:
+ * M S
+ *
+ */
+package de.fhbingen.fpro.jaytracer;
+
+/**
+ * The JMX interface of the {@link RenderStatistics}. The counters are merged
+ * over all threads, the times are in milliseconds.
+ *
+ * @author M S
+ */
+public interface RenderStatisticsMBean {
+
+    /**
+     * @return <code>true</code>, if the statistics are counted.
+     */
+    boolean isStatisticsEnabled();
+
+    /**
+     * Enables or disables the statistics.
+     * @param enabled
+     */
+    void setStatisticsEnabled(boolean enabled);
+
+    /**
+     * @return the number of primary rays.
+     */
+    long getPrimaryRays();
+
+    /**
+     * @return the number of shadow rays.
+     */
+    long getShadowRays();
+
+    /**
+     * @return the number of reflected rays.
+     */
+    long getReflectedRays();
+
+    /**
+     * @return the number of refracted rays.
+     */
+    long getRefractedRays();
+
+    /**
+     * @return the number of ray-object intersection tests.
+     */
+    long getIntersectionTests();
+
+    /**
+     * @return the number of grid cells, that rays have visited.
+     */
+    long getCellsStepped();
+
+    /**
+     * @return the number of traced rays, that hit an object.
+     */
+    long getHits();
+
+    /**
+     * @return the time of parsing scene files.
+     */
+    double getParseMillis();
+
+    /**
+     * @return the time of building scene hierarchies.
+     */
+    double getBuildMillis();
+
+    /**
+     * @return the time of tracing images.
+     */
+    double getTraceMillis();
+
+    /**
+     * @return the time of encoding images.
+     */
+    double getEncodeMillis();
+
+    /**
+     * @return all statistics as JSON.
+     */
+    String getJson();
+
+    /**
+     * Sets all counters to 0.
+     */
+    void reset();
+}
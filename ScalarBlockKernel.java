@@ -0,0 +1,88 @@
+/*
+ * ScalarBlockKernel.java
+ * 26/10/19
+ *
+ * University of Applied Sciences
+ * Bingen, Germany
+ *
+ * FPro Project "Jaytracer"
+ *
+ * Author:
+ * M S
+ *
+ */
+package de.fhbingen.fpro.jaytracer;
+
+/**
+ * The scalar {@link BlockKernel}. It loops over all elements of a block, the
+ * loops have a constant count and no early exits, so the JIT compiler is free
+ * to unroll them.
+ *
+ * @author M S
+ */
+final class ScalarBlockKernel extends BlockKernel {
+
+    String getName() {
+        return "scalar";
+    }
+
+    /**
+     * @see Sphere#intersect(XRay)
+     */
+    void intersect(SphereBlock block, double ox, double oy, double oz,
+            double dx, double dy, double dz, double[] t) {
+        for(int i = 0; i < PrimitiveBlock.SIZE; ++i) {
+            double x = ox - block.cx[i];
+            double y = oy - block.cy[i];
+            double z = oz - block.cz[i];
+            double b = 2 * (dx * x + dy * y + dz * z);
+            double c = x * x + y * y + z * z - block.squareRadius[i];
+            double discriminant = b * b - 4 * c;
+
+            // the unused elements give NaN
+            if(!(discriminant >= 0)) {
+                t[i] = Double.POSITIVE_INFINITY;
+                continue;
+            }
+            double root = Math.sqrt(discriminant);
+            double t0 = (-b - root) * 0.5;
+            double t1 = (-b + root) * 0.5;
+            t[i] = t0 > Scene.EPSILON ? t0 : t1 > Scene.EPSILON ? t1 : Double.POSITIVE_INFINITY;
+        }
+    }
+
+    /**
+     * @see TriangleMesh#intersectTriangle(int, XRay)
+     */
+    void intersect(TriangleBlock block, double ox, double oy, double oz,
+            double dx, double dy, double dz, double[] t) {
+        for(int i = 0; i < PrimitiveBlock.SIZE; ++i) {
+            double e21x = block.e21x[i], e21y = block.e21y[i], e21z = block.e21z[i];
+            double e31x = block.e31x[i], e31y = block.e31y[i], e31z = block.e31z[i];
+
+            // pvec = direction x edge31
+            double px = dy * e31z - dz * e31y;
+            double py = e31x * dz - e31z * dx;
+            double pz = dx * e31y - dy * e31x;
+            double det = e21x * px + e21y * py + e21z * pz;
+            double invDet = 1 / det;
+
+            // tvec = origin - vertex1
+            double tx = ox - block.v1x[i];
+            double ty = oy - block.v1y[i];
+            double tz = oz - block.v1z[i];
+            double u = (tx * px + ty * py + tz * pz) * invDet;
+
+            // qvec = tvec x edge21
+            double qx = ty * e21z - tz * e21y;
+            double qy = e21x * tz - e21z * tx;
+            double qz = tx * e21y - ty * e21x;
+            double v = (dx * qx + dy * qy + dz * qz) * invDet;
+            double s = (e31x * qx + e31y * qy + e31z * qz) * invDet;
+
+            boolean hit = (det <= -Scene.EPSILON || det >= Scene.EPSILON)
+                    && u >= 0 && u <= 1 && v >= 0 && u + v <= 1 + Scene.EPSILON && s > Scene.EPSILON;
+            t[i] = hit ? s : Double.POSITIVE_INFINITY;
+        }
+    }
+}
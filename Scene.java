@@ -59,6 +59,9 @@ public class Scene {
     /** The camera container */
     protected Camera camera;
 
+    /** The animation or <code>null</code> */
+    protected Animation animation;
+
     /** The scene's ambient light */
     protected Color3f ambientLight;
 
@@ -114,6 +117,21 @@ public class Scene {
         this.camera = camera;
     }
 
+    /**
+     * @return the scene's animation or <code>null</code>, if the scene is not animated.
+     */
+    public Animation getAnimation() {
+        return animation;
+    }
+
+    /**
+     * Sets the scene's animation.
+     * @param animation
+     */
+    public void setAnimation(Animation animation) {
+        this.animation = animation;
+    }
+
     /**
      * @return the list of all lights in the scene.
      */
@@ -129,13 +147,60 @@ public class Scene {
     }
 
     /**
-     * Adds a new object to the scene.
+     * Adds a new object to the scene. A triangle mesh is added as its triangles.
      * @param newObject
      */
     public void addSceneObject(SceneObject newObject) {
+        if(newObject instanceof TriangleMesh) {
+            addTriangleMesh((TriangleMesh) newObject);
+            return;
+        }
         this.sceneObjects.add(newObject);
     }
 
+    /**
+     * Adds all triangles of a mesh to the scene.
+     * @param mesh
+     */
+    protected void addTriangleMesh(TriangleMesh mesh) {
+        for(MeshTriangle t : mesh.getTriangles()) {
+            addSceneObject(t);
+        }
+    }
+
+    /**
+     * Removes an object from the scene. A triangle mesh is removed as its triangles.
+     * @param sceneObject
+     * @return <code>true</code>, if the scene contained the object.
+     */
+    public boolean removeSceneObject(SceneObject sceneObject) {
+        if(sceneObject instanceof TriangleMesh) {
+            boolean removed = false;
+            for(MeshTriangle t : ((TriangleMesh) sceneObject).getTriangles()) {
+                removed |= removeSceneObject(t);
+            }
+            return removed;
+        }
+        for(int i = 0; i < sceneObjects.size(); ++i) {
+            if(sceneObjects.get(i) == sceneObject) {
+                sceneObjects.remove(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Replaces an object, that has moved or changed its shape, by its new version.
+     * Only the hierarchy of this object is updated.
+     * @param sceneObject The object of the scene.
+     * @param moved The new version of the object.
+     */
+    public void moveSceneObject(SceneObject sceneObject, SceneObject moved) {
+        removeSceneObject(sceneObject);
+        addSceneObject(moved);
+    }
+
     /**
      * Adds a new light to the scene.
      * @param newLight
@@ -146,6 +211,15 @@ public class Scene {
         this.ambientLight.clamp(0.0f, 1.0f);
     }
     
+    /**
+     * Removes all lights from the scene, e.g. to replace them for relighting.
+     * The ambient light is reset in place.
+     */
+    public void removeLights() {
+        this.lights.clear();
+        this.ambientLight.set(0.0f, 0.0f, 0.0f);
+    }
+    
     /**
      * @return the number of scene objects.
      */
@@ -162,10 +236,16 @@ public class Scene {
         double min_t = Double.POSITIVE_INFINITY;
        
         SceneObject nearestObject = null;
+        RenderStatistics.count(RenderStatistics.INTERSECTION_TESTS, sceneObjects.size());
+        ObjectProfiler.Sampler sampler = ObjectProfiler.getSampler();
         
         for(SceneObject s : sceneObjects) {
             
+            long begin = sampler != null ? System.nanoTime() : 0;
             double t = s.intersect(ray);
+            if(sampler != null) {
+                sampler.record(s, 1, System.nanoTime() - begin);
+            }
       
             if(t > EPSILON) { // if(t <= epsilon) object is not intersected by the ray
             
@@ -180,32 +260,64 @@ public class Scene {
         	return null;
         }
         else {
-        	return new Intersection(nearestObject, min_t, ray);
+        	return nearestObject.getIntersection(ray, min_t);
         }
         
     }
+
+    /**
+     * Calculates the nearest intersections of a packet of rays. The scene intersects
+     * the rays one by one, scene hierarchies may trace the packet together.
+     * @param rays The rays to intersect.
+     * @param intersections Gets the nearest intersection of every ray or <code>null</code>,
+     * if the ray does not intersect an object.
+     */
+    public void getNearestIntersections(XRay[] rays, Intersection[] intersections) {
+        for(int i = 0; i < rays.length; ++i) {
+            intersections[i] = getNearestIntersection(rays[i]);
+        }
+    }
     
     /**
      * @param intersection The intersecion for that the hitting lights will be computed.
      * @return a list of all lightsources in the scene, that throw light on the given intersection.
      */
     public List<Light> getHittingLights(Intersection intersection) {
-        XRay shadowRay;
         List<Light> hittingLights = new ArrayList<Light>();
         //create a shadow ray for each lightsource and check if
         //there are objects between the current object and the lightsources
         for (Light light : lights) {
-             Point3d point = new Point3d(intersection.getPointOfIntersection()); 
-             Vector3d direction = new Vector3d(light.getPosition());
-             direction.sub(point);
-             shadowRay = new XRay(point, direction, this);   
-             if(getShadowIntersection(shadowRay, light, intersection) == null) {
+             if(getShadowIntersection(createShadowRay(intersection, light), light, intersection) == null) {
                  hittingLights.add(light);  
              } 
         }
         return hittingLights;
     }
 
+    /**
+     * Creates the shadow ray from an intersection to a light source.
+     * @param intersection The intersection.
+     * @param light The light source.
+     * @return the shadow ray.
+     */
+    XRay createShadowRay(Intersection intersection, Light light) {
+        return createShadowRay(intersection.getPointOfIntersection(), light);
+    }
+
+    /**
+     * Creates the shadow ray from a point of intersection to a light source.
+     * @param pointOfIntersection The point of intersection.
+     * @param light The light source.
+     * @return the shadow ray.
+     */
+    XRay createShadowRay(Point3d pointOfIntersection, Light light) {
+        Point3d point = new Point3d(pointOfIntersection); 
+        Vector3d direction = new Vector3d(light.getPosition());
+        direction.sub(point);
+        RenderStatistics.count(RenderStatistics.SHADOW_RAYS, 1);
+        return new XRay(point, direction, this);
+    }
+
     /**
      * Finds the nearest intersection between an intersection and a light source.
      * @param ray The shadow ray.
@@ -216,13 +328,47 @@ public class Scene {
      */
     private Intersection getShadowIntersection(XRay ray, Light light, Intersection sourceIntersection) {
         Intersection shadowIntersection = getNearestIntersection(ray);  
-        if(shadowIntersection != null) {
-            double lightDistance = sourceIntersection.getPointOfIntersection().distance(light.getPosition()); 
-            if(lightDistance <= shadowIntersection.getT()) {
-                shadowIntersection = null;
-            }
+        if(isShadowing(shadowIntersection, light, sourceIntersection)) {
+            return shadowIntersection;
         }
-        return shadowIntersection;
+        return null;
+    }
+    
+    /**
+     * @param shadowIntersection The nearest intersection of a shadow ray or <code>null</code>.
+     * @param light The light source.
+     * @param sourceIntersection The intersection, from which the shadow ray starts.
+     * @return <code>true</code>, if the shadow intersection lies between the source
+     * intersection and the light source.
+     */
+    static boolean isShadowing(Intersection shadowIntersection, Light light, Intersection sourceIntersection) {
+        return isShadowing(shadowIntersection, light, sourceIntersection.getPointOfIntersection());
+    }
+    
+    /**
+     * @param shadowIntersection The nearest intersection of a shadow ray or <code>null</code>.
+     * @param light The light source.
+     * @param pointOfIntersection The point, from which the shadow ray starts.
+     * @return <code>true</code>, if the shadow intersection lies between the point
+     * and the light source.
+     */
+    static boolean isShadowing(Intersection shadowIntersection, Light light, Point3d pointOfIntersection) {
+        if(shadowIntersection == null) {
+            return false;
+        }
+        double lightDistance = pointOfIntersection.distance(light.getPosition()); 
+        return !(lightDistance <= shadowIntersection.getT());
+    }
+    
+    /**
+     * Returns the index of the hierarchy cell, which contains a point. Rays are sorted
+     * by the cells of their origins to trace them coherently (see {@link WavefrontRenderer}).
+     * The linear list has only one cell.
+     * @param point The point.
+     * @return the cell index.
+     */
+    int getCellIndex(Point3d point) {
+        return 0;
     }
     
     /**
@@ -237,6 +383,19 @@ public class Scene {
         new SceneFileLoader(this, file);
     }
 
+    /**
+     * Loads scene information from a file like {@link #load(String)}, but
+     * parses large xml scene files with several threads.
+     *
+     * @param file Path to the scene file.
+     * @param threads The number of threads.
+     * @throws IOException If file is not readable.
+     * @throws SAXException If file is not a valid scene file.
+     */
+    public void load(String file, int threads) throws SAXException, IOException {
+        new SceneFileLoader(this, file, threads);
+    }
+
     /**
      * @return the sceneBounds.
      */
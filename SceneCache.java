@@ -0,0 +1,779 @@
+/*
+ * SceneCache.java
+ * 26/10/19
+ *
+ * University of Applied Sciences
+ * Bingen, Germany
+ *
+ * FPro Project "Jaytracer"
+ *
+ * Author:
+ * M S
+ *
+ */
+package de.fhbingen.fpro.jaytracer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.vecmath.Color3f;
+import javax.vecmath.Point3d;
+import javax.vecmath.Tuple3d;
+import javax.vecmath.Vector3d;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Persistent cache for compiled scenes.<br/>
+ * <br/>
+ * After a scene file has been parsed and the scene hierarchy has been built,
+ * the flattened scene objects, their materials, the lights, the camera and the
+ * contents of the regular grid are written to a binary file. The file is named after
+ * a SHA-256 hash of the scene file's content and the build parameters (scene type,
+ * grid bounds and cell count), so any change to one of them leads to a new cache entry.
+ * Mesh files, which are referenced by the scene file, are recorded with their size and
+ * modification time, an entry is replaced if one of them has changed.<br/>
+ * <br/>
+ * Later runs map the cache file with NIO and restore the scene directly. Neither the
+ * xml parser nor the cell intersection tests of the grid are involved.<br/>
+ * <br/>
+ * Cache file layout (all values little-endian):
+ * <pre>
+ * int     magic "JTSC", int version, byte[32] key
+ * int     mesh file count, per mesh file: int path length, byte[] path (UTF-8),
+ *         long size, long modification time
+ * float3  background color
+ * byte    camera present, [double3 position, double3 direction, double3 up,
+ *         double vfov (degrees), double aspect, double viewing plane distance]
+ * int     light count, per light: double3 position, float3 ambient, float3 diffuse,
+ *         float3 specular, float intensity
+ * int     material count, per material: float3 ambient, diffuse, specular, emission,
+ *         float shininess, transparency, refraction index, reflection coefficient
+ * int     mesh count, per mesh: int material index, int vertex count, int triangle count,
+ *         double3[] vertices, int3[] indices
+ * int     object count, per object: byte type, int material index (-1: none), geometry
+ *         (a mesh triangle refers to its mesh: int mesh index, int triangle index)
+ * int     list count, int[] object indices of the linear list
+ * byte    grid present, [int cell count, per cell: int count, int[] object indices]
+ * </pre>
+ *
+ * @author M S
+ */
+public class SceneCache {
+
+    /** File magic "JTSC" */
+    private static final int MAGIC = 0x4353544A;
+
+    /** Format version, part of the cache key */
+    private static final int VERSION = 3;
+
+    /** Cache file extension */
+    private static final String EXTENSION = ".jtc";
+
+    /** Size of the write buffer */
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /** Object type tags */
+    private static final byte SPHERE = 1;
+    private static final byte PLANE = 2;
+    private static final byte TRIANGLE = 3;
+    private static final byte BOX = 4;
+    private static final byte BOUNDING_BOX = 5;
+    private static final byte MESH_TRIANGLE = 6;
+
+    /** The cache directory */
+    private File directory;
+
+    /**
+     * Creates a scene cache that stores its files in the given directory.
+     * The directory is created, when the first cache entry is written, if it
+     * does not exist.
+     * @param directory The cache directory.
+     */
+    public SceneCache(String directory) {
+        this.directory = new File(directory);
+    }
+
+    /**
+     * Loads a scene file into the given (empty) scene. If there is a valid cache entry
+     * for the file and the scene's build parameters, the scene is restored from the cache,
+     * else the file is parsed and a new cache entry is written.
+     * @param scene The scene to fill.
+     * @param file Path to the scene file.
+     * @throws IOException If file is not readable.
+     * @throws SAXException If file is not a valid scene file.
+     */
+    public void load(Scene scene, String file) throws SAXException, IOException {
+        load(scene, file, 1);
+    }
+
+    /**
+     * Loads a scene file into the given (empty) scene like {@link #load(Scene, String)}.
+     * On a cache miss, the file is parsed with the given number of threads.
+     * @param scene The scene to fill.
+     * @param file Path to the scene file.
+     * @param threads The number of threads for parsing.
+     * @throws IOException If file is not readable.
+     * @throws SAXException If file is not a valid scene file.
+     */
+    public void load(Scene scene, String file, int threads) throws SAXException, IOException {
+        byte[] key = computeKey(scene, file);
+        File cacheFile = new File(directory, toHex(key) + EXTENSION);
+
+        if(cacheFile.isFile()) {
+            try {
+                restore(scene, cacheFile, key);
+                System.out.println("scene_cache: hit "+cacheFile);
+                return;
+            } catch (IOException e) {
+                System.out.println("scene_cache: ignoring invalid entry "+cacheFile+" ("+e.getMessage()+")");
+            }
+        }
+
+        scene.load(file, threads);
+        System.out.println("scene_cache: miss, writing "+cacheFile);
+        try {
+            store(scene, cacheFile, key);
+        } catch (IOException e) {
+            System.out.println("scene_cache: could not write entry ("+e.getMessage()+")");
+        }
+    }
+
+    /**
+     * Computes the cache key of a scene file and the build parameters of a scene.
+     * @param scene The scene, which defines the build parameters.
+     * @param file Path to the scene file.
+     * @return the SHA-256 hash.
+     * @throws IOException If file is not readable.
+     */
+    static byte[] computeKey(Scene scene, String file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+        digest.update(getBuildParameters(scene).getBytes("UTF-8"));
+        FileChannel channel = FileChannel.open(new File(file).toPath(), StandardOpenOption.READ);
+        try {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            while(channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        } finally {
+            channel.close();
+        }
+        return digest.digest();
+    }
+
+    /**
+     * @param scene The scene.
+     * @return a string, that describes how the scene's hierarchy is built.
+     */
+    private static String getBuildParameters(Scene scene) {
+        String parameters = "version:"+VERSION+";";
+        if(scene instanceof RegularGridScene) {
+            RegularGridScene grid = (RegularGridScene) scene;
+            BoundingBox bounds = grid.getSceneBounds();
+            parameters += "grid:"+bounds.getLower()+bounds.getSize()+grid.getCellCount();
+        } else {
+            parameters += "linear";
+        }
+        return parameters;
+    }
+
+    /**
+     * Writes a compiled scene to the cache. The file is written to a temporary
+     * file first and then moved to its final name, the temporary file is
+     * deleted, if writing fails. A scene, whose file would be too large to be
+     * mapped, is not written at all.
+     * @param scene The loaded scene.
+     * @param cacheFile The cache file.
+     * @param key The cache key.
+     * @throws IOException If the file can't be written, is too large or the scene contains
+     * unsupported objects or an animation.
+     */
+    private void store(Scene scene, File cacheFile, byte[] key) throws IOException {
+        if(scene.getAnimation() != null) {
+            throw new IOException("scenes with animations are not cached");
+        }
+
+        // flatten the scene: collect every object once, the grid may contain an object multiple times
+        Map<SceneObject, Integer> objectIndices = new IdentityHashMap<SceneObject, Integer>();
+        List<SceneObject> objects = new ArrayList<SceneObject>();
+        for(SceneObject s : scene.getSceneObjects()) {
+            indexOf(s, objectIndices, objects);
+        }
+        Cell[] cells = null;
+        if(scene instanceof RegularGridScene) {
+            cells = ((RegularGridScene) scene).getCells();
+            for(Cell c : cells) {
+                for(SceneObject s : c.getSceneObjects()) {
+                    indexOf(s, objectIndices, objects);
+                }
+            }
+        }
+        Map<Material, Integer> materialIndices = new IdentityHashMap<Material, Integer>();
+        List<Material> materials = new ArrayList<Material>();
+        Map<TriangleMesh, Integer> meshIndices = new IdentityHashMap<TriangleMesh, Integer>();
+        List<TriangleMesh> meshes = new ArrayList<TriangleMesh>();
+        for(SceneObject s : objects) {
+            if(s.getMaterial() != null && !materialIndices.containsKey(s.getMaterial())) {
+                materialIndices.put(s.getMaterial(), materials.size());
+                materials.add(s.getMaterial());
+            }
+            if(s instanceof MeshTriangle && !meshIndices.containsKey(((MeshTriangle) s).getMesh())) {
+                meshIndices.put(((MeshTriangle) s).getMesh(), meshes.size());
+                meshes.add(((MeshTriangle) s).getMesh());
+            }
+        }
+
+        // the file is mapped by a single buffer, so it must not be larger than 2 GB
+        if(getSize(scene, key, meshes, materials.size(), objects, cells) > Integer.MAX_VALUE) {
+            throw new IOException("scene too large to be mapped");
+        }
+        if(!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("can't create cache directory "+directory);
+        }
+        Path tmp = File.createTempFile("scene", ".tmp", directory).toPath();
+        try {
+            FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            try {
+                Writer out = new Writer(channel);
+                out.putInt(MAGIC);
+                out.putInt(VERSION);
+                out.put(key);
+
+                int meshFiles = 0;
+                for(TriangleMesh m : meshes) {
+                    if(m.getFile() != null) {
+                        meshFiles++;
+                    }
+                }
+                out.putInt(meshFiles);
+                for(TriangleMesh m : meshes) {
+                    if(m.getFile() != null) {
+                        File meshFile = new File(m.getFile()).getAbsoluteFile();
+                        byte[] path = meshFile.getPath().getBytes("UTF-8");
+                        out.putInt(path.length);
+                        out.put(path);
+                        out.putLong(meshFile.length());
+                        out.putLong(meshFile.lastModified());
+                    }
+                }
+
+                out.putColor(scene.getBackgroundColor());
+                Camera camera = scene.getCamera();
+                if(camera == null) {
+                    out.putByte((byte) 0);
+                } else {
+                    out.putByte((byte) 1);
+                    out.putTuple(camera.getPosition());
+                    out.putTuple(camera.getDirection());
+                    out.putTuple(camera.getUp());
+                    out.putDouble(Math.toDegrees(camera.getVFov()));
+                    out.putDouble(camera.getAspect());
+                    out.putDouble(camera.getViewingPlaneDistance());
+                }
+
+                out.putInt(scene.getLights().size());
+                for(Light l : scene.getLights()) {
+                    out.putTuple(l.getPosition());
+                    out.putColor(l.getAmbient());
+                    out.putColor(l.getDiffuse());
+                    out.putColor(l.getSpecular());
+                    out.putFloat(l.getIntensity());
+                }
+
+                out.putInt(materials.size());
+                for(Material m : materials) {
+                    out.putColor(m.getAmbient());
+                    out.putColor(m.getDiffuse());
+                    out.putColor(m.getSpecular());
+                    out.putColor(m.getEmission());
+                    out.putFloat(m.getShininess());
+                    out.putFloat(m.getTransparency());
+                    out.putFloat(m.getRefractionIndex());
+                    out.putFloat(m.getReflectionCoefficient());
+                }
+
+                out.putInt(meshes.size());
+                for(TriangleMesh m : meshes) {
+                    Integer material = materialIndices.get(m.getMaterial());
+                    out.putInt(material == null ? -1 : material.intValue());
+                    out.putInt(m.getVertexCount());
+                    out.putInt(m.getTriangleCount());
+                    double[] vertices = m.getVertices();
+                    for(int i = 0; i < 3 * m.getVertexCount(); ++i) {
+                        out.putDouble(vertices[i]);
+                    }
+                    int[] indices = m.getIndices();
+                    for(int i = 0; i < 3 * m.getTriangleCount(); ++i) {
+                        out.putInt(indices[i]);
+                    }
+                }
+
+                out.putInt(objects.size());
+                for(SceneObject s : objects) {
+                    if(s instanceof MeshTriangle) {
+                        out.putByte(MESH_TRIANGLE);
+                        out.putInt(-1);
+                        out.putInt(meshIndices.get(((MeshTriangle) s).getMesh()));
+                        out.putInt(((MeshTriangle) s).getIndex());
+                        continue;
+                    }
+                    Integer material = materialIndices.get(s.getMaterial());
+                    putSceneObject(out, s, material == null ? -1 : material.intValue());
+                }
+
+                out.putInt(scene.getSceneObjects().size());
+                for(SceneObject s : scene.getSceneObjects()) {
+                    out.putInt(objectIndices.get(s));
+                }
+
+                if(cells == null) {
+                    out.putByte((byte) 0);
+                } else {
+                    out.putByte((byte) 1);
+                    out.putInt(cells.length);
+                    for(Cell c : cells) {
+                        out.putInt(c.getSceneObjects().size());
+                        for(SceneObject s : c.getSceneObjects()) {
+                            out.putInt(objectIndices.get(s));
+                        }
+                    }
+                }
+                out.flush();
+            } finally {
+                channel.close();
+            }
+            Files.move(tmp, cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Computes the size of the cache file, which {@link #store(Scene, File, byte[])}
+     * writes, without writing it.
+     * @return the size in bytes.
+     */
+    private static long getSize(Scene scene, byte[] key, List<TriangleMesh> meshes, int materials,
+            List<SceneObject> objects, Cell[] cells) throws IOException {
+        long size = 4 + 4 + key.length + 4;
+        for(TriangleMesh m : meshes) {
+            if(m.getFile() != null) {
+                size += 4 + new File(m.getFile()).getAbsoluteFile().getPath().getBytes("UTF-8").length + 8 + 8;
+            }
+        }
+        size += 12 + 1 + (scene.getCamera() == null ? 0 : 3 * 24 + 3 * 8);
+        size += 4 + scene.getLights().size() * (24 + 3 * 12 + 4);
+        size += 4 + materials * (4 * 12 + 4 * 4);
+        size += 4;
+        for(TriangleMesh m : meshes) {
+            size += 4 + 4 + 4 + m.getVertexCount() * 24L + m.getTriangleCount() * 12L;
+        }
+        size += 4;
+        for(SceneObject s : objects) {
+            // type and material, unsupported objects are reported by putSceneObject
+            size += 1 + 4;
+            if(s instanceof MeshTriangle) {
+                size += 4 + 4;
+            } else if(s instanceof Sphere) {
+                size += 24 + 8;
+            } else if(s instanceof Triangle) {
+                size += 3 * 24;
+            } else {
+                size += 2 * 24;
+            }
+        }
+        size += 4 + 4L * scene.getSceneObjects().size();
+        size += 1;
+        if(cells != null) {
+            size += 4;
+            for(Cell c : cells) {
+                size += 4 + 4L * c.getSceneObjects().size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns the index of a scene object in the flattened object list and adds it, if
+     * it's not contained yet.
+     */
+    private static int indexOf(SceneObject s, Map<SceneObject, Integer> objectIndices, List<SceneObject> objects) {
+        Integer index = objectIndices.get(s);
+        if(index == null) {
+            index = objects.size();
+            objectIndices.put(s, index);
+            objects.add(s);
+        }
+        return index;
+    }
+
+    /**
+     * Writes the type, material and geometry of a scene object.
+     * @throws IOException If the type of the scene object is not supported by the cache.
+     */
+    private static void putSceneObject(Writer out, SceneObject s, int material) throws IOException {
+        if(s instanceof Sphere) {
+            Sphere sphere = (Sphere) s;
+            out.putByte(SPHERE);
+            out.putInt(material);
+            out.putTuple(sphere.getCenter());
+            out.putDouble(sphere.getRadius());
+        } else if(s instanceof Plane) {
+            Plane plane = (Plane) s;
+            out.putByte(PLANE);
+            out.putInt(material);
+            out.putTuple(plane.getPoint());
+            out.putTuple(plane.getSurfaceNormal(null));
+        } else if(s instanceof Triangle) {
+            Triangle triangle = (Triangle) s;
+            out.putByte(TRIANGLE);
+            out.putInt(material);
+            out.putTuple(triangle.getVertex1());
+            out.putTuple(triangle.getVertex2());
+            out.putTuple(triangle.getVertex3());
+        } else if(s instanceof Box) {
+            Box box = (Box) s;
+            out.putByte(s instanceof BoundingBox ? BOUNDING_BOX : BOX);
+            out.putInt(material);
+            out.putTuple(box.getLower());
+            out.putTuple(box.getSize());
+        } else {
+            throw new IOException("unsupported scene object type "+s.getClass().getSimpleName());
+        }
+    }
+
+    /**
+     * Restores a scene from a cache file. The whole file is decoded before the scene
+     * is modified, so the scene stays empty if the file turns out to be invalid.
+     * @param scene The (empty) scene to fill.
+     * @param cacheFile The cache file.
+     * @param key The expected cache key.
+     * @throws IOException If the file is not readable or not a valid cache file.
+     */
+    private void restore(Scene scene, File cacheFile, byte[] key) throws IOException {
+        MappedByteBuffer in;
+        FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ);
+        try {
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            channel.close();
+        }
+        in.order(ByteOrder.LITTLE_ENDIAN);
+
+        Color3f background;
+        Camera camera = null;
+        Light[] lights;
+        SceneObject[] objects;
+        SceneObject[] list;
+        int[][] cells = null;
+        try {
+            if(in.getInt() != MAGIC || in.getInt() != VERSION) {
+                throw new IOException("not a scene cache file");
+            }
+            byte[] storedKey = new byte[key.length];
+            in.get(storedKey);
+            if(!MessageDigest.isEqual(key, storedKey)) {
+                throw new IOException("cache key mismatch");
+            }
+            int meshFiles = in.getInt();
+            for(int i = 0; i < meshFiles; ++i) {
+                byte[] path = new byte[in.getInt()];
+                in.get(path);
+                File meshFile = new File(new String(path, "UTF-8"));
+                long length = in.getLong();
+                long modified = in.getLong();
+                if(meshFile.length() != length || meshFile.lastModified() != modified) {
+                    throw new IOException("mesh file changed: "+meshFile);
+                }
+            }
+
+            background = getColor(in);
+            if(in.get() != 0) {
+                Point3d pos = getPoint(in);
+                Vector3d dir = getVector(in);
+                Vector3d up = getVector(in);
+                double vfov = in.getDouble();
+                double aspect = in.getDouble();
+                double distance = in.getDouble();
+                camera = new Camera(pos, dir, up, vfov, aspect, distance);
+            }
+
+            lights = new Light[in.getInt()];
+            for(int i = 0; i < lights.length; ++i) {
+                Light light = new Light();
+                light.setPosition(getPoint(in));
+                light.setAmbient(getColor(in));
+                light.setDiffuse(getColor(in));
+                light.setSpecular(getColor(in));
+                light.setIntensity(in.getFloat());
+                lights[i] = light;
+            }
+
+            Material[] materials = new Material[in.getInt()];
+            for(int i = 0; i < materials.length; ++i) {
+                Material m = new Material();
+                m.setAmbient(getColor(in));
+                m.setDiffuse(getColor(in));
+                m.setSpecular(getColor(in));
+                m.setEmission(getColor(in));
+                m.setShininess(in.getFloat());
+                m.setTransparency(in.getFloat());
+                m.setRefractionIndex(in.getFloat());
+                m.setReflectionCoefficient(in.getFloat());
+                materials[i] = m;
+            }
+
+            TriangleMesh[] meshes = new TriangleMesh[in.getInt()];
+            for(int i = 0; i < meshes.length; ++i) {
+                meshes[i] = getTriangleMesh(in, materials);
+            }
+
+            objects = new SceneObject[in.getInt()];
+            for(int i = 0; i < objects.length; ++i) {
+                objects[i] = getSceneObject(in, materials, meshes);
+            }
+
+            list = new SceneObject[in.getInt()];
+            for(int i = 0; i < list.length; ++i) {
+                list[i] = objects[in.getInt()];
+            }
+            if(in.get() != 0) {
+                cells = new int[in.getInt()][];
+                for(int c = 0; c < cells.length; ++c) {
+                    cells[c] = new int[in.getInt()];
+                    for(int i = 0; i < cells[c].length; ++i) {
+                        cells[c][i] = in.getInt();
+                    }
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("truncated cache file");
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("corrupt cache file");
+        } catch (IllegalArgumentException e) {
+            throw new IOException("corrupt cache file");
+        }
+
+        if(cells != null) {
+            if(!(scene instanceof RegularGridScene) || cells.length != ((RegularGridScene) scene).getCells().length) {
+                throw new IOException("grid mismatch");
+            }
+            for(int[] cell : cells) {
+                for(int i : cell) {
+                    if(i < 0 || i >= objects.length) {
+                        throw new IOException("corrupt cache file");
+                    }
+                }
+            }
+        }
+
+        // the hierarchy is restored as it was built, no cell tests are necessary
+        scene.setBackgroundColor(background);
+        if(camera != null) {
+            scene.setCamera(camera);
+        }
+        for(Light l : lights) {
+            scene.addLight(l);
+        }
+        for(SceneObject s : list) {
+            scene.getSceneObjects().add(s);
+        }
+        if(cells != null) {
+            RegularGridScene grid = (RegularGridScene) scene;
+            for(int c = 0; c < cells.length; ++c) {
+                for(int i : cells[c]) {
+                    grid.addSceneObjectToCell(c, objects[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a triangle mesh.
+     */
+    private static TriangleMesh getTriangleMesh(ByteBuffer in, Material[] materials) throws IOException {
+        int material = in.getInt();
+        int vertexCount = in.getInt();
+        int triangleCount = in.getInt();
+        if(vertexCount < 0 || triangleCount < 0 || 24L * vertexCount + 12L * triangleCount > in.remaining()) {
+            throw new IOException("corrupt cache file");
+        }
+        double[] vertices = new double[3 * vertexCount];
+        in.asDoubleBuffer().get(vertices);
+        in.position(in.position() + 8 * vertices.length);
+        int[] indices = new int[3 * triangleCount];
+        in.asIntBuffer().get(indices);
+        in.position(in.position() + 4 * indices.length);
+        TriangleMesh mesh = new TriangleMesh(vertices, vertexCount, indices, triangleCount);
+        if(material >= 0) {
+            mesh.setMaterial(materials[material]);
+        }
+        return mesh;
+    }
+
+    /**
+     * Reads a scene object.
+     */
+    private static SceneObject getSceneObject(ByteBuffer in, Material[] materials, TriangleMesh[] meshes) throws IOException {
+        byte type = in.get();
+        int material = in.getInt();
+        SceneObject s;
+        switch(type) {
+            case MESH_TRIANGLE:
+                TriangleMesh mesh = meshes[in.getInt()];
+                return mesh.getTriangle(in.getInt());
+            case SPHERE:
+                s = new Sphere(getPoint(in), in.getDouble());
+                break;
+            case PLANE:
+                s = new Plane(getPoint(in), getVector(in));
+                break;
+            case TRIANGLE:
+                s = new Triangle(getPoint(in), getPoint(in), getPoint(in));
+                break;
+            case BOX:
+                s = new Box(getPoint(in), getVector(in));
+                break;
+            case BOUNDING_BOX:
+                s = new BoundingBox(getPoint(in), getVector(in));
+                break;
+            default:
+                throw new IOException("unknown object type "+type);
+        }
+        if(material >= 0) {
+            s.setMaterial(materials[material]);
+        }
+        return s;
+    }
+
+    /**
+     * Reads a point.
+     */
+    private static Point3d getPoint(ByteBuffer in) {
+        return new Point3d(in.getDouble(), in.getDouble(), in.getDouble());
+    }
+
+    /**
+     * Reads a vector.
+     */
+    private static Vector3d getVector(ByteBuffer in) {
+        return new Vector3d(in.getDouble(), in.getDouble(), in.getDouble());
+    }
+
+    /**
+     * Reads a color.
+     */
+    private static Color3f getColor(ByteBuffer in) {
+        return new Color3f(in.getFloat(), in.getFloat(), in.getFloat());
+    }
+
+    /**
+     * @param bytes
+     * @return the hexadecimal representation of the given bytes.
+     */
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for(byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+            hex.append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Buffered little-endian writer for a file channel.
+     */
+    private static class Writer {
+
+        /** The target channel */
+        private FileChannel channel;
+
+        /** The write buffer */
+        private ByteBuffer buffer;
+
+        Writer(FileChannel channel) {
+            this.channel = channel;
+            buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        void ensure(int bytes) throws IOException {
+            if(buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while(buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        void putByte(byte b) throws IOException {
+            ensure(1);
+            buffer.put(b);
+        }
+
+        void put(byte[] b) throws IOException {
+            ensure(b.length);
+            buffer.put(b);
+        }
+
+        void putInt(int i) throws IOException {
+            ensure(4);
+            buffer.putInt(i);
+        }
+
+        void putFloat(float f) throws IOException {
+            ensure(4);
+            buffer.putFloat(f);
+        }
+
+        void putLong(long l) throws IOException {
+            ensure(8);
+            buffer.putLong(l);
+        }
+
+        void putDouble(double d) throws IOException {
+            ensure(8);
+            buffer.putDouble(d);
+        }
+
+        void putTuple(Tuple3d t) throws IOException {
+            ensure(24);
+            buffer.putDouble(t.x);
+            buffer.putDouble(t.y);
+            buffer.putDouble(t.z);
+        }
+
+        void putColor(Color3f c) throws IOException {
+            ensure(12);
+            buffer.putFloat(c.x);
+            buffer.putFloat(c.y);
+            buffer.putFloat(c.z);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * SceneFileAttributes.java
+ * 26/10/19
+ *
+ * University of Applied Sciences
+ * Bingen, Germany
+ *
+ * FPro Project "Jaytracer"
+ *
+ * Author:
+ * M S
+ *
+ */
+package de.fhbingen.fpro.jaytracer;
+
+/**
+ * The attributes of a scene file element, as they are passed to the
+ * {@link SceneFileContentHandler}. Attribute values are character sequences,
+ * so a parser can pass them without creating strings.
+ * @author M S
+ */
+interface SceneFileAttributes {
+
+    /**
+     * @return the number of attributes.
+     */
+    abstract public int getLength();
+
+    /**
+     * @param index
+     * @return the name of the attribute with the given index.
+     */
+    abstract public String getQName(int index);
+
+    /**
+     * @param index
+     * @return the value of the attribute with the given index. The value is only
+     * valid until the next element is parsed.
+     */
+    abstract public CharSequence getValue(int index);
+}
@@ -13,7 +13,14 @@
  */
 package de.fhbingen.fpro.jaytracer;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
 import javax.vecmath.Color3f;
+import javax.vecmath.Matrix4d;
 import javax.vecmath.Point3d;
 import javax.vecmath.Vector3d;
 
@@ -23,14 +30,19 @@ import org.xml.sax.helpers.DefaultHandler;
 /**
  * This is class extends the DefaultHandler class, which is used by the SAX XML
  * parser. It handles all the content of a "Jaytracer XML Scenefile" an creates
- * a scene from it.
+ * a scene from it.<br/>
+ * <br/>
+ * Elements and attributes are dispatched by switch statements and the numbers
+ * of the attribute values are parsed directly from the attribute strings by a
+ * {@link NumberParser}, so no temporary strings or boxed values are created.
+ * Besides the SAX parser, the handler is driven by the {@link SceneFileScanner}.
  * 
  * @author M S
  */
 public class SceneFileContentHandler extends DefaultHandler {
 
     /** Separator, that is used to divide part of strings, that represent vector or color components */
-    private static final String SEPARATOR = ",";
+    private static final char SEPARATOR = ',';
 
     /** The scene that is build up from the file */
     private Scene scene;
@@ -38,6 +50,49 @@ public class SceneFileContentHandler extends DefaultHandler {
     /** Last encountered scene object - the next material will be assigned to it */
     private SceneObject currentSceneObject = null;
     
+    /** Parser for the numbers in the attribute values */
+    private NumberParser numberParser = new NumberParser();
+    
+    /** Reused container for the components of a parsed vector */
+    private double[] tuple = new double[3];
+    
+    /** Reused container for the components of a parsed color */
+    private float[] color = new float[3];
+    
+    /** Reused container for the positions of the separators in an attribute value */
+    private int[] separators = new int[3];
+    
+    /** Reused adapter for the attributes passed by the SAX parser */
+    private SaxAttributes saxAttributes = new SaxAttributes();
+    
+    /** <code>true</code> if the handler gets only a part of the scene file's elements */
+    private boolean fragment = false;
+    
+    /** Material, that is encountered in a fragment before its first scene object */
+    private Material leadingMaterial = null;
+    
+    /** Directory of the scene file, relative mesh file paths are resolved against it */
+    private File baseDirectory = null;
+    
+    /** The cache of the mesh files or <code>null</code> */
+    private MeshCache meshCache = null;
+    
+    /** The real path of the directory, below which the mesh files must lie, or <code>null</code> */
+    private Path meshRoot = null;
+    
+    /** The prototypes by name */
+    private Map<String, Prototype> prototypes = new HashMap<String, Prototype>();
+    
+    /** The prototype, that gets the scene objects, or <code>null</code> */
+    private Prototype currentPrototype = null;
+    
+    /** The named instances of the scene and their transformations */
+    private Map<String, Instance> instances = new HashMap<String, Instance>();
+    private Map<String, Animation.Transform> instanceTransforms = new HashMap<String, Animation.Transform>();
+    
+    /** The animation, that gets the keyframes, or <code>null</code> */
+    private Animation currentAnimation = null;
+    
     /**
      * Creates a SceneFileContentHandler that will add
      * the new builded scene to the given reference.
@@ -47,258 +102,653 @@ public class SceneFileContentHandler extends DefaultHandler {
         this.scene = scene;
     }
 
+    /**
+     * Creates a SceneFileContentHandler for a part of a scene file. A material
+     * before the first scene object of the part is not assigned, but stored as
+     * leading material, because it belongs to the last scene object of the
+     * preceding part.
+     * @param scene An empty scene, that gets the objects of the part.
+     * @param fragment
+     */
+    SceneFileContentHandler(Scene scene, boolean fragment) {
+        this.scene = scene;
+        this.fragment = fragment;
+    }
+
+    /**
+     * Sets the scene file, which is handled. Relative mesh file paths are
+     * resolved against its directory.
+     * @param file Path to the scene file.
+     */
+    void setSceneFile(String file) {
+        baseDirectory = new File(file).getAbsoluteFile().getParentFile();
+    }
+
+    /**
+     * Sets a cache, from which the mesh files are taken, e.g. for several scene
+     * files, which use the same meshes.
+     * @param meshCache The cache or <code>null</code> to read every mesh file.
+     */
+    void setMeshCache(MeshCache meshCache) {
+        this.meshCache = meshCache;
+    }
+
+    /**
+     * Restricts the mesh files to a directory, e.g. for scene files of other
+     * users. Symbolic links are followed, so they can't lead out of it either.
+     * @param root The real path of the directory, below which the mesh files must lie.
+     * @param directory The directory, against which relative mesh file paths are
+     * resolved, or <code>null</code> for the directory of the scene file.
+     */
+    void setMeshRoot(Path root, Path directory) {
+        meshRoot = root;
+        if(directory != null) {
+            baseDirectory = directory.toFile();
+        }
+    }
+
+    /**
+     * @return the material before the first scene object of a fragment or <code>null</code>.
+     */
+    Material getLeadingMaterial() {
+        return leadingMaterial;
+    }
+
+    /**
+     * @return the last encountered scene object, that gets the next material.
+     */
+    SceneObject getCurrentSceneObject() {
+        return currentSceneObject;
+    }
+
     /**
      * Handels start tags and create the appropriate new scene part.
      * @throws SceneFileException if there is a malformed part is encountered in the scene file.
      */
     public void startElement(String namespaceURI, String localName, String qName, Attributes atts) throws SceneFileException {
+        saxAttributes.attributes = atts;
+        startElement(qName, saxAttributes);
+    }
 
-        // <Scene>
-        if (qName.equals("scene")) {
-            for (int i = 0; i < atts.getLength(); i++) {
-                if (atts.getQName(i).equals("backgroundcolor")) {
+    /**
+     * Handels start tags and create the appropriate new scene part.
+     * @param qName The element name.
+     * @param atts The element's attributes.
+     * @throws SceneFileException if there is a malformed part is encountered in the scene file.
+     */
+    void startElement(String qName, SceneFileAttributes atts) throws SceneFileException {
+
+        switch(qName) {
+            case "scene":
+                startScene(atts);
+                break;
+            case "camera":
+                startCamera(atts);
+                break;
+            case "light":
+                startLight(atts);
+                break;
+            case "sphere":
+                startSphere(atts);
+                break;
+            case "plane":
+                startPlane(atts);
+                break;
+            case "triangle":
+                startTriangle(atts);
+                break;
+            case "box":
+                startBox(atts);
+                break;
+            case "mesh":
+                startMesh(atts);
+                break;
+            case "prototype":
+                startPrototype(atts);
+                break;
+            case "instance":
+                startInstance(atts);
+                break;
+            case "material":
+                startMaterial(atts);
+                break;
+            case "animation":
+                startAnimation(atts);
+                break;
+            case "camerakey":
+                startCameraKey(atts);
+                break;
+            case "instancekey":
+                startInstanceKey(atts);
+                break;
+            default:
+                // if there is an unknown start tag, an exception will be thrown
+                throw new SceneFileException("Unknown Tag: " + qName);
+        }
+    }
+
+    /**
+     * Handles &lt;scene&gt;.
+     */
+    private void startScene(SceneFileAttributes atts) throws SceneFileException {
+        for (int i = 0; i < atts.getLength(); i++) {
+            switch(atts.getQName(i)) {
+                case "backgroundcolor":
                     scene.setBackgroundColor(getColor3fFromAttr(atts.getValue(i)));
-                }
-                else {
+                    break;
+                default:
                     throw new SceneFileException("unknown scene attribute: "+atts.getQName(i));
-                }
             }
         }
+    }
 
-        // <camera>
-        else if (qName.equals("camera")) {
-
-            if (scene.getCamera() != null) {
-                throw new SceneFileException(
-                        "multiple cameras - only one is allowed");
-            } else {
-                Camera camera;
-                Point3d pos = null;
-                Vector3d up = null, dir = null;
-                double aspect = Double.NaN, vfov = Double.NaN, vdistance = Double.NaN;
-                for (int i = 0; i < atts.getLength(); i++) {
-                    if (atts.getQName(i).equals("position")) {
-                        pos = getPoint3dFromAttr(atts.getValue(i));
-                    }
-                    else if (atts.getQName(i).equals("direction")) {
-                        dir = getVector3dFromAttr(atts.getValue(i));
-                    }
-                    else if (atts.getQName(i).equals("up")) {
-                        up = getVector3dFromAttr(atts.getValue(i));
-                    }
-                    else if (atts.getQName(i).equals("aspect")) {
-                        aspect = getDoubleFromAttr(atts.getValue(i));
-                    }
-                    else if (atts.getQName(i).equals("vfov")) {
-                        vfov = getDoubleFromAttr(atts.getValue(i));
-                    }
-                    else if (atts.getQName(i).equals("viewingplanedistance")) {
-                        vdistance = getDoubleFromAttr(atts.getValue(i));
-                    }
-                    else {
-                        throw new SceneFileException("unknown camera attribute: "+atts.getQName(i));
-                    }
-                }
-                
-                if(pos == null) {
-                    throw new SceneFileException("missing camera position");
-                }
-                if(up == null) {
-                    throw new SceneFileException("missing camera up");
-                }
-                if(dir == null) {
-                    throw new SceneFileException("missing camera direction");
-                }
-                if(Double.isNaN(aspect)) {
-                    throw new SceneFileException("missing camera aspect");
-                }
-                if(Double.isNaN(vfov)) {       
-                    throw new SceneFileException("missing camera vfov");
-                }
-                if(Double.isNaN(vdistance)) {
-                    throw new SceneFileException("missing camera viewingplanedistance");
-                }
-                
-                camera = new Camera(pos, dir, up, vfov, aspect, vdistance);
-                scene.setCamera(camera);   
-                
+    /**
+     * Handles &lt;camera&gt;.
+     */
+    private void startCamera(SceneFileAttributes atts) throws SceneFileException {
+        if (scene.getCamera() != null) {
+            throw new SceneFileException(
+                    "multiple cameras - only one is allowed");
+        }
+        Camera camera;
+        Point3d pos = null;
+        Vector3d up = null, dir = null;
+        double aspect = Double.NaN, vfov = Double.NaN, vdistance = Double.NaN;
+        for (int i = 0; i < atts.getLength(); i++) {
+            switch(atts.getQName(i)) {
+                case "position":
+                    pos = getPoint3dFromAttr(atts.getValue(i));
+                    break;
+                case "direction":
+                    dir = getVector3dFromAttr(atts.getValue(i));
+                    break;
+                case "up":
+                    up = getVector3dFromAttr(atts.getValue(i));
+                    break;
+                case "aspect":
+                    aspect = getDoubleFromAttr(atts.getValue(i));
+                    break;
+                case "vfov":
+                    vfov = getDoubleFromAttr(atts.getValue(i));
+                    break;
+                case "viewingplanedistance":
+                    vdistance = getDoubleFromAttr(atts.getValue(i));
+                    break;
+                default:
+                    throw new SceneFileException("unknown camera attribute: "+atts.getQName(i));
             }
         }
         
-        // <light>
-        else if (qName.equals("light")) {
-            Light light = new Light();
-            for (int i = 0; i < atts.getLength(); i++) {
-                if (atts.getQName(i).equals("position")) {
+        if(pos == null) {
+            throw new SceneFileException("missing camera position");
+        }
+        if(up == null) {
+            throw new SceneFileException("missing camera up");
+        }
+        if(dir == null) {
+            throw new SceneFileException("missing camera direction");
+        }
+        if(Double.isNaN(aspect)) {
+            throw new SceneFileException("missing camera aspect");
+        }
+        if(Double.isNaN(vfov)) {       
+            throw new SceneFileException("missing camera vfov");
+        }
+        if(Double.isNaN(vdistance)) {
+            throw new SceneFileException("missing camera viewingplanedistance");
+        }
+        
+        camera = new Camera(pos, dir, up, vfov, aspect, vdistance);
+        scene.setCamera(camera);   
+    }
+    
+    /**
+     * Handles &lt;light&gt;.
+     */
+    private void startLight(SceneFileAttributes atts) throws SceneFileException {
+        Light light = new Light();
+        for (int i = 0; i < atts.getLength(); i++) {
+            switch(atts.getQName(i)) {
+                case "position":
                     light.setPosition(getPoint3dFromAttr(atts.getValue(i)));
-                }
-                else if (atts.getQName(i).equals("ambient")) {
+                    break;
+                case "ambient":
                     light.setAmbient(getColor3fFromAttr(atts.getValue(i)));
-                }
-                else if (atts.getQName(i).equals("diffuse")) {
+                    break;
+                case "diffuse":
                     light.setDiffuse(getColor3fFromAttr(atts.getValue(i)));
-                }
-                else if (atts.getQName(i).equals("specular")) {
+                    break;
+                case "specular":
                     light.setSpecular(getColor3fFromAttr(atts.getValue(i)));
-                }  
-                else if (atts.getQName(i).equals("intensity")) {
+                    break;
+                case "intensity":
                     light.setIntensity(getFloatFromAttr(atts.getValue(i)));
-                }  
-                else {
+                    break;
+                default:
                     throw new SceneFileException("unknown light attribute: "+atts.getQName(i));
-                }
             }
-            scene.addLight(light);
         }
+        scene.addLight(light);
+    }
 
-        // <sphere>
-        else if (qName.equals("sphere")) {
-            Sphere sphere;
-            double rad = Double.NaN;
-            Point3d pos = null;
-            for (int i = 0; i < atts.getLength(); i++) {
-                if (atts.getQName(i).equals("position")) {
+    /**
+     * Handles &lt;sphere&gt;.
+     */
+    private void startSphere(SceneFileAttributes atts) throws SceneFileException {
+        Sphere sphere;
+        double rad = Double.NaN;
+        Point3d pos = null;
+        for (int i = 0; i < atts.getLength(); i++) {
+            switch(atts.getQName(i)) {
+                case "position":
                     pos = getPoint3dFromAttr(atts.getValue(i));
-                }
-                else if (atts.getQName(i).equals("radius")) {
+                    break;
+                case "radius":
                     rad = getDoubleFromAttr(atts.getValue(i));
-                }
-                else {
+                    break;
+                default:
                     throw new SceneFileException("unknown sphere attribute: "+atts.getQName(i));
-                }
-            }
-            if(pos == null) {
-                throw new SceneFileException("missing sphere position");
-            }
-            if(Double.isNaN(rad)) {
-                throw new SceneFileException("missing sphere radius");
             }
-            sphere = new Sphere(pos, rad);
-            currentSceneObject = sphere;
-            scene.addSceneObject(sphere); 
-        }
-
-        // <plane>
-        else if (qName.equals("plane")) {
-            Plane plane;
-            Point3d point = null;
-            Vector3d normal = null;
-            for (int i = 0; i < atts.getLength(); i++) {
-                if (atts.getQName(i).equals("point")) {
+        }
+        if(pos == null) {
+            throw new SceneFileException("missing sphere position");
+        }
+        if(Double.isNaN(rad)) {
+            throw new SceneFileException("missing sphere radius");
+        }
+        sphere = new Sphere(pos, rad);
+        currentSceneObject = sphere;
+        addSceneObject(sphere);
+    }
+
+    /**
+     * Handles &lt;plane&gt;.
+     */
+    private void startPlane(SceneFileAttributes atts) throws SceneFileException {
+        Plane plane;
+        Point3d point = null;
+        Vector3d normal = null;
+        for (int i = 0; i < atts.getLength(); i++) {
+            switch(atts.getQName(i)) {
+                case "point":
                     point = getPoint3dFromAttr(atts.getValue(i));
-                }
-                else if (atts.getQName(i).equals("normal")) {
+                    break;
+                case "normal":
                     normal = getVector3dFromAttr(atts.getValue(i));
-                }
-                else {
+                    break;
+                default:
                     throw new SceneFileException("unknown plane attribute: "+atts.getQName(i));
-                }
-            }
-            if(point == null) {
-                throw new SceneFileException("missing plane point");
             }
-            if(normal == null) {
-                throw new SceneFileException("missing plane normal");
-            } 
-            plane = new Plane(point, normal);
-            currentSceneObject = plane;
-            scene.addSceneObject(plane); 
         }
-        
-        // <triangle>
-        else if (qName.equals("triangle")) {
-            Point3d v1 = null, v2 = null, v3 = null;
-            for (int i = 0; i < atts.getLength(); i++) {
-                if (atts.getQName(i).equals("vertex1")) {
+        if(point == null) {
+            throw new SceneFileException("missing plane point");
+        }
+        if(normal == null) {
+            throw new SceneFileException("missing plane normal");
+        } 
+        plane = new Plane(point, normal);
+        currentSceneObject = plane;
+        addSceneObject(plane);
+    }
+    
+    /**
+     * Handles &lt;triangle&gt;.
+     */
+    private void startTriangle(SceneFileAttributes atts) throws SceneFileException {
+        Point3d v1 = null, v2 = null, v3 = null;
+        for (int i = 0; i < atts.getLength(); i++) {
+            switch(atts.getQName(i)) {
+                case "vertex1":
                     v1 = getPoint3dFromAttr(atts.getValue(i));
-                }
-                else if (atts.getQName(i).equals("vertex2")) {
+                    break;
+                case "vertex2":
                     v2 = getPoint3dFromAttr(atts.getValue(i));
-                }
-                else if (atts.getQName(i).equals("vertex3")) {
+                    break;
+                case "vertex3":
                     v3 = getPoint3dFromAttr(atts.getValue(i));
-                }
-                else {
+                    break;
+                default:
                     throw new SceneFileException("unknown triangle attribute: "+atts.getQName(i));
-                }
-            }
-            if(v1 == null || v2 == null || v3 == null) {
-                throw new SceneFileException("missing triangle vertex");
             }
-            Triangle triangle = new Triangle(v1, v2, v3);
-            currentSceneObject = triangle;
-            scene.addSceneObject(triangle);
         }
-        
-        //<box>
-        else if(qName.equals("box")) {
-           
-            Vector3d size = null;
-            Point3d lower = null;
-            for(int i = 0; i < atts.getLength(); ++i) {
-                if(atts.getQName(i).equals("lower")) {
+        if(v1 == null || v2 == null || v3 == null) {
+            throw new SceneFileException("missing triangle vertex");
+        }
+        Triangle triangle = new Triangle(v1, v2, v3);
+        currentSceneObject = triangle;
+        addSceneObject(triangle);
+    }
+    
+    /**
+     * Handles &lt;box&gt;.
+     */
+    private void startBox(SceneFileAttributes atts) throws SceneFileException {
+        Vector3d size = null;
+        Point3d lower = null;
+        for(int i = 0; i < atts.getLength(); ++i) {
+            switch(atts.getQName(i)) {
+                case "lower":
                     lower = getPoint3dFromAttr(atts.getValue(i));
-                }
-                else if(atts.getQName(i).equals("size")) {
+                    break;
+                case "size":
                     size = getVector3dFromAttr(atts.getValue(i));
-                }
-                else {
+                    break;
+                default:
                     throw new SceneFileException("unknown box attribute: "+atts.getQName(i));
+            }
+        }
+        if(lower == null) {
+            throw new SceneFileException("missing box lower");
+        }
+        if(size == null) {
+            throw new SceneFileException("missing box size");
+        } 
+        Box box = new BoundingBox(lower, size);
+        currentSceneObject = box;
+        addSceneObject(box);
+    }
+    
+    /**
+     * Handles &lt;mesh&gt;. The mesh file is read by a {@link MeshFileReader}.
+     */
+    private void startMesh(SceneFileAttributes atts) throws SceneFileException {
+        String file = null;
+        for(int i = 0; i < atts.getLength(); ++i) {
+            switch(atts.getQName(i)) {
+                case "file":
+                    file = atts.getValue(i).toString();
+                    break;
+                default:
+                    throw new SceneFileException("unknown mesh attribute: "+atts.getQName(i));
+            }
+        }
+        if(file == null) {
+            throw new SceneFileException("missing mesh file");
+        }
+        File meshFile = new File(file);
+        if(!meshFile.isAbsolute() && baseDirectory != null) {
+            meshFile = new File(baseDirectory, file);
+        }
+        TriangleMesh mesh;
+        try {
+            if(meshRoot != null) {
+                meshFile = meshFile.toPath().toRealPath().toFile();
+                if(!meshFile.toPath().startsWith(meshRoot)) {
+                    throw new SceneFileException("mesh file "+file+" is outside of the scene root");
                 }
             }
-            if(lower == null) {
-                throw new SceneFileException("missing box lower");
+            mesh = meshCache == null ? MeshFileReader.load(meshFile.getPath()) : meshCache.load(meshFile.getPath());
+        } catch (IOException e) {
+            throw new SceneFileException("can't read mesh file "+meshFile+": "+e.getMessage());
+        }
+        currentSceneObject = mesh;
+        addSceneObject(mesh);
+    }
+    
+    /**
+     * Handles &lt;prototype&gt;. The scene objects up to the end tag are added
+     * to the prototype instead of the scene.
+     */
+    private void startPrototype(SceneFileAttributes atts) throws SceneFileException {
+        String name = null;
+        for(int i = 0; i < atts.getLength(); ++i) {
+            switch(atts.getQName(i)) {
+                case "name":
+                    name = atts.getValue(i).toString();
+                    break;
+                default:
+                    throw new SceneFileException("unknown prototype attribute: "+atts.getQName(i));
             }
-            if(size == null) {
-                throw new SceneFileException("missing box size");
-            } 
-            Box box = new BoundingBox(lower, size);
-            currentSceneObject = box;
-            scene.addSceneObject(box);    
         }
-        
-        // <material>
-        else if (qName.equals("material")) {
-            if (currentSceneObject == null) {
-                throw new SceneFileException(
-                        "Material outside of a SceneObject is not allowed.");
-            } else {
-                Material material = new Material();
-                for (int i = 0; i < atts.getLength(); i++) {
-                    if (atts.getQName(i).equals("ambient")) {
-                        material.setAmbient(getColor3fFromAttr(atts.getValue(i)));
-                    }
-                    else if (atts.getQName(i).equals("diffuse")) {
-                        material.setDiffuse(getColor3fFromAttr(atts.getValue(i)));
-                    }
-                    else if (atts.getQName(i).equals("specular")) {
-                        material.setSpecular(getColor3fFromAttr(atts.getValue(i)));
-                    }
-                    else if (atts.getQName(i).equals("shininess")) {
-                        material.setShininess(getFloatFromAttr(atts.getValue(i)));
-                    }
-                    else if (atts.getQName(i).equals("transparency")) {
-                        material.setTransparency(getFloatFromAttr(atts.getValue(i)));
-                    }
-                    else if (atts.getQName(i).equals("refractionindex")) {
-                        material.setRefractionIndex(getFloatFromAttr(atts.getValue(i)));
-                    }
-                    else if (atts.getQName(i).equals("reflectioncoefficient")) {
-                        material.setReflectionCoefficient(getFloatFromAttr(atts.getValue(i)));
-                    }
-                    else {
-                        throw new SceneFileException("unknown material attribute: "+atts.getQName(i));
+        if(name == null) {
+            throw new SceneFileException("missing prototype name");
+        }
+        if(currentPrototype != null) {
+            throw new SceneFileException("nested prototypes are not allowed");
+        }
+        if(prototypes.containsKey(name)) {
+            throw new SceneFileException("multiple prototypes named "+name);
+        }
+        currentPrototype = new Prototype(name);
+        currentSceneObject = null;
+    }
+    
+    /**
+     * Handles &lt;instance&gt;. The transformation of the prototype is: scale,
+     * then rotate around the x, y and z axis (in degrees), then translate to the position.
+     * An instance with a name can be animated by &lt;instancekey&gt;.
+     */
+    private void startInstance(SceneFileAttributes atts) throws SceneFileException {
+        Prototype prototype = null;
+        String instanceName = null;
+        Vector3d position = new Vector3d();
+        Vector3d rotation = new Vector3d();
+        Vector3d scale = new Vector3d(1, 1, 1);
+        for(int i = 0; i < atts.getLength(); ++i) {
+            switch(atts.getQName(i)) {
+                case "prototype":
+                    String name = atts.getValue(i).toString();
+                    prototype = prototypes.get(name);
+                    if(prototype == null) {
+                        throw new SceneFileException("unknown prototype: "+name);
                     }
-                }
-                currentSceneObject.setMaterial(material);
+                    break;
+                case "name":
+                    instanceName = atts.getValue(i).toString();
+                    break;
+                case "position":
+                    position = getVector3dFromAttr(atts.getValue(i));
+                    break;
+                case "rotation":
+                    rotation = getVector3dFromAttr(atts.getValue(i));
+                    break;
+                case "scale":
+                    scale = getScaleFromAttr(atts.getValue(i));
+                    break;
+                default:
+                    throw new SceneFileException("unknown instance attribute: "+atts.getQName(i));
             }
         }
-
-        // if there is an unknown start tag, an exception will be thrown
-        else {
-            throw new SceneFileException("Unknown Tag: " + qName);
+        if(prototype == null) {
+            throw new SceneFileException("missing instance prototype");
+        }
+        if(instanceName != null && (currentPrototype != null || instances.containsKey(instanceName))) {
+            throw new SceneFileException(currentPrototype != null ? "named instances are not allowed in prototypes"
+                    : "multiple instances named "+instanceName);
         }
 
+        Animation.Transform transform = new Animation.Transform(position, rotation, scale);
+        Instance instance;
+        try {
+            instance = new Instance(prototype, transform.getMatrix());
+        } catch (IllegalArgumentException e) {
+            throw new SceneFileException(e.getMessage());
+        }
+        currentSceneObject = null;
+        addSceneObject(instance);
+        if(instanceName != null) {
+            instances.put(instanceName, instance);
+            instanceTransforms.put(instanceName, transform);
+        }
+    }
+    
+    /**
+     * Handles &lt;animation&gt;. The keyframes up to the end tag are added to
+     * the scene's animation.
+     */
+    private void startAnimation(SceneFileAttributes atts) throws SceneFileException {
+        int frames = 0;
+        for(int i = 0; i < atts.getLength(); ++i) {
+            switch(atts.getQName(i)) {
+                case "frames":
+                    frames = getIntFromAttr(atts.getValue(i));
+                    break;
+                default:
+                    throw new SceneFileException("unknown animation attribute: "+atts.getQName(i));
+            }
+        }
+        if(frames < 1) {
+            throw new SceneFileException("missing animation frames");
+        }
+        if(scene.getAnimation() != null || currentPrototype != null) {
+            throw new SceneFileException(currentPrototype != null ? "animations are not allowed in prototypes"
+                    : "multiple animations - only one is allowed");
+        }
+        currentAnimation = new Animation(frames);
+        currentSceneObject = null;
+    }
+    
+    /**
+     * Handles &lt;camerakey&gt;. The attributes, which are not given, are taken
+     * from &lt;camera&gt;.
+     */
+    private void startCameraKey(SceneFileAttributes atts) throws SceneFileException {
+        if(currentAnimation == null) {
+            throw new SceneFileException("camerakey is only allowed in animation");
+        }
+        int frame = -1;
+        Point3d position = null;
+        Vector3d direction = null;
+        Vector3d up = null;
+        double vFov = Double.NaN;
+        for(int i = 0; i < atts.getLength(); ++i) {
+            switch(atts.getQName(i)) {
+                case "frame":
+                    frame = getFrameFromAttr(atts.getValue(i));
+                    break;
+                case "position":
+                    position = getPoint3dFromAttr(atts.getValue(i));
+                    break;
+                case "direction":
+                    direction = getVector3dFromAttr(atts.getValue(i));
+                    break;
+                case "up":
+                    up = getVector3dFromAttr(atts.getValue(i));
+                    break;
+                case "vfov":
+                    vFov = getDoubleFromAttr(atts.getValue(i));
+                    break;
+                default:
+                    throw new SceneFileException("unknown camerakey attribute: "+atts.getQName(i));
+            }
+        }
+        if(frame == -1) {
+            throw new SceneFileException("missing camerakey frame");
+        }
+        currentAnimation.addCameraKey(frame, position, direction, up, vFov);
+    }
+    
+    /**
+     * Handles &lt;instancekey&gt;. The attributes, which are not given, are
+     * taken from the named &lt;instance&gt;, which must precede the animation.
+     */
+    private void startInstanceKey(SceneFileAttributes atts) throws SceneFileException {
+        if(currentAnimation == null) {
+            throw new SceneFileException("instancekey is only allowed in animation");
+        }
+        int frame = -1;
+        String instanceName = null;
+        Vector3d position = null;
+        Vector3d rotation = null;
+        Vector3d scale = null;
+        for(int i = 0; i < atts.getLength(); ++i) {
+            switch(atts.getQName(i)) {
+                case "frame":
+                    frame = getFrameFromAttr(atts.getValue(i));
+                    break;
+                case "instance":
+                    instanceName = atts.getValue(i).toString();
+                    if(!instances.containsKey(instanceName)) {
+                        throw new SceneFileException("unknown instance: "+instanceName);
+                    }
+                    break;
+                case "position":
+                    position = getVector3dFromAttr(atts.getValue(i));
+                    break;
+                case "rotation":
+                    rotation = getVector3dFromAttr(atts.getValue(i));
+                    break;
+                case "scale":
+                    scale = getScaleFromAttr(atts.getValue(i));
+                    break;
+                default:
+                    throw new SceneFileException("unknown instancekey attribute: "+atts.getQName(i));
+            }
+        }
+        if(frame == -1) {
+            throw new SceneFileException("missing instancekey frame");
+        }
+        if(instanceName == null) {
+            throw new SceneFileException("missing instancekey instance");
+        }
+        Animation.Transform transform = instanceTransforms.get(instanceName);
+        Animation.Transform key = new Animation.Transform(position != null ? position : transform.position,
+                rotation != null ? rotation : transform.rotation, scale != null ? scale : transform.scale);
+        try {
+            // fail here and not while rendering, if the transformation is not invertible
+            new Matrix4d(key.getMatrix()).invert();
+        } catch (RuntimeException e) {
+            throw new SceneFileException("instancekey transformation is not invertible");
+        }
+        currentAnimation.addInstanceKey(instances.get(instanceName), frame, key);
+    }
+    
+    /**
+     * Adds a scene object to the current prototype or, outside of a prototype, to the scene.
+     * @param sceneObject
+     */
+    private void addSceneObject(SceneObject sceneObject) {
+        if(currentPrototype != null) {
+            currentPrototype.addSceneObject(sceneObject);
+        } else {
+            long start = RenderStatistics.startPhase();
+            scene.addSceneObject(sceneObject);
+            RenderStatistics.endPhase(RenderStatistics.BUILD_TIME, start);
+        }
+    }
+    
+    /**
+     * Handles &lt;material&gt;.
+     */
+    private void startMaterial(SceneFileAttributes atts) throws SceneFileException {
+        boolean leading = fragment && scene.getObjectCount() == 0;
+        if (currentSceneObject == null && !leading) {
+            throw new SceneFileException(
+                    "Material outside of a SceneObject is not allowed.");
+        }
+        Material material = new Material();
+        for (int i = 0; i < atts.getLength(); i++) {
+            switch(atts.getQName(i)) {
+                case "ambient":
+                    material.setAmbient(getColor3fFromAttr(atts.getValue(i)));
+                    break;
+                case "diffuse":
+                    material.setDiffuse(getColor3fFromAttr(atts.getValue(i)));
+                    break;
+                case "specular":
+                    material.setSpecular(getColor3fFromAttr(atts.getValue(i)));
+                    break;
+                case "shininess":
+                    material.setShininess(getFloatFromAttr(atts.getValue(i)));
+                    break;
+                case "transparency":
+                    material.setTransparency(getFloatFromAttr(atts.getValue(i)));
+                    break;
+                case "refractionindex":
+                    material.setRefractionIndex(getFloatFromAttr(atts.getValue(i)));
+                    break;
+                case "reflectioncoefficient":
+                    material.setReflectionCoefficient(getFloatFromAttr(atts.getValue(i)));
+                    break;
+                default:
+                    throw new SceneFileException("unknown material attribute: "+atts.getQName(i));
+            }
+        }
+        if(leading) {
+            leadingMaterial = material;
+        } else {
+            currentSceneObject.setMaterial(material);
+        }
     }
 
     /**
@@ -308,14 +758,12 @@ public class SceneFileContentHandler extends DefaultHandler {
     public void characters(char[] ch, int start, int length) throws SceneFileException {
 
         // detect missplaced characters
-        String tmp = "";
         int end = start + length;
         for (int i = start; i < end; i++) {
-            tmp += ch[i];
+            if (ch[i] > ' ') {
+                throw new SceneFileException("missplaced characters: " + new String(ch, start, length).trim());
+            }
         }
-        tmp = tmp.trim();
-        if (!tmp.equals(""))
-            throw new SceneFileException("missplaced characters: " + tmp);
 
     }
 
@@ -324,56 +772,104 @@ public class SceneFileContentHandler extends DefaultHandler {
      * currentSceneObject to null, if the sceneobject is passed.
      */
     public void endElement(String namespaceURI, String localName, String qName) {
-        if (qName.equals("sphere") || qName.equals("triangle") || qName.equals("plane")) {
-            currentSceneObject = null;
-        } 
+        endElement(qName);
+    }
+
+    /**
+     * Handels end tags.
+     * @param qName The element name.
+     */
+    void endElement(String qName) {
+        switch(qName) {
+            case "sphere":
+            case "triangle":
+            case "plane":
+            case "mesh":
+                currentSceneObject = null;
+                break;
+            case "prototype":
+                prototypes.put(currentPrototype.getName(), currentPrototype);
+                currentPrototype = null;
+                currentSceneObject = null;
+                break;
+            case "animation":
+                scene.setAnimation(currentAnimation);
+                currentAnimation = null;
+                break;
+            default:
+        }
     }
 
+    /**
+     * Finds the separators of an attribute value, that consists of three components.
+     * Like <code>String.split</code>, trailing empty components are ignored.
+     * @param attr
+     * @return the index after the last component.
+     * @throws SceneFileException if the value doesn't consist of three components.
+     */
+    private int findSeparators(CharSequence attr, String type) throws SceneFileException {
+        int end = attr.length();
+        while(end > 0 && attr.charAt(end - 1) == SEPARATOR) {
+            end--;
+        }
+        int count = 0;
+        for(int i = 0; i < end; ++i) {
+            if(attr.charAt(i) == SEPARATOR) {
+                if(count == 2) {
+                    throw new SceneFileException("malformed "+type+" attribute");
+                }
+                separators[count++] = i;
+            }
+        }
+        if(count != 2) {
+            throw new SceneFileException("malformed "+type+" attribute");
+        }
+        return end;
+    }
+    
     /**
      * Creates a Color3f container from a given string.
      * @param attr
      * @return a color.
      * @throws SceneFileException if the string does not represent a color.
      */
-    private Color3f getColor3fFromAttr(String attr) throws SceneFileException {
-        String[] colorString = attr.split(SEPARATOR);
-
-        if (colorString.length != 3) {
+    private Color3f getColor3fFromAttr(CharSequence attr) throws SceneFileException {
+        int end = findSeparators(attr, "rgb3d");
+        try {
+            color[0] = numberParser.parseFloat(attr, 0, separators[0]);
+            color[1] = numberParser.parseFloat(attr, separators[0] + 1, separators[1]);
+            color[2] = numberParser.parseFloat(attr, separators[1] + 1, end);
+        } catch (NumberFormatException e) {
             throw new SceneFileException("malformed rgb3d attribute");
-        } else {
-            float red, green, blue;
-            try {
-                red = Float.valueOf(colorString[0]);
-                green = Float.valueOf(colorString[1]);
-                blue = Float.valueOf(colorString[2]);
-            } catch (NumberFormatException e) {
-                throw new SceneFileException("malformed rgb3d attribute");
-            }
-            return new Color3f(red, green, blue);
         }
+        return new Color3f(color[0], color[1], color[2]);
     }
 
     /**
-     * Creates a Point3d container from a given string.
+     * Parses the three components of a vector attribute into {@link #tuple}.
      * @param attr
-     * @return the point3d.
-     * @throws SceneFileException if the string does not represent a point3d.
+     * @throws SceneFileException if the string does not represent a vector.
      */
-    private Point3d getPoint3dFromAttr(String attr) throws SceneFileException {
-        String[] colorString = attr.split(SEPARATOR);
-
-        if (colorString.length != 3)
-            throw new SceneFileException("malformed vector3d attribute");
-
-        double x, y, z;
+    private void parseTuple(CharSequence attr) throws SceneFileException {
+        int end = findSeparators(attr, "vector3d");
         try {
-            x = Double.valueOf(colorString[0]);
-            y = Double.valueOf(colorString[1]);
-            z = Double.valueOf(colorString[2]);
+            tuple[0] = numberParser.parseDouble(attr, 0, separators[0]);
+            tuple[1] = numberParser.parseDouble(attr, separators[0] + 1, separators[1]);
+            tuple[2] = numberParser.parseDouble(attr, separators[1] + 1, end);
         } catch (NumberFormatException e) {
             throw new SceneFileException("malformed vector3d attribute");
         }
-        return new Point3d(x, y, z);
+    }
+    
+    /**
+     * Creates a Point3d container from a given string.
+     * @param attr
+     * @return the point3d.
+     * @throws SceneFileException if the string does not represent a point3d.
+     */
+    private Point3d getPoint3dFromAttr(CharSequence attr) throws SceneFileException {
+        parseTuple(attr);
+        return new Point3d(tuple[0], tuple[1], tuple[2]);
     }
     
     /**
@@ -382,8 +878,9 @@ public class SceneFileContentHandler extends DefaultHandler {
      * @return the vector3d.
      * @throws SceneFileException if the string does not represent a vector3d.
      */
-    private Vector3d getVector3dFromAttr(String attr) throws SceneFileException {
-        return new Vector3d(getPoint3dFromAttr(attr));
+    private Vector3d getVector3dFromAttr(CharSequence attr) throws SceneFileException {
+        parseTuple(attr);
+        return new Vector3d(tuple[0], tuple[1], tuple[2]);
     }
     
     /**
@@ -392,30 +889,92 @@ public class SceneFileContentHandler extends DefaultHandler {
      * @return the double value
      * @throws SceneFileException if the string does not represent a double.
      */
-    private double getDoubleFromAttr(String attr) throws SceneFileException {
+    private double getDoubleFromAttr(CharSequence attr) throws SceneFileException {
         double x;
         try {
-            x = Double.parseDouble(attr);
+            x = numberParser.parseDouble(attr, 0, attr.length());
         } catch (NumberFormatException e) {
             throw new SceneFileException("malformed double attribute");
         }
         return x;
     }
     
+    /**
+     * Parses the scale of an instance, either one factor or three factors.
+     * @param attr
+     * @return the scale factors.
+     * @throws SceneFileException if the string does not represent a scale.
+     */
+    private Vector3d getScaleFromAttr(CharSequence attr) throws SceneFileException {
+        if(attr.toString().indexOf(SEPARATOR) == -1) {
+            double factor = getDoubleFromAttr(attr);
+            return new Vector3d(factor, factor, factor);
+        }
+        return getVector3dFromAttr(attr);
+    }
+    
+    /**
+     * Parses an int value from a given string.
+     * @param attr
+     * @return the int value
+     * @throws SceneFileException if the string does not represent an int.
+     */
+    private int getIntFromAttr(CharSequence attr) throws SceneFileException {
+        try {
+            return Integer.parseInt(attr.toString().trim());
+        } catch (NumberFormatException e) {
+            throw new SceneFileException("malformed int attribute");
+        }
+    }
+    
+    /**
+     * Parses the frame of a keyframe of the current animation.
+     * @param attr
+     * @return the frame.
+     * @throws SceneFileException if the frame is not one of the animation's frames.
+     */
+    private int getFrameFromAttr(CharSequence attr) throws SceneFileException {
+        int frame = getIntFromAttr(attr);
+        if(frame < 0 || frame >= currentAnimation.getFrameCount()) {
+            throw new SceneFileException("frame "+frame+" is not in the animation");
+        }
+        return frame;
+    }
+    
     /**
      * Parses a float value from a given string.
      * @param attr
      * @return the float value
      * @throws SceneFileException if the string does not represent a float.
      */
-    private float getFloatFromAttr(String attr) throws SceneFileException {
+    private float getFloatFromAttr(CharSequence attr) throws SceneFileException {
         float x;
         try {
-            x = Float.parseFloat(attr);
+            x = numberParser.parseFloat(attr, 0, attr.length());
         } catch (NumberFormatException e) {
             throw new SceneFileException("malformed double attribute");
         }
         return x;
     }
 
+    /**
+     * Adapter for the attributes of the SAX parser.
+     */
+    private static class SaxAttributes implements SceneFileAttributes {
+
+        /** The current attributes */
+        private Attributes attributes;
+
+        public int getLength() {
+            return attributes.getLength();
+        }
+
+        public String getQName(int index) {
+            return attributes.getQName(index);
+        }
+
+        public CharSequence getValue(int index) {
+            return attributes.getValue(index);
+        }
+    }
 }
@@ -0,0 +1,74 @@
+/*
+ * SceneFileConverter.java
+ * 26/10/19
+ *
+ * University of Applied Sciences
+ * Bingen, Germany
+ *
+ * FPro Project "Jaytracer"
+ *
+ * Author:
+ * M S
+ *
+ */
+package de.fhbingen.fpro.jaytracer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Converts xml scene files into binary scene files (see {@link BinarySceneFile}).
+ * @author M S
+ */
+public class SceneFileConverter {
+
+    /**
+     * Mainroutine
+     * @param args The source and the target path.
+     */
+    public static void main(String[] args) {
+        if(args.length != 2) {
+            System.out.println("Usage:");
+            System.out.println("SceneFileConverter <scenefilepath> <binaryscenefilepath>");
+            return;
+        }
+        try {
+            convert(args[0], args[1]);
+        } catch (SAXException e) {
+            System.out.println("Malformed Scenefile: "+e.getMessage());
+        } catch (IOException e) {
+            System.out.println("I/O error: "+e.getMessage());
+        }
+    }
+
+    /**
+     * Loads a scene file and writes it as binary scene file. The file is written
+     * to a temporary file next to the target and moved into place only when it
+     * is complete, so a failed conversion leaves no truncated target behind.
+     * @param src The source scene file (xml or binary).
+     * @param tgt The target path.
+     * @throws IOException If a file is not readable or writable or the scene can't be written.
+     * @throws SAXException If the source is not a valid scene file.
+     */
+    public static void convert(String src, String tgt) throws SAXException, IOException {
+        Scene scene = new Scene();
+        scene.load(src);
+        File target = new File(tgt).getAbsoluteFile();
+        File tmp = File.createTempFile("scene", ".tmp", target.getParentFile());
+        try {
+            BinarySceneFileWriter writer = new BinarySceneFileWriter(tmp.getPath());
+            try {
+                writer.write(scene);
+            } finally {
+                writer.close();
+            }
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            tmp.delete();
+        }
+    }
+}
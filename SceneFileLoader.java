@@ -13,7 +13,10 @@
  */
 package de.fhbingen.fpro.jaytracer;
 
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
@@ -21,7 +24,12 @@ import javax.xml.parsers.SAXParserFactory;
 import org.xml.sax.SAXException;
 
 /**
- * Parses xml scenefiles by using the SAX xml parser.
+ * Parses xml scenefiles by using the {@link SceneFileScanner} or, if
+ * the scanner can't handle the file, the SAX xml parser. Binary scene
+ * files (see {@link BinarySceneFile}) are detected by their magic
+ * number and read by the {@link BinarySceneFileReader}. With more
+ * than one thread, xml scene files are loaded by the
+ * {@link ParallelSceneFileLoader}.
  * 
  * @author M S
  *
@@ -39,11 +47,105 @@ public class SceneFileLoader {
      * @throws SAXException If file format is not valid.
      */
     public SceneFileLoader(Scene scene, String file) throws SAXException, IOException {
+        this(scene, file, 1);
+    }
+
+    /**
+     * Loads the scene file with the given number of threads.
+     * 
+     * @param scene Scene, to which the information from the file shell be added.
+     * @param file Path to the scene file.
+     * @param threads The number of threads.
+     * @throws IOException If file is not readable.
+     * @throws SAXException If file format is not valid.
+     */
+    public SceneFileLoader(Scene scene, String file, int threads) throws SAXException, IOException {
+        this(scene, file, threads, null);
+    }
+
+    /**
+     * Loads the scene file with the given number of threads and takes the mesh
+     * files from a cache. The cache is only used with one thread.
+     * 
+     * @param scene Scene, to which the information from the file shell be added.
+     * @param file Path to the scene file.
+     * @param threads The number of threads.
+     * @param meshCache The cache of the mesh files or <code>null</code>.
+     * @throws IOException If file is not readable.
+     * @throws SAXException If file format is not valid.
+     */
+    SceneFileLoader(Scene scene, String file, int threads, MeshCache meshCache) throws SAXException, IOException {
+        this(scene, file, threads, meshCache, null, null);
+    }
+
+    /**
+     * Loads the scene file with one thread and takes the mesh files only from
+     * below a directory (see {@link SceneFileContentHandler#setMeshRoot(Path, Path)}).
+     * 
+     * @param scene Scene, to which the information from the file shell be added.
+     * @param file Path to the scene file.
+     * @param meshRoot The real path of the directory, below which the mesh files must lie.
+     * @param meshDirectory The directory, against which relative mesh file paths
+     * are resolved, or <code>null</code> for the directory of the scene file.
+     * @throws IOException If file is not readable.
+     * @throws SAXException If file format is not valid or a mesh file is outside of the root.
+     */
+    SceneFileLoader(Scene scene, String file, Path meshRoot, Path meshDirectory) throws SAXException, IOException {
+        this(scene, file, 1, null, meshRoot, meshDirectory);
+    }
+
+    /**
+     * Loads the scene file, see {@link #SceneFileLoader(Scene, String, int, MeshCache)}
+     * and {@link #SceneFileLoader(Scene, String, Path, Path)}.
+     */
+    private SceneFileLoader(Scene scene, String file, int threads, MeshCache meshCache, Path meshRoot, Path meshDirectory) throws SAXException, IOException {
+        RenderEvents.SceneLoad event = new RenderEvents.SceneLoad();
+        event.begin();
+        long[] statistics = RenderStatistics.getThreadCounters();
+        long start = System.nanoTime();
+        long buildTime = statistics == null ? 0 : statistics[RenderStatistics.BUILD_TIME];
+        try {
+            load(scene, file, threads, meshCache, meshRoot, meshDirectory);
+        } finally {
+            event.end();
+            if(event.shouldCommit()) {
+                event.file = file;
+                event.threads = threads;
+                event.commit();
+            }
+            if(statistics != null) {
+                // the build time of this thread is not parse time
+                statistics[RenderStatistics.PARSE_TIME] += System.nanoTime() - start
+                        - (statistics[RenderStatistics.BUILD_TIME] - buildTime);
+            }
+        }
+    }
+
+    /**
+     * Loads the scene file, see {@link #SceneFileLoader(Scene, String, int, MeshCache)}.
+     */
+    private void load(Scene scene, String file, int threads, MeshCache meshCache, Path meshRoot, Path meshDirectory) throws SAXException, IOException {
+        if(isBinarySceneFile(file)) {
+            new BinarySceneFileReader(scene).read(file);
+            return;
+        }
+        SceneFileContentHandler handler = new SceneFileContentHandler(scene);
+        handler.setSceneFile(file);
+        handler.setMeshCache(meshCache);
+        if(meshRoot != null) {
+            handler.setMeshRoot(meshRoot, meshDirectory);
+        }
+        if(threads > 1 && new ParallelSceneFileLoader(scene, threads).load(file)) {
+            return;
+        }
+        if(new SceneFileScanner(handler).scan(file)) {
+            return;
+        }
         try {
             SAXParserFactory factory = SAXParserFactory.newInstance();
             SAXParser saxParser;
             saxParser = factory.newSAXParser();
-            saxParser.parse(file, new SceneFileContentHandler(scene));
+            saxParser.parse(file, handler);
         } catch (ParserConfigurationException e) {
             System.err.println("An internal error has occured");
             e.printStackTrace();
@@ -51,5 +153,24 @@ public class SceneFileLoader {
         
     }
     
+    /**
+     * @param file Path to the scene file.
+     * @return <code>true</code> if the file starts with the binary scene file magic.
+     * @throws IOException If file is not readable.
+     */
+    private static boolean isBinarySceneFile(String file) throws IOException {
+        byte[] header = new byte[4];
+        int length = 0;
+        InputStream in = new FileInputStream(file);
+        try {
+            int n;
+            while(length < header.length && (n = in.read(header, length, header.length - length)) != -1) {
+                length += n;
+            }
+        } finally {
+            in.close();
+        }
+        return BinarySceneFile.isBinarySceneFile(header, length);
+    }
 }
 
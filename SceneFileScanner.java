@@ -0,0 +1,882 @@
+/*
+ * SceneFileScanner.java
+ * 26/10/19
+ *
+ * University of Applied Sciences
+ * Bingen, Germany
+ *
+ * FPro Project "Jaytracer"
+ *
+ * Author:
+ * M S
+ *
+ */
+package de.fhbingen.fpro.jaytracer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Streaming scanner for xml scene files, which drives a {@link SceneFileContentHandler}
+ * without the overhead of the SAX parser.<br/>
+ * <br/>
+ * The file is read through a fixed size buffer and decoded as UTF-8. Element and
+ * attribute names of the scene file format are looked up in a name table, so no
+ * strings are created for them, and the attribute values are passed as slices of
+ * a reused character buffer. The scanner checks the well-formedness of the
+ * document (nesting of the tags, unique attributes, entity and character
+ * references, comments, CDATA sections and processing instructions).<br/>
+ * <br/>
+ * Documents with a document type declaration or with an encoding other than
+ * UTF-8 or US-ASCII are not handled. This is detected before the handler is
+ * called, so the file can be passed to the SAX parser instead.<br/>
+ * <br/>
+ * For the {@link ParallelSceneFileLoader}, the scanner can also scan the root
+ * element's start and end tags and the content between them separately. A
+ * fragment of the content must start and end between children of the root
+ * element.
+ *
+ * @author M S
+ */
+class SceneFileScanner implements SceneFileAttributes {
+
+    /** Size of the read buffer */
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /** Names of the scene file format, which are returned without creating strings */
+    private static final String[] NAMES = {
+        "scene", "camera", "light", "sphere", "plane", "triangle", "box", "material",
+        "backgroundcolor", "position", "direction", "up", "aspect", "vfov",
+        "viewingplanedistance", "ambient", "diffuse", "specular", "intensity",
+        "radius", "point", "normal", "vertex1", "vertex2", "vertex3", "lower", "size",
+        "emission", "shininess", "transparency", "refractionindex", "reflectioncoefficient",
+        "mesh", "file", "prototype", "instance", "name", "rotation", "scale",
+        "animation", "frames", "camerakey", "instancekey", "frame"
+    };
+
+    /** Hash table of the {@link #NAMES} */
+    private static final String[] NAME_TABLE = new String[128];
+
+    static {
+        for(String name : NAMES) {
+            int slot = slot(name.hashCode());
+            while(NAME_TABLE[slot] != null) {
+                slot = (slot + 1) & (NAME_TABLE.length - 1);
+            }
+            NAME_TABLE[slot] = name;
+        }
+    }
+
+    /** The handler, which gets the elements */
+    private SceneFileContentHandler handler;
+
+    /** The file channel */
+    private FileChannel channel;
+
+    /** The read buffer */
+    private byte[] buffer = new byte[BUFFER_SIZE];
+
+    /** Position of the next byte in the buffer */
+    private int position = 0;
+
+    /** Number of valid bytes in the buffer */
+    private int limit = 0;
+
+    /** File offset of the first byte in the buffer */
+    private long bufferOffset = 0;
+
+    /** File offset of the next byte to read into the buffer */
+    private long readOffset = 0;
+
+    /** File offset, where the scanned part of the file ends */
+    private long readLimit = Long.MAX_VALUE;
+
+    /** Characters of the current name */
+    private char[] name = new char[64];
+
+    /** Characters of the attribute values or of the current text */
+    private char[] chars = new char[1024];
+
+    /** Number of used characters */
+    private int charCount;
+
+    /** Number of attributes of the current element */
+    private int attributeCount;
+
+    /** Names of the attributes of the current element */
+    private String[] attributeNames = new String[8];
+
+    /** Values of the attributes of the current element */
+    private Value[] attributeValues = new Value[8];
+
+    /** Names of the open elements */
+    private String[] openElements = new String[16];
+
+    /** Number of open elements */
+    private int depth;
+
+    /** Depth, at which the scanned fragment may end (0 for whole documents) */
+    private int fragmentDepth = 0;
+
+    /** <code>true</code> if the end of the scanned fragment is reached */
+    private boolean endOfFragment = false;
+
+    /**
+     * Creates a scanner for the given handler.
+     * @param handler
+     */
+    SceneFileScanner(SceneFileContentHandler handler) {
+        this.handler = handler;
+        for(int i = 0; i < attributeValues.length; ++i) {
+            attributeValues[i] = new Value();
+        }
+    }
+
+    /**
+     * Scans a scene file and passes its content to the handler.
+     * @param file Path to the scene file.
+     * @return <code>false</code> if the file can't be handled by the scanner.
+     * In this case, the handler has not been called.
+     * @throws IOException If file is not readable.
+     * @throws SAXException If file format is not valid.
+     */
+    boolean scan(String file) throws SAXException, IOException {
+        FileChannel channel = FileChannel.open(new File(file).toPath(), StandardOpenOption.READ);
+        try {
+            if(!scanRootStart(channel)) {
+                return false;
+            }
+            scanRootEnd(getOffset());
+            return true;
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Scans a scene file up to the end of the root element's start tag.
+     * @param channel The file channel.
+     * @return <code>false</code> if the file can't be handled by the scanner.
+     * In this case, the handler has not been called.
+     * @throws IOException If file is not readable.
+     * @throws SAXException If file format is not valid.
+     */
+    boolean scanRootStart(FileChannel channel) throws SAXException, IOException {
+        this.channel = channel;
+        seek(0, Long.MAX_VALUE);
+        return scanProlog();
+    }
+
+    /**
+     * Scans the rest of a scene file, which has been started by {@link #scanRootStart}.
+     * @param offset The file offset, where the scanning continues. It must be
+     * between two children of the root element.
+     * @throws IOException If file is not readable.
+     * @throws SAXException If file format is not valid.
+     */
+    void scanRootEnd(long offset) throws SAXException, IOException {
+        if(offset != getOffset()) {
+            seek(offset, Long.MAX_VALUE);
+        }
+        scanContent();
+        scanTrailer();
+    }
+
+    /**
+     * Scans a part of the root element's content.
+     * @param channel The file channel.
+     * @param start The file offset of the fragment.
+     * @param end The file offset after the fragment.
+     * @param root The name of the root element.
+     * @throws IOException If file is not readable.
+     * @throws SAXException If file format is not valid.
+     */
+    void scanFragment(FileChannel channel, long start, long end, String root) throws SAXException, IOException {
+        this.channel = channel;
+        seek(start, end);
+        depth = 0;
+        push(root);
+        fragmentDepth = 1;
+        endOfFragment = false;
+        scanContent();
+    }
+
+    /**
+     * @return the name of the root element, after {@link #scanRootStart} has been called.
+     */
+    String getRootElement() {
+        return openElements[0];
+    }
+
+    /**
+     * @return <code>true</code> if the root element has content, after
+     * {@link #scanRootStart} has been called.
+     */
+    boolean isRootOpen() {
+        return depth > 0;
+    }
+
+    /**
+     * @return the file offset of the next byte to scan.
+     */
+    long getOffset() {
+        return bufferOffset + position;
+    }
+
+    /**
+     * Scans everything before the root element.
+     * @return <code>false</code> if the document can't be handled by the scanner.
+     */
+    private boolean scanProlog() throws SAXException, IOException {
+        if(!ensure(4)) {
+            throw error("premature end of file");
+        }
+        if((buffer[0] & 0xff) == 0xef && (buffer[1] & 0xff) == 0xbb && (buffer[2] & 0xff) == 0xbf) {
+            position = 3;
+        } else if(buffer[0] == 0 || buffer[1] == 0 || (buffer[0] & 0xfe) == 0xfe) {
+            // UTF-16 or UTF-32
+            return false;
+        }
+        if(startsWith("<?xml") && ensure(6) && isWhitespace(buffer[position + 5])) {
+            position += 5;
+            if(!scanDeclaration()) {
+                return false;
+            }
+        }
+
+        for(;;) {
+            skipWhitespace();
+            int c = next();
+            if(c == -1) {
+                throw error("premature end of file");
+            }
+            if(c != '<') {
+                throw error("content is not allowed in prolog");
+            }
+            if(startsWith("!DOCTYPE")) {
+                return false;
+            }
+            if(!scanMarkup()) {
+                scanStartTag();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Scans the xml declaration after "&lt;?xml".
+     * @return <code>false</code> if the encoding is not supported.
+     */
+    private boolean scanDeclaration() throws SAXException, IOException {
+        for(;;) {
+            skipWhitespace();
+            if(startsWith("?>")) {
+                position += 2;
+                return true;
+            }
+            String pseudoAttribute = scanName(next());
+            skipWhitespace();
+            expect('=');
+            skipWhitespace();
+            int quote = next();
+            if(quote != '"' && quote != '\'') {
+                throw error("quoted value expected in xml declaration");
+            }
+            StringBuilder value = new StringBuilder();
+            int c;
+            while((c = next()) != quote) {
+                if(c == -1 || c == '<') {
+                    throw error("malformed xml declaration");
+                }
+                value.append((char) c);
+            }
+            if(pseudoAttribute.equals("encoding")) {
+                String encoding = value.toString();
+                if(!encoding.equalsIgnoreCase("UTF-8") && !encoding.equalsIgnoreCase("UTF8")
+                        && !encoding.equalsIgnoreCase("US-ASCII") && !encoding.equalsIgnoreCase("ASCII")) {
+                    return false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Scans the elements from the end of the root start tag to the end of the root end tag.
+     */
+    private void scanContent() throws SAXException, IOException {
+        while(depth > 0) {
+            charCount = 0;
+            boolean text = scanText();
+            if(text) {
+                handler.characters(chars, 0, charCount);
+            }
+            if(endOfFragment) {
+                return;
+            }
+            // scanText stops after '<'
+            int c = peek();
+            if(c == '/') {
+                position++;
+                scanEndTag();
+            } else if(c == '!' && startsWith("![CDATA[")) {
+                position += 8;
+                scanCData();
+            } else if(!scanMarkup()) {
+                scanStartTag();
+            }
+        }
+    }
+
+    /**
+     * Scans everything after the root element.
+     */
+    private void scanTrailer() throws SAXException, IOException {
+        for(;;) {
+            skipWhitespace();
+            int c = next();
+            if(c == -1) {
+                return;
+            }
+            if(c != '<' || !scanMarkup()) {
+                throw error("content is not allowed after the root element");
+            }
+        }
+    }
+
+    /**
+     * Scans character data up to the next '&lt;' and stores it in {@link #chars}.
+     * @return <code>true</code> if there are characters, that are no whitespace.
+     */
+    private boolean scanText() throws SAXException, IOException {
+        boolean text = false;
+        for(;;) {
+            int c = next();
+            if(c == '<') {
+                return text;
+            }
+            if(c == -1) {
+                if(depth == fragmentDepth) {
+                    endOfFragment = true;
+                    return text;
+                }
+                throw error("premature end of file, "+openElements[depth - 1]+" is not closed");
+            }
+            if(c == '&') {
+                c = scanReference();
+            } else if(c >= 0x80) {
+                c = decode(c);
+            } else if(c < 0x20 && c != '\t' && c != '\n' && c != '\r') {
+                throw error("invalid character");
+            }
+            text |= c > ' ';
+            append(c);
+        }
+    }
+
+    /**
+     * Scans a CDATA section after "&lt;![CDATA[" and passes its content to the handler.
+     */
+    private void scanCData() throws SAXException, IOException {
+        charCount = 0;
+        for(;;) {
+            if(startsWith("]]>")) {
+                position += 3;
+                break;
+            }
+            int c = next();
+            if(c == -1) {
+                throw error("premature end of file in CDATA section");
+            }
+            append(c >= 0x80 ? decode(c) : c);
+        }
+        handler.characters(chars, 0, charCount);
+    }
+
+    /**
+     * Scans a comment or a processing instruction after '&lt;'.
+     * @return <code>false</code> if there is no comment or processing instruction.
+     */
+    private boolean scanMarkup() throws SAXException, IOException {
+        if(startsWith("!--")) {
+            position += 3;
+            for(;;) {
+                if(startsWith("--")) {
+                    position += 2;
+                    expect('>');
+                    return true;
+                }
+                if(next() == -1) {
+                    throw error("premature end of file in comment");
+                }
+            }
+        }
+        if(peek() == '?') {
+            position++;
+            String target = scanName(next());
+            if(target.equalsIgnoreCase("xml")) {
+                throw error("xml declaration is only allowed at the beginning of the file");
+            }
+            for(;;) {
+                if(startsWith("?>")) {
+                    position += 2;
+                    return true;
+                }
+                if(next() == -1) {
+                    throw error("premature end of file in processing instruction");
+                }
+            }
+        }
+        if(peek() == '!') {
+            throw error("markup declaration is not allowed here");
+        }
+        return false;
+    }
+
+    /**
+     * Scans a start tag after '&lt;' and passes it to the handler.
+     */
+    private void scanStartTag() throws SAXException, IOException {
+        String element = scanName(next());
+        attributeCount = 0;
+        charCount = 0;
+        for(;;) {
+            boolean whitespace = skipWhitespace();
+            int c = next();
+            if(c == '>') {
+                handler.startElement(element, this);
+                push(element);
+                return;
+            }
+            if(c == '/') {
+                expect('>');
+                handler.startElement(element, this);
+                handler.endElement(element);
+                return;
+            }
+            if(!whitespace) {
+                throw error("whitespace expected in tag "+element);
+            }
+            String attribute = scanName(c);
+            for(int i = 0; i < attributeCount; ++i) {
+                if(attributeNames[i].equals(attribute)) {
+                    throw error("attribute "+attribute+" is specified twice");
+                }
+            }
+            skipWhitespace();
+            expect('=');
+            skipWhitespace();
+            int quote = next();
+            if(quote != '"' && quote != '\'') {
+                throw error("quoted value expected for attribute "+attribute);
+            }
+            int start = charCount;
+            scanAttributeValue(quote);
+            addAttribute(attribute, start, charCount);
+        }
+    }
+
+    /**
+     * Scans an attribute value up to the closing quote and appends it to
+     * {@link #chars}. The whitespace characters are normalized like by the
+     * SAX parser.
+     */
+    private void scanAttributeValue(int quote) throws SAXException, IOException {
+        for(;;) {
+            // copy plain ASCII characters directly from the buffer
+            if(charCount + limit - position > chars.length) {
+                chars = Arrays.copyOf(chars, Math.max(chars.length * 2, charCount + limit - position));
+            }
+            while(position < limit) {
+                byte b = buffer[position];
+                if(b < 0x20 || b == quote || b == '&' || b == '<') {
+                    break;
+                }
+                chars[charCount++] = (char) b;
+                position++;
+            }
+
+            int c = next();
+            if(c == quote) {
+                return;
+            }
+            if(c >= 0x80) {
+                c = decode(c);
+            } else if(c < 0x20) {
+                if(c == '\r') {
+                    if(peek() == '\n') {
+                        position++;
+                    }
+                } else if(c != '\t' && c != '\n') {
+                    throw error(c == -1 ? "premature end of file in attribute value" : "invalid character");
+                }
+                c = ' ';
+            } else if(c == '&') {
+                c = scanReference();
+            } else if(c == '<') {
+                throw error("'<' is not allowed in attribute values");
+            }
+            append(c);
+        }
+    }
+
+    /**
+     * Scans an end tag after "&lt;/" and passes it to the handler.
+     */
+    private void scanEndTag() throws SAXException, IOException {
+        String element = scanName(next());
+        skipWhitespace();
+        expect('>');
+        String open = openElements[--depth];
+        if(!open.equals(element)) {
+            throw error("end tag "+element+" does not match start tag "+open);
+        }
+        handler.endElement(element);
+    }
+
+    /**
+     * Scans an entity or character reference after '&amp;'.
+     * @return the referenced character.
+     */
+    private int scanReference() throws SAXException, IOException {
+        int c = next();
+        if(c == '#') {
+            int radix = 10;
+            if(peek() == 'x') {
+                position++;
+                radix = 16;
+            }
+            int value = 0;
+            int digits = 0;
+            while((c = next()) != ';') {
+                int digit = Character.digit(c, radix);
+                if(c == -1 || digit < 0 || ++digits > 8) {
+                    throw error("malformed character reference");
+                }
+                value = value * radix + digit;
+            }
+            if(digits == 0 || value > Character.MAX_CODE_POINT
+                    || (value < 0x20 && value != '\t' && value != '\n' && value != '\r')
+                    || (value >= Character.MIN_SURROGATE && value <= Character.MAX_SURROGATE)
+                    || value == 0xfffe || value == 0xffff) {
+                throw error("invalid character reference");
+            }
+            return value;
+        }
+        String entity = scanName(c);
+        expect(';');
+        switch(entity) {
+            case "lt":
+                return '<';
+            case "gt":
+                return '>';
+            case "amp":
+                return '&';
+            case "quot":
+                return '"';
+            case "apos":
+                return '\'';
+            default:
+                throw error("entity "+entity+" is not declared");
+        }
+    }
+
+    /**
+     * Scans a name.
+     * @param c The first character.
+     * @return the name, names of the scene file format are returned from the name table.
+     */
+    private String scanName(int c) throws SAXException, IOException {
+        if(c >= 0x80) {
+            c = decode(c);
+        }
+        if(!(Character.isLetter(c) || c == '_' || c == ':')) {
+            throw error(c == -1 ? "premature end of file" : "name expected");
+        }
+        int length = 0;
+        int hash = 0;
+        for(;;) {
+            if(length + 2 > name.length) {
+                name = Arrays.copyOf(name, name.length * 2);
+            }
+            if(c > Character.MAX_VALUE) {
+                name[length++] = Character.highSurrogate(c);
+                name[length++] = Character.lowSurrogate(c);
+                hash = 31 * (31 * hash + Character.highSurrogate(c)) + Character.lowSurrogate(c);
+            } else {
+                name[length++] = (char) c;
+                hash = 31 * hash + c;
+            }
+
+            c = peek();
+            if(c >= 'a' && c <= 'z' || c >= '0' && c <= '9' || c >= 'A' && c <= 'Z'
+                    || c == '_' || c == '-' || c == '.' || c == ':') {
+                position++;
+            } else if(c >= 0x80) {
+                position++;
+                c = decode(c);
+                if(!Character.isLetterOrDigit(c)) {
+                    throw error("invalid character in name");
+                }
+            } else {
+                break;
+            }
+        }
+
+        for(int slot = slot(hash); NAME_TABLE[slot] != null; slot = (slot + 1) & (NAME_TABLE.length - 1)) {
+            String known = NAME_TABLE[slot];
+            if(known.length() == length && equals(known, name, length)) {
+                return known;
+            }
+        }
+        return new String(name, 0, length);
+    }
+
+    /**
+     * Decodes a UTF-8 sequence.
+     * @param c The first byte.
+     * @return the code point.
+     */
+    private int decode(int c) throws SAXException, IOException {
+        int bytes;
+        int min;
+        if(c >= 0xf0 && c <= 0xf4) {
+            bytes = 3;
+            min = 0x10000;
+            c &= 0x07;
+        } else if(c >= 0xe0 && c <= 0xef) {
+            bytes = 2;
+            min = 0x800;
+            c &= 0x0f;
+        } else if(c >= 0xc2 && c <= 0xdf) {
+            bytes = 1;
+            min = 0x80;
+            c &= 0x1f;
+        } else {
+            throw error("invalid UTF-8 sequence");
+        }
+        for(int i = 0; i < bytes; ++i) {
+            int b = next();
+            if((b & 0xc0) != 0x80) {
+                throw error("invalid UTF-8 sequence");
+            }
+            c = (c << 6) | (b & 0x3f);
+        }
+        if(c < min || c > Character.MAX_CODE_POINT
+                || (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE)) {
+            throw error("invalid UTF-8 sequence");
+        }
+        return c;
+    }
+
+    /**
+     * Appends a character to {@link #chars}.
+     * @param c The code point.
+     */
+    private void append(int c) {
+        if(charCount + 2 > chars.length) {
+            chars = Arrays.copyOf(chars, chars.length * 2);
+        }
+        if(c > Character.MAX_VALUE) {
+            chars[charCount++] = Character.highSurrogate(c);
+            chars[charCount++] = Character.lowSurrogate(c);
+        } else {
+            chars[charCount++] = (char) c;
+        }
+    }
+
+    /**
+     * Adds an attribute of the current element.
+     */
+    private void addAttribute(String attribute, int start, int end) {
+        if(attributeCount == attributeNames.length) {
+            attributeNames = Arrays.copyOf(attributeNames, attributeCount * 2);
+            attributeValues = Arrays.copyOf(attributeValues, attributeCount * 2);
+            for(int i = attributeCount; i < attributeValues.length; ++i) {
+                attributeValues[i] = new Value();
+            }
+        }
+        attributeNames[attributeCount] = attribute;
+        attributeValues[attributeCount].start = start;
+        attributeValues[attributeCount].end = end;
+        attributeCount++;
+    }
+
+    /**
+     * Pushes an element on the stack of open elements.
+     */
+    private void push(String element) {
+        if(depth == openElements.length) {
+            openElements = Arrays.copyOf(openElements, depth * 2);
+        }
+        openElements[depth++] = element;
+    }
+
+    /**
+     * Skips whitespace characters.
+     * @return <code>true</code> if there was whitespace.
+     */
+    private boolean skipWhitespace() throws IOException {
+        boolean skipped = false;
+        while(isWhitespace(peek())) {
+            position++;
+            skipped = true;
+        }
+        return skipped;
+    }
+
+    /**
+     * Reads the next byte, which must be the given character.
+     */
+    private void expect(char c) throws SAXException, IOException {
+        int n = next();
+        if(n != c) {
+            if(n != -1) {
+                position--;
+            }
+            throw error("'"+c+"' expected");
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the next bytes are the given ASCII characters.
+     */
+    private boolean startsWith(String s) throws IOException {
+        if(!ensure(s.length())) {
+            return false;
+        }
+        for(int i = 0; i < s.length(); ++i) {
+            if(buffer[position + i] != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the next byte or -1 at the end of the file.
+     */
+    private int next() throws IOException {
+        if(position == limit && !ensure(1)) {
+            return -1;
+        }
+        return buffer[position++] & 0xff;
+    }
+
+    /**
+     * @return the next byte without consuming it or -1 at the end of the file.
+     */
+    private int peek() throws IOException {
+        if(position == limit && !ensure(1)) {
+            return -1;
+        }
+        return buffer[position] & 0xff;
+    }
+
+    /**
+     * Makes sure, that the given number of bytes are in the buffer.
+     * @return <code>false</code> if the end of the file is reached before.
+     */
+    private boolean ensure(int bytes) throws IOException {
+        if(limit - position >= bytes) {
+            return true;
+        }
+        System.arraycopy(buffer, position, buffer, 0, limit - position);
+        bufferOffset += position;
+        limit -= position;
+        position = 0;
+        int length = (int) Math.min(buffer.length - limit, readLimit - readOffset);
+        ByteBuffer target = ByteBuffer.wrap(buffer, limit, length);
+        while(limit < bytes) {
+            int n = target.hasRemaining() ? channel.read(target, readOffset) : -1;
+            if(n == -1) {
+                return false;
+            }
+            limit += n;
+            readOffset += n;
+        }
+        return true;
+    }
+
+    /**
+     * Discards the buffer content and continues reading at the given file offset.
+     * @param offset The file offset.
+     * @param end The file offset, where the scanned part of the file ends.
+     */
+    private void seek(long offset, long end) {
+        bufferOffset = offset;
+        readOffset = offset;
+        readLimit = end;
+        position = 0;
+        limit = 0;
+    }
+
+    /**
+     * @return an exception with the given message and the current file offset.
+     */
+    private SceneFileException error(String message) {
+        return new SceneFileException(message+" (at byte "+getOffset()+")");
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    private static boolean equals(String s, char[] c, int length) {
+        for(int i = 0; i < length; ++i) {
+            if(s.charAt(i) != c[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int slot(int hash) {
+        return (hash ^ (hash >>> 16)) & (NAME_TABLE.length - 1);
+    }
+
+    public int getLength() {
+        return attributeCount;
+    }
+
+    public String getQName(int index) {
+        return attributeNames[index];
+    }
+
+    public CharSequence getValue(int index) {
+        return attributeValues[index];
+    }
+
+    /**
+     * An attribute value, as slice of the character buffer.
+     */
+    private class Value implements CharSequence {
+
+        /** Index of the first character */
+        private int start;
+
+        /** Index after the last character */
+        private int end;
+
+        public int length() {
+            return end - start;
+        }
+
+        public char charAt(int index) {
+            return chars[start + index];
+        }
+
+        public CharSequence subSequence(int start, int end) {
+            return new String(chars, this.start + start, end - start);
+        }
+
+        public String toString() {
+            return new String(chars, start, end - start);
+        }
+    }
+}
@@ -56,6 +56,17 @@ abstract public class SceneObject {
      */
     abstract public double intersect(XRay r);
 
+    /**
+     * Creates the intersection of a ray with this scene object.
+     * 
+     * @param r The ray.
+     * @param t The t-parameter, that has been computed by {@link #intersect(XRay)}.
+     * @return the intersection.
+     */
+    Intersection getIntersection(XRay r, double t) {
+        return new Intersection(this, t, r);
+    }
+
     /**
      * Every scene object has to provide a method for calculate the surface
      * normal vector at the intersection point with a given vector.
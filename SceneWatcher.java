@@ -0,0 +1,518 @@
+/*
+ * SceneWatcher.java
+ * 26/10/19
+ *
+ * University of Applied Sciences
+ * Bingen, Germany
+ *
+ * FPro Project "Jaytracer"
+ *
+ * Author:
+ * M S
+ *
+ */
+package de.fhbingen.fpro.jaytracer;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.vecmath.Matrix4d;
+import javax.vecmath.Point3d;
+import javax.vecmath.Tuple3d;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Renders a scene file again, whenever it changes. The process keeps running,
+ * so the scene hierarchy and the compiled code are reused between the renders.<br/>
+ * <br/>
+ * On every change the file is parsed into a linear scene and its objects are
+ * compared by value (type, geometry and material) with the objects of the last
+ * version. Only the removed and the added objects are removed from and added to
+ * the scene hierarchy, the other objects keep their places in the grid cells.
+ * Lights, camera and background are taken over completely.<br/>
+ * <br/>
+ * Every render first writes a preview with a lower resolution, enlarged to the
+ * size of the image, and then the image itself to the same file.<br/>
+ * <br/>
+ * With wavefront tiles (see {@link #setWavefrontTileSize(int)}) and without
+ * supersampling an edit, that only changes the materials of objects, is not
+ * rendered completely: the materials of the kept objects are changed and only
+ * the tiles, whose ray trees hit them, are traced again (see
+ * {@link RayGenerator#markDirty(SceneObject)}).
+ * Other edits, e.g. of the camera or the lights, and changed instances need a
+ * full render.
+ *
+ * @author M S
+ */
+final class SceneWatcher {
+
+    /** Time in milliseconds to wait for further events of a save, e.g. of editors, which write in several steps */
+    private static final long SETTLE_TIME = 50;
+
+    /** The rendered scene */
+    private final Scene scene;
+
+    /** Path to the scene file */
+    private final String sceneFile;
+
+    /** Path to the image file */
+    private final String imageFile;
+
+    /** Render settings */
+    private final int width;
+    private final int height;
+    private final int recursiveDepth;
+    private final int supersampling;
+    private int packetSize = 1;
+    private int wavefrontTileSize = 0;
+    private int loadThreads = 1;
+
+    /** The resolution of the preview is divided by this scale, 1 for no preview */
+    private int previewScale = 1;
+
+    /** The objects of the scene by their keys */
+    private Map<ObjectKey, List<SceneObject>> objects = new HashMap<ObjectKey, List<SceneObject>>();
+
+    /** The editable generator of the last full render or <code>null</code> */
+    private RayGenerator generator;
+
+    /** The camera, the lights and the background of the scene (see {@link #getView(Scene)}) */
+    private double[] view;
+
+    /** The new materials of the kept objects, if the last update only changed materials, otherwise <code>null</code> */
+    private Map<SceneObject, Material> materials;
+
+    /**
+     * Creates a watcher for an empty scene, the first {@link #update()} loads the
+     * scene file completely.
+     * @param scene The empty scene, e.g. a {@link RegularGridScene}.
+     * @param sceneFile Path to the scene file.
+     * @param imageFile Path to the image file.
+     * @param width The horizontal resolution.
+     * @param height The vertical resolution.
+     * @param recursiveDepth The recursive depth for reflected and refracted rays.
+     * @param supersampling The supersampling mode (see {@link RayGenerator}).
+     */
+    SceneWatcher(Scene scene, String sceneFile, String imageFile, int width, int height, int recursiveDepth, int supersampling) {
+        this.scene = scene;
+        this.sceneFile = sceneFile;
+        this.imageFile = imageFile;
+        this.width = width;
+        this.height = height;
+        this.recursiveDepth = recursiveDepth;
+        this.supersampling = supersampling;
+    }
+
+    /**
+     * @param size The width and height of the pixel packets (see {@link RayGenerator#setPacketSize(int)}).
+     */
+    void setPacketSize(int size) {
+        this.packetSize = size;
+    }
+
+    /**
+     * @param size The width and height of the wavefront tiles (see {@link RayGenerator#setWavefrontTileSize(int)}).
+     */
+    void setWavefrontTileSize(int size) {
+        this.wavefrontTileSize = size;
+    }
+
+    /**
+     * @param threads The number of threads for loading the scene file.
+     */
+    void setLoadThreads(int threads) {
+        this.loadThreads = threads;
+    }
+
+    /**
+     * @param scale The resolution of the preview is divided by the scale, 1 for no preview.
+     */
+    void setPreviewScale(int scale) {
+        this.previewScale = scale;
+    }
+
+    /**
+     * Loads and renders the scene file and renders it again on every change,
+     * until the thread is interrupted. A malformed version of the file is
+     * reported and skipped.
+     * @throws SAXException If the first version of the file is not a valid scene file.
+     * @throws IOException If a file can not be accessed.
+     * @throws InterruptedException If the thread is interrupted.
+     */
+    void watch() throws SAXException, IOException, InterruptedException {
+        update();
+        render();
+        Path file = Paths.get(sceneFile).toAbsolutePath();
+        try(WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            // editors often replace the file, so the directory is watched
+            file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            System.out.println("watch: waiting for changes of "+sceneFile);
+            while(true) {
+                WatchKey key = watchService.take();
+                boolean changed = isChanged(key, file);
+                Thread.sleep(SETTLE_TIME);
+                while((key = watchService.poll()) != null) {
+                    changed |= isChanged(key, file);
+                }
+                if(!changed) {
+                    continue;
+                }
+                try {
+                    update();
+                    render();
+                } catch (SAXException e) {
+                    System.out.println("Malformed Scenefile: "+e.getMessage());
+                } catch (RuntimeException e) {
+                    // e.g. a file, that is being written
+                    System.out.println("Malformed Scenefile: "+e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Parses the scene file and applies the differences to the last version to
+     * the scene. If only materials have changed, the objects are kept and their
+     * new materials are set by the next {@link #render()}.
+     * @throws SAXException If the file is not a valid scene file, the scene is not changed.
+     * @throws IOException If the file can not be read.
+     */
+    void update() throws SAXException, IOException {
+        long start = System.nanoTime();
+        Scene parsed = new Scene();
+        parsed.load(sceneFile, loadThreads);
+        long parseEnd = System.nanoTime();
+
+        Map<Prototype, List<ObjectKey>> prototypeKeys = new IdentityHashMap<Prototype, List<ObjectKey>>();
+        Map<ObjectKey, List<SceneObject>> previous = objects;
+        Map<ObjectKey, List<SceneObject>> next = new HashMap<ObjectKey, List<SceneObject>>();
+        List<SceneObject> added = new ArrayList<SceneObject>();
+        for(SceneObject s : parsed.getSceneObjects()) {
+            ObjectKey key = new ObjectKey(s, prototypeKeys);
+            List<SceneObject> same = previous.get(key);
+            SceneObject kept = s;
+            if(same != null && !same.isEmpty()) {
+                kept = same.remove(same.size() - 1);
+            } else {
+                added.add(s);
+            }
+            List<SceneObject> list = next.get(key);
+            if(list == null) {
+                list = new ArrayList<SceneObject>(1);
+                next.put(key, list);
+            }
+            list.add(kept);
+        }
+
+        double[] parsedView = getView(parsed);
+        Map<SceneObject, SceneObject> edited = generator != null && Arrays.equals(view, parsedView) ? getEditedObjects(previous, added) : null;
+        view = parsedView;
+        if(edited != null) {
+            // the kept objects take the places of the parsed objects
+            materials = new IdentityHashMap<SceneObject, Material>();
+            for(List<SceneObject> list : next.values()) {
+                for(int i = 0; i < list.size(); ++i) {
+                    SceneObject kept = edited.get(list.get(i));
+                    if(kept != null) {
+                        materials.put(kept, list.get(i).getMaterial());
+                        list.set(i, kept);
+                    }
+                }
+            }
+            objects = next;
+            System.out.println("Update: "+materials.size()+" materials changed, parse "
+                    +(parseEnd - start)/1000000+" ms");
+            return;
+        }
+        materials = null;
+
+        int removed = 0;
+        for(List<SceneObject> list : previous.values()) {
+            for(SceneObject s : list) {
+                scene.removeSceneObject(s);
+                removed++;
+            }
+        }
+        for(SceneObject s : added) {
+            scene.addSceneObject(s);
+        }
+        objects = next;
+
+        scene.removeLights();
+        for(Light light : parsed.getLights()) {
+            scene.addLight(light);
+        }
+        scene.setCamera(parsed.getCamera());
+        scene.setBackgroundColor(parsed.getBackgroundColor());
+        System.out.println("Update: "+added.size()+" added, "+removed+" removed, parse "
+                +(parseEnd - start)/1000000+" ms, patch "+(System.nanoTime() - parseEnd)/1000000+" ms");
+    }
+
+    /**
+     * Renders the preview and the image or, if the last update only changed
+     * materials, the dirty tiles of the last image.
+     * @throws IOException If the image can not be written.
+     * @throws InterruptedException If the thread is interrupted.
+     */
+    void render() throws IOException, InterruptedException {
+        ImageOutput output = new ImageOutput();
+        if(materials != null && generator != null) {
+            long start = System.nanoTime();
+            for(Map.Entry<SceneObject, Material> entry : materials.entrySet()) {
+                generator.setMaterial(entry.getKey(), entry.getValue());
+            }
+            materials = null;
+            int tiles = generator.renderDirtyTiles();
+            output.writePNG(generator.getPixelMap(), imageFile);
+            System.out.println("Render time: "+(System.nanoTime() - start)/1000000+" ms, "+tiles+" dirty tiles");
+            return;
+        }
+        materials = null;
+        if(previewScale > 1) {
+            long start = System.nanoTime();
+            int[][] preview = trace(Math.max(1, width / previewScale), Math.max(1, height / previewScale), RayGenerator.NO_SUPERSAMPLING).getPixelMap();
+            output.writePNG(enlarge(preview), imageFile);
+            System.out.println("Preview time: "+(System.nanoTime() - start)/1000000+" ms");
+        }
+        long start = System.nanoTime();
+        RayGenerator full = trace(width, height, supersampling);
+        output.writePNG(full.getPixelMap(), imageFile);
+        generator = wavefrontTileSize > 0 && supersampling == RayGenerator.NO_SUPERSAMPLING ? full : null;
+        System.out.println("Render time: "+(System.nanoTime() - start)/1000000+" ms");
+    }
+
+    /**
+     * @return the finished generator of the scene with the given resolution,
+     * it records the objects of its wavefront tiles.
+     */
+    private RayGenerator trace(int x, int y, int ss) throws InterruptedException {
+        RayGenerator generator = new RayGenerator(scene, x, y, recursiveDepth, ss);
+        generator.setPacketSize(packetSize);
+        generator.setWavefrontTileSize(wavefrontTileSize);
+        generator.setEditable(wavefrontTileSize > 0);
+        generator.setVerbose(false);
+        generator.start();
+        generator.join();
+        return generator;
+    }
+
+    /**
+     * Pairs the removed and the added objects, which only differ by their materials.
+     * Instances are never paired, their hits report the objects of the prototype.
+     * @param removed The removed objects by their keys.
+     * @param added The added objects.
+     * @return the removed objects by the added objects, or <code>null</code>, if
+     * any object can't be paired.
+     */
+    private static Map<SceneObject, SceneObject> getEditedObjects(Map<ObjectKey, List<SceneObject>> removed, List<SceneObject> added) {
+        Map<ObjectKey, List<SceneObject>> geometries = new HashMap<ObjectKey, List<SceneObject>>();
+        int count = 0;
+        for(Map.Entry<ObjectKey, List<SceneObject>> entry : removed.entrySet()) {
+            if(entry.getValue().isEmpty()) {
+                continue;
+            }
+            if(entry.getKey().parts != null) {
+                return null;
+            }
+            ObjectKey key = entry.getKey().getGeometryKey();
+            List<SceneObject> list = geometries.get(key);
+            if(list == null) {
+                list = new ArrayList<SceneObject>();
+                geometries.put(key, list);
+            }
+            list.addAll(entry.getValue());
+            count += entry.getValue().size();
+        }
+        if(count != added.size()) {
+            return null;
+        }
+        Map<SceneObject, SceneObject> edited = new IdentityHashMap<SceneObject, SceneObject>();
+        for(SceneObject s : added) {
+            if(s instanceof Instance) {
+                return null;
+            }
+            List<SceneObject> same = geometries.get(new ObjectKey(s, null).getGeometryKey());
+            if(same == null || same.isEmpty()) {
+                return null;
+            }
+            edited.put(s, same.remove(same.size() - 1));
+        }
+        return edited;
+    }
+
+    /**
+     * @return the values of the camera, the lights and the background of a scene.
+     */
+    private static double[] getView(Scene s) {
+        List<Tuple3d> tuples = new ArrayList<Tuple3d>();
+        Camera camera = s.getCamera();
+        tuples.add(camera.getPosition());
+        tuples.add(camera.getDirection());
+        tuples.add(camera.getUp());
+        tuples.add(new Point3d(camera.getVFov(), camera.getAspect(), camera.getViewingPlaneDistance()));
+        tuples.add(new Point3d(s.getBackgroundColor()));
+        for(Light light : s.getLights()) {
+            tuples.add(light.getPosition());
+            tuples.add(new Point3d(light.getAmbient()));
+            tuples.add(new Point3d(light.getDiffuse()));
+            tuples.add(new Point3d(light.getSpecular()));
+            tuples.add(new Point3d(light.getIntensity(), 0, 0));
+        }
+        return ObjectKey.concat(tuples.toArray(new Tuple3d[tuples.size()]));
+    }
+
+    /**
+     * @return the pixel map enlarged to the resolution of the image.
+     */
+    private int[][] enlarge(int[][] preview) {
+        int[][] pixelMap = new int[height][width];
+        for(int j = 0; j < height; ++j) {
+            int[] row = preview[j * preview.length / height];
+            for(int i = 0; i < width; ++i) {
+                pixelMap[j][i] = row[i * row.length / width];
+            }
+        }
+        return pixelMap;
+    }
+
+    /**
+     * @return <code>true</code>, if the events of the key concern the file.
+     */
+    private static boolean isChanged(WatchKey key, Path file) {
+        boolean changed = false;
+        for(WatchEvent<?> event : key.pollEvents()) {
+            if(file.getFileName().equals(event.context())) {
+                changed = true;
+            }
+        }
+        key.reset();
+        return changed;
+    }
+
+    /**
+     * Value based key for scene objects: the type, the geometry and the material.
+     * The key of an instance contains the keys of its prototype's objects. Objects
+     * of other types are only equal to themselves.
+     */
+    private static class ObjectKey {
+
+        private Class<?> type;
+
+        private double[] values;
+
+        private int geometryLength;
+
+        private List<ObjectKey> parts;
+
+        private SceneObject other;
+
+        ObjectKey(SceneObject s, Map<Prototype, List<ObjectKey>> prototypeKeys) {
+            type = s.getClass();
+            double[] geometry;
+            if(s instanceof Sphere) {
+                Sphere sphere = (Sphere) s;
+                geometry = concat(sphere.getCenter(), new Point3d(sphere.getRadius(), 0, 0));
+            } else if(s instanceof Plane) {
+                Plane plane = (Plane) s;
+                geometry = concat(plane.getPoint(), plane.getSurfaceNormal(null));
+            } else if(s instanceof Box) {
+                Box box = (Box) s;
+                geometry = concat(box.getLower(), box.getSize());
+            } else if(s instanceof Triangle) {
+                Triangle triangle = (Triangle) s;
+                geometry = concat(triangle.getVertex1(), triangle.getVertex2(), triangle.getVertex3());
+            } else if(s instanceof MeshTriangle) {
+                MeshTriangle triangle = (MeshTriangle) s;
+                TriangleMesh mesh = triangle.getMesh();
+                int index = triangle.getIndex();
+                geometry = concat(mesh.getTriangleVertex(index, 0), mesh.getTriangleVertex(index, 1), mesh.getTriangleVertex(index, 2));
+            } else if(s instanceof Instance) {
+                Instance instance = (Instance) s;
+                Matrix4d m = instance.getTransform();
+                geometry = new double[16];
+                for(int i = 0; i < 16; ++i) {
+                    geometry[i] = m.getElement(i / 4, i % 4);
+                }
+                parts = prototypeKeys.get(instance.getPrototype());
+                if(parts == null) {
+                    parts = new ArrayList<ObjectKey>();
+                    for(SceneObject part : instance.getPrototype().getSceneObjects()) {
+                        parts.add(new ObjectKey(part, prototypeKeys));
+                    }
+                    prototypeKeys.put(instance.getPrototype(), parts);
+                }
+            } else {
+                geometry = new double[0];
+                other = s;
+            }
+
+            Material m = s.getMaterial();
+            geometryLength = geometry.length;
+            values = Arrays.copyOf(geometry, geometry.length + (m == null ? 0 : 16));
+            if(m != null) {
+                float[] material = new float[] {
+                    m.getAmbient().x, m.getAmbient().y, m.getAmbient().z,
+                    m.getDiffuse().x, m.getDiffuse().y, m.getDiffuse().z,
+                    m.getSpecular().x, m.getSpecular().y, m.getSpecular().z,
+                    m.getEmission().x, m.getEmission().y, m.getEmission().z,
+                    m.getShininess(), m.getTransparency(), m.getRefractionIndex(), m.getReflectionCoefficient()
+                };
+                for(int i = 0; i < material.length; ++i) {
+                    values[geometry.length + i] = material[i];
+                }
+            }
+        }
+
+        /**
+         * @return the key without the material.
+         */
+        ObjectKey getGeometryKey() {
+            ObjectKey key = new ObjectKey();
+            key.type = type;
+            key.values = Arrays.copyOf(values, geometryLength);
+            key.geometryLength = geometryLength;
+            key.parts = parts;
+            key.other = other;
+            return key;
+        }
+
+        private ObjectKey() {
+        }
+
+        private static double[] concat(Tuple3d... tuples) {
+            double[] values = new double[3 * tuples.length];
+            for(int i = 0; i < tuples.length; ++i) {
+                values[3 * i] = tuples[i].x;
+                values[3 * i + 1] = tuples[i].y;
+                values[3 * i + 2] = tuples[i].z;
+            }
+            return values;
+        }
+
+        public boolean equals(Object o) {
+            if(!(o instanceof ObjectKey)) {
+                return false;
+            }
+            ObjectKey k = (ObjectKey) o;
+            return type == k.type && other == k.other && Arrays.equals(values, k.values)
+                    && (parts == null ? k.parts == null : parts.equals(k.parts));
+        }
+
+        public int hashCode() {
+            return type.hashCode() * 31 + Arrays.hashCode(values);
+        }
+    }
+}
@@ -30,6 +30,9 @@ public class Shader {
     /** A list of all relevant lights */
     private List<Light> rtLights;
     
+    /** The attenuation of every relevant light at the intersection */
+    private float[] attenuations;
+    
 	/** The intersection for that the colors a calculated */
 	private Intersection intersection;
 	
@@ -47,8 +50,10 @@ public class Shader {
 		this.intersection = intersection;
 		sceneObject = intersection.getIntersectedSceneObject();
         rtLights = scene.getHittingLights(intersection);
-        for(Light light : rtLights) {
-            light.setAttenuation(intersection.getPointOfIntersection());
+        //the attenuation is not stored in the lights, they are shared by all threads that trace the scene
+        attenuations = new float[rtLights.size()];
+        for(int l = 0; l < attenuations.length; ++l) {
+            attenuations[l] = rtLights.get(l).getAttenuation(intersection.getPointOfIntersection());
         }   
 	}
 	
@@ -99,14 +104,15 @@ public class Shader {
     	Msurface = sceneObject.getMaterial().getDiffuse();
     	Color3f lColor;
     	
-    	for (Light light : rtLights) {
+    	for (int l = 0; l < rtLights.size(); ++l) {
+    		Light light = rtLights.get(l);
     		Nlight = intersection.getLightNormal(light);
     		lambda = (float) Nsurface.dot(Nlight);
     		if (lambda <= 0.0f) continue;
     		Mlight = light.getDiffuse();
     		lColor = VecmathAddon.mulColor3f(Mlight, Msurface);
     		lColor.scale(lambda);
-            lColor.scale(light.getAttenuation());
+            lColor.scale(attenuations[l]);
             color.add(lColor);  
     	}
     	return color;
@@ -132,7 +138,8 @@ public class Shader {
     	Nsurface = intersection.getSurfaceNormal();
     	Msurface = sceneObject.getMaterial().getSpecular();
     	
-    	for (Light light : rtLights) {
+    	for (int l = 0; l < rtLights.size(); ++l) {
+    		Light light = rtLights.get(l);
     		Vlight = intersection.getLightNormal(light);
     		Vreflect = new Vector3d(Nsurface);
     		Vreflect.scale(2*Vlight.dot(Nsurface));
@@ -151,7 +158,7 @@ public class Shader {
     		lColor = VecmathAddon.mulColor3f(Mlight, Msurface);
     		
             lColor.scale((float)Math.pow(specFactor, sceneObject.getMaterial().getShininess()));
-            lColor.scale(light.getAttenuation());
+            lColor.scale(attenuations[l]);
     		color.add(lColor);
     	}     
     	return color;
@@ -78,6 +78,13 @@ public class Sphere extends SceneObject {
         this.radius = radius;   
     }
 
+    /**
+     * @return the square of the sphere's radius, as used by the intersection test.
+     */
+    double getSquareRadius() {
+        return squareRadius;
+    }
+
     /**
      * Calculates the intersection point with a given ray and this
      * sphere. If there is an intersection point, the return value is the
@@ -0,0 +1,53 @@
+/*
+ * SphereBlock.java
+ * 26/10/19
+ *
+ * University of Applied Sciences
+ * Bingen, Germany
+ *
+ * FPro Project "Jaytracer"
+ *
+ * Author:
+ * M S
+ *
+ */
+package de.fhbingen.fpro.jaytracer;
+
+import javax.vecmath.Point3d;
+
+/**
+ * A block of spheres (see {@link PrimitiveBlock}).
+ *
+ * @author M S
+ */
+final class SphereBlock extends PrimitiveBlock {
+
+    /** The centers */
+    final double[] cx = newArray();
+    final double[] cy = newArray();
+    final double[] cz = newArray();
+
+    /** The squares of the radii */
+    final double[] squareRadius = newArray();
+
+    /**
+     * Adds a sphere to the block.
+     * @param sphere
+     * @param position The position in the object list.
+     */
+    void add(Sphere sphere, int position) {
+        int i = add((SceneObject) sphere, position);
+        Point3d center = sphere.getCenter();
+        cx[i] = center.x;
+        cy[i] = center.y;
+        cz[i] = center.z;
+        squareRadius[i] = sphere.getSquareRadius();
+        double r = Math.sqrt(squareRadius[i]);
+        extend(center.x - r, center.y - r, center.z - r, center.x + r, center.y + r, center.z + r);
+    }
+
+    void intersect(BlockKernel kernel, double ox, double oy, double oz,
+            double dx, double dy, double dz, double[] t) {
+        kernel.intersect(this, ox, oy, oz, dx, dy, dz, t);
+    }
+}
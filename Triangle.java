@@ -113,6 +113,41 @@ public class Triangle extends SceneObject{
         return t;
     }
     
+    /**
+     * @return the first vertex.
+     */
+    public Point3d getVertex1() {
+        return vertex1;
+    }
+
+    /**
+     * @return the second vertex.
+     */
+    public Point3d getVertex2() {
+        return vertex2;
+    }
+
+    /**
+     * @return the third vertex.
+     */
+    public Point3d getVertex3() {
+        return vertex3;
+    }
+
+    /**
+     * @return the edge vector from the first to the second vertex.
+     */
+    Vector3d getEdge21() {
+        return vector21;
+    }
+
+    /**
+     * @return the edge vector from the first to the third vertex.
+     */
+    Vector3d getEdge31() {
+        return vector31;
+    }
+    
     /**
      * @return the bounding box that contains the triangle.
      */
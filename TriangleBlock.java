@@ -0,0 +1,89 @@
+/*
+ * TriangleBlock.java
+ * 26/10/19
+ *
+ * University of Applied Sciences
+ * Bingen, Germany
+ *
+ * FPro Project "Jaytracer"
+ *
+ * Author:
+ * M S
+ *
+ */
+package de.fhbingen.fpro.jaytracer;
+
+import javax.vecmath.Point3d;
+import javax.vecmath.Vector3d;
+
+/**
+ * A block of triangles (see {@link PrimitiveBlock}). It contains
+ * {@link Triangle}s as well as {@link MeshTriangle}s, both are stored as their
+ * first vertex and the edge vectors to the second and third vertex.
+ *
+ * @author M S
+ */
+final class TriangleBlock extends PrimitiveBlock {
+
+    /** The first vertices */
+    final double[] v1x = newArray();
+    final double[] v1y = newArray();
+    final double[] v1z = newArray();
+
+    /** The edges from the first to the second vertex */
+    final double[] e21x = newArray();
+    final double[] e21y = newArray();
+    final double[] e21z = newArray();
+
+    /** The edges from the first to the third vertex */
+    final double[] e31x = newArray();
+    final double[] e31y = newArray();
+    final double[] e31z = newArray();
+
+    /**
+     * Adds a triangle to the block.
+     * @param triangle
+     * @param position The position in the object list.
+     */
+    void add(Triangle triangle, int position) {
+        Vector3d e21 = triangle.getEdge21();
+        Vector3d e31 = triangle.getEdge31();
+        set(add((SceneObject) triangle, position), triangle.getVertex1(),
+                e21.x, e21.y, e21.z, e31.x, e31.y, e31.z);
+    }
+
+    /**
+     * Adds a triangle of a mesh to the block.
+     * @param triangle
+     * @param position The position in the object list.
+     */
+    void add(MeshTriangle triangle, int position) {
+        TriangleMesh mesh = triangle.getMesh();
+        double[] e = mesh.getTriangleEdges(triangle.getIndex());
+        set(add((SceneObject) triangle, position), mesh.getTriangleVertex(triangle.getIndex(), 0),
+                e[0], e[1], e[2], e[3], e[4], e[5]);
+    }
+
+    void intersect(BlockKernel kernel, double ox, double oy, double oz,
+            double dx, double dy, double dz, double[] t) {
+        kernel.intersect(this, ox, oy, oz, dx, dy, dz, t);
+    }
+
+    /**
+     * Sets the geometry of a triangle.
+     */
+    private void set(int i, Point3d v1, double x21, double y21, double z21, double x31, double y31, double z31) {
+        v1x[i] = v1.x;
+        v1y[i] = v1.y;
+        v1z[i] = v1.z;
+        e21x[i] = x21;
+        e21y[i] = y21;
+        e21z[i] = z21;
+        e31x[i] = x31;
+        e31y[i] = y31;
+        e31z[i] = z31;
+        extend(v1.x + Math.min(0, Math.min(x21, x31)), v1.y + Math.min(0, Math.min(y21, y31)),
+                v1.z + Math.min(0, Math.min(z21, z31)), v1.x + Math.max(0, Math.max(x21, x31)),
+                v1.y + Math.max(0, Math.max(y21, y31)), v1.z + Math.max(0, Math.max(z21, z31)));
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * TriangleMesh.java
+ * 26/10/19
+ *
+ * University of Applied Sciences
+ * Bingen, Germany
+ *
+ * FPro Project "Jaytracer"
+ *
+ * Author:
+ * M S
+ *
+ */
+package de.fhbingen.fpro.jaytracer;
+
+import javax.vecmath.Point3d;
+import javax.vecmath.Vector3d;
+
+/**
+ * SceneObject: TriangleMesh
+ *
+ * An indexed triangle mesh. The vertex positions are stored once in a flat
+ * array and the triangles refer to them by their indices. The edge vectors
+ * of a triangle, which are needed by the intersection test, are derived from
+ * the vertices with the same double arithmetic as in {@link Triangle}, so the
+ * shared edges of neighbouring triangles stay watertight and a mesh renders
+ * exactly like the equivalent triangles.<br/>
+ * <br/>
+ * When a mesh is added to a scene, the scene adds its triangles
+ * ({@link MeshTriangle}) as individual scene objects. These are lightweight
+ * views on the mesh arrays, so a triangle needs only a fraction of the memory
+ * of a {@link Triangle}. The material of the mesh is used by all of its triangles.
+ *
+ * @author M S
+ */
+public class TriangleMesh extends SceneObject {
+
+    /** The vertex positions (x, y, z for every vertex) */
+    private double[] vertices;
+
+    /** The number of vertices */
+    private int vertexCount;
+
+    /** The vertex indices (three for every triangle) */
+    private int[] indices;
+
+    /** The number of triangles */
+    private int triangleCount;
+
+    /** The triangles of the mesh, created on first use */
+    private MeshTriangle[] triangles;
+
+    /** The mesh file, from which the mesh was read, or <code>null</code> */
+    private String file;
+
+    /**
+     * Constructs a mesh of the given vertices and triangles. The arrays are not
+     * copied. Note that the surface normal of a triangle depends on the order
+     * of its vertices.
+     * @param vertices The vertex positions (x, y, z for every vertex).
+     * @param vertexCount The number of vertices.
+     * @param indices The vertex indices (three for every triangle).
+     * @param triangleCount The number of triangles.
+     * @throws IllegalArgumentException If an index is out of range.
+     */
+    public TriangleMesh(double[] vertices, int vertexCount, int[] indices, int triangleCount) {
+        this.vertices = vertices;
+        this.vertexCount = vertexCount;
+        this.indices = indices;
+        this.triangleCount = triangleCount;
+
+        for(int i = 0; i < 3 * triangleCount; ++i) {
+            if(indices[i] < 0 || indices[i] >= vertexCount) {
+                throw new IllegalArgumentException("mesh vertex index out of range: "+indices[i]);
+            }
+        }
+
+        bounds = computeBounds();
+    }
+
+    /**
+     * Constructs a mesh with the geometry of another mesh, e.g. of a mesh file,
+     * which is used by several scenes (see {@link MeshCache}). The arrays and the
+     * bounds are shared, the material is not taken over.
+     * @param mesh
+     */
+    TriangleMesh(TriangleMesh mesh) {
+        vertices = mesh.vertices;
+        vertexCount = mesh.vertexCount;
+        indices = mesh.indices;
+        triangleCount = mesh.triangleCount;
+        file = mesh.file;
+        bounds = mesh.bounds;
+    }
+
+    /**
+     * @return the number of vertices.
+     */
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    /**
+     * @return the number of triangles.
+     */
+    public int getTriangleCount() {
+        return triangleCount;
+    }
+
+    /**
+     * @return the vertex positions (x, y, z for every vertex). The array may be
+     * longer than needed.
+     */
+    public double[] getVertices() {
+        return vertices;
+    }
+
+    /**
+     * @return the vertex indices (three for every triangle). The array may be
+     * longer than needed.
+     */
+    public int[] getIndices() {
+        return indices;
+    }
+
+    /**
+     * @return the mesh file, from which the mesh was read, or <code>null</code>.
+     */
+    public String getFile() {
+        return file;
+    }
+
+    /**
+     * @param file The mesh file, from which the mesh was read.
+     */
+    void setFile(String file) {
+        this.file = file;
+    }
+
+    /**
+     * @param index
+     * @return the triangle with the given index.
+     */
+    public MeshTriangle getTriangle(int index) {
+        return getTriangles()[index];
+    }
+
+    /**
+     * @return all triangles of the mesh.
+     */
+    public MeshTriangle[] getTriangles() {
+        if(triangles == null) {
+            MeshTriangle[] t = new MeshTriangle[triangleCount];
+            for(int i = 0; i < triangleCount; ++i) {
+                t[i] = new MeshTriangle(this, i);
+            }
+            triangles = t;
+        }
+        return triangles;
+    }
+
+    /**
+     * Calculates the nearest intersection of the ray with one of the mesh's triangles.
+     * @param ray
+     * @return the t-parameter of the nearest intersection or 0, if the mesh is not intersected.
+     */
+    public double intersect(XRay ray) {
+        double nearest = 0.0;
+        for(int i = 0; i < triangleCount; ++i) {
+            double t = intersectTriangle(i, ray);
+            if(t > Scene.EPSILON && (nearest == 0.0 || t < nearest)) {
+                nearest = t;
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Finds the triangle, on which the point lies, and returns its normal. Meshes
+     * are split into their triangles, when they are added to a scene, so the
+     * renderer uses the normals of the triangles and this searches all triangles
+     * only for a mesh, that is intersected on its own.
+     * @param pointOfIntersection A point on the mesh.
+     * @return the surface normal of the triangle, which is nearest to the point
+     * (depends on the vertex order).
+     * @throws IllegalArgumentException If the point does not lie on the mesh.
+     */
+    public Vector3d getSurfaceNormal(Point3d pointOfIntersection) {
+        int nearest = -1;
+        double nearestError = Instance.PROBE_DISTANCE / 2;
+        for(int i = 0; i < triangleCount; ++i) {
+            // a ray from a little above the point back along the normal hits the triangle after that distance
+            Vector3d normal = getTriangleNormal(i);
+            Point3d start = new Point3d(pointOfIntersection);
+            start.scaleAdd(Instance.PROBE_DISTANCE, normal, start);
+            normal.negate();
+            double error = Math.abs(intersectTriangle(i, new XRay(start, normal, null, null)) - Instance.PROBE_DISTANCE);
+            if(error < nearestError) {
+                nearestError = error;
+                nearest = i;
+            }
+        }
+        if(nearest < 0) {
+            throw new IllegalArgumentException("the point does not lie on the mesh");
+        }
+        return getTriangleNormal(nearest);
+    }
+
+    /**
+     * @param cell The cell which will be checked on intersection with this scene object.
+     * @return <code>true</code> if one of the triangles intersects the given cell.
+     */
+    public boolean intersectsCell(Cell cell) {
+        for(MeshTriangle t : getTriangles()) {
+            if(t.intersectsCell(cell)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the bounding box that contains all vertices.
+     */
+    BoundingVolume computeBounds() {
+        return computeBounds(0, vertexCount, null);
+    }
+
+    /**
+     * Computes the bounding box of some vertices.
+     * @param first The index of the first vertex (used if the indices are <code>null</code>).
+     * @param count The number of vertices.
+     * @param vertexIndices The indices of the vertices or <code>null</code>.
+     * @return the bounding box.
+     */
+    BoundingBox computeBounds(int first, int count, int[] vertexIndices) {
+        Point3d lower = new Point3d(Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
+        Vector3d upper = new Vector3d(Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY);
+        for(int i = 0; i < count; ++i) {
+            int v = 3 * (vertexIndices == null ? first + i : vertexIndices[first + i]);
+            if(vertices[v] < lower.x) lower.x = vertices[v];
+            if(vertices[v + 1] < lower.y) lower.y = vertices[v + 1];
+            if(vertices[v + 2] < lower.z) lower.z = vertices[v + 2];
+            if(vertices[v] > upper.x) upper.x = vertices[v];
+            if(vertices[v + 1] > upper.y) upper.y = vertices[v + 1];
+            if(vertices[v + 2] > upper.z) upper.z = vertices[v + 2];
+        }
+        upper.sub(lower);
+        return new BoundingBox(lower, upper);
+    }
+
+    /**
+     * Calculates the intersection of a ray with a triangle of the mesh. The
+     * computation is the same as in {@link Triangle#intersect(XRay)}, with the
+     * edges derived from the vertex buffer.
+     * @param triangle The triangle index.
+     * @param ray
+     * @return the t-parameter of the intersection or 0, if the triangle is not intersected.
+     */
+    double intersectTriangle(int triangle, XRay ray) {
+        int a = 3 * indices[3 * triangle];
+        int b = 3 * indices[3 * triangle + 1];
+        int c = 3 * indices[3 * triangle + 2];
+        double e21x = vertices[b] - vertices[a], e21y = vertices[b + 1] - vertices[a + 1], e21z = vertices[b + 2] - vertices[a + 2];
+        double e31x = vertices[c] - vertices[a], e31y = vertices[c + 1] - vertices[a + 1], e31z = vertices[c + 2] - vertices[a + 2];
+        Vector3d d = ray.getDirection();
+
+        // pvec = direction x edge31
+        double px = d.y * e31z - d.z * e31y;
+        double py = e31x * d.z - e31z * d.x;
+        double pz = d.x * e31y - d.y * e31x;
+
+        double det = e21x * px + e21y * py + e21z * pz;
+        if(det > -Scene.EPSILON && det < Scene.EPSILON) {
+            return 0.0;
+        }
+        double invDet = 1 / det;
+
+        // tvec = origin - vertex1
+        Point3d o = ray.getOrigin();
+        double tx = o.x - vertices[a];
+        double ty = o.y - vertices[a + 1];
+        double tz = o.z - vertices[a + 2];
+
+        double u = (tx * px + ty * py + tz * pz) * invDet;
+        if(u < 0 || u > 1) {
+            return 0.0;
+        }
+
+        // qvec = tvec x edge21
+        double qx = ty * e21z - tz * e21y;
+        double qy = e21x * tz - e21z * tx;
+        double qz = tx * e21y - ty * e21x;
+
+        double v = (d.x * qx + d.y * qy + d.z * qz) * invDet;
+        if(v < 0 || u + v > 1 + Scene.EPSILON) {
+            return 0.0;
+        }
+
+        return (e31x * qx + e31y * qy + e31z * qz) * invDet;
+    }
+
+    /**
+     * @param triangle The triangle index.
+     * @return the normalized surface normal of a triangle of the mesh (depends on the vertex order).
+     */
+    Vector3d getTriangleNormal(int triangle) {
+        double[] e = getTriangleEdges(triangle);
+        Vector3d normal = new Vector3d();
+        normal.cross(new Vector3d(e[0], e[1], e[2]), new Vector3d(e[3], e[4], e[5]));
+        normal.normalize();
+        return normal;
+    }
+
+    /**
+     * @param triangle The triangle index.
+     * @return a new array with the edge vectors from the first to the second and
+     * from the first to the third vertex.
+     */
+    double[] getTriangleEdges(int triangle) {
+        int a = 3 * indices[3 * triangle];
+        int b = 3 * indices[3 * triangle + 1];
+        int c = 3 * indices[3 * triangle + 2];
+        return new double[] { vertices[b] - vertices[a], vertices[b + 1] - vertices[a + 1], vertices[b + 2] - vertices[a + 2],
+                vertices[c] - vertices[a], vertices[c + 1] - vertices[a + 1], vertices[c + 2] - vertices[a + 2] };
+    }
+
+    /**
+     * @param triangle The triangle index.
+     * @param vertex The vertex of the triangle (0, 1 or 2).
+     * @return a new point with the vertex position.
+     */
+    Point3d getTriangleVertex(int triangle, int vertex) {
+        int v = 3 * indices[3 * triangle + vertex];
+        return new Point3d(vertices[v], vertices[v + 1], vertices[v + 2]);
+    }
+}
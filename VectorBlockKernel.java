@@ -0,0 +1,124 @@
+/*
+ * VectorBlockKernel.java
+ * 26/10/19
+ *
+ * University of Applied Sciences
+ * Bingen, Germany
+ *
+ * FPro Project "Jaytracer"
+ *
+ * Author:
+ * M S
+ *
+ */
+package de.fhbingen.fpro.jaytracer;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The SIMD {@link BlockKernel}, that uses the vector API of the JDK. A block
+ * is processed with the CPU's preferred vector size, that is in one step with
+ * AVX-512 and in two steps with AVX2. The lanes compute the same operations in
+ * the same order as the scalar code (no fused multiply-add), so the results are
+ * identical.<br/>
+ * <br/>
+ * This class needs the incubator module <code>jdk.incubator.vector</code> to
+ * compile and to run (<code>--add-modules jdk.incubator.vector</code>). It is
+ * only loaded by reflection (see {@link BlockKernel#getVector()}).
+ *
+ * @author M S
+ */
+final class VectorBlockKernel extends BlockKernel {
+
+    /** The vector species: the preferred one, if it divides the block size */
+    private static final VectorSpecies<Double> SPECIES =
+            PrimitiveBlock.SIZE % DoubleVector.SPECIES_PREFERRED.length() == 0
+            ? DoubleVector.SPECIES_PREFERRED : DoubleVector.SPECIES_64;
+
+    String getName() {
+        return "vector";
+    }
+
+    /**
+     * @return <code>true</code>, if the vectors have at least four lanes.
+     */
+    boolean isSupported() {
+        return SPECIES.length() >= 4;
+    }
+
+    /**
+     * @see ScalarBlockKernel#intersect(SphereBlock, double, double, double, double, double, double, double[])
+     */
+    void intersect(SphereBlock block, double ox, double oy, double oz,
+            double dx, double dy, double dz, double[] t) {
+        for(int i = 0; i < PrimitiveBlock.SIZE; i += SPECIES.length()) {
+            DoubleVector x = DoubleVector.broadcast(SPECIES, ox).sub(DoubleVector.fromArray(SPECIES, block.cx, i));
+            DoubleVector y = DoubleVector.broadcast(SPECIES, oy).sub(DoubleVector.fromArray(SPECIES, block.cy, i));
+            DoubleVector z = DoubleVector.broadcast(SPECIES, oz).sub(DoubleVector.fromArray(SPECIES, block.cz, i));
+            DoubleVector b = x.mul(dx).add(y.mul(dy)).add(z.mul(dz)).mul(2.0);
+            DoubleVector c = x.mul(x).add(y.mul(y)).add(z.mul(z))
+                    .sub(DoubleVector.fromArray(SPECIES, block.squareRadius, i));
+            DoubleVector discriminant = b.mul(b).sub(c.mul(4.0));
+            DoubleVector result = DoubleVector.broadcast(SPECIES, Double.POSITIVE_INFINITY);
+            if(!discriminant.compare(VectorOperators.GE, 0.0).anyTrue()) {
+                result.intoArray(t, i);
+                continue;
+            }
+
+            // a negative discriminant gives NaN, which fails both comparisons
+            DoubleVector root = discriminant.sqrt();
+            DoubleVector t0 = b.neg().sub(root).mul(0.5);
+            DoubleVector t1 = b.neg().add(root).mul(0.5);
+            result = result.blend(t1, t1.compare(VectorOperators.GT, Scene.EPSILON));
+            result = result.blend(t0, t0.compare(VectorOperators.GT, Scene.EPSILON));
+            result.intoArray(t, i);
+        }
+    }
+
+    /**
+     * @see ScalarBlockKernel#intersect(TriangleBlock, double, double, double, double, double, double, double[])
+     */
+    void intersect(TriangleBlock block, double ox, double oy, double oz,
+            double dx, double dy, double dz, double[] t) {
+        for(int i = 0; i < PrimitiveBlock.SIZE; i += SPECIES.length()) {
+            DoubleVector e21x = DoubleVector.fromArray(SPECIES, block.e21x, i);
+            DoubleVector e21y = DoubleVector.fromArray(SPECIES, block.e21y, i);
+            DoubleVector e21z = DoubleVector.fromArray(SPECIES, block.e21z, i);
+            DoubleVector e31x = DoubleVector.fromArray(SPECIES, block.e31x, i);
+            DoubleVector e31y = DoubleVector.fromArray(SPECIES, block.e31y, i);
+            DoubleVector e31z = DoubleVector.fromArray(SPECIES, block.e31z, i);
+
+            // pvec = direction x edge31
+            DoubleVector px = e31z.mul(dy).sub(e31y.mul(dz));
+            DoubleVector py = e31x.mul(dz).sub(e31z.mul(dx));
+            DoubleVector pz = e31y.mul(dx).sub(e31x.mul(dy));
+            DoubleVector det = e21x.mul(px).add(e21y.mul(py)).add(e21z.mul(pz));
+            DoubleVector invDet = DoubleVector.broadcast(SPECIES, 1.0).div(det);
+
+            // tvec = origin - vertex1
+            DoubleVector tx = DoubleVector.broadcast(SPECIES, ox).sub(DoubleVector.fromArray(SPECIES, block.v1x, i));
+            DoubleVector ty = DoubleVector.broadcast(SPECIES, oy).sub(DoubleVector.fromArray(SPECIES, block.v1y, i));
+            DoubleVector tz = DoubleVector.broadcast(SPECIES, oz).sub(DoubleVector.fromArray(SPECIES, block.v1z, i));
+            DoubleVector u = tx.mul(px).add(ty.mul(py)).add(tz.mul(pz)).mul(invDet);
+
+            // qvec = tvec x edge21
+            DoubleVector qx = ty.mul(e21z).sub(tz.mul(e21y));
+            DoubleVector qy = e21x.mul(tz).sub(e21z.mul(tx));
+            DoubleVector qz = tx.mul(e21y).sub(ty.mul(e21x));
+            DoubleVector v = qx.mul(dx).add(qy.mul(dy)).add(qz.mul(dz)).mul(invDet);
+            DoubleVector s = e31x.mul(qx).add(e31y.mul(qy)).add(e31z.mul(qz)).mul(invDet);
+
+            VectorMask<Double> hit = det.compare(VectorOperators.LE, -Scene.EPSILON)
+                    .or(det.compare(VectorOperators.GE, Scene.EPSILON))
+                    .and(u.compare(VectorOperators.GE, 0.0))
+                    .and(u.compare(VectorOperators.LE, 1.0))
+                    .and(v.compare(VectorOperators.GE, 0.0))
+                    .and(u.add(v).compare(VectorOperators.LE, 1 + Scene.EPSILON))
+                    .and(s.compare(VectorOperators.GT, Scene.EPSILON));
+            DoubleVector.broadcast(SPECIES, Double.POSITIVE_INFINITY).blend(s, hit).intoArray(t, i);
+        }
+    }
+}
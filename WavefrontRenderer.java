@@ -0,0 +1,335 @@
+/*
+ * WavefrontRenderer.java
+ * 26/10/19
+ *
+ * University of Applied Sciences
+ * Bingen, Germany
+ *
+ * FPro Project "Jaytracer"
+ *
+ * Author:
+ * M S
+ *
+ */
+package de.fhbingen.fpro.jaytracer;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.vecmath.Color3f;
+import javax.vecmath.Point3d;
+import javax.vecmath.Vector3d;
+
+/**
+ * Traces the rays of an image tile breadth-first, an alternative to the
+ * depth-first {@link XRay#recursiveTrace(int)}, in two passes.<br/>
+ * <br/>
+ * The visibility pass intersects all primary rays of the tile at once and
+ * stores the hits as compact records in a {@link HitBuffer}. The reflected and
+ * refracted rays form the queue of the next bounce. The queues are sorted by the
+ * grid cell of the ray origin and the octant of the ray direction, so
+ * consecutive rays traverse the same cells and objects.<br/>
+ * <br/>
+ * The shading pass collects the shadow rays of all hits of the tile in one
+ * sorted queue, shades the hit records with a {@link BatchShader} and combines
+ * the colors of the tile's ray trees from the leaves to the roots in the same
+ * order as {@link XRay#recursiveTrace(int)} does, so the images are identical.
+ * Both passes are timed separately, and the shading pass can be repeated on the
+ * same hit buffer with changed lights and materials.
+ *
+ * @author M S
+ */
+final class WavefrontRenderer {
+
+    /** The traced scene */
+    private final Scene scene;
+
+    /** The recursive depth for reflected and refracted rays */
+    private final int recursiveDepth;
+
+    /** The rays of the records during the visibility pass */
+    private XRay[] rays = new XRay[0];
+
+    /** The colors of the records: first the shaded color of the hit, then the combined color */
+    private float[] red = new float[0];
+    private float[] green = new float[0];
+    private float[] blue = new float[0];
+
+    /** The shader of the hit records */
+    private final BatchShader shader;
+
+    /** The time of both passes in nanoseconds */
+    private long visibilityTime;
+    private long shadingTime;
+
+    /** Work objects of the shading pass */
+    private final Vector3d normal = new Vector3d();
+    private final Vector3d direction = new Vector3d();
+    private final Color3f color = new Color3f();
+    private final Color3f childColor = new Color3f();
+    private final Color3f diffusePart = new Color3f();
+
+    /**
+     * Creates a wavefront renderer.
+     * @param scene The scene to trace.
+     * @param recursiveDepth The recursive depth for reflected and refracted rays.
+     */
+    WavefrontRenderer(Scene scene, int recursiveDepth) {
+        this.scene = scene;
+        this.recursiveDepth = recursiveDepth;
+        this.shader = new BatchShader(scene);
+    }
+
+    /**
+     * Traces the primary rays of a tile with both passes.
+     * @param primaryRays The primary rays.
+     * @return the color of every primary ray.
+     */
+    Color3f[] trace(XRay[] primaryRays) {
+        return shade(traceVisibility(primaryRays));
+    }
+
+    /**
+     * @return the time of the visibility passes of all tiles in nanoseconds.
+     */
+    long getVisibilityTime() {
+        return visibilityTime;
+    }
+
+    /**
+     * @return the time of the shading passes of all tiles in nanoseconds.
+     */
+    long getShadingTime() {
+        return shadingTime;
+    }
+
+    /**
+     * The visibility pass: traces the primary rays of a tile and all their reflected
+     * and refracted rays.
+     * @param primaryRays The primary rays.
+     * @return the hit records.
+     */
+    HitBuffer traceVisibility(XRay[] primaryRays) {
+        long start = System.nanoTime();
+        HitBuffer hits = new HitBuffer(primaryRays.length);
+        int[] queue = new int[primaryRays.length];
+        for(int i = 0; i < primaryRays.length; ++i) {
+            queue[i] = addRecord(hits, primaryRays[i]);
+        }
+
+        int queueLength = queue.length;
+        for(int ttl = recursiveDepth; queueLength > 0; --ttl) {
+            XRay[] queueRays = new XRay[queueLength];
+            Intersection[] intersections = new Intersection[queueLength];
+            for(int q = 0; q < queueLength; ++q) {
+                queueRays[q] = rays[queue[q]];
+            }
+            scene.getNearestIntersections(queueRays, intersections);
+
+            int[] nextQueue = new int[ttl > 0 ? 2 * queueLength : 0];
+            int nextLength = 0;
+            for(int q = 0; q < queueLength; ++q) {
+                int record = queue[q];
+                Intersection intersection = intersections[q];
+                if(intersection == null) {
+                    continue;
+                }
+                RenderStatistics.count(RenderStatistics.HITS, 1);
+                hits.setHit(record, intersection);
+                if(ttl == 0) {
+                    continue;
+                }
+                Material material = intersection.getIntersectedSceneObject().getMaterial();
+                XRay ray = rays[record];
+                ray.setIntersection(intersection);
+                if(material.getReflectionCoefficient() > 0.0) {
+                    int child = addRecord(hits, ray.generateReflectedRay());
+                    hits.setReflected(record, child);
+                    nextQueue[nextLength++] = child;
+                }
+                if(material.getTransparency() > 0.0) {
+                    int child = addRecord(hits, ray.generateRefractedRay());
+                    hits.setRefracted(record, child);
+                    nextQueue[nextLength++] = child;
+                }
+            }
+            queue = sort(nextQueue, nextLength);
+            queueLength = nextLength;
+        }
+        Arrays.fill(rays, 0, hits.size(), null);
+        visibilityTime += System.nanoTime() - start;
+        return hits;
+    }
+
+    /**
+     * The shading pass: traces the shadow rays of all hit records of a tile, shades
+     * them with the current lights and materials and combines the colors of the
+     * ray trees.
+     * @param hits The hit records of the tile.
+     * @return the color of every primary ray.
+     */
+    Color3f[] shade(HitBuffer hits) {
+        long start = System.nanoTime();
+        int count = hits.size();
+        if(red.length < count) {
+            red = new float[count];
+            green = new float[count];
+            blue = new float[count];
+        }
+        List<Light> lights = scene.getLights();
+        int lightCount = lights.size();
+
+        int[] hitRecords = new int[count];
+        int hitCount = 0;
+        for(int record = 0; record < count; ++record) {
+            if(hits.isHit(record)) {
+                hitRecords[hitCount++] = record;
+            }
+        }
+        Point3d[] points = new Point3d[hitCount];
+        for(int h = 0; h < hitCount; ++h) {
+            points[h] = new Point3d();
+            hits.getPointOfIntersection(hitRecords[h], points[h]);
+        }
+
+        // shadow ray s belongs to the hit s / lightCount and the light s % lightCount
+        XRay[] shadowRays = new XRay[hitCount * lightCount];
+        for(int h = 0; h < hitCount; ++h) {
+            for(int l = 0; l < lightCount; ++l) {
+                shadowRays[h * lightCount + l] = scene.createShadowRay(points[h], lights.get(l));
+            }
+        }
+        int[] order = sort(shadowRays);
+        XRay[] sortedRays = new XRay[shadowRays.length];
+        for(int s = 0; s < order.length; ++s) {
+            sortedRays[s] = shadowRays[order[s]];
+        }
+        Intersection[] shadowIntersections = new Intersection[sortedRays.length];
+        scene.getNearestIntersections(sortedRays, shadowIntersections);
+        boolean[] hitting = new boolean[shadowRays.length];
+        for(int s = 0; s < order.length; ++s) {
+            int h = order[s] / lightCount;
+            hitting[order[s]] = !Scene.isShadowing(shadowIntersections[s], lights.get(order[s] % lightCount), points[h]);
+        }
+
+        for(int h = 0; h < hitCount; ++h) {
+            int record = hitRecords[h];
+            hits.getSurfaceNormal(record, normal);
+            hits.getDirection(record, direction);
+            shader.shade(hits.getObject(record).getMaterial(), points[h], normal, direction,
+                    lights, hitting, h * lightCount, color);
+            setColor(record, color);
+        }
+
+        // the children are always added after their parents
+        for(int record = count - 1; record >= 0; --record) {
+            combine(hits, record);
+        }
+
+        Color3f[] result = new Color3f[hits.getPrimaryCount()];
+        for(int i = 0; i < result.length; ++i) {
+            result[i] = new Color3f(red[i], green[i], blue[i]);
+        }
+        shadingTime += System.nanoTime() - start;
+        return result;
+    }
+
+    /**
+     * Combines the shaded color of a record with the colors of its reflected and
+     * refracted ray like {@link XRay#recursiveTrace(int)}.
+     * @param hits The hit records.
+     * @param record The record, whose children are already combined.
+     */
+    private void combine(HitBuffer hits, int record) {
+        if(!hits.isHit(record)) {
+            setColor(record, scene.getBackgroundColor());
+            return;
+        }
+        color.set(red[record], green[record], blue[record]);
+        Material material = hits.getObject(record).getMaterial();
+        if(hits.getReflected(record) >= 0) {
+            add(hits.getReflected(record), material.getReflectionCoefficient(), material.getDiffuse());
+        }
+        if(hits.getRefracted(record) >= 0) {
+            add(hits.getRefracted(record), material.getTransparency(), material.getDiffuse());
+        }
+        color.clamp(0.0f, 1.0f);
+        setColor(record, color);
+    }
+
+    /**
+     * Adds the scaled color of a reflected or refracted ray and the scaled diffuse
+     * color to the work color.
+     */
+    private void add(int child, float coefficient, Color3f diffuse) {
+        childColor.set(red[child], green[child], blue[child]);
+        childColor.scale(coefficient);
+        diffusePart.set(diffuse);
+        diffusePart.scale(coefficient);
+        color.add(diffusePart);
+        color.add(childColor);
+    }
+
+    /**
+     * Sets the color of a record.
+     */
+    private void setColor(int record, Color3f c) {
+        red[record] = c.x;
+        green[record] = c.y;
+        blue[record] = c.z;
+    }
+
+    /**
+     * Adds a record for a ray.
+     * @param hits The hit records.
+     * @param ray The ray.
+     * @return the index of the record.
+     */
+    private int addRecord(HitBuffer hits, XRay ray) {
+        int record = hits.add();
+        if(record == rays.length) {
+            rays = Arrays.copyOf(rays, Math.max(64, 2 * record));
+        }
+        rays[record] = ray;
+        return record;
+    }
+
+    /**
+     * Sorts the nodes of a queue by their rays (see {@link #sort(XRay[])}).
+     * @return the sorted queue.
+     */
+    private int[] sort(int[] queue, int length) {
+        XRay[] queueRays = new XRay[length];
+        for(int q = 0; q < length; ++q) {
+            queueRays[q] = rays[queue[q]];
+        }
+        int[] order = sort(queueRays);
+        int[] sorted = new int[length];
+        for(int q = 0; q < length; ++q) {
+            sorted[q] = queue[order[q]];
+        }
+        return sorted;
+    }
+
+    /**
+     * Sorts rays by the cell of their origin and the octant of their direction.
+     * Rays with the same key keep their order.
+     * @param rays The rays.
+     * @return the indices of the rays in sorted order.
+     */
+    private int[] sort(XRay[] rays) {
+        long[] keys = new long[rays.length];
+        for(int i = 0; i < rays.length; ++i) {
+            Vector3d d = rays[i].getDirection();
+            int octant = (d.x < 0 ? 1 : 0) | (d.y < 0 ? 2 : 0) | (d.z < 0 ? 4 : 0);
+            long key = (long) scene.getCellIndex(rays[i].getOrigin()) << 3 | octant;
+            keys[i] = key << 32 | i;
+        }
+        Arrays.sort(keys);
+        int[] order = new int[rays.length];
+        for(int i = 0; i < rays.length; ++i) {
+            order[i] = (int) keys[i];
+        }
+        return order;
+    }
+}
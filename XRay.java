@@ -42,6 +42,9 @@ public class XRay {
     /** Refractionindices: top is the current medium, next is the surrounding one, and so one...*/
     private Stack<Float> refractionIndices;
     
+    /** The nearest hit of an instance, that has been found for this ray, or <code>null</code> */
+    private Instance.Hit instanceHit;
+    
     /**
      * Creates a new Ray.
      * @param origin The ray's origin.
@@ -59,13 +62,14 @@ public class XRay {
     }
     
     /**
-     * Only used when rays are reflected or refracted.
+     * Only used when rays are reflected or refracted, and for rays, which are
+     * only intersected and not traced (without refraction indices).
      * @param origin The ray's origin.
      * @param direction The ray's direction.
      * @param rtScene The tracing scene.
      * @param refractionIndices The stack of encountered media.
      */
-    private XRay(Point3d origin, Vector3d direction, Scene rtScene, Stack<Float> refractionIndices) {
+    XRay(Point3d origin, Vector3d direction, Scene rtScene, Stack<Float> refractionIndices) {
         this.origin = origin;
         direction.normalize();
         this.direction = direction;
@@ -73,6 +77,21 @@ public class XRay {
         this.refractionIndices = refractionIndices;
     }
    
+    /**
+     * @return the nearest hit of an instance, that has been found for this ray,
+     * or <code>null</code> (see {@link Instance#intersect(XRay)}).
+     */
+    Instance.Hit getInstanceHit() {
+        return instanceHit;
+    }
+    
+    /**
+     * @param instanceHit The nearest hit of an instance, that has been found for this ray.
+     */
+    void setInstanceHit(Instance.Hit instanceHit) {
+        this.instanceHit = instanceHit;
+    }
+    
     /**
      * Traces the ray through the scene and find the nearest intersection. It also traces the reflections and
      * the refractions of this ray recursively. A shader object is used to calculate the colors at the intersection
@@ -81,15 +100,26 @@ public class XRay {
      * @return the color that this ray tracing has resulted. If the ray hits no object, the background color is returned.
      */
     public Color3f recursiveTrace(int ttl) {
+        return recursiveTrace(rtScene.getNearestIntersection(this), ttl);
+    }
+    
+    /**
+     * Traces the ray like {@link #recursiveTrace(int)}, but with an already calculated
+     * nearest intersection (see {@link Scene#getNearestIntersections(XRay[], Intersection[])}).
+     * @param intersection The nearest intersection of this ray or <code>null</code>.
+     * @param ttl The recursive depth.
+     * @return the color that this ray tracing has resulted.
+     */
+    Color3f recursiveTrace(Intersection intersection, int ttl) {
     	Color3f color = new Color3f();
     	Color3f reflectedColor = new Color3f();
     	Color3f refractedColor = new Color3f();
         Shader shader;
     	
-    	rtIntersection = rtScene.getNearestIntersection(this);
+    	setIntersection(intersection);
     	
     	if (rtIntersection != null) {
-    		this.rtSceneObject = rtIntersection.getIntersectedSceneObject();
+            RenderStatistics.count(RenderStatistics.HITS, 1);
             shader = new Shader(rtScene, rtIntersection);
             color = shader.getColor();
     		
@@ -127,11 +157,23 @@ public class XRay {
     	}  	
     }
     
+    /**
+     * Sets the nearest intersection of this ray, from which the reflected and the
+     * refracted ray start.
+     * @param intersection The nearest intersection or <code>null</code>.
+     */
+    void setIntersection(Intersection intersection) {
+        rtIntersection = intersection;
+        if(intersection != null) {
+            rtSceneObject = intersection.getIntersectedSceneObject();
+        }
+    }
+    
     /**
      * Creates the reflected ray.
      * @return the reflected ray.
      */
-    private XRay generateReflectedRay() {
+    XRay generateReflectedRay() {
         // r = i - 2(n*i)n   n=surfacenormal   i=incoming direction
         Point3d reflectedRayPos = new Point3d(rtIntersection.getPointOfIntersection());
     	Vector3d reflectedRayDir = new Vector3d(this.direction); //incoming ray dir
@@ -139,6 +181,7 @@ public class XRay {
         Double dot = reflectedRayDir.dot(normal);
         normal.scale(2 * dot);
         reflectedRayDir.sub(normal);
+        RenderStatistics.count(RenderStatistics.REFLECTED_RAYS, 1);
     	
         return new XRay(reflectedRayPos, reflectedRayDir, rtScene);
     }
@@ -147,7 +190,7 @@ public class XRay {
      * Creates the refracted ray.
      * @return the refracted ray.
      */
-    private XRay generateRefractedRay() {
+    XRay generateRefractedRay() {
         //n = n1 / n2                             
         //c1 = -I.N                             
         //c2 = sqrt(1 - n * n * (1 - c1 * c1))     
@@ -188,6 +231,7 @@ public class XRay {
         T.scaleAdd(n * c1 - c2, N);
         T.negate();
         
+        RenderStatistics.count(RenderStatistics.REFRACTED_RAYS, 1);
         return new XRay(new Point3d(rtIntersection.getPointOfIntersection()), T, this.rtScene, copyRefractionIndices());
     }
     
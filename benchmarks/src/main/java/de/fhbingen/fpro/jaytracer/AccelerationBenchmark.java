@@ -0,0 +1,476 @@
+/*
+ * AccelerationBenchmark.java
+ * 26/10/19
+ *
+ * University of Applied Sciences
+ * Bingen, Germany
+ *
+ * FPro Project "Jaytracer"
+ *
+ * Author:
+ * M S
+ *
+ */
+package de.fhbingen.fpro.jaytracer;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.vecmath.Point3d;
+import javax.vecmath.Vector3d;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xml.sax.SAXException;
+
+/**
+ * Compares the acceleration structures (the linear scene and regular grids of
+ * several resolutions) on a corpus of scenes. The corpus consists of synthetic
+ * scenes with the given number of objects, which are written to a temporary
+ * xml file and loaded once per trial:
+ * <ul>
+ * <li><code>uniform</code>: spheres, which are evenly distributed in a cube,</li>
+ * <li><code>clustered</code>: small triangles in a few dense clusters,</li>
+ * <li><code>stadium</code>: a finely tessellated object in the middle of a
+ * large, sparse stadium ("teapot in a stadium"),</li>
+ * <li><code>planes</code>: spheres in a room of many planes, which no grid can
+ * contain.</li>
+ * </ul>
+ * Other values of <code>scene</code> are paths of scene files, e.g.
+ * <code>-p scene=big.xml</code>. The structure is selected by <code>cells</code>:
+ * 0 for the linear scene, otherwise a regular grid with fitted bounds and the
+ * given number of cells in each direction (<code>-G</code> option).<br/>
+ * <br/>
+ * <code>build</code> measures the time, in which the objects are added to the
+ * structure. The memory of the structure is printed by the setup as
+ * <code>retained_heap</code>: the growth of the used heap by the structure,
+ * which is measured after forced garbage collections. gc.alloc.rate.norm of
+ * the GC profiler is not the memory of the structure, it also counts the
+ * garbage of the build, e.g. the growing lists of the cells. <code>trace</code> measures the rays per microsecond (million
+ * rays per second) of three sets of rays:
+ * <ul>
+ * <li><code>primary</code>: primary rays of the scene's camera,</li>
+ * <li><code>shadow</code>: shadow rays from the hits of the primary rays to
+ * every light,</li>
+ * <li><code>incoherent</code>: rays, which leave the hits of the primary rays in
+ * random directions like diffuse reflections.</li>
+ * </ul>
+ * The rays are created with a reference grid, so every structure traces the
+ * same rays.
+ *
+ * @author M S
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class AccelerationBenchmark {
+
+    /** The synthetic scenes of the corpus */
+    static final String[] CORPUS = { "uniform", "clustered", "stadium", "planes" };
+
+    /** The number of primary rays in each direction of the viewing plane */
+    static final int RASTER = 128;
+
+    /** The number of cells in each direction of the grid, which creates the rays */
+    static final int REFERENCE_CELLS = 32;
+
+    /**
+     * A loaded scene of the corpus.
+     */
+    @State(Scope.Benchmark)
+    public static class Corpus {
+
+        /** The name of a synthetic scene or the path of a scene file */
+        @Param({ "uniform", "clustered", "stadium", "planes" })
+        public String scene;
+
+        /** The number of objects of the synthetic scenes */
+        @Param({ "20000" })
+        public int objects;
+
+        /** The loaded scene */
+        Scene source;
+
+        /** The bounds of the bounded objects */
+        BoundingBox bounds;
+
+        /**
+         * Writes the synthetic scene and loads it.
+         * @throws IOException If the scene file can't be written or read.
+         * @throws SAXException If the scene file is malformed.
+         */
+        @Setup
+        public void setUp() throws IOException, SAXException {
+            source = new Scene();
+            if(Arrays.asList(CORPUS).contains(scene)) {
+                File file = File.createTempFile("jaytracer-acceleration-"+scene, ".xml");
+                try {
+                    writeScene(scene, file, objects);
+                    source.load(file.getPath());
+                } finally {
+                    file.delete();
+                }
+            } else {
+                source.load(scene);
+            }
+            bounds = RegularGridScene.getFittedBounds(source.getSceneObjects());
+            if(bounds == null) {
+                bounds = Scene.DEFAUL_BOUNDS;
+            }
+        }
+    }
+
+    /**
+     * The scene with the compared structure.
+     */
+    @State(Scope.Benchmark)
+    public static class Structure {
+
+        /** The number of cells in each direction of the grid or 0 for the linear scene */
+        @Param({ "0", "8", "16", "32", "64" })
+        public int cells;
+
+        /** The scene with the structure */
+        Scene scene;
+
+        /**
+         * Builds the structure and prints the heap, which it retains.
+         * @param corpus The loaded scene.
+         */
+        @Setup
+        public void setUp(Corpus corpus) {
+            long before = getUsedHeap();
+            scene = build(cells, corpus);
+            long retained = Math.max(0, getUsedHeap() - before);
+            System.out.println("retained_heap: "+retained+" bytes ("+corpus.scene+", "
+                    +(cells == 0 ? "linear scene" : cells+" cells")+")");
+        }
+    }
+
+    /**
+     * A set of rays.
+     */
+    @State(Scope.Thread)
+    public static class Rays {
+
+        /** The set of rays */
+        @Param({ "primary", "shadow", "incoherent" })
+        public String rays;
+
+        /** The rays of the set */
+        XRay[] set;
+
+        /** The index of the next traced ray */
+        int next;
+
+        /**
+         * Creates the rays with a reference grid.
+         * @param corpus The loaded scene.
+         * @throws IllegalArgumentException If the set is unknown.
+         * @throws IllegalStateException If the set has no rays, e.g. shadow rays of a scene without hits.
+         */
+        @Setup
+        public void setUp(Corpus corpus) {
+            int index = Arrays.asList("primary", "shadow", "incoherent").indexOf(rays);
+            if(index < 0) {
+                throw new IllegalArgumentException("unknown rays "+rays);
+            }
+            set = createRays(build(REFERENCE_CELLS, corpus))[index];
+            if(set.length == 0) {
+                throw new IllegalStateException("no "+rays+" rays in "+corpus.scene);
+            }
+        }
+    }
+
+    /**
+     * Adds the objects of the scene to the structure.
+     * @param corpus The loaded scene.
+     * @param structure The structure.
+     * @return the scene with the structure.
+     */
+    @Benchmark
+    public Scene build(Corpus corpus, Structure structure) {
+        return build(structure.cells, corpus);
+    }
+
+    /**
+     * Traces the next ray of the set.
+     * @param structure The scene with the structure.
+     * @param rays The set of rays.
+     * @return the nearest intersection or <code>null</code>.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Intersection trace(Structure structure, Rays rays) {
+        XRay ray = rays.set[rays.next];
+        rays.next = rays.next + 1 == rays.set.length ? 0 : rays.next + 1;
+        return structure.scene.getNearestIntersection(ray);
+    }
+
+    /**
+     * Builds a structure with the camera, the lights and the objects of a scene.
+     * @param cells The number of cells in each direction of the grid or 0 for the linear scene.
+     * @param corpus The loaded scene.
+     * @return the scene with the structure.
+     */
+    static Scene build(int cells, Corpus corpus) {
+        Scene scene = cells == 0 ? new Scene()
+                : new RegularGridScene(corpus.bounds.getLower(), corpus.bounds.getSize(), cells);
+        scene.setCamera(corpus.source.getCamera());
+        for(Light light : corpus.source.getLights()) {
+            scene.addLight(light);
+        }
+        for(SceneObject sceneObject : corpus.source.getSceneObjects()) {
+            scene.addSceneObject(sceneObject);
+        }
+        if(cells > 0) {
+            // the blocks of the cells are packed on first use otherwise
+            for(Cell cell : ((RegularGridScene) scene).getCells()) {
+                cell.getBlocks();
+            }
+        }
+        return scene;
+    }
+
+    /**
+     * Collects the garbage and returns the used heap. The collection is forced
+     * several times, because a single call may not collect everything.
+     * @return the used heap in bytes.
+     */
+    static long getUsedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for(int i = 0; i < 3; ++i) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Creates the primary rays of the camera and the shadow and incoherent rays
+     * from their hits.
+     * @param scene The scene.
+     * @return the primary, shadow and incoherent rays.
+     */
+    static XRay[][] createRays(Scene scene) {
+        Camera camera = scene.getCamera();
+        ViewingPlane plane = camera.getViewingPlane();
+        Vector3d width = new Vector3d(plane.getWidthVector());
+        width.scale(plane.getWidth());
+        Vector3d height = new Vector3d(plane.getHeightVector());
+        height.scale(plane.getHeight());
+        Point3d eye = new Point3d(camera.getPosition());
+
+        Random random = new Random(42);
+        XRay[] primary = new XRay[RASTER * RASTER];
+        List<XRay> shadow = new ArrayList<XRay>();
+        List<XRay> incoherent = new ArrayList<XRay>();
+        for(int y = 0; y < RASTER; ++y) {
+            for(int x = 0; x < RASTER; ++x) {
+                Vector3d direction = new Vector3d(plane.getUpperLeftPoint());
+                direction.scaleAdd((x + 0.5) / RASTER, width, direction);
+                direction.scaleAdd((y + 0.5) / RASTER, height, direction);
+                direction.sub(eye);
+                XRay ray = new XRay(eye, direction, scene);
+                primary[x + y * RASTER] = ray;
+
+                Intersection intersection = scene.getNearestIntersection(ray);
+                if(intersection == null) {
+                    continue;
+                }
+                Point3d point = intersection.getPointOfIntersection();
+                for(Light light : scene.getLights()) {
+                    shadow.add(scene.createShadowRay(point, light));
+                }
+                // a random direction on the side of the surface, from which the ray came
+                Vector3d normal = new Vector3d(intersection.getSurfaceNormal());
+                if(normal.dot(direction) > 0) {
+                    normal.negate();
+                }
+                Vector3d bounce = new Vector3d(random.nextGaussian(), random.nextGaussian(), random.nextGaussian());
+                if(bounce.dot(normal) < 0) {
+                    bounce.negate();
+                }
+                incoherent.add(new XRay(point, bounce, scene));
+            }
+        }
+        return new XRay[][] { primary, shadow.toArray(new XRay[shadow.size()]), incoherent.toArray(new XRay[incoherent.size()]) };
+    }
+
+    /**
+     * Writes a synthetic scene of the corpus as xml file.
+     * @param name The name of the scene, see {@link #CORPUS}.
+     * @param file The target file.
+     * @param objects The number of objects.
+     */
+    static void writeScene(String name, File file, int objects) throws IOException {
+        Random random = new Random(42);
+        BufferedWriter out = new BufferedWriter(new FileWriter(file), 1 << 16);
+        try {
+            out.write("<?xml version=\"1.0\"?>\n");
+            out.write("<scene backgroundcolor=\"0.1,0.1,0.2\">\n");
+            if(name.equals("stadium")) {
+                writeStadium(out, objects, random);
+            } else if(name.equals("clustered")) {
+                writeClusters(out, objects, random);
+            } else if(name.equals("planes")) {
+                writeRoom(out, objects, random);
+            } else {
+                writeHeader(out, "0,0,-90", "0,0,1", "10,30,-30", "-30,20,-20");
+                for(int i = 0; i < objects; ++i) {
+                    writeSphere(out, uniform(random, -45, 45), uniform(random, -45, 45), uniform(random, -45, 45),
+                            uniform(random, 0.3, 1));
+                }
+            }
+            out.write("</scene>\n");
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Writes triangles of about a hundredth of the cube's size in 16 clusters.
+     */
+    private static void writeClusters(BufferedWriter out, int objects, Random random) throws IOException {
+        writeHeader(out, "0,0,-90", "0,0,1", "10,30,-30", "-30,20,-20");
+        double[][] centers = new double[16][];
+        for(int c = 0; c < centers.length; ++c) {
+            centers[c] = new double[] { uniform(random, -40, 40), uniform(random, -40, 40), uniform(random, -40, 40) };
+        }
+        for(int i = 0; i < objects; ++i) {
+            double[] center = centers[i % centers.length];
+            double[] a = new double[3];
+            for(int k = 0; k < 3; ++k) {
+                a[k] = center[k] + random.nextGaussian() * 2;
+            }
+            writeTriangle(out, a, offset(a, random, 0.8), offset(a, random, 0.8));
+        }
+    }
+
+    /**
+     * Writes a tessellated ball of radius 1 on a ground, which is 1000 units
+     * wide, and the stands of a stadium with a radius of 300 to 500 units. The
+     * ball gets nine tenths of the triangles.
+     */
+    private static void writeStadium(BufferedWriter out, int objects, Random random) throws IOException {
+        writeHeader(out, "0,1,-6", "0,-0.2,1", "50,100,-50", "-80,60,30");
+        // the ball: a latitude longitude mesh with 2 * rings * 2 * rings triangles
+        int rings = Math.max(2, (int) Math.sqrt(objects * 0.9 / 4));
+        int segments = 2 * rings;
+        for(int r = 0; r < rings; ++r) {
+            for(int s = 0; s < segments; ++s) {
+                double[] a = ballPoint(r, s, rings, segments);
+                double[] b = ballPoint(r + 1, s, rings, segments);
+                double[] c = ballPoint(r + 1, s + 1, rings, segments);
+                double[] d = ballPoint(r, s + 1, rings, segments);
+                writeTriangle(out, a, b, c);
+                writeTriangle(out, a, c, d);
+            }
+        }
+        writeTriangle(out, new double[] { -500, -1, -500 }, new double[] { 500, -1, -500 }, new double[] { 500, -1, 500 });
+        writeTriangle(out, new double[] { -500, -1, -500 }, new double[] { 500, -1, 500 }, new double[] { -500, -1, 500 });
+        // the stands: a ring of quads, which rise from the inner to the outer radius
+        int stands = Math.max(3, (objects - 4 * rings * rings - 2) / 2);
+        for(int i = 0; i < stands; ++i) {
+            double a0 = 2 * Math.PI * i / stands;
+            double a1 = 2 * Math.PI * (i + 1) / stands;
+            double[] innerA = { 300 * Math.cos(a0), 0, 300 * Math.sin(a0) };
+            double[] innerB = { 300 * Math.cos(a1), 0, 300 * Math.sin(a1) };
+            double[] outerA = { 500 * Math.cos(a0), 150, 500 * Math.sin(a0) };
+            double[] outerB = { 500 * Math.cos(a1), 150, 500 * Math.sin(a1) };
+            writeTriangle(out, innerA, outerA, outerB);
+            writeTriangle(out, innerA, outerB, innerB);
+        }
+    }
+
+    /**
+     * @return a point of the ball, which stands on the ground.
+     */
+    private static double[] ballPoint(int ring, int segment, int rings, int segments) {
+        double theta = Math.PI * ring / rings;
+        double phi = 2 * Math.PI * segment / segments;
+        return new double[] { Math.sin(theta) * Math.cos(phi), Math.cos(theta), Math.sin(theta) * Math.sin(phi) };
+    }
+
+    /**
+     * Writes a room of planes, which touch a sphere with a radius of 60 to 70
+     * units from the inside, and fills it with spheres. Every hundredth object
+     * is a plane, at least 8 and at most 200.
+     */
+    private static void writeRoom(BufferedWriter out, int objects, Random random) throws IOException {
+        writeHeader(out, "0,0,-45", "0,0,1", "10,30,-30", "-30,20,-20");
+        int planes = Math.max(8, Math.min(200, objects / 100));
+        for(int i = 0; i < planes; ++i) {
+            Vector3d normal = new Vector3d(random.nextGaussian(), random.nextGaussian(), random.nextGaussian());
+            normal.normalize();
+            double distance = uniform(random, 60, 70);
+            out.write(String.format(Locale.US, "<plane point=\"%.4f,%.4f,%.4f\" normal=\"%.4f,%.4f,%.4f\">",
+                    normal.x * distance, normal.y * distance, normal.z * distance, -normal.x, -normal.y, -normal.z));
+            out.write("<material ambient=\"0.2,0.2,0.2\" diffuse=\"0.6,0.6,0.6\" specular=\"0,0,0\"/></plane>\n");
+        }
+        for(int i = planes; i < objects; ++i) {
+            writeSphere(out, uniform(random, -40, 40), uniform(random, -40, 40), uniform(random, -40, 40),
+                    uniform(random, 0.3, 1));
+        }
+    }
+
+    /**
+     * Writes the camera and two lights.
+     */
+    private static void writeHeader(BufferedWriter out, String position, String direction, String light1, String light2) throws IOException {
+        out.write("<camera position=\""+position+"\" direction=\""+direction+"\" up=\"0,1,0\" aspect=\"1\" vfov=\"60\" viewingplanedistance=\"1\"/>\n");
+        out.write("<light position=\""+light1+"\" ambient=\"0.2,0.2,0.2\" diffuse=\"1,1,1\" specular=\"1,1,1\" intensity=\"60\"/>\n");
+        out.write("<light position=\""+light2+"\" ambient=\"0.1,0.1,0.1\" diffuse=\"0.6,0.6,0.8\" specular=\"0.5,0.5,0.5\" intensity=\"40\"/>\n");
+    }
+
+    /**
+     * Writes a sphere.
+     */
+    private static void writeSphere(BufferedWriter out, double x, double y, double z, double radius) throws IOException {
+        out.write(String.format(Locale.US, "<sphere position=\"%.4f,%.4f,%.4f\" radius=\"%.3f\">", x, y, z, radius));
+        out.write("<material ambient=\"0.2,0.1,0.1\" diffuse=\"0.7,0.3,0.2\" specular=\"1,1,1\" shininess=\"30\"/></sphere>\n");
+    }
+
+    /**
+     * Writes a triangle.
+     */
+    private static void writeTriangle(BufferedWriter out, double[] a, double[] b, double[] c) throws IOException {
+        out.write(String.format(Locale.US, "<triangle vertex1=\"%.4f,%.4f,%.4f\" vertex2=\"%.4f,%.4f,%.4f\" vertex3=\"%.4f,%.4f,%.4f\">",
+                a[0], a[1], a[2], b[0], b[1], b[2], c[0], c[1], c[2]));
+        out.write("<material ambient=\"0.1,0.2,0.1\" diffuse=\"0.2,0.7,0.3\" specular=\"0.5,0.5,0.5\"/></triangle>\n");
+    }
+
+    /**
+     * @return a point, which is moved randomly by up to the given distance in each direction.
+     */
+    private static double[] offset(double[] point, Random random, double distance) {
+        return new double[] { point[0] + uniform(random, -distance, distance),
+                point[1] + uniform(random, -distance, distance), point[2] + uniform(random, -distance, distance) };
+    }
+
+    /**
+     * @return a uniformly distributed random number from a to b.
+     */
+    private static double uniform(Random random, double a, double b) {
+        return a + (b - a) * random.nextDouble();
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * BenchmarkRunner.java
+ * 26/10/19
+ *
+ * University of Applied Sciences
+ * Bingen, Germany
+ *
+ * FPro Project "Jaytracer"
+ *
+ * Author:
+ * M S
+ *
+ */
+package de.fhbingen.fpro.jaytracer;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the JMH command line options and adds the GC
+ * profiler, which reports the allocation rate per operation
+ * (gc.alloc.rate.norm), and the JSON output to jmh-result.json, so the results
+ * of two builds can be compared by a script.<br/>
+ * <br/>
+ * <code>java -jar benchmarks.jar [JMH options] [benchmark regexps]</code><br/>
+ * e.g. <code>java -jar benchmarks.jar -p primitive=sphere,box Intersection</code>
+ *
+ * @author M S
+ */
+public final class BenchmarkRunner {
+
+    /** The default file of the results */
+    static final String RESULT_FILE = "jmh-result.json";
+
+    /**
+     * Only the main method.
+     */
+    private BenchmarkRunner() {
+    }
+
+    /**
+     * Runs the benchmarks.
+     * @param args The JMH command line options, -rf and -rff override the JSON output.
+     * @throws CommandLineOptionException If the options are invalid.
+     * @throws RunnerException If a benchmark fails.
+     * @throws IOException If the help can't be printed.
+     */
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException, IOException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        OptionsBuilder builder = new OptionsBuilder();
+        builder.parent(commandLine);
+        builder.addProfiler(GCProfiler.class);
+        if(!commandLine.getResultFormat().hasValue()) {
+            builder.resultFormat(ResultFormatType.JSON);
+        }
+        if(!commandLine.getResult().hasValue()) {
+            builder.result(RESULT_FILE);
+        }
+        Runner runner = new Runner(builder.build());
+        if(commandLine.shouldHelp()) {
+            commandLine.showHelp();
+        } else if(commandLine.shouldList()) {
+            runner.list();
+        } else {
+            runner.run();
+        }
+    }
+}
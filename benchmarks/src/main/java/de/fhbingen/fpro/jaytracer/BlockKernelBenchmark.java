@@ -0,0 +1,170 @@
+/*
+ * BlockKernelBenchmark.java
+ * 26/10/19
+ *
+ * University of Applied Sciences
+ * Bingen, Germany
+ *
+ * FPro Project "Jaytracer"
+ *
+ * Author:
+ * M S
+ *
+ */
+package de.fhbingen.fpro.jaytracer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.vecmath.Point3d;
+import javax.vecmath.Vector3d;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the intersection tests of single objects with the scalar and the
+ * vector {@link BlockKernel}:
+ * <ul>
+ * <li><code>object</code>: the objects are intersected one by one with
+ * {@link SceneObject#intersect(XRay)},</li>
+ * <li><code>scalar</code>, <code>vector</code>: the objects are packed into a
+ * {@link PrimitiveBlockList} with the kernel and intersected block by block.</li>
+ * </ul>
+ * Random rays are intersected with random spheres or triangles in a unit cube.
+ * The setup checks, that every kernel finds the same nearest hits as the
+ * objects. The time is per ray, the tests per second are the number of objects
+ * divided by it.
+ *
+ * @author M S
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class BlockKernelBenchmark {
+
+    /** The number of rays */
+    static final int RAYS = 1024;
+
+    /** The primitive */
+    @Param({ "sphere", "triangle" })
+    public String primitive;
+
+    /** The kernel or <code>object</code> for the single objects */
+    @Param({ "object", "scalar", "vector" })
+    public String kernel;
+
+    /** The number of objects */
+    @Param({ "4096" })
+    public int objects;
+
+    /** The objects */
+    private List<SceneObject> sceneObjects;
+
+    /** The blocks of the kernel or <code>null</code> for the single objects */
+    private PrimitiveBlockList blocks;
+
+    /** The rays */
+    private XRay[] rays;
+
+    /** Gets the t-parameter of the nearest hit */
+    private double[] t = new double[PrimitiveBlock.SIZE];
+
+    /**
+     * Creates the objects, the rays and the blocks and checks, that the blocks
+     * find the same hits as the objects.
+     * @throws IllegalStateException If the kernel is not available or finds other hits.
+     */
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        rays = new XRay[RAYS];
+        for(int i = 0; i < RAYS; ++i) {
+            Point3d origin = new Point3d(random.nextDouble(), random.nextDouble(), -1);
+            Vector3d direction = new Vector3d(random.nextDouble() - 0.5, random.nextDouble() - 0.5, 2);
+            rays[i] = new XRay(origin, direction, null);
+        }
+        sceneObjects = new ArrayList<SceneObject>();
+        for(int i = 0; i < objects; ++i) {
+            Point3d p = new Point3d(random.nextDouble(), random.nextDouble(), random.nextDouble());
+            if(primitive.equals("sphere")) {
+                sceneObjects.add(new Sphere(p, 0.01 + 0.02 * random.nextDouble()));
+            } else {
+                sceneObjects.add(new Triangle(p,
+                        new Point3d(p.x + 0.05 * random.nextDouble(), p.y + 0.05 * random.nextDouble(), p.z),
+                        new Point3d(p.x, p.y + 0.05 * random.nextDouble(), p.z + 0.05 * random.nextDouble())));
+            }
+        }
+
+        if(kernel.equals("object")) {
+            return;
+        }
+        BlockKernel blockKernel = kernel.equals("vector") ? BlockKernel.getVector() : BlockKernel.getScalar();
+        if(blockKernel == null) {
+            throw new IllegalStateException("the "+kernel+" kernel is not available");
+        }
+        blocks = new PrimitiveBlockList(sceneObjects, blockKernel);
+        for(XRay ray : rays) {
+            double expected = intersectObjects(ray);
+            double actual = intersectBlocks(ray);
+            if(expected != actual) {
+                throw new IllegalStateException("the "+kernel+" kernel finds "+actual+" instead of "+expected);
+            }
+        }
+    }
+
+    /**
+     * Intersects all rays with the objects.
+     * @param blackhole Consumes the t-parameters of the nearest hits.
+     */
+    @Benchmark
+    @OperationsPerInvocation(RAYS)
+    public void intersect(Blackhole blackhole) {
+        if(blocks == null) {
+            for(XRay ray : rays) {
+                blackhole.consume(intersectObjects(ray));
+            }
+        } else {
+            for(XRay ray : rays) {
+                blackhole.consume(intersectBlocks(ray));
+            }
+        }
+    }
+
+    /**
+     * @return the nearest t-parameter of the objects or infinity.
+     */
+    private double intersectObjects(XRay ray) {
+        double nearest = Double.POSITIVE_INFINITY;
+        for(SceneObject s : sceneObjects) {
+            double t = s.intersect(ray);
+            if(t > Scene.EPSILON && t < nearest) {
+                nearest = t;
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * @return the nearest t-parameter of the blocks or infinity.
+     */
+    private double intersectBlocks(XRay ray) {
+        return blocks.getNearestObject(ray, t) != null ? t[0] : Double.POSITIVE_INFINITY;
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * IntersectionBenchmark.java
+ * 26/10/19
+ *
+ * University of Applied Sciences
+ * Bingen, Germany
+ *
+ * FPro Project "Jaytracer"
+ *
+ * Author:
+ * M S
+ *
+ */
+package de.fhbingen.fpro.jaytracer;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.vecmath.Point3d;
+import javax.vecmath.Vector3d;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the intersection test of a single primitive
+ * ({@link SceneObject#intersect(XRay)}) with three ray distributions:
+ * <ul>
+ * <li><code>hit</code>: the rays hit the primitive,</li>
+ * <li><code>miss</code>: the rays pass the primitive at a distance,</li>
+ * <li><code>grazing</code>: the rays pass the silhouette (the edges of the
+ * triangle and the box) within 1% of the primitive's size or, for the plane,
+ * are almost parallel to it, so about half of them hit.</li>
+ * </ul>
+ * The primitives lie around the origin with a size of 2, the rays come from
+ * z = 5. The time is per ray.
+ *
+ * @author M S
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class IntersectionBenchmark {
+
+    /** The number of rays of a distribution */
+    static final int RAYS = 1024;
+
+    /** The primitive */
+    @Param({ "sphere", "triangle", "box", "plane" })
+    public String primitive;
+
+    /** The ray distribution */
+    @Param({ "hit", "miss", "grazing" })
+    public String distribution;
+
+    /** The primitive */
+    private SceneObject object;
+
+    /** The rays */
+    private XRay[] rays;
+
+    /**
+     * Creates the primitive and the rays and checks, that the rays hit as expected.
+     * @throws IllegalStateException If the rays don't match the distribution.
+     */
+    @Setup
+    public void setUp() {
+        object = createPrimitive(primitive);
+        object.setMaterial(new Material());
+        Random random = new Random(42);
+        Scene scene = new Scene();
+        rays = new XRay[RAYS];
+        int hits = 0;
+        for(int i = 0; i < RAYS; ++i) {
+            rays[i] = createRay(random, scene);
+            double t = object.intersect(rays[i]);
+            // a miss is a t-parameter below epsilon or infinity
+            if(t > Scene.EPSILON && t < Double.POSITIVE_INFINITY) {
+                hits++;
+            }
+        }
+        boolean expected = distribution.equals("hit") ? hits == RAYS
+                : distribution.equals("miss") ? hits == 0 : hits > 0 && hits < RAYS;
+        if(!expected) {
+            throw new IllegalStateException(hits+" of "+RAYS+" "+distribution+" rays hit the "+primitive);
+        }
+    }
+
+    /**
+     * Intersects all rays with the primitive.
+     * @param blackhole Consumes the t-parameters.
+     */
+    @Benchmark
+    @OperationsPerInvocation(RAYS)
+    public void intersect(Blackhole blackhole) {
+        for(XRay ray : rays) {
+            blackhole.consume(object.intersect(ray));
+        }
+    }
+
+    /**
+     * @return the primitive of the given name.
+     */
+    static SceneObject createPrimitive(String name) {
+        if(name.equals("sphere")) {
+            return new Sphere(new Point3d(0, 0, 0), 1);
+        } else if(name.equals("triangle")) {
+            return new Triangle(new Point3d(-1, -1, 0), new Point3d(1, -1, 0), new Point3d(0, 1, 0));
+        } else if(name.equals("box")) {
+            return new Box(new Point3d(-1, -1, -1), new Vector3d(2, 2, 2));
+        } else if(name.equals("plane")) {
+            return new Plane(new Point3d(0, 0, 0), new Vector3d(0, 0, 1));
+        }
+        throw new IllegalArgumentException("unknown primitive "+name);
+    }
+
+    /**
+     * Creates a ray of the distribution.
+     */
+    private XRay createRay(Random random, Scene scene) {
+        if(primitive.equals("plane")) {
+            // the rays start above the plane and go down, up or almost parallel to it
+            Point3d origin = new Point3d(uniform(random, -1, 1), uniform(random, -1, 1), 5);
+            double dz = distribution.equals("hit") ? -1 : distribution.equals("miss") ? 1 : uniform(random, -1e-3, 1e-3);
+            if(distribution.equals("grazing")) {
+                origin.z = 1e-3;
+            }
+            return new XRay(origin, new Vector3d(uniform(random, -1, 1), uniform(random, -1, 1), dz), scene);
+        }
+        // the rays go down the z axis through a point of the xy plane
+        double x, y;
+        if(distribution.equals("hit")) {
+            double[] p = getInnerPoint(random);
+            x = p[0];
+            y = p[1];
+        } else if(distribution.equals("miss")) {
+            double angle = uniform(random, 0, 2 * Math.PI);
+            double radius = uniform(random, 2, 4);
+            x = radius * Math.cos(angle);
+            y = radius * Math.sin(angle);
+        } else {
+            double[] p = getSilhouettePoint(random);
+            x = p[0] + uniform(random, -0.02, 0.02);
+            y = p[1] + uniform(random, -0.02, 0.02);
+        }
+        return new XRay(new Point3d(x, y, 5), new Vector3d(0, 0, -1), scene);
+    }
+
+    /**
+     * @return a point of the xy plane well inside the primitive's silhouette.
+     */
+    private double[] getInnerPoint(Random random) {
+        if(primitive.equals("triangle")) {
+            double a = uniform(random, 0.05, 0.9);
+            double b = uniform(random, 0.05, 0.9 - a);
+            // a and b are barycentric coordinates of the second and the third vertex
+            return new double[] { -1 + 2 * a + b, -1 + 2 * b };
+        }
+        double angle = uniform(random, 0, 2 * Math.PI);
+        double radius = uniform(random, 0, 0.9);
+        return new double[] { radius * Math.cos(angle), radius * Math.sin(angle) };
+    }
+
+    /**
+     * @return a point of the primitive's silhouette in the xy plane.
+     */
+    private double[] getSilhouettePoint(Random random) {
+        double s = uniform(random, 0, 1);
+        if(primitive.equals("sphere")) {
+            double angle = s * 2 * Math.PI;
+            return new double[] { Math.cos(angle), Math.sin(angle) };
+        } else if(primitive.equals("triangle")) {
+            double[][] v = { { -1, -1 }, { 1, -1 }, { 0, 1 } };
+            int edge = random.nextInt(3);
+            double[] a = v[edge];
+            double[] b = v[(edge + 1) % 3];
+            return new double[] { a[0] + (b[0] - a[0]) * s, a[1] + (b[1] - a[1]) * s };
+        }
+        // an edge of the box's square silhouette
+        double t = -1 + 2 * s;
+        double side = random.nextBoolean() ? 1 : -1;
+        return random.nextBoolean() ? new double[] { side, t } : new double[] { t, side };
+    }
+
+    /**
+     * @return a uniformly distributed random number from a to b.
+     */
+    private static double uniform(Random random, double a, double b) {
+        return a + (b - a) * random.nextDouble();
+    }
+}
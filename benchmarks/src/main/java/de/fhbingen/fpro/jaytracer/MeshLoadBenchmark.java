@@ -0,0 +1,178 @@
+/*
+ * MeshLoadBenchmark.java
+ * 26/10/19
+ *
+ * University of Applied Sciences
+ * Bingen, Germany
+ *
+ * FPro Project "Jaytracer"
+ *
+ * Author:
+ * M S
+ *
+ */
+package de.fhbingen.fpro.jaytracer;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the load time of the mesh file readers. A height field with the
+ * given number of triangles is written as OBJ file and as binary PLY file
+ * (little endian, float coordinates) in a temporary directory and the file of
+ * the format is read. The time is per load, the throughput in triangles per
+ * second is the number of triangles divided by it.
+ *
+ * @author M S
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class MeshLoadBenchmark {
+
+    /** The number of triangles */
+    @Param({ "1000000" })
+    public int triangles;
+
+    /** The format */
+    @Param({ "obj", "ply" })
+    public String format;
+
+    /** The temporary directory of the files */
+    private File directory;
+
+    /** The loaded file */
+    private File file;
+
+    /**
+     * Writes the mesh files.
+     * @throws IOException If the files can't be written.
+     * @throws IllegalArgumentException If the format is unknown.
+     */
+    @Setup
+    public void setUp() throws IOException {
+        if(!format.equals("obj") && !format.equals("ply")) {
+            throw new IllegalArgumentException("unknown format "+format);
+        }
+        directory = Files.createTempDirectory("jaytracer-benchmark").toFile();
+        int width = (int) Math.ceil(Math.sqrt(triangles / 2.0));
+        File obj = new File(directory, "mesh-"+width+".obj");
+        File ply = new File(directory, "mesh-"+width+".ply");
+        writeMeshes(obj, ply, width);
+        file = format.equals("obj") ? obj : ply;
+    }
+
+    /**
+     * Deletes the files.
+     */
+    @TearDown
+    public void tearDown() {
+        for(File f : directory.listFiles()) {
+            f.delete();
+        }
+        directory.delete();
+    }
+
+    /**
+     * Reads the file.
+     * @return the mesh.
+     * @throws IOException If the file can't be read.
+     * @throws SceneFileException If the file is malformed.
+     */
+    @Benchmark
+    public TriangleMesh load() throws IOException, SceneFileException {
+        return MeshFileReader.load(file.getPath());
+    }
+
+    /**
+     * Writes a regular height field with two triangles per cell. The OBJ file
+     * uses quads, which are split by the reader, the PLY file uses triangles.
+     * @param obj The OBJ file.
+     * @param ply The PLY file.
+     * @param width The number of cells per side.
+     */
+    static void writeMeshes(File obj, File ply, int width) throws IOException {
+        Random random = new Random(42);
+        int side = width + 1;
+        float[] vertices = new float[3 * side * side];
+        double step = 90.0 / width;
+        for(int z = 0; z < side; ++z) {
+            for(int x = 0; x < side; ++x) {
+                int v = 3 * (x + z * side);
+                vertices[v] = (float) (x * step - 45);
+                vertices[v + 1] = (float) (random.nextDouble() * 2 - 1);
+                vertices[v + 2] = (float) (z * step - 45);
+            }
+        }
+
+        BufferedWriter out = new BufferedWriter(new FileWriter(obj), 1 << 16);
+        try {
+            out.write("# jaytracer benchmark height field\n");
+            for(int v = 0; v < vertices.length; v += 3) {
+                out.write(String.format(Locale.US, "v %.4f %.4f %.4f\n", vertices[v], vertices[v + 1], vertices[v + 2]));
+            }
+            for(int z = 0; z < width; ++z) {
+                for(int x = 0; x < width; ++x) {
+                    int v = x + z * side + 1;
+                    out.write("f "+v+" "+(v + side)+" "+(v + side + 1)+" "+(v + 1)+"\n");
+                }
+            }
+        } finally {
+            out.close();
+        }
+
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(ply), 1 << 16));
+        try {
+            data.writeBytes("ply\nformat binary_little_endian 1.0\ncomment jaytracer benchmark height field\n"
+                    +"element vertex "+side * side+"\nproperty float x\nproperty float y\nproperty float z\n"
+                    +"element face "+2 * width * width+"\nproperty list uchar int vertex_indices\nend_header\n");
+            for(int v = 0; v < vertices.length; ++v) {
+                data.writeInt(Integer.reverseBytes(Float.floatToIntBits(vertices[v])));
+            }
+            for(int z = 0; z < width; ++z) {
+                for(int x = 0; x < width; ++x) {
+                    int v = x + z * side;
+                    writeFace(data, v, v + side, v + side + 1);
+                    writeFace(data, v, v + side + 1, v + 1);
+                }
+            }
+        } finally {
+            data.close();
+        }
+    }
+
+    /**
+     * Writes a little endian triangle of the PLY file.
+     */
+    private static void writeFace(DataOutputStream data, int a, int b, int c) throws IOException {
+        data.writeByte(3);
+        data.writeInt(Integer.reverseBytes(a));
+        data.writeInt(Integer.reverseBytes(b));
+        data.writeInt(Integer.reverseBytes(c));
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * SceneLoadBenchmark.java
+ * 26/10/19
+ *
+ * University of Applied Sciences
+ * Bingen, Germany
+ *
+ * FPro Project "Jaytracer"
+ *
+ * Author:
+ * M S
+ *
+ */
+package de.fhbingen.fpro.jaytracer;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xml.sax.SAXException;
+
+/**
+ * Measures the load time of the scene file formats:
+ * <ul>
+ * <li><code>xml</code>: the xml file with one thread,</li>
+ * <li><code>xml-parallel</code>: the xml file with the given number of threads,</li>
+ * <li><code>binary</code>: the binary scene file.</li>
+ * </ul>
+ * A synthetic scene with the given number of objects (mostly triangles, which
+ * share their vertices like in a mesh) is written as xml file and converted
+ * into a binary scene file in a temporary directory. The files are loaded into
+ * a linear scene. The time is per load, the throughput in objects per second is
+ * the number of objects divided by it.
+ *
+ * @author M S
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class SceneLoadBenchmark {
+
+    /** The number of objects */
+    @Param({ "100000" })
+    public int objects;
+
+    /** The format */
+    @Param({ "xml", "xml-parallel", "binary" })
+    public String format;
+
+    /** The number of threads of the <code>xml-parallel</code> format */
+    @Param({ "4" })
+    public int threads;
+
+    /** The temporary directory of the files */
+    private File directory;
+
+    /** The loaded file */
+    private File file;
+
+    /** The number of threads, that load the file */
+    private int loadThreads;
+
+    /**
+     * Writes the scene file of the format.
+     * @throws IOException If the file can't be written.
+     * @throws SAXException If the xml file can't be converted.
+     * @throws IllegalArgumentException If the format is unknown.
+     */
+    @Setup
+    public void setUp() throws IOException, SAXException {
+        directory = Files.createTempDirectory("jaytracer-benchmark").toFile();
+        File xml = new File(directory, "scene-"+objects+".xml");
+        writeScene(xml, objects);
+        file = xml;
+        loadThreads = 1;
+        if(format.equals("xml-parallel")) {
+            loadThreads = threads;
+        } else if(format.equals("binary")) {
+            file = new File(directory, "scene-"+objects+".jtsb");
+            SceneFileConverter.convert(xml.getPath(), file.getPath());
+        } else if(!format.equals("xml")) {
+            throw new IllegalArgumentException("unknown format "+format);
+        }
+    }
+
+    /**
+     * Deletes the files.
+     */
+    @TearDown
+    public void tearDown() {
+        for(File f : directory.listFiles()) {
+            f.delete();
+        }
+        directory.delete();
+    }
+
+    /**
+     * Loads the file.
+     * @return the scene.
+     * @throws IOException If the file can't be read.
+     * @throws SAXException If the file is malformed.
+     */
+    @Benchmark
+    public Scene load() throws IOException, SAXException {
+        Scene scene = new Scene();
+        scene.load(file.getPath(), loadThreads);
+        return scene;
+    }
+
+    /**
+     * Writes a synthetic xml scene file. Every tenth object is a sphere, the other
+     * objects are triangles of a regular height field.
+     * @param file The target file.
+     * @param objects The number of objects.
+     */
+    static void writeScene(File file, int objects) throws IOException {
+        Random random = new Random(42);
+        int width = (int) Math.ceil(Math.sqrt(objects / 2.0)) + 1;
+        double[] height = new double[(width + 1) * (width + 1)];
+        for(int i = 0; i < height.length; ++i) {
+            height[i] = random.nextDouble() * 2 - 1;
+        }
+        double step = 90.0 / width;
+
+        BufferedWriter out = new BufferedWriter(new FileWriter(file), 1 << 16);
+        try {
+            out.write("<?xml version=\"1.0\"?>\n");
+            out.write("<scene backgroundcolor=\"0.1,0.1,0.2\">\n");
+            out.write("<camera position=\"0,40,-80\" direction=\"0,-0.5,1\" up=\"0,1,0\" aspect=\"1\" vfov=\"60\" viewingplanedistance=\"1\"/>\n");
+            out.write("<light position=\"10,40,-40\" ambient=\"0.2,0.2,0.2\" diffuse=\"1,1,1\" specular=\"1,1,1\" intensity=\"60\"/>\n");
+            int cell = 0;
+            for(int i = 0; i < objects; ++i) {
+                if(i % 10 == 0) {
+                    out.write(String.format(Locale.US, "<sphere position=\"%.4f,%.4f,%.4f\" radius=\"%.3f\">",
+                            random.nextDouble() * 90 - 45, random.nextDouble() * 10 + 2, random.nextDouble() * 90 - 45,
+                            random.nextDouble() + 0.2));
+                    out.write("<material ambient=\"0.2,0.1,0.1\" diffuse=\"0.7,0.3,0.2\" specular=\"1,1,1\" shininess=\"30\"/></sphere>\n");
+                    continue;
+                }
+                int x = (cell / 2) % width;
+                int z = (cell / 2) / width % width;
+                boolean upper = cell % 2 == 1;
+                cell++;
+                out.write("<triangle");
+                writeVertex(out, " vertex1", x, z, step, height, width);
+                writeVertex(out, " vertex2", upper ? x + 1 : x, upper ? z : z + 1, step, height, width);
+                writeVertex(out, " vertex3", x + 1, z + 1, step, height, width);
+                out.write("><material ambient=\"0.1,0.2,0.1\" diffuse=\"0.2,0.7,0.3\" specular=\"0.5,0.5,0.5\"/></triangle>\n");
+            }
+            out.write("</scene>\n");
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Writes a vertex attribute of the height field.
+     */
+    private static void writeVertex(BufferedWriter out, String name, int x, int z, double step, double[] height, int width) throws IOException {
+        out.write(String.format(Locale.US, "%s=\"%.4f,%.4f,%.4f\"", name,
+                x * step - 45, height[x + z * (width + 1)], z * step - 45));
+    }
+}
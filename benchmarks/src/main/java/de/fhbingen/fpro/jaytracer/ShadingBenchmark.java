@@ -0,0 +1,148 @@
+/*
+ * ShadingBenchmark.java
+ * 26/10/19
+ *
+ * University of Applied Sciences
+ * Bingen, Germany
+ *
+ * FPro Project "Jaytracer"
+ *
+ * Author:
+ * M S
+ *
+ */
+package de.fhbingen.fpro.jaytracer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.vecmath.Color3f;
+import javax.vecmath.Point3d;
+import javax.vecmath.Vector3d;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the shading of an intersection depending on the number of lights:
+ * <ul>
+ * <li><code>shade</code>: {@link Shader#Shader(Scene, Intersection)}, which
+ * traces a shadow ray to every light, and {@link Shader#getColor()},</li>
+ * <li><code>getColor</code>: only {@link Shader#getColor()} of shaders, that
+ * are created in the setup.</li>
+ * </ul>
+ * The scene is a sphere on a plane, the lights are arranged in a ring above
+ * it. The intersections are a fixed set of hits of the sphere and the plane,
+ * so some of them lie in the shadow of the sphere. The time is per
+ * intersection.
+ *
+ * @author M S
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class ShadingBenchmark {
+
+    /** The number of intersections */
+    static final int INTERSECTIONS = 256;
+
+    /** The number of lights */
+    @Param({ "0", "1", "2", "4", "8" })
+    public int lights;
+
+    /** The scene */
+    private Scene scene;
+
+    /** The intersections */
+    private Intersection[] intersections;
+
+    /** The shaders of the intersections */
+    private Shader[] shaders;
+
+    /**
+     * Creates the scene, the intersections and their shaders.
+     */
+    @Setup
+    public void setUp() {
+        scene = new Scene();
+        Sphere sphere = new Sphere(new Point3d(0, 0, 0), 1);
+        sphere.setMaterial(createMaterial(new Color3f(0.8f, 0.2f, 0.2f)));
+        scene.addSceneObject(sphere);
+        Plane plane = new Plane(new Point3d(0, 0, -1), new Vector3d(0, 0, 1));
+        plane.setMaterial(createMaterial(new Color3f(0.6f, 0.6f, 0.6f)));
+        scene.addSceneObject(plane);
+        for(int l = 0; l < lights; ++l) {
+            double angle = 2 * Math.PI * l / lights;
+            scene.addLight(new Light(new Point3d(6 * Math.cos(angle), 6 * Math.sin(angle), 5)));
+        }
+
+        // rays from a point in front of the sphere to the sphere and the plane around it
+        Random random = new Random(42);
+        Point3d eye = new Point3d(0, -6, 2);
+        List<Intersection> hits = new ArrayList<Intersection>();
+        while(hits.size() < INTERSECTIONS) {
+            Point3d target = new Point3d(-3 + 6 * random.nextDouble(), -3 + 6 * random.nextDouble(), -1);
+            Vector3d direction = new Vector3d();
+            direction.sub(target, eye);
+            Intersection intersection = scene.getNearestIntersection(new XRay(eye, direction, scene));
+            if(intersection != null) {
+                hits.add(intersection);
+            }
+        }
+        intersections = hits.toArray(new Intersection[INTERSECTIONS]);
+        shaders = new Shader[INTERSECTIONS];
+        for(int i = 0; i < INTERSECTIONS; ++i) {
+            shaders[i] = new Shader(scene, intersections[i]);
+        }
+    }
+
+    /**
+     * Shades all intersections including their shadow rays.
+     * @param blackhole Consumes the colors.
+     */
+    @Benchmark
+    @OperationsPerInvocation(INTERSECTIONS)
+    public void shade(Blackhole blackhole) {
+        for(Intersection intersection : intersections) {
+            blackhole.consume(new Shader(scene, intersection).getColor());
+        }
+    }
+
+    /**
+     * Computes the colors of all intersections, whose lights are known.
+     * @param blackhole Consumes the colors.
+     */
+    @Benchmark
+    @OperationsPerInvocation(INTERSECTIONS)
+    public void getColor(Blackhole blackhole) {
+        for(Shader shader : shaders) {
+            blackhole.consume(shader.getColor());
+        }
+    }
+
+    /**
+     * @return a material with the given diffuse color and a specular highlight.
+     */
+    private static Material createMaterial(Color3f diffuse) {
+        Material material = new Material();
+        material.setDiffuse(diffuse);
+        material.setSpecular(new Color3f(1, 1, 1));
+        return material;
+    }
+}